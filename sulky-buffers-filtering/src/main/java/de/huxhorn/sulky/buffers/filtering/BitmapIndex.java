@@ -0,0 +1,557 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers.filtering;
+
+import de.huxhorn.sulky.buffers.AbstractElementIndex;
+import de.huxhorn.sulky.buffers.FlushOperation;
+import de.huxhorn.sulky.conditions.And;
+import de.huxhorn.sulky.conditions.BooleanValues;
+import de.huxhorn.sulky.conditions.CompiledCondition;
+import de.huxhorn.sulky.conditions.Condition;
+import de.huxhorn.sulky.conditions.ConditionOptimizer;
+import de.huxhorn.sulky.conditions.Not;
+import de.huxhorn.sulky.conditions.Or;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A secondary index maintaining a LongBitmap of element indices for every value of the declared IndexedFields.
+ *
+ * An element that has been set replaces the bits of the previous element at the same index, so FilteringBuffers
+ * can rely on exact matches even for sparse buffers or buffers whose elements have been replaced.
+ * Not and BooleanValues.TRUE only match indices of non-null elements, like a scan of the buffer.
+ *
+ * The index is persisted to its file by flush(). If the file already exists and has been written for the same
+ * fields, it is loaded by the constructor. Call synchronize(Buffer) afterwards to index elements that have been
+ * added to the buffer without updating the index.
+ *
+ * A FilteringBuffer using a BitmapIndex answers And, Or and Not combinations of conditions resolved by the
+ * fields by bitmap algebra and only evaluates the remaining conditions on the candidates.
+ *
+ * @param <E> the type of the elements.
+ */
+public class BitmapIndex<E>
+	extends AbstractElementIndex<E>
+	implements FlushOperation
+{
+	private final Logger logger = LoggerFactory.getLogger(BitmapIndex.class);
+
+	/**
+	 * The file extension used by getDefaultFile.
+	 */
+	public static final String BITMAP_EXTENSION = ".bitmaps";
+
+	private static final int MAGIC_VALUE = 0x0B17_3A95;
+	private static final int VERSION = 2;
+
+	private final List<IndexedField<E>> fields;
+	private final ReadWriteLock readWriteLock;
+	private final List<Map<Object, LongBitmap>> bitmaps;
+	/**
+	 * The indices of all non-null elements.
+	 */
+	private LongBitmap present;
+	private long indexedCount;
+
+	/**
+	 * @param file the file used to persist the index, may be null if the index isn't persisted.
+	 * @param fields the indexed fields.
+	 */
+	public BitmapIndex(File file, List<IndexedField<E>> fields)
+	{
+		super(file);
+		Objects.requireNonNull(fields, "fields must not be null!");
+		this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+		this.readWriteLock = new ReentrantReadWriteLock(true);
+		this.bitmaps = new ArrayList<>();
+		this.present = new LongBitmap();
+		for(int i = 0; i < this.fields.size(); i++)
+		{
+			bitmaps.add(new HashMap<>());
+		}
+		load();
+	}
+
+	/**
+	 * @param dataFile the data file of a buffer.
+	 * @return a file next to the data file using the same name and BITMAP_EXTENSION.
+	 */
+	public static File getDefaultFile(File dataFile)
+	{
+		return getDefaultFile(dataFile, BITMAP_EXTENSION);
+	}
+
+	public List<IndexedField<E>> getFields()
+	{
+		return fields;
+	}
+
+	@Override
+	public long getIndexedCount()
+	{
+		Lock lock = readWriteLock.readLock();
+		lock.lock();
+		try
+		{
+			return indexedCount;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void processElement(E element)
+	{
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try
+		{
+			internalAdd(element);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void processElements(List<E> elements)
+	{
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try
+		{
+			for(E element : elements)
+			{
+				internalAdd(element);
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the previous element at the given index from the bitmaps before indexing the element.
+	 * Indices between the indexed elements and the given index don't contain any element.
+	 */
+	@Override
+	public void processElement(long index, E element)
+	{
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try
+		{
+			if(index < indexedCount)
+			{
+				present.remove(index);
+				for(Map<Object, LongBitmap> current : bitmaps)
+				{
+					for(LongBitmap bitmap : current.values())
+					{
+						bitmap.remove(index);
+					}
+				}
+			}
+			internalAdd(index, element);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Evaluates the condition using the bitmaps.
+	 *
+	 * @param condition the condition to evaluate.
+	 * @return the matching indices or null if the condition can't be narrowed down using the index.
+	 */
+	public Match evaluate(Condition condition)
+	{
+		if(condition instanceof CompiledCondition)
+		{
+			condition = ((CompiledCondition) condition).getCondition();
+		}
+		Condition optimized = ConditionOptimizer.optimize(condition);
+		Lock lock = readWriteLock.readLock();
+		lock.lock();
+		try
+		{
+			return resolve(optimized);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void reset()
+	{
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try
+		{
+			for(Map<Object, LongBitmap> current : bitmaps)
+			{
+				current.clear();
+			}
+			present = new LongBitmap();
+			indexedCount = 0;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		deleteFile();
+	}
+
+	/**
+	 * Writes the index to its file, if available.
+	 */
+	@Override
+	public void flush()
+	{
+		File file = getFile();
+		if(file == null)
+		{
+			return;
+		}
+		Throwable throwable = null;
+		Lock lock = readWriteLock.readLock();
+		lock.lock();
+		try
+		{
+			File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+			try(ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))))
+			{
+				write(output);
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(IOException e)
+		{
+			throwable = e;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		if(throwable != null)
+		{
+			// it's a really bad idea to log while locked *sigh*
+			if(logger.isWarnEnabled()) logger.warn("Couldn't write index to {}!", file.getAbsolutePath(), throwable);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "BitmapIndex[file=" + getFile() + ", fields=" + fields.size() + ", indexedCount=" + getIndexedCount() + "]";
+	}
+
+	private void internalAdd(E element)
+	{
+		internalAdd(indexedCount, element);
+	}
+
+	/**
+	 * Must be called while holding the write lock.
+	 */
+	private void internalAdd(long index, E element)
+	{
+		if(index >= indexedCount)
+		{
+			indexedCount = index + 1;
+		}
+		if(element == null)
+		{
+			return;
+		}
+		present.add(index);
+		for(int i = 0; i < fields.size(); i++)
+		{
+			Object value = fields.get(i).extractValue(element);
+			if(value != null)
+			{
+				bitmaps.get(i).computeIfAbsent(value, key -> new LongBitmap()).add(index);
+			}
+		}
+	}
+
+	/**
+	 * Must be called while holding the read lock.
+	 */
+	private Match resolve(Condition condition)
+	{
+		if(condition == null)
+		{
+			return null;
+		}
+		if(condition instanceof BooleanValues)
+		{
+			if(condition.isTrue(null))
+			{
+				return new Match(present.copy(), true, indexedCount);
+			}
+			return new Match(new LongBitmap(), true, indexedCount);
+		}
+		Class<?> conditionClass = condition.getClass();
+		if(conditionClass == And.class)
+		{
+			return resolveAnd(((And) condition).getConditions());
+		}
+		if(conditionClass == Or.class)
+		{
+			return resolveOr(((Or) condition).getConditions());
+		}
+		if(conditionClass == Not.class)
+		{
+			Match inner = resolve(((Not) condition).getCondition());
+			if(inner == null || !inner.exact)
+			{
+				return null;
+			}
+			return new Match(present.andNot(inner.indices), true, indexedCount);
+		}
+		for(int i = 0; i < fields.size(); i++)
+		{
+			Collection<?> values = fields.get(i).resolveValues(condition);
+			if(values != null)
+			{
+				Map<Object, LongBitmap> fieldBitmaps = bitmaps.get(i);
+				LongBitmap result = new LongBitmap();
+				for(Object value : values)
+				{
+					LongBitmap current = fieldBitmaps.get(value);
+					if(current != null)
+					{
+						result = result.or(current);
+					}
+				}
+				return new Match(result, true, indexedCount);
+			}
+		}
+		return null;
+	}
+
+	private Match resolveAnd(List<Condition> conditions)
+	{
+		LongBitmap result = null;
+		boolean exact = true;
+		for(Condition current : conditions)
+		{
+			Match match = resolve(current);
+			if(match == null)
+			{
+				exact = false;
+				continue;
+			}
+			exact = exact && match.exact;
+			result = result == null ? match.indices : result.and(match.indices);
+		}
+		if(result == null)
+		{
+			return null;
+		}
+		return new Match(result, exact, indexedCount);
+	}
+
+	private Match resolveOr(List<Condition> conditions)
+	{
+		LongBitmap result = new LongBitmap();
+		boolean exact = true;
+		for(Condition current : conditions)
+		{
+			Match match = resolve(current);
+			if(match == null)
+			{
+				// any element could match
+				return null;
+			}
+			exact = exact && match.exact;
+			result = result.or(match.indices);
+		}
+		return new Match(result, exact, indexedCount);
+	}
+
+	private void write(ObjectOutputStream output)
+		throws IOException
+	{
+		output.writeInt(MAGIC_VALUE);
+		output.writeInt(VERSION);
+		output.writeLong(indexedCount);
+		present.write(output);
+		output.writeInt(fields.size());
+		for(int i = 0; i < fields.size(); i++)
+		{
+			output.writeUTF(fields.get(i).getName());
+			Map<Object, LongBitmap> fieldBitmaps = bitmaps.get(i);
+			output.writeInt(fieldBitmaps.size());
+			for(Map.Entry<Object, LongBitmap> current : fieldBitmaps.entrySet())
+			{
+				output.writeObject(current.getKey());
+				current.getValue().write(output);
+			}
+		}
+	}
+
+	private void load()
+	{
+		File file = getFile();
+		if(file == null || !file.isFile())
+		{
+			return;
+		}
+		Throwable throwable = null;
+		try(ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if(input.readInt() != MAGIC_VALUE || input.readInt() != VERSION)
+			{
+				throw new IOException("Invalid magic value or version!");
+			}
+			long count = input.readLong();
+			LongBitmap loadedPresent = LongBitmap.read(input);
+			int fieldCount = input.readInt();
+			if(fieldCount != fields.size())
+			{
+				throw new IOException("Expected " + fields.size() + " fields but found " + fieldCount + "!");
+			}
+			List<Map<Object, LongBitmap>> loaded = new ArrayList<>();
+			for(int i = 0; i < fieldCount; i++)
+			{
+				String name = input.readUTF();
+				if(!name.equals(fields.get(i).getName()))
+				{
+					throw new IOException("Expected field " + fields.get(i).getName() + " but found " + name + "!");
+				}
+				int valueCount = input.readInt();
+				Map<Object, LongBitmap> fieldBitmaps = new HashMap<>();
+				for(int j = 0; j < valueCount; j++)
+				{
+					Object value = input.readObject();
+					fieldBitmaps.put(value, LongBitmap.read(input));
+				}
+				loaded.add(fieldBitmaps);
+			}
+			for(int i = 0; i < fieldCount; i++)
+			{
+				bitmaps.get(i).putAll(loaded.get(i));
+			}
+			present = loadedPresent;
+			indexedCount = count;
+		}
+		catch(IOException | ClassNotFoundException e)
+		{
+			throwable = e;
+		}
+		if(throwable != null)
+		{
+			if(logger.isWarnEnabled()) logger.warn("Couldn't load index from {}, ignoring it.", file.getAbsolutePath(), throwable);
+		}
+	}
+
+	/**
+	 * The result of evaluating a condition using a BitmapIndex.
+	 */
+	public static final class Match
+	{
+		private final LongBitmap indices;
+		private final boolean exact;
+		private final long indexedCount;
+
+		Match(LongBitmap indices, boolean exact, long indexedCount)
+		{
+			this.indices = indices;
+			this.exact = exact;
+			this.indexedCount = indexedCount;
+		}
+
+		/**
+		 * @return the matching indices if exact, otherwise the candidates that might match.
+		 */
+		public LongBitmap getIndices()
+		{
+			return indices;
+		}
+
+		/**
+		 * @return true if all indices match the condition, false if the candidates have to be evaluated.
+		 */
+		public boolean isExact()
+		{
+			return exact;
+		}
+
+		/**
+		 * @return the number of indexed elements at the time of the evaluation, i.e. all elements below
+		 * this index that aren't contained in getIndices() don't match.
+		 */
+		public long getIndexedCount()
+		{
+			return indexedCount;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Match[indices=" + indices + ", exact=" + exact + ", indexedCount=" + indexedCount + "]";
+		}
+	}
+}
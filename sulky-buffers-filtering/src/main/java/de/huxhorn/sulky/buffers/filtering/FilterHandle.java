@@ -0,0 +1,141 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers.filtering;
+
+import de.huxhorn.sulky.buffers.Buffer;
+import de.huxhorn.sulky.buffers.DisposeOperation;
+import de.huxhorn.sulky.buffers.SizeChangeListener;
+import de.huxhorn.sulky.buffers.SizeChangeOperation;
+import de.huxhorn.sulky.conditions.Condition;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A reference to a FilteringBuffer that is shared by all handles acquired from a FilterRegistry
+ * for the same source buffer and Condition.
+ *
+ * Disposing a handle releases the reference. The shared FilteringBuffer is disposed as soon as
+ * all handles have been disposed.
+ *
+ * @param <E> the type of the elements.
+ */
+public final class FilterHandle<E>
+	implements Buffer<E>, DisposeOperation, SizeChangeOperation
+{
+	private final FilterRegistry<E> registry;
+	private final FilteringBuffer<E> filteringBuffer;
+	private final AtomicBoolean disposed;
+
+	FilterHandle(FilterRegistry<E> registry, FilteringBuffer<E> filteringBuffer)
+	{
+		this.registry = registry;
+		this.filteringBuffer = filteringBuffer;
+		this.disposed = new AtomicBoolean();
+	}
+
+	public FilteringBuffer<E> getFilteringBuffer()
+	{
+		return filteringBuffer;
+	}
+
+	public Buffer<E> getSourceBuffer()
+	{
+		return filteringBuffer.getSourceBuffer();
+	}
+
+	public Condition getCondition()
+	{
+		return filteringBuffer.getCondition();
+	}
+
+	public long getSourceIndex(long index)
+	{
+		return filteringBuffer.getSourceIndex(index);
+	}
+
+	@Override
+	public E get(long index)
+	{
+		return filteringBuffer.get(index);
+	}
+
+	@Override
+	public long getSize()
+	{
+		return filteringBuffer.getSize();
+	}
+
+	@Override
+	public Iterator<E> iterator()
+	{
+		return filteringBuffer.iterator();
+	}
+
+	@Override
+	public void addSizeChangeListener(SizeChangeListener listener)
+	{
+		filteringBuffer.addSizeChangeListener(listener);
+	}
+
+	@Override
+	public void removeSizeChangeListener(SizeChangeListener listener)
+	{
+		filteringBuffer.removeSizeChangeListener(listener);
+	}
+
+	/**
+	 * Releases this handle. Subsequent calls don't have any effect.
+	 */
+	@Override
+	public void dispose()
+	{
+		if(disposed.compareAndSet(false, true))
+		{
+			registry.release(filteringBuffer);
+		}
+	}
+
+	@Override
+	public boolean isDisposed()
+	{
+		return disposed.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "FilterHandle[condition=" + filteringBuffer.getCondition() + ", disposed=" + disposed.get() + "]";
+	}
+}
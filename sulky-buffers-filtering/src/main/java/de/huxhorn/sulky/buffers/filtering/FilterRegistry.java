@@ -0,0 +1,311 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers.filtering;
+
+import de.huxhorn.sulky.buffers.Buffer;
+import de.huxhorn.sulky.conditions.And;
+import de.huxhorn.sulky.conditions.Condition;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares the results of filters between all views using the same source buffer and Condition.
+ *
+ * Source buffers are compared by identity while Conditions are compared using equals and hashCode.
+ * Every call of acquire returns a new FilterHandle. The filter is executed once using a FilteringCallable
+ * submitted to the given ExecutorService and is stopped after all handles for it have been disposed.
+ *
+ * If a new filter uses an And condition and a filter for one of its conditions, or for an And containing
+ * only some of its conditions, is already registered, the new filter is seeded from the smallest such
+ * result so only the elements matched by it have to be evaluated again.
+ *
+ * @param <E> the type of the elements.
+ */
+public class FilterRegistry<E>
+{
+	private final Logger logger = LoggerFactory.getLogger(FilterRegistry.class);
+
+	private final ExecutorService executorService;
+	private final int filterDelay;
+	private final ForkJoinPool pool;
+	private final Lock lock;
+	private final Map<Key, Entry<E>> entries;
+
+	public FilterRegistry(ExecutorService executorService, int filterDelay)
+	{
+		this(executorService, filterDelay, null);
+	}
+
+	/**
+	 * @param executorService the ExecutorService executing the FilteringCallables.
+	 * @param filterDelay the filterDelay of the FilteringCallables.
+	 * @param pool the pool used by the FilteringCallables to filter in parallel, null to filter sequentially.
+	 */
+	public FilterRegistry(ExecutorService executorService, int filterDelay, ForkJoinPool pool)
+	{
+		this.executorService = Objects.requireNonNull(executorService, "executorService must not be null!");
+		this.filterDelay = filterDelay;
+		this.pool = pool;
+		this.lock = new ReentrantLock();
+		this.entries = new HashMap<>();
+	}
+
+	/**
+	 * Returns a handle for the filter of the given source buffer and condition, starting the filter if necessary.
+	 *
+	 * The condition is cloned, if possible, so later changes of it don't affect the registered filter.
+	 *
+	 * @param sourceBuffer the buffer to filter.
+	 * @param condition the condition of the filter.
+	 * @return a new handle that must be disposed if it's not used anymore.
+	 */
+	public FilterHandle<E> acquire(Buffer<E> sourceBuffer, Condition condition)
+	{
+		Objects.requireNonNull(sourceBuffer, "sourceBuffer must not be null!");
+		Objects.requireNonNull(condition, "condition must not be null!");
+		Condition registeredCondition = cloneCondition(condition);
+		Key key = new Key(sourceBuffer, registeredCondition);
+		FilteringBuffer<E> superset = null;
+		Entry<E> entry;
+		boolean created = false;
+		lock.lock();
+		try
+		{
+			entry = entries.get(key);
+			if(entry == null)
+			{
+				superset = findSuperset(sourceBuffer, registeredCondition);
+				entry = new Entry<>(new FilteringBuffer<>(sourceBuffer, registeredCondition));
+				entries.put(key, entry);
+				created = true;
+			}
+			entry.referenceCount++;
+			if(created)
+			{
+				entry.future = executorService.submit(new SeedingCallable<>(entry.filteringBuffer, superset, filterDelay, pool));
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		if(created)
+		{
+			if(logger.isDebugEnabled()) logger.debug("Started filter for {} (superset={}).", registeredCondition, superset != null ? superset.getCondition() : null);
+		}
+		return new FilterHandle<>(this, entry.filteringBuffer);
+	}
+
+	/**
+	 * @return the number of filters that are currently registered.
+	 */
+	public int getFilterCount()
+	{
+		lock.lock();
+		try
+		{
+			return entries.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	void release(FilteringBuffer<E> filteringBuffer)
+	{
+		Key key = new Key(filteringBuffer.getSourceBuffer(), filteringBuffer.getCondition());
+		Entry<E> removed = null;
+		lock.lock();
+		try
+		{
+			Entry<E> entry = entries.get(key);
+			if(entry != null && entry.filteringBuffer == filteringBuffer)
+			{
+				entry.referenceCount--;
+				if(entry.referenceCount == 0)
+				{
+					entries.remove(key);
+					removed = entry;
+				}
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		if(removed != null)
+		{
+			removed.filteringBuffer.dispose();
+			removed.future.cancel(true);
+			if(logger.isDebugEnabled()) logger.debug("Stopped filter for {}.", removed.filteringBuffer.getCondition());
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock.
+	 */
+	private FilteringBuffer<E> findSuperset(Buffer<E> sourceBuffer, Condition condition)
+	{
+		if(!(condition instanceof And))
+		{
+			return null;
+		}
+		List<Condition> conditions = ((And) condition).getConditions();
+		if(conditions == null || conditions.isEmpty())
+		{
+			return null;
+		}
+		FilteringBuffer<E> result = null;
+		for(Map.Entry<Key, Entry<E>> current : entries.entrySet())
+		{
+			Key key = current.getKey();
+			if(key.sourceBuffer != sourceBuffer || !isImpliedBy(key.condition, conditions))
+			{
+				continue;
+			}
+			FilteringBuffer<E> candidate = current.getValue().filteringBuffer;
+			if(result == null || candidate.getSize() < result.getSize())
+			{
+				result = candidate;
+			}
+		}
+		return result;
+	}
+
+	private static boolean isImpliedBy(Condition candidate, List<Condition> conditions)
+	{
+		if(conditions.contains(candidate))
+		{
+			return true;
+		}
+		if(candidate instanceof And)
+		{
+			List<Condition> candidateConditions = ((And) candidate).getConditions();
+			return candidateConditions != null && !candidateConditions.isEmpty() && conditions.containsAll(candidateConditions);
+		}
+		return false;
+	}
+
+	private Condition cloneCondition(Condition condition)
+	{
+		try
+		{
+			return condition.clone();
+		}
+		catch(CloneNotSupportedException e)
+		{
+			if(logger.isDebugEnabled()) logger.debug("Couldn't clone {}, using it as is.", condition, e);
+			return condition;
+		}
+	}
+
+	private static class Key
+	{
+		final Buffer<?> sourceBuffer;
+		final Condition condition;
+		private final int hashCode;
+
+		Key(Buffer<?> sourceBuffer, Condition condition)
+		{
+			this.sourceBuffer = sourceBuffer;
+			this.condition = condition;
+			this.hashCode = 31 * System.identityHashCode(sourceBuffer) + condition.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(this == o) return true;
+			if(o == null || getClass() != o.getClass()) return false;
+
+			final Key key = (Key) o;
+
+			return sourceBuffer == key.sourceBuffer && condition.equals(key.condition);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+	}
+
+	private static class Entry<E>
+	{
+		final FilteringBuffer<E> filteringBuffer;
+		int referenceCount;
+		Future<Long> future;
+
+		Entry(FilteringBuffer<E> filteringBuffer)
+		{
+			this.filteringBuffer = filteringBuffer;
+		}
+	}
+
+	private static class SeedingCallable<E>
+		extends FilteringCallable<E>
+	{
+		private final FilteringBuffer<E> filteringBuffer;
+		private final FilteringBuffer<E> superset;
+
+		SeedingCallable(FilteringBuffer<E> filteringBuffer, FilteringBuffer<E> superset, int filterDelay, ForkJoinPool pool)
+		{
+			super(filteringBuffer, filterDelay, pool);
+			this.filteringBuffer = filteringBuffer;
+			this.superset = superset;
+		}
+
+		@Override
+		public Long call()
+			throws Exception
+		{
+			if(superset != null)
+			{
+				filteringBuffer.seed(superset);
+			}
+			return super.call();
+		}
+	}
+}
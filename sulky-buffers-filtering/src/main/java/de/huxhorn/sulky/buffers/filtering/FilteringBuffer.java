@@ -37,34 +37,62 @@ package de.huxhorn.sulky.buffers.filtering;
 import de.huxhorn.sulky.buffers.BasicBufferIterator;
 import de.huxhorn.sulky.buffers.Buffer;
 import de.huxhorn.sulky.buffers.DisposeOperation;
+import de.huxhorn.sulky.buffers.GetRange;
 import de.huxhorn.sulky.buffers.Reset;
 import de.huxhorn.sulky.buffers.ResetOperation;
+import de.huxhorn.sulky.buffers.SizeChangeListener;
+import de.huxhorn.sulky.buffers.SizeChangeOperation;
+import de.huxhorn.sulky.buffers.SizeChangeSupport;
 import de.huxhorn.sulky.conditions.Condition;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Registered SizeChangeListeners are notified after filtered indices have been added or cleared
+ * and after the buffer has been disposed.
+ *
+ * @param <E> the type of the elements.
+ */
 public class FilteringBuffer<E>
-	implements Buffer<E>, DisposeOperation, ResetOperation
+	implements Buffer<E>, DisposeOperation, ResetOperation, SizeChangeOperation
 {
 	private final Logger logger = LoggerFactory.getLogger(FilteringBuffer.class);
 
 	private final Buffer<E> sourceBuffer;
 	private final Condition condition;
-	private final ReentrantReadWriteLock indicesLock;
-	private final List<Long> filteredIndices;
-	private boolean disposed;
+	private final BitmapIndex<E> bitmapIndex;
+	/**
+	 * Only guards modifications of filteredIndices. Readers don't need to lock at all.
+	 */
+	private final Lock indicesLock;
+	private volatile LongIndexStore filteredIndices;
+	private final SizeChangeSupport sizeChangeSupport;
+	private volatile boolean disposed;
 
 	public FilteringBuffer(Buffer<E> sourceBuffer, Condition condition)
 	{
-		this.indicesLock = new ReentrantReadWriteLock(true);
+		this(sourceBuffer, condition, null);
+	}
+
+	/**
+	 * @param sourceBuffer the buffer to filter.
+	 * @param condition the condition of the filter.
+	 * @param bitmapIndex an index of sourceBuffer used to seed the filtered indices, may be null.
+	 */
+	public FilteringBuffer(Buffer<E> sourceBuffer, Condition condition, BitmapIndex<E> bitmapIndex)
+	{
+		this.bitmapIndex = bitmapIndex;
+		this.indicesLock = new ReentrantLock();
 		this.sourceBuffer = Objects.requireNonNull(sourceBuffer, "sourceBuffer must not be null!");
 		this.condition = Objects.requireNonNull(condition, "condition must not be null!");
-		this.filteredIndices = new ArrayList<>();
+		this.filteredIndices = new LongIndexStore();
+		this.sizeChangeSupport = new SizeChangeSupport(this);
 		this.disposed = false;
 	}
 
@@ -81,70 +109,201 @@ public class FilteringBuffer<E>
 
 	public long getSourceIndex(long index)
 	{
-		long realIndex = -1;
+		return filteredIndices.get(index);
+	}
+
+	@Override
+	public long getSize()
+	{
+		return filteredIndices.size();
+	}
+
+	public void addFilteredIndex(long index)
+	{
+		long size = sourceBuffer.getSize();
+		if(index < 0 || index >= sourceBuffer.getSize())
+		{
+			if(logger.isInfoEnabled()) logger.info("Invalid filtered index {} (size={})!", index, size); // NOPMD
+		}
+		indicesLock.lock();
+		try
+		{
+			filteredIndices.add(index);
+		}
+		finally
+		{
+			indicesLock.unlock();
+		}
+		sizeChangeSupport.fireSizeChanged();
+	}
 
-		ReentrantReadWriteLock.ReadLock lock = indicesLock.readLock();
-		lock.lock();
+	/**
+	 * Adds the first count indices of the given array using a single lock acquisition.
+	 *
+	 * @param indices the indices to add, in source order.
+	 * @param count the number of indices to add.
+	 */
+	public void addFilteredIndices(long[] indices, int count)
+	{
+		if(count <= 0)
+		{
+			return;
+		}
+		indicesLock.lock();
 		try
 		{
-			if(index >= 0 && index < filteredIndices.size())
+			for(int i = 0; i < count; i++)
 			{
-				realIndex = filteredIndices.get((int) index);
+				filteredIndices.add(indices[i]);
 			}
 		}
 		finally
 		{
-			lock.unlock();
+			indicesLock.unlock();
 		}
-		return realIndex;
+		sizeChangeSupport.fireSizeChanged();
 	}
 
-	@Override
-	public long getSize()
+	/**
+	 * @return the number of source elements that have already been evaluated by the filter.
+	 */
+	public long getScannedCount()
+	{
+		return filteredIndices.getScannedCount();
+	}
+
+	/**
+	 * Must be called after all matching indices below scannedCount have been added.
+	 *
+	 * @param scannedCount the number of source elements that have been evaluated.
+	 */
+	void setScannedCount(long scannedCount)
+	{
+		filteredIndices.setScannedCount(scannedCount);
+	}
+
+	/**
+	 * Initializes the filtered indices of this buffer using the result of a filter over the same source buffer
+	 * that matches at least all elements matched by this buffer.
+	 *
+	 * Only the elements matched by the superset are evaluated. Must be called before any index has been added.
+	 *
+	 * @param superset a FilteringBuffer whose condition is implied by the condition of this buffer.
+	 */
+	void seed(FilteringBuffer<E> superset)
 	{
-		ReentrantReadWriteLock.ReadLock lock = indicesLock.readLock();
-		lock.lock();
+		if(superset.getSourceBuffer() != sourceBuffer)
+		{
+			throw new IllegalArgumentException("superset must use the same source buffer!");
+		}
+		// a single store is used so scannedCount and indices are consistent even if superset is cleared.
+		LongIndexStore supersetIndices = superset.filteredIndices;
+		long scanned = supersetIndices.getScannedCount();
+		long supersetSize = supersetIndices.size();
+		LongIndexStore seeded = new LongIndexStore();
+		for(long i = 0; i < supersetSize; i++)
+		{
+			long index = supersetIndices.get(i);
+			if(index >= scanned)
+			{
+				break;
+			}
+			E element = sourceBuffer.get(index);
+			if(element != null && condition.isTrue(element))
+			{
+				seeded.add(index);
+			}
+		}
+		seeded.setScannedCount(scanned);
+		indicesLock.lock();
 		try
 		{
-			return filteredIndices.size();
+			filteredIndices = seeded;
 		}
 		finally
 		{
-			lock.unlock();
+			indicesLock.unlock();
 		}
+		if(logger.isDebugEnabled()) logger.debug("Seeded {} of {} indices from superset.", seeded.size(), supersetSize);
+		sizeChangeSupport.fireSizeChanged();
 	}
 
-	public void addFilteredIndex(long index)
+	/**
+	 * Initializes the filtered indices of this buffer using the BitmapIndex, if available.
+	 *
+	 * If the index can answer the condition exactly, no element is evaluated at all. Otherwise, the condition
+	 * is evaluated for the candidates returned by the index. Must be called before any index has been added.
+	 *
+	 * @return true if the filtered indices have been seeded.
+	 */
+	boolean seedFromIndex()
 	{
-		long size = sourceBuffer.getSize();
-		if(index < 0 || index >= sourceBuffer.getSize())
+		if(bitmapIndex == null)
 		{
-			if(logger.isInfoEnabled()) logger.info("Invalid filtered index {} (size={})!", index, size); // NOPMD
+			return false;
+		}
+		BitmapIndex.Match match = bitmapIndex.evaluate(condition);
+		if(match == null)
+		{
+			return false;
+		}
+		long indexedCount = match.getIndexedCount();
+		if(indexedCount > sourceBuffer.getSize())
+		{
+			if(logger.isInfoEnabled()) logger.info("Ignoring index containing {} elements for source buffer of size {}.", indexedCount, sourceBuffer.getSize()); // NOPMD
+			return false;
 		}
-		ReentrantReadWriteLock.WriteLock lock = indicesLock.writeLock();
-		lock.lock();
+		LongIndexStore seeded = new LongIndexStore();
+		if(match.isExact())
+		{
+			match.getIndices().forEach(seeded::add);
+		}
+		else
+		{
+			CandidateEvaluator evaluator = new CandidateEvaluator(seeded);
+			match.getIndices().forEach(evaluator);
+			evaluator.flush();
+		}
+		seeded.setScannedCount(indexedCount);
+		indicesLock.lock();
 		try
 		{
-			filteredIndices.add(index);
+			filteredIndices = seeded;
 		}
 		finally
 		{
-			lock.unlock();
+			indicesLock.unlock();
 		}
+		if(logger.isDebugEnabled()) logger.debug("Seeded {} indices from {} (exact={}).", seeded.size(), bitmapIndex, match.isExact());
+		sizeChangeSupport.fireSizeChanged();
+		return true;
 	}
 
 	public void clearFilteredIndices()
 	{
-		ReentrantReadWriteLock.WriteLock lock = indicesLock.writeLock();
-		lock.lock();
+		indicesLock.lock();
 		try
 		{
-			filteredIndices.clear();
+			// readers still using the previous store see a consistent state.
+			filteredIndices = new LongIndexStore();
 		}
 		finally
 		{
-			lock.unlock();
+			indicesLock.unlock();
 		}
+		sizeChangeSupport.fireSizeChanged();
+	}
+
+	@Override
+	public void addSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.addSizeChangeListener(listener);
+	}
+
+	@Override
+	public void removeSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.removeSizeChangeListener(listener);
 	}
 
 	@Override
@@ -163,10 +322,16 @@ public class FilteringBuffer<E>
 		return condition;
 	}
 
+	public BitmapIndex<E> getBitmapIndex()
+	{
+		return bitmapIndex;
+	}
+
 	@Override
 	public void dispose()
 	{
 		this.disposed = true;
+		sizeChangeSupport.fireSizeChanged();
 	}
 
 	@Override
@@ -185,6 +350,72 @@ public class FilteringBuffer<E>
 		}
 	}
 
+	/**
+	 * Evaluates the condition for batches of candidate indices. Dense batches are read using a single range read.
+	 */
+	private class CandidateEvaluator
+		implements LongConsumer
+	{
+		private final LongIndexStore target;
+		private final long[] candidates;
+		private int candidateCount;
+
+		CandidateEvaluator(LongIndexStore target)
+		{
+			this.target = target;
+			this.candidates = new long[FilteringCallable.CHUNK_SIZE];
+		}
+
+		@Override
+		public void accept(long index)
+		{
+			candidates[candidateCount] = index;
+			candidateCount++;
+			if(candidateCount == candidates.length)
+			{
+				flush();
+			}
+		}
+
+		void flush()
+		{
+			if(candidateCount == 0)
+			{
+				return;
+			}
+			long first = candidates[0];
+			long span = candidates[candidateCount - 1] - first + 1;
+			if(span <= 4L * candidateCount)
+			{
+				List<E> elements = GetRange.getRange(sourceBuffer, first, (int) span);
+				for(int i = 0; i < candidateCount; i++)
+				{
+					long offset = candidates[i] - first;
+					if(offset < elements.size())
+					{
+						evaluate(candidates[i], elements.get((int) offset));
+					}
+				}
+			}
+			else
+			{
+				for(int i = 0; i < candidateCount; i++)
+				{
+					evaluate(candidates[i], sourceBuffer.get(candidates[i]));
+				}
+			}
+			candidateCount = 0;
+		}
+
+		private void evaluate(long index, E element)
+		{
+			if(element != null && condition.isTrue(element))
+			{
+				target.add(index);
+			}
+		}
+	}
+
 	public static <E> Buffer<E> resolveSourceBuffer(Buffer<E> buffer)
 	{
 		for(;;)
@@ -35,82 +35,323 @@
 package de.huxhorn.sulky.buffers.filtering;
 
 import de.huxhorn.sulky.buffers.Buffer;
+import de.huxhorn.sulky.buffers.GetRange;
+import de.huxhorn.sulky.buffers.SizeChange;
+import de.huxhorn.sulky.buffers.SizeChangeListener;
 import de.huxhorn.sulky.conditions.Condition;
+import de.huxhorn.sulky.conditions.ConditionOptimizer;
 import de.huxhorn.sulky.tasks.AbstractProgressingCallable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Filters the source buffer of a FilteringBuffer, adding the indices of all matching elements.
+ *
+ * If a ForkJoinPool is given, ranges of more than one chunk are filtered in parallel. Chunks are evaluated
+ * on the pool and their matching indices are added to the FilteringBuffer in source order as soon as all
+ * previous chunks have been added. In that case, the Condition must be thread-safe.
+ *
+ * If the source buffer implements SizeChangeOperation, new elements are filtered as soon as they have been
+ * added and the callable waits while the source buffer doesn't change. It still checks the source buffer
+ * every filterDelay milliseconds since changes made by other instances or processes sharing the same
+ * storage are not reported. Otherwise, the source buffer is only checked every filterDelay milliseconds.
+ *
+ * If the FilteringBuffer has a BitmapIndex, the indexed elements are filtered using the index before
+ * filtering the remaining elements.
+ *
+ * The Condition is compiled using ConditionOptimizer once the callable is started, so changes to it
+ * don't have any effect on a running callable.
+ *
+ * @param <E> the type of the elements.
+ */
 public class FilteringCallable<E>
 	extends AbstractProgressingCallable<Long>
 {
+	/**
+	 * The number of elements retrieved from the source buffer at once.
+	 */
+	public static final int CHUNK_SIZE = 1024;
+
+	/**
+	 * The maximum number of chunks per thread of the pool that are evaluated in advance.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
 	private final Logger logger = LoggerFactory.getLogger(FilteringCallable.class);
 
 	private final FilteringBuffer<E> filteringBuffer;
 	private final int filterDelay;
+	private final ForkJoinPool pool;
 	private long lastFilteredElement = -1;
 
 	public FilteringCallable(FilteringBuffer<E> filteringBuffer, int filterDelay)
+	{
+		this(filteringBuffer, filterDelay, null);
+	}
+
+	/**
+	 * @param filteringBuffer the buffer to filter.
+	 * @param filterDelay the delay between checks for new elements in milliseconds. If the source buffer
+	 *                    implements SizeChangeOperation, it's the maximum time between two checks.
+	 * @param pool the pool used to filter in parallel, null to filter on the calling thread.
+	 */
+	public FilteringCallable(FilteringBuffer<E> filteringBuffer, int filterDelay, ForkJoinPool pool)
 	{
 		this.filteringBuffer = Objects.requireNonNull(filteringBuffer, "filteringBuffer must not be null!");
 		this.filterDelay = filterDelay;
+		this.pool = pool;
 	}
 
 	@Override
 	public Long call()
 		throws Exception
 	{
-		for(;;)
+		Buffer<E> sourceBuffer = filteringBuffer.getSourceBuffer();
+		ChangeSignal signal = new ChangeSignal();
+		// register before the first getSize() so no change can be missed.
+		boolean notifying = SizeChange.addSizeChangeListener(sourceBuffer, signal);
+		SizeChange.addSizeChangeListener(filteringBuffer, signal);
+		if(filteringBuffer.getScannedCount() == 0)
 		{
-			Buffer<E> sourceBuffer = filteringBuffer.getSourceBuffer();
-			Condition condition = filteringBuffer.getCondition();
-			boolean disposed = filteringBuffer.isDisposed();
-			if(disposed)
-			{
-				break;
-			}
-			long currentSize = sourceBuffer.getSize();
-			long filterStartIndex = lastFilteredElement + 1;
-			if(filterStartIndex > currentSize)
+			filteringBuffer.seedFromIndex();
+		}
+		// continue after indices that have been seeded already
+		lastFilteredElement = filteringBuffer.getScannedCount() - 1;
+		Condition condition = ConditionOptimizer.compile(filteringBuffer.getCondition());
+		try
+		{
+			for(;;)
 			{
-				filterStartIndex = 0;
-				lastFilteredElement = -1;
-				filteringBuffer.clearFilteredIndices();
-			}
+				signal.reset();
+				boolean disposed = filteringBuffer.isDisposed();
+				if(disposed)
+				{
+					break;
+				}
+				long currentSize = sourceBuffer.getSize();
+				long filterStartIndex = lastFilteredElement + 1;
+				if(filterStartIndex > currentSize)
+				{
+					filterStartIndex = 0;
+					lastFilteredElement = -1;
+					filteringBuffer.clearFilteredIndices();
+				}
 
-			setNumberOfSteps(currentSize);
-			setCurrentStep(filterStartIndex);
+				setNumberOfSteps(currentSize);
+				setCurrentStep(filterStartIndex);
 
-			if(currentSize != filterStartIndex)
-			{
-				for(long i = filterStartIndex; i < currentSize; i++)
+				try
 				{
-					disposed = filteringBuffer.isDisposed();
-					if(disposed)
+					if(currentSize != filterStartIndex)
 					{
-						break;
+						if(pool != null && currentSize - filterStartIndex > CHUNK_SIZE)
+						{
+							filterParallel(sourceBuffer, condition, filterStartIndex, currentSize);
+						}
+						else
+						{
+							filterSequential(sourceBuffer, condition, filterStartIndex, currentSize);
+						}
 					}
-					E current = sourceBuffer.get(i);
-					if(current != null && condition.isTrue(current))
+					if(notifying)
 					{
-						filteringBuffer.addFilteredIndex(i);
-						if(logger.isDebugEnabled()) logger.debug("Added index: {}", i);
+						signal.await(filterDelay);
+					}
+					else
+					{
+						Thread.sleep(filterDelay);
 					}
-					setCurrentStep(i);
-					lastFilteredElement = i;
+				}
+				catch(InterruptedException e)
+				{
+					if(logger.isDebugEnabled()) logger.debug("Interrupted...", e);
+					return lastFilteredElement;
 				}
 			}
-			try
+		}
+		finally
+		{
+			SizeChange.removeSizeChangeListener(sourceBuffer, signal);
+			SizeChange.removeSizeChangeListener(filteringBuffer, signal);
+		}
+		if(logger.isDebugEnabled()) logger.debug("Callable finished.");
+		return lastFilteredElement;
+	}
+
+	private void filterSequential(Buffer<E> sourceBuffer, Condition condition, long startIndex, long endIndex)
+		throws InterruptedException
+	{
+		boolean disposed = false;
+		for(long chunkStart = startIndex; chunkStart < endIndex && !disposed; chunkStart += CHUNK_SIZE)
+		{
+			int chunkCount = (int) Math.min(CHUNK_SIZE, endIndex - chunkStart);
+			List<E> chunk = GetRange.getRange(sourceBuffer, chunkStart, chunkCount);
+			for(int j = 0; j < chunk.size(); j++)
 			{
-				Thread.sleep(filterDelay);
+				disposed = filteringBuffer.isDisposed();
+				if(disposed)
+				{
+					break;
+				}
+				long i = chunkStart + j;
+				E current = chunk.get(j);
+				if(current != null && condition.isTrue(current))
+				{
+					filteringBuffer.addFilteredIndex(i);
+					if(logger.isDebugEnabled()) logger.debug("Added index: {}", i);
+				}
+				setCurrentStep(i);
+				lastFilteredElement = i;
 			}
-			catch(InterruptedException e)
+			filteringBuffer.setScannedCount(lastFilteredElement + 1);
+			if(chunk.size() < chunkCount)
 			{
-				if(logger.isDebugEnabled()) logger.debug("Interrupted...", e);
-				return lastFilteredElement;
+				// source buffer has shrunk
+				break;
 			}
 		}
-		if(logger.isDebugEnabled()) logger.debug("Callable finished.");
-		return lastFilteredElement;
+	}
+
+	private void filterParallel(Buffer<E> sourceBuffer, Condition condition, long startIndex, long endIndex)
+		throws InterruptedException
+	{
+		int maximumInFlight = Math.max(2, pool.getParallelism() * CHUNKS_PER_THREAD);
+		Deque<ForkJoinTask<ChunkResult>> inFlight = new ArrayDeque<>();
+		long nextChunkStart = startIndex;
+		try
+		{
+			for(;;)
+			{
+				while(inFlight.size() < maximumInFlight && nextChunkStart < endIndex)
+				{
+					long chunkStart = nextChunkStart;
+					int chunkCount = (int) Math.min(CHUNK_SIZE, endIndex - chunkStart);
+					inFlight.add(pool.submit(() -> evaluateChunk(sourceBuffer, condition, chunkStart, chunkCount)));
+					nextChunkStart += chunkCount;
+				}
+				ForkJoinTask<ChunkResult> next = inFlight.poll();
+				if(next == null || filteringBuffer.isDisposed())
+				{
+					return;
+				}
+				ChunkResult result;
+				try
+				{
+					result = next.get();
+				}
+				catch(ExecutionException e)
+				{
+					if(logger.isWarnEnabled()) logger.warn("Couldn't filter chunk!", e.getCause());
+					return;
+				}
+				filteringBuffer.addFilteredIndices(result.matches, result.matchCount);
+				if(result.evaluatedCount > 0)
+				{
+					lastFilteredElement = result.startIndex + result.evaluatedCount - 1;
+					filteringBuffer.setScannedCount(lastFilteredElement + 1);
+					setCurrentStep(lastFilteredElement);
+				}
+				if(result.evaluatedCount < result.requestedCount)
+				{
+					// source buffer has shrunk
+					return;
+				}
+			}
+		}
+		finally
+		{
+			for(ForkJoinTask<ChunkResult> current : inFlight)
+			{
+				current.cancel(false);
+			}
+		}
+	}
+
+	private ChunkResult evaluateChunk(Buffer<E> sourceBuffer, Condition condition, long chunkStart, int chunkCount)
+	{
+		List<E> chunk = GetRange.getRange(sourceBuffer, chunkStart, chunkCount);
+		long[] matches = new long[chunk.size()];
+		int matchCount = 0;
+		for(int j = 0; j < chunk.size(); j++)
+		{
+			E current = chunk.get(j);
+			if(current != null && condition.isTrue(current))
+			{
+				matches[matchCount] = chunkStart + j;
+				matchCount++;
+			}
+		}
+		if(matchCount < matches.length)
+		{
+			matches = Arrays.copyOf(matches, matchCount);
+		}
+		return new ChunkResult(chunkStart, chunkCount, chunk.size(), matches, matchCount);
+	}
+
+	/**
+	 * Wakes up the callable if the source buffer has changed or the FilteringBuffer has been disposed.
+	 * Changes of the FilteringBuffer caused by the callable itself are ignored.
+	 */
+	private class ChangeSignal
+		implements SizeChangeListener
+	{
+		private boolean changed;
+
+		@Override
+		public void sizeChanged(Buffer<?> buffer)
+		{
+			if(buffer == filteringBuffer && !filteringBuffer.isDisposed())
+			{
+				return;
+			}
+			synchronized(this)
+			{
+				changed = true;
+				notifyAll();
+			}
+		}
+
+		synchronized void reset()
+		{
+			changed = false;
+		}
+
+		/**
+		 * Waits until a change has been signalled or the timeout has elapsed.
+		 */
+		synchronized void await(long timeout)
+			throws InterruptedException
+		{
+			if(!changed)
+			{
+				wait(Math.max(1, timeout));
+			}
+		}
+	}
+
+	private static class ChunkResult
+	{
+		final long startIndex;
+		final int requestedCount;
+		final int evaluatedCount;
+		final long[] matches;
+		final int matchCount;
+
+		ChunkResult(long startIndex, int requestedCount, int evaluatedCount, long[] matches, int matchCount)
+		{
+			this.startIndex = startIndex;
+			this.requestedCount = requestedCount;
+			this.evaluatedCount = evaluatedCount;
+			this.matches = matches;
+			this.matchCount = matchCount;
+		}
 	}
 }
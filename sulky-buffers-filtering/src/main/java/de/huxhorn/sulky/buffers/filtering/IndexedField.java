@@ -0,0 +1,72 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers.filtering;
+
+import de.huxhorn.sulky.conditions.Condition;
+import java.util.Collection;
+
+/**
+ * Declares a field of the elements that is indexed by a BitmapIndex.
+ *
+ * Fields should have a small number of distinct values, e.g. a level or a thread name,
+ * since a bitmap is maintained for every value. Values must be Serializable and implement
+ * equals and hashCode.
+ *
+ * @param <E> the type of the elements.
+ */
+public interface IndexedField<E>
+{
+	/**
+	 * @return the unique name of the field, used to persist the index.
+	 */
+	String getName();
+
+	/**
+	 * @param element the element, never null.
+	 * @return the value of the field or null if the element should not be indexed for this field.
+	 */
+	Object extractValue(E element);
+
+	/**
+	 * Returns the values of this field that are matched by the given condition.
+	 *
+	 * An element is matched by the condition if and only if it's value is contained in the result.
+	 * This implies that the condition must not match elements with a null value.
+	 *
+	 * @param condition a leaf condition, i.e. neither And, Or nor Not.
+	 * @return the matching values or null if the condition can't be answered using this field.
+	 */
+	Collection<?> resolveValues(Condition condition);
+}
@@ -0,0 +1,628 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers.filtering;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A compressed set of non-negative long values, e.g. indices of a buffer.
+ *
+ * Values are partitioned into blocks of 65536 values. Sparse blocks are stored as sorted arrays of
+ * their lower 16 bits while dense blocks are stored as bitmaps, similar to Roaring bitmaps.
+ *
+ * This class is not thread-safe.
+ */
+public final class LongBitmap
+{
+	private static final int BLOCK_SHIFT = 16;
+	private static final int BLOCK_MASK = (1 << BLOCK_SHIFT) - 1;
+	private static final int BITMAP_WORDS = (1 << BLOCK_SHIFT) / Long.SIZE;
+	/**
+	 * Blocks containing more values are stored as bitmap.
+	 */
+	private static final int MAXIMUM_ARRAY_CARDINALITY = 4096;
+
+	private long[] keys;
+	private Block[] blocks;
+	private int blockCount;
+
+	public LongBitmap()
+	{
+		keys = new long[4];
+		blocks = new Block[4];
+	}
+
+	/**
+	 * @param end the end of the range, exclusive.
+	 * @return a bitmap containing all values in the range [0, end).
+	 */
+	public static LongBitmap range(long end)
+	{
+		LongBitmap result = new LongBitmap();
+		for(long key = 0; key << BLOCK_SHIFT < end; key++)
+		{
+			long[] bits = new long[BITMAP_WORDS];
+			long remaining = end - (key << BLOCK_SHIFT);
+			if(remaining >= 1 << BLOCK_SHIFT)
+			{
+				Arrays.fill(bits, -1L);
+			}
+			else
+			{
+				int count = (int) remaining;
+				Arrays.fill(bits, 0, count / Long.SIZE, -1L);
+				if(count % Long.SIZE != 0)
+				{
+					bits[count / Long.SIZE] = (1L << (count % Long.SIZE)) - 1;
+				}
+			}
+			result.appendBlock(key, Block.fromBits(bits));
+		}
+		return result;
+	}
+
+	public void add(long value)
+	{
+		if(value < 0)
+		{
+			throw new IllegalArgumentException("value (" + value + ") must not be negative!");
+		}
+		long key = value >>> BLOCK_SHIFT;
+		char low = (char) (value & BLOCK_MASK);
+		int position;
+		if(blockCount > 0 && keys[blockCount - 1] == key)
+		{
+			// fast path for ascending values
+			position = blockCount - 1;
+		}
+		else
+		{
+			position = Arrays.binarySearch(keys, 0, blockCount, key);
+			if(position < 0)
+			{
+				position = -position - 1;
+				insertBlock(position, key, new Block());
+			}
+		}
+		blocks[position].add(low);
+	}
+
+	/**
+	 * @param value the value to remove.
+	 * @return true if the value has been contained.
+	 */
+	public boolean remove(long value)
+	{
+		if(value < 0)
+		{
+			return false;
+		}
+		int position = Arrays.binarySearch(keys, 0, blockCount, value >>> BLOCK_SHIFT);
+		if(position < 0 || !blocks[position].remove((char) (value & BLOCK_MASK)))
+		{
+			return false;
+		}
+		if(blocks[position].cardinality == 0)
+		{
+			System.arraycopy(keys, position + 1, keys, position, blockCount - position - 1);
+			System.arraycopy(blocks, position + 1, blocks, position, blockCount - position - 1);
+			blockCount--;
+			blocks[blockCount] = null;
+		}
+		return true;
+	}
+
+	public boolean contains(long value)
+	{
+		if(value < 0)
+		{
+			return false;
+		}
+		int position = Arrays.binarySearch(keys, 0, blockCount, value >>> BLOCK_SHIFT);
+		return position >= 0 && blocks[position].contains((char) (value & BLOCK_MASK));
+	}
+
+	public long getCardinality()
+	{
+		long result = 0;
+		for(int i = 0; i < blockCount; i++)
+		{
+			result += blocks[i].cardinality;
+		}
+		return result;
+	}
+
+	public boolean isEmpty()
+	{
+		return getCardinality() == 0;
+	}
+
+	/**
+	 * Calls the consumer for all values in ascending order.
+	 *
+	 * @param consumer the consumer of the values.
+	 */
+	public void forEach(LongConsumer consumer)
+	{
+		for(int i = 0; i < blockCount; i++)
+		{
+			blocks[i].forEach(keys[i] << BLOCK_SHIFT, consumer);
+		}
+	}
+
+	public LongBitmap and(LongBitmap other)
+	{
+		LongBitmap result = new LongBitmap();
+		int i = 0;
+		int j = 0;
+		while(i < blockCount && j < other.blockCount)
+		{
+			long key = keys[i];
+			long otherKey = other.keys[j];
+			if(key < otherKey)
+			{
+				i++;
+			}
+			else if(key > otherKey)
+			{
+				j++;
+			}
+			else
+			{
+				long[] bits = blocks[i].toBits();
+				long[] otherBits = other.blocks[j].toBits();
+				for(int w = 0; w < BITMAP_WORDS; w++)
+				{
+					bits[w] &= otherBits[w];
+				}
+				result.appendBlockIfNotEmpty(key, Block.fromBits(bits));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	public LongBitmap or(LongBitmap other)
+	{
+		LongBitmap result = new LongBitmap();
+		int i = 0;
+		int j = 0;
+		while(i < blockCount || j < other.blockCount)
+		{
+			if(j == other.blockCount || i < blockCount && keys[i] < other.keys[j])
+			{
+				result.appendBlock(keys[i], blocks[i].copy());
+				i++;
+			}
+			else if(i == blockCount || keys[i] > other.keys[j])
+			{
+				result.appendBlock(other.keys[j], other.blocks[j].copy());
+				j++;
+			}
+			else
+			{
+				long[] bits = blocks[i].toBits();
+				long[] otherBits = other.blocks[j].toBits();
+				for(int w = 0; w < BITMAP_WORDS; w++)
+				{
+					bits[w] |= otherBits[w];
+				}
+				result.appendBlock(keys[i], Block.fromBits(bits));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param other the values to remove.
+	 * @return a bitmap containing all values of this bitmap that are not contained in other.
+	 */
+	public LongBitmap andNot(LongBitmap other)
+	{
+		LongBitmap result = new LongBitmap();
+		int j = 0;
+		for(int i = 0; i < blockCount; i++)
+		{
+			long key = keys[i];
+			while(j < other.blockCount && other.keys[j] < key)
+			{
+				j++;
+			}
+			if(j < other.blockCount && other.keys[j] == key)
+			{
+				long[] bits = blocks[i].toBits();
+				long[] otherBits = other.blocks[j].toBits();
+				for(int w = 0; w < BITMAP_WORDS; w++)
+				{
+					bits[w] &= ~otherBits[w];
+				}
+				result.appendBlockIfNotEmpty(key, Block.fromBits(bits));
+			}
+			else
+			{
+				result.appendBlock(key, blocks[i].copy());
+			}
+		}
+		return result;
+	}
+
+	public LongBitmap copy()
+	{
+		LongBitmap result = new LongBitmap();
+		for(int i = 0; i < blockCount; i++)
+		{
+			result.appendBlock(keys[i], blocks[i].copy());
+		}
+		return result;
+	}
+
+	public void write(DataOutput output)
+		throws IOException
+	{
+		output.writeInt(blockCount);
+		for(int i = 0; i < blockCount; i++)
+		{
+			output.writeLong(keys[i]);
+			blocks[i].write(output);
+		}
+	}
+
+	public static LongBitmap read(DataInput input)
+		throws IOException
+	{
+		int count = input.readInt();
+		if(count < 0)
+		{
+			throw new IOException("Invalid block count " + count + "!");
+		}
+		LongBitmap result = new LongBitmap();
+		long previousKey = -1;
+		for(int i = 0; i < count; i++)
+		{
+			long key = input.readLong();
+			if(key <= previousKey)
+			{
+				throw new IOException("Invalid block key " + key + "!");
+			}
+			result.appendBlock(key, Block.read(input));
+			previousKey = key;
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if(this == o) return true;
+		if(o == null || getClass() != o.getClass()) return false;
+
+		final LongBitmap that = (LongBitmap) o;
+		if(blockCount != that.blockCount)
+		{
+			return false;
+		}
+		for(int i = 0; i < blockCount; i++)
+		{
+			if(keys[i] != that.keys[i] || !Arrays.equals(blocks[i].toBits(), that.blocks[i].toBits()))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int result = 0;
+		for(int i = 0; i < blockCount; i++)
+		{
+			result = 31 * result + Long.hashCode(keys[i]);
+			result = 31 * result + blocks[i].cardinality;
+		}
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "LongBitmap[cardinality=" + getCardinality() + ", blockCount=" + blockCount + "]";
+	}
+
+	private void appendBlockIfNotEmpty(long key, Block block)
+	{
+		if(block.cardinality > 0)
+		{
+			appendBlock(key, block);
+		}
+	}
+
+	private void appendBlock(long key, Block block)
+	{
+		insertBlock(blockCount, key, block);
+	}
+
+	private void insertBlock(int position, long key, Block block)
+	{
+		if(blockCount == keys.length)
+		{
+			int newLength = keys.length * 2;
+			keys = Arrays.copyOf(keys, newLength);
+			blocks = Arrays.copyOf(blocks, newLength);
+		}
+		System.arraycopy(keys, position, keys, position + 1, blockCount - position);
+		System.arraycopy(blocks, position, blocks, position + 1, blockCount - position);
+		keys[position] = key;
+		blocks[position] = block;
+		blockCount++;
+	}
+
+	/**
+	 * Contains the lower 16 bits of the values of a single block, either as sorted array or as bitmap.
+	 */
+	private static final class Block
+	{
+		private char[] array;
+		private long[] bits;
+		private int cardinality;
+
+		Block()
+		{
+			array = new char[4];
+		}
+
+		static Block fromBits(long[] bits)
+		{
+			int cardinality = 0;
+			for(long word : bits)
+			{
+				cardinality += Long.bitCount(word);
+			}
+			Block result = new Block();
+			result.cardinality = cardinality;
+			if(cardinality > MAXIMUM_ARRAY_CARDINALITY)
+			{
+				result.array = null;
+				result.bits = bits;
+				return result;
+			}
+			char[] array = new char[Math.max(4, cardinality)];
+			int index = 0;
+			for(int w = 0; w < bits.length; w++)
+			{
+				long word = bits[w];
+				while(word != 0)
+				{
+					array[index++] = (char) (w * Long.SIZE + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			result.array = array;
+			return result;
+		}
+
+		void add(char value)
+		{
+			if(bits != null)
+			{
+				long mask = 1L << (value % Long.SIZE);
+				if((bits[value / Long.SIZE] & mask) == 0)
+				{
+					bits[value / Long.SIZE] |= mask;
+					cardinality++;
+				}
+				return;
+			}
+			int position;
+			if(cardinality == 0 || array[cardinality - 1] < value)
+			{
+				// fast path for ascending values
+				position = cardinality;
+			}
+			else
+			{
+				position = Arrays.binarySearch(array, 0, cardinality, value);
+				if(position >= 0)
+				{
+					return;
+				}
+				position = -position - 1;
+			}
+			if(cardinality == MAXIMUM_ARRAY_CARDINALITY)
+			{
+				bits = toBits();
+				array = null;
+				bits[value / Long.SIZE] |= 1L << (value % Long.SIZE);
+				cardinality++;
+				return;
+			}
+			if(cardinality == array.length)
+			{
+				array = Arrays.copyOf(array, Math.min(MAXIMUM_ARRAY_CARDINALITY, array.length * 2));
+			}
+			System.arraycopy(array, position, array, position + 1, cardinality - position);
+			array[position] = value;
+			cardinality++;
+		}
+
+		/**
+		 * A bitmap is converted back to an array once it contains MAXIMUM_ARRAY_CARDINALITY values.
+		 */
+		boolean remove(char value)
+		{
+			if(bits != null)
+			{
+				long mask = 1L << (value % Long.SIZE);
+				if((bits[value / Long.SIZE] & mask) == 0)
+				{
+					return false;
+				}
+				bits[value / Long.SIZE] &= ~mask;
+				cardinality--;
+				if(cardinality == MAXIMUM_ARRAY_CARDINALITY)
+				{
+					Block converted = fromBits(bits);
+					array = converted.array;
+					bits = null;
+				}
+				return true;
+			}
+			int position = Arrays.binarySearch(array, 0, cardinality, value);
+			if(position < 0)
+			{
+				return false;
+			}
+			System.arraycopy(array, position + 1, array, position, cardinality - position - 1);
+			cardinality--;
+			return true;
+		}
+
+		boolean contains(char value)
+		{
+			if(bits != null)
+			{
+				return (bits[value / Long.SIZE] & (1L << (value % Long.SIZE))) != 0;
+			}
+			return Arrays.binarySearch(array, 0, cardinality, value) >= 0;
+		}
+
+		/**
+		 * @return a new bitmap containing the values of this block.
+		 */
+		long[] toBits()
+		{
+			if(bits != null)
+			{
+				return bits.clone();
+			}
+			long[] result = new long[BITMAP_WORDS];
+			for(int i = 0; i < cardinality; i++)
+			{
+				char value = array[i];
+				result[value / Long.SIZE] |= 1L << (value % Long.SIZE);
+			}
+			return result;
+		}
+
+		void forEach(long base, LongConsumer consumer)
+		{
+			if(bits != null)
+			{
+				for(int w = 0; w < bits.length; w++)
+				{
+					long word = bits[w];
+					while(word != 0)
+					{
+						consumer.accept(base + w * Long.SIZE + Long.numberOfTrailingZeros(word));
+						word &= word - 1;
+					}
+				}
+				return;
+			}
+			for(int i = 0; i < cardinality; i++)
+			{
+				consumer.accept(base + array[i]);
+			}
+		}
+
+		Block copy()
+		{
+			Block result = new Block();
+			result.cardinality = cardinality;
+			if(bits != null)
+			{
+				result.array = null;
+				result.bits = bits.clone();
+			}
+			else
+			{
+				result.array = Arrays.copyOf(array, Math.max(4, cardinality));
+			}
+			return result;
+		}
+
+		void write(DataOutput output)
+			throws IOException
+		{
+			output.writeInt(cardinality);
+			if(bits != null)
+			{
+				for(long word : bits)
+				{
+					output.writeLong(word);
+				}
+				return;
+			}
+			for(int i = 0; i < cardinality; i++)
+			{
+				output.writeChar(array[i]);
+			}
+		}
+
+		static Block read(DataInput input)
+			throws IOException
+		{
+			int cardinality = input.readInt();
+			if(cardinality < 0 || cardinality > 1 << BLOCK_SHIFT)
+			{
+				throw new IOException("Invalid cardinality " + cardinality + "!");
+			}
+			if(cardinality > MAXIMUM_ARRAY_CARDINALITY)
+			{
+				long[] bits = new long[BITMAP_WORDS];
+				for(int w = 0; w < BITMAP_WORDS; w++)
+				{
+					bits[w] = input.readLong();
+				}
+				return fromBits(bits);
+			}
+			Block result = new Block();
+			result.array = new char[Math.max(4, cardinality)];
+			for(int i = 0; i < cardinality; i++)
+			{
+				result.array[i] = input.readChar();
+			}
+			result.cardinality = cardinality;
+			return result;
+		}
+	}
+}
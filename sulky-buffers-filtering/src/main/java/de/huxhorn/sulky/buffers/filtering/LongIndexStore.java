@@ -0,0 +1,189 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers.filtering;
+
+/**
+ * Append-only store of long values that encodes runs of consecutive values compactly.
+ *
+ * Values are stored in chunks of CHUNK_SIZE positions using a primitive array per chunk, i.e. 8 bytes
+ * per value. A completed chunk that only contains consecutive values drops its array and is represented
+ * by its first value, so long runs only cost 8 bytes per chunk. Values are resolved in constant time.
+ *
+ * Appending must be synchronized externally. Reading doesn't require any lock since the size
+ * is published via a volatile field after all other changes have been made.
+ */
+final class LongIndexStore
+{
+	private static final int CHUNK_SHIFT = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * The values of every chunk, null for completed chunks containing a single run.
+	 * Arrays are never changed after they have been dropped, so readers may still use them.
+	 */
+	private volatile long[][] chunkValues;
+	/**
+	 * The first value of every chunk.
+	 */
+	private volatile long[] chunkFirstValues;
+	/**
+	 * Whether the values of the last chunk are consecutive so far.
+	 */
+	private boolean lastChunkConsecutive;
+	private volatile long size;
+	/**
+	 * The number of source elements that have been evaluated to produce the stored values.
+	 */
+	private volatile long scannedCount;
+
+	LongIndexStore()
+	{
+		chunkValues = new long[0][];
+		chunkFirstValues = new long[0];
+	}
+
+	long size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the number of chunks storing every value in an array.
+	 */
+	int getArrayChunkCount()
+	{
+		int chunkCount = (int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT);
+		long[][] values = chunkValues;
+		int result = 0;
+		for(int i = 0; i < chunkCount; i++)
+		{
+			if(values[i] != null)
+			{
+				result++;
+			}
+		}
+		return result;
+	}
+
+	long getScannedCount()
+	{
+		return scannedCount;
+	}
+
+	/**
+	 * Must be called after all values below scannedCount have been added.
+	 *
+	 * @param scannedCount the number of source elements that have been evaluated.
+	 */
+	void setScannedCount(long scannedCount)
+	{
+		this.scannedCount = scannedCount;
+	}
+
+	/**
+	 * @param position the position of the value.
+	 * @return the value at the given position or -1 if position is out of range.
+	 */
+	long get(long position)
+	{
+		long currentSize = size;
+		if(position < 0 || position >= currentSize)
+		{
+			return -1;
+		}
+		// the chunks up to currentSize are written before size so they are visible.
+		int chunk = (int) (position >>> CHUNK_SHIFT);
+		int offset = (int) (position & CHUNK_MASK);
+		long[] values = chunkValues[chunk];
+		if(values != null)
+		{
+			return values[offset];
+		}
+		return chunkFirstValues[chunk] + offset;
+	}
+
+	/**
+	 * Appends the given value.
+	 *
+	 * Must not be called concurrently.
+	 *
+	 * @param value the value to append.
+	 */
+	void add(long value)
+	{
+		long currentSize = size;
+		int chunk = (int) (currentSize >>> CHUNK_SHIFT);
+		int offset = (int) (currentSize & CHUNK_MASK);
+		if(offset == 0)
+		{
+			if(chunk == chunkValues.length)
+			{
+				growDirectory();
+			}
+			chunkValues[chunk] = new long[CHUNK_SIZE];
+			chunkFirstValues[chunk] = value;
+			lastChunkConsecutive = true;
+		}
+		else if(lastChunkConsecutive && chunkFirstValues[chunk] + offset != value)
+		{
+			lastChunkConsecutive = false;
+		}
+		chunkValues[chunk][offset] = value;
+		if(offset == CHUNK_MASK && lastChunkConsecutive)
+		{
+			// the completed chunk is a single run
+			chunkValues[chunk] = null;
+		}
+		size = currentSize + 1;
+	}
+
+	private void growDirectory()
+	{
+		int newLength = Math.max(4, chunkValues.length * 2);
+		long[][] newValues = new long[newLength][];
+		long[] newFirstValues = new long[newLength];
+		System.arraycopy(chunkValues, 0, newValues, 0, chunkValues.length);
+		System.arraycopy(chunkFirstValues, 0, newFirstValues, 0, chunkFirstValues.length);
+		chunkFirstValues = newFirstValues;
+		chunkValues = newValues;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "LongIndexStore[size=" + size + ", scannedCount=" + scannedCount + "]";
+	}
+}
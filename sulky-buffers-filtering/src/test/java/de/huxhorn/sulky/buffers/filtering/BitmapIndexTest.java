@@ -0,0 +1,310 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.huxhorn.sulky.buffers.filtering;
+
+import de.huxhorn.sulky.conditions.And;
+import de.huxhorn.sulky.conditions.BooleanValues;
+import de.huxhorn.sulky.conditions.Condition;
+import de.huxhorn.sulky.conditions.Not;
+import de.huxhorn.sulky.conditions.Or;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongPredicate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BitmapIndexTest
+{
+	private static final int SIZE = 100_000;
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	void leafConditionIsExact()
+	{
+		BitmapIndex<Integer> instance = createIndex(null, SIZE);
+		BitmapIndex.Match match = instance.evaluate(new RemainderCondition(1));
+		assertTrue(match.isExact());
+		assertEquals(SIZE, match.getIndexedCount());
+		assertEquals(expected(SIZE, index -> index % 3 == 1), match.getIndices());
+	}
+
+	@Test
+	void unindexedConditionIsUnknown()
+	{
+		BitmapIndex<Integer> instance = createIndex(null, SIZE);
+		assertNull(instance.evaluate(new DivisibleCondition(2)));
+		assertNull(instance.evaluate(new Not(new DivisibleCondition(2))));
+		assertNull(instance.evaluate(or(new RemainderCondition(0), new DivisibleCondition(2))));
+	}
+
+	@Test
+	void andWithUnindexedConditionIsCandidate()
+	{
+		BitmapIndex<Integer> instance = createIndex(null, SIZE);
+		BitmapIndex.Match match = instance.evaluate(and(new RemainderCondition(0), new DivisibleCondition(2)));
+		assertFalse(match.isExact());
+		assertEquals(expected(SIZE, index -> index % 3 == 0), match.getIndices());
+	}
+
+	@Test
+	void andOfIndexedConditionsIsExact()
+	{
+		BitmapIndex<Integer> instance = createIndex(null, SIZE);
+		BitmapIndex.Match match = instance.evaluate(and(new RemainderCondition(0), new Not(new RemainderCondition(1))));
+		assertTrue(match.isExact());
+		assertEquals(expected(SIZE, index -> index % 3 == 0), match.getIndices());
+
+		match = instance.evaluate(and(new RemainderCondition(0), new RemainderCondition(1)));
+		assertTrue(match.isExact());
+		assertTrue(match.getIndices().isEmpty());
+	}
+
+	@Test
+	void orIsExact()
+	{
+		BitmapIndex<Integer> instance = createIndex(null, SIZE);
+		BitmapIndex.Match match = instance.evaluate(or(new RemainderCondition(0), new RemainderCondition(2)));
+		assertTrue(match.isExact());
+		assertEquals(expected(SIZE, index -> index % 3 != 1), match.getIndices());
+	}
+
+	@Test
+	void notIsExact()
+	{
+		BitmapIndex<Integer> instance = createIndex(null, SIZE);
+		BitmapIndex.Match match = instance.evaluate(new Not(new RemainderCondition(0)));
+		assertTrue(match.isExact());
+		assertEquals(expected(SIZE, index -> index % 3 != 0), match.getIndices());
+	}
+
+	@Test
+	void notOfCandidateIsUnknown()
+	{
+		BitmapIndex<Integer> instance = createIndex(null, SIZE);
+		assertNull(instance.evaluate(new Not(and(new RemainderCondition(0), new DivisibleCondition(2)))));
+	}
+
+	@Test
+	void booleanValues()
+	{
+		BitmapIndex<Integer> instance = createIndex(null, SIZE);
+		BitmapIndex.Match match = instance.evaluate(BooleanValues.TRUE);
+		assertTrue(match.isExact());
+		assertEquals(LongBitmap.range(SIZE), match.getIndices());
+		match = instance.evaluate(BooleanValues.FALSE);
+		assertTrue(match.isExact());
+		assertTrue(match.getIndices().isEmpty());
+	}
+
+	@Test
+	void setReplacesPreviousBits()
+	{
+		BitmapIndex<Integer> instance = createIndex(null, 100);
+		// 4 % 3 == 1 replaces 3 % 3 == 0
+		instance.processElement(3, 4);
+		assertEquals(100, instance.getIndexedCount());
+		LongBitmap zero = instance.evaluate(new RemainderCondition(0)).getIndices();
+		LongBitmap one = instance.evaluate(new RemainderCondition(1)).getIndices();
+		assertFalse(zero.contains(3));
+		assertTrue(one.contains(3));
+		assertEquals(expected(100, index -> index % 3 == 0 && index != 3), zero);
+
+		// null doesn't have any value
+		instance.processElement(4, null);
+		one = instance.evaluate(new RemainderCondition(1)).getIndices();
+		assertFalse(one.contains(4));
+		assertTrue(one.contains(3));
+	}
+
+	@Test
+	void sparseSetSkipsMissingElements()
+	{
+		BitmapIndex<Integer> instance = createIndex(null, 10);
+		instance.processElement(100_000, 1);
+		assertEquals(100_001, instance.getIndexedCount());
+		instance.processElement(2);
+		assertEquals(100_002, instance.getIndexedCount());
+
+		LongBitmap one = instance.evaluate(new RemainderCondition(1)).getIndices();
+		LongBitmap expected = expected(10, index -> index % 3 == 1);
+		expected.add(100_000);
+		assertEquals(expected, one);
+		assertTrue(instance.evaluate(new RemainderCondition(2)).getIndices().contains(100_001));
+
+		// neither gaps nor null elements are matched
+		instance.processElement(4, null);
+		LongBitmap present = expected(10, index -> index != 4);
+		present.add(100_000);
+		present.add(100_001);
+		assertEquals(present, instance.evaluate(BooleanValues.TRUE).getIndices());
+		LongBitmap notOne = expected(10, index -> index != 4 && index % 3 != 1);
+		notOne.add(100_001);
+		assertEquals(notOne, instance.evaluate(new Not(new RemainderCondition(1))).getIndices());
+	}
+
+	@Test
+	void flushAndLoad()
+	{
+		File file = new File(tempDir, "test" + BitmapIndex.BITMAP_EXTENSION);
+		BitmapIndex<Integer> instance = createIndex(file, SIZE);
+		instance.processElement(3, 4);
+		instance.processElement(5, null);
+		instance.flush();
+		assertTrue(file.isFile());
+
+		BitmapIndex<Integer> loaded = new BitmapIndex<>(file, Collections.singletonList(new RemainderField()));
+		assertEquals(SIZE, loaded.getIndexedCount());
+		for(int remainder = 0; remainder < 3; remainder++)
+		{
+			RemainderCondition condition = new RemainderCondition(remainder);
+			assertEquals(instance.evaluate(condition).getIndices(), loaded.evaluate(condition).getIndices());
+		}
+		assertEquals(instance.evaluate(BooleanValues.TRUE).getIndices(), loaded.evaluate(BooleanValues.TRUE).getIndices());
+		assertFalse(loaded.evaluate(BooleanValues.TRUE).getIndices().contains(5));
+
+		loaded.reset();
+		assertEquals(0, loaded.getIndexedCount());
+		assertFalse(file.exists());
+	}
+
+	@Test
+	void defaultFile()
+	{
+		File dataFile = new File(tempDir, "buffer.data");
+		assertEquals(new File(tempDir, "buffer" + BitmapIndex.BITMAP_EXTENSION), BitmapIndex.getDefaultFile(dataFile));
+	}
+
+	private static BitmapIndex<Integer> createIndex(File file, int size)
+	{
+		BitmapIndex<Integer> result = new BitmapIndex<>(file, Collections.singletonList(new RemainderField()));
+		List<Integer> elements = new ArrayList<>(size);
+		for(int i = 0; i < size; i++)
+		{
+			elements.add(i);
+		}
+		result.processElements(elements);
+		return result;
+	}
+
+	private static LongBitmap expected(long size, LongPredicate predicate)
+	{
+		LongBitmap result = new LongBitmap();
+		for(long i = 0; i < size; i++)
+		{
+			if(predicate.test(i))
+			{
+				result.add(i);
+			}
+		}
+		return result;
+	}
+
+	private static And and(Condition... conditions)
+	{
+		return new And(new ArrayList<>(Arrays.asList(conditions)));
+	}
+
+	private static Or or(Condition... conditions)
+	{
+		return new Or(new ArrayList<>(Arrays.asList(conditions)));
+	}
+
+	/**
+	 * Indexes Integer elements by their remainder of the division by 3.
+	 */
+	private static class RemainderField
+		implements IndexedField<Integer>
+	{
+		@Override
+		public String getName()
+		{
+			return "remainder";
+		}
+
+		@Override
+		public Object extractValue(Integer element)
+		{
+			return element % 3;
+		}
+
+		@Override
+		public Collection<?> resolveValues(Condition condition)
+		{
+			if(condition instanceof RemainderCondition)
+			{
+				return Collections.singleton(((RemainderCondition) condition).remainder);
+			}
+			return null;
+		}
+	}
+
+	private static class RemainderCondition
+		implements Condition
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int remainder;
+
+		RemainderCondition(int remainder)
+		{
+			this.remainder = remainder;
+		}
+
+		@Override
+		public boolean isTrue(Object element)
+		{
+			return element instanceof Integer && (Integer) element % 3 == remainder;
+		}
+
+		@Override
+		public RemainderCondition clone()
+			throws CloneNotSupportedException
+		{
+			return (RemainderCondition) super.clone();
+		}
+	}
+}
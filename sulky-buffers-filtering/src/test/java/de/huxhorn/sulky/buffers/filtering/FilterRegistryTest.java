@@ -0,0 +1,303 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers.filtering;
+
+import de.huxhorn.sulky.conditions.And;
+import de.huxhorn.sulky.conditions.Condition;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilterRegistryTest
+{
+	private static final int COUNT = 10_000;
+
+	private RecordingExecutorService executorService;
+	private ListBuffer<Integer> source;
+	private FilterRegistry<Integer> instance;
+
+	@BeforeEach
+	void setUp()
+	{
+		executorService = new RecordingExecutorService();
+		source = new ListBuffer<>();
+		for(int i = 0; i < COUNT; i++)
+		{
+			source.add(i);
+		}
+		instance = new FilterRegistry<>(executorService, 10);
+	}
+
+	@AfterEach
+	void tearDown()
+	{
+		executorService.shutdownNow();
+	}
+
+	@Test
+	void equalConditionsShareFilteringBuffer()
+	{
+		FilterHandle<Integer> first = instance.acquire(source, new DivisibleCondition(2));
+		FilterHandle<Integer> second = instance.acquire(source, new DivisibleCondition(2));
+		FilterHandle<Integer> other = instance.acquire(source, new DivisibleCondition(3));
+
+		assertNotSame(first, second);
+		assertSame(first.getFilteringBuffer(), second.getFilteringBuffer());
+		assertNotSame(first.getFilteringBuffer(), other.getFilteringBuffer());
+		assertEquals(2, instance.getFilterCount());
+		assertEquals(2, executorService.futures.size());
+
+		first.dispose();
+		second.dispose();
+		other.dispose();
+		assertEquals(0, instance.getFilterCount());
+	}
+
+	@Test
+	void differentSourceBuffersDontShareFilteringBuffer()
+	{
+		ListBuffer<Integer> otherSource = new ListBuffer<>();
+		FilterHandle<Integer> first = instance.acquire(source, new DivisibleCondition(2));
+		FilterHandle<Integer> second = instance.acquire(otherSource, new DivisibleCondition(2));
+
+		assertNotSame(first.getFilteringBuffer(), second.getFilteringBuffer());
+		assertEquals(2, instance.getFilterCount());
+		first.dispose();
+		second.dispose();
+	}
+
+	@Test
+	void disposingLastHandleCancelsFilter()
+	{
+		FilterHandle<Integer> first = instance.acquire(source, new DivisibleCondition(2));
+		FilterHandle<Integer> second = instance.acquire(source, new DivisibleCondition(2));
+		FilteringBuffer<Integer> filteringBuffer = first.getFilteringBuffer();
+		RunnableFuture<?> future = executorService.futures.get(0);
+
+		first.dispose();
+		assertTrue(first.isDisposed());
+		// disposing twice must not release the reference of the other handle
+		first.dispose();
+		assertFalse(future.isCancelled());
+		assertFalse(filteringBuffer.isDisposed());
+		assertEquals(1, instance.getFilterCount());
+
+		second.dispose();
+		assertTrue(future.isCancelled());
+		assertTrue(filteringBuffer.isDisposed());
+		assertEquals(0, instance.getFilterCount());
+
+		FilterHandle<Integer> third = instance.acquire(source, new DivisibleCondition(2));
+		assertNotSame(filteringBuffer, third.getFilteringBuffer());
+		third.dispose();
+	}
+
+	@Test
+	void laterChangesOfConditionDontAffectRegisteredFilter()
+	{
+		List<Condition> conditions = new ArrayList<>();
+		conditions.add(new DivisibleCondition(2));
+		And condition = new And(conditions);
+		FilterHandle<Integer> first = instance.acquire(source, condition);
+		conditions.add(new DivisibleCondition(3));
+
+		assertEquals(1, ((And) first.getCondition()).getConditions().size());
+		first.dispose();
+	}
+
+	@Test
+	void filterSeededFromSupersetMatchesFullScan()
+		throws Exception
+	{
+		FilterHandle<Integer> superset = instance.acquire(source, new DivisibleCondition(2));
+		FilteringCallableTest.awaitScanned(superset.getFilteringBuffer(), COUNT);
+
+		Condition condition = new And(Arrays.asList(new DivisibleCondition(3), new DivisibleCondition(2)));
+		FilterHandle<Integer> seeded = instance.acquire(source, condition);
+		FilteringCallableTest.awaitScanned(seeded.getFilteringBuffer(), COUNT);
+
+		for(int i = COUNT; i < COUNT + 100; i++)
+		{
+			source.add(i);
+		}
+		FilteringCallableTest.awaitScanned(seeded.getFilteringBuffer(), COUNT + 100);
+		FilteringCallableTest.assertMultiples(seeded.getFilteringBuffer(), 6, COUNT + 100);
+
+		superset.dispose();
+		seeded.dispose();
+	}
+
+	@Test
+	void seedEvaluatesOnlySupersetIndices()
+		throws Exception
+	{
+		FilteringBuffer<Integer> superset = new FilteringBuffer<>(source, new DivisibleCondition(2));
+		for(int i = 0; i < COUNT; i += 2)
+		{
+			superset.addFilteredIndex(i);
+		}
+		superset.setScannedCount(COUNT);
+
+		CountingCondition counting = new CountingCondition(3);
+		FilteringBuffer<Integer> seeded = new FilteringBuffer<>(source, new And(Arrays.asList(new DivisibleCondition(2), counting)));
+		seeded.seed(superset);
+
+		assertEquals(COUNT / 2, counting.evaluations);
+		assertEquals(COUNT, seeded.getScannedCount());
+
+		FilteringBuffer<Integer> fullScan = new FilteringBuffer<>(source, new And(Arrays.asList(new DivisibleCondition(2), new DivisibleCondition(3))));
+		FilteringCallable<Integer> callable = new FilteringCallable<>(fullScan, 10);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			executor.submit(callable);
+			FilteringCallableTest.awaitScanned(fullScan, COUNT);
+		}
+		finally
+		{
+			fullScan.dispose();
+			executor.shutdownNow();
+		}
+		assertEquals(fullScan.getSize(), seeded.getSize());
+		for(long i = 0; i < fullScan.getSize(); i++)
+		{
+			assertEquals(fullScan.getSourceIndex(i), seeded.getSourceIndex(i));
+		}
+	}
+
+	/**
+	 * Matches Integer elements divisible by the given divisor, counting the evaluations.
+	 */
+	private static class CountingCondition
+		implements Condition
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int divisor;
+		int evaluations;
+
+		CountingCondition(int divisor)
+		{
+			this.divisor = divisor;
+		}
+
+		@Override
+		public boolean isTrue(Object element)
+		{
+			evaluations++;
+			return (Integer) element % divisor == 0;
+		}
+
+		@Override
+		public CountingCondition clone()
+			throws CloneNotSupportedException
+		{
+			return (CountingCondition) super.clone();
+		}
+	}
+
+	/**
+	 * Records the futures of all submitted tasks.
+	 */
+	private static class RecordingExecutorService
+		extends AbstractExecutorService
+	{
+		private final ExecutorService delegate = Executors.newCachedThreadPool();
+		final List<RunnableFuture<?>> futures = new ArrayList<>();
+
+		@Override
+		protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable)
+		{
+			RunnableFuture<T> result = super.newTaskFor(callable);
+			synchronized(futures)
+			{
+				futures.add(result);
+			}
+			return result;
+		}
+
+		@Override
+		public void execute(Runnable command)
+		{
+			delegate.execute(command);
+		}
+
+		@Override
+		public void shutdown()
+		{
+			delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow()
+		{
+			return delegate.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown()
+		{
+			return delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated()
+		{
+			return delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException
+		{
+			return delegate.awaitTermination(timeout, unit);
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers.filtering;
+
+import de.huxhorn.sulky.conditions.Condition;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilteringCallableTest
+{
+	private static final int CHUNK_SIZE = FilteringCallable.CHUNK_SIZE;
+
+	private ForkJoinPool pool;
+	private ListBuffer<Integer> source;
+
+	@BeforeEach
+	void setUp()
+	{
+		pool = new ForkJoinPool(4);
+		source = new ListBuffer<>();
+	}
+
+	@AfterEach
+	void tearDown()
+	{
+		pool.shutdownNow();
+	}
+
+	@Test
+	void sequentialFilter()
+		throws Exception
+	{
+		int count = 3 * CHUNK_SIZE + 17;
+		fill(count);
+		FilteringBuffer<Integer> filteringBuffer = new FilteringBuffer<>(source, new DivisibleCondition(3));
+		CallableThread thread = new CallableThread(new FilteringCallable<>(filteringBuffer, 10));
+		thread.start();
+		awaitScanned(filteringBuffer, count);
+		filteringBuffer.dispose();
+		thread.join(10_000);
+
+		assertEquals((long) count - 1, thread.result.get());
+		assertMultiples(filteringBuffer, 3, count);
+	}
+
+	@Test
+	void parallelFilterAddsIndicesInSourceOrder()
+		throws Exception
+	{
+		int count = 10 * CHUNK_SIZE + 17;
+		fill(count);
+		// the first chunk finishes last
+		FilteringBuffer<Integer> filteringBuffer = new FilteringBuffer<>(source, new SlowCondition(3, 0, null));
+		CallableThread thread = new CallableThread(new FilteringCallable<>(filteringBuffer, 10, pool));
+		thread.start();
+		awaitScanned(filteringBuffer, count);
+
+		for(int i = count; i < count + 100; i++)
+		{
+			source.add(i);
+		}
+		awaitScanned(filteringBuffer, count + 100);
+		filteringBuffer.dispose();
+		thread.join(10_000);
+
+		assertFalse(thread.isAlive());
+		assertEquals((long) count + 99, thread.result.get());
+		assertMultiples(filteringBuffer, 3, count + 100);
+	}
+
+	@Test
+	void interruptedParallelFilterReturnsLastFilteredElement()
+		throws Exception
+	{
+		int count = 6 * CHUNK_SIZE;
+		fill(count);
+		CountDownLatch latch = new CountDownLatch(1);
+		// every chunk after the second one waits for the latch
+		FilteringBuffer<Integer> filteringBuffer = new FilteringBuffer<>(source, new SlowCondition(1, 2 * CHUNK_SIZE, latch));
+		CallableThread thread = new CallableThread(new FilteringCallable<>(filteringBuffer, 10, pool));
+		thread.start();
+		try
+		{
+			awaitScanned(filteringBuffer, 2 * CHUNK_SIZE);
+			thread.interrupt();
+			thread.join(10_000);
+		}
+		finally
+		{
+			latch.countDown();
+		}
+
+		assertFalse(thread.isAlive());
+		assertNull(thread.failure.get());
+		assertEquals(2L * CHUNK_SIZE - 1, thread.result.get());
+		assertEquals(2L * CHUNK_SIZE, filteringBuffer.getSize());
+	}
+
+	@Test
+	void unreportedChangesAreFilteredAfterFilterDelay()
+		throws Exception
+	{
+		fill(10);
+		FilteringBuffer<Integer> filteringBuffer = new FilteringBuffer<>(source, new DivisibleCondition(3));
+		CallableThread thread = new CallableThread(new FilteringCallable<>(filteringBuffer, 10));
+		thread.start();
+		awaitScanned(filteringBuffer, 10);
+
+		for(int i = 10; i < 20; i++)
+		{
+			source.addSilently(i);
+		}
+		awaitScanned(filteringBuffer, 20);
+		filteringBuffer.dispose();
+		thread.join(10_000);
+
+		assertFalse(thread.isAlive());
+		assertMultiples(filteringBuffer, 3, 20);
+	}
+
+	private void fill(int count)
+	{
+		for(int i = 0; i < count; i++)
+		{
+			source.add(i);
+		}
+	}
+
+	static void awaitScanned(FilteringBuffer<?> filteringBuffer, long scannedCount)
+		throws InterruptedException
+	{
+		long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(filteringBuffer.getScannedCount() < scannedCount)
+		{
+			assertTrue(System.nanoTime() < timeout, "Timeout while waiting for " + scannedCount + " scanned elements!");
+			Thread.sleep(5);
+		}
+	}
+
+	static void assertMultiples(FilteringBuffer<Integer> filteringBuffer, int divisor, int count)
+	{
+		assertEquals((count + divisor - 1) / divisor, filteringBuffer.getSize());
+		for(int i = 0; i < filteringBuffer.getSize(); i++)
+		{
+			assertEquals(i * divisor, (int) filteringBuffer.get(i));
+		}
+	}
+
+	private static class CallableThread
+		extends Thread
+	{
+		private final FilteringCallable<?> callable;
+		final AtomicReference<Long> result = new AtomicReference<>();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		CallableThread(FilteringCallable<?> callable)
+		{
+			this.callable = callable;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				result.set(callable.call());
+			}
+			catch(Throwable t)
+			{
+				failure.set(t);
+			}
+		}
+	}
+
+	/**
+	 * Delays the evaluation of the element slowValue and blocks every element above blockingValue until the latch is released.
+	 */
+	private static class SlowCondition
+		implements Condition
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int divisor;
+		private final int slowValue;
+		private final transient CountDownLatch latch;
+
+		SlowCondition(int divisor, int slowValue, CountDownLatch latch)
+		{
+			this.divisor = divisor;
+			this.slowValue = slowValue;
+			this.latch = latch;
+		}
+
+		@Override
+		public boolean isTrue(Object element)
+		{
+			int value = (Integer) element;
+			try
+			{
+				if(latch != null && value >= slowValue)
+				{
+					latch.await();
+				}
+				else if(latch == null && value == slowValue)
+				{
+					Thread.sleep(100);
+				}
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return value % divisor == 0;
+		}
+
+		@Override
+		public SlowCondition clone()
+			throws CloneNotSupportedException
+		{
+			return (SlowCondition) super.clone();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers.filtering;
+
+import de.huxhorn.sulky.buffers.BasicBufferIterator;
+import de.huxhorn.sulky.buffers.Buffer;
+import de.huxhorn.sulky.buffers.SizeChangeListener;
+import de.huxhorn.sulky.buffers.SizeChangeOperation;
+import de.huxhorn.sulky.buffers.SizeChangeSupport;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Simple thread-safe Buffer backed by a List, notifying SizeChangeListeners after elements have been added.
+ */
+class ListBuffer<E>
+	implements Buffer<E>, SizeChangeOperation
+{
+	private final List<E> elements = new ArrayList<>();
+	private final SizeChangeSupport sizeChangeSupport = new SizeChangeSupport(this);
+
+	void add(E element)
+	{
+		synchronized(elements)
+		{
+			elements.add(element);
+		}
+		sizeChangeSupport.fireSizeChanged();
+	}
+
+	/**
+	 * Adds the element without notifying listeners, like a change made by another instance sharing the same storage.
+	 */
+	void addSilently(E element)
+	{
+		synchronized(elements)
+		{
+			elements.add(element);
+		}
+	}
+
+	@Override
+	public E get(long index)
+	{
+		synchronized(elements)
+		{
+			if(index < 0 || index >= elements.size())
+			{
+				return null;
+			}
+			return elements.get((int) index);
+		}
+	}
+
+	@Override
+	public long getSize()
+	{
+		synchronized(elements)
+		{
+			return elements.size();
+		}
+	}
+
+	@Override
+	public Iterator<E> iterator()
+	{
+		return new BasicBufferIterator<>(this);
+	}
+
+	@Override
+	public void addSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.addSizeChangeListener(listener);
+	}
+
+	@Override
+	public void removeSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.removeSizeChangeListener(listener);
+	}
+}
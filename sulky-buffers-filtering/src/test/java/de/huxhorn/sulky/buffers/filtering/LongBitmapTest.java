@@ -0,0 +1,307 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.huxhorn.sulky.buffers.filtering;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.function.LongPredicate;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongBitmapTest
+{
+	private static final long BLOCK_SIZE = 1 << 16;
+	private static final int ARRAY_LIMIT = 4096;
+	/**
+	 * Block count, key and cardinality.
+	 */
+	private static final int OVERHEAD = 4 + 8 + 4;
+	private static final int BITMAP_BYTES = (int) (BLOCK_SIZE / 8);
+
+	@Test
+	void emptyBitmap()
+	{
+		LongBitmap instance = new LongBitmap();
+		assertTrue(instance.isEmpty());
+		assertEquals(0, instance.getCardinality());
+		assertFalse(instance.contains(0));
+		assertFalse(instance.remove(0));
+	}
+
+	@Test
+	void switchesToBitmapAboveArrayLimit()
+		throws IOException
+	{
+		LongBitmap instance = new LongBitmap();
+		for(long i = 0; i < ARRAY_LIMIT; i++)
+		{
+			instance.add(2 * i);
+		}
+		assertEquals(ARRAY_LIMIT, instance.getCardinality());
+		assertEquals(OVERHEAD + 2 * ARRAY_LIMIT, serialize(instance).length);
+
+		instance.add(2 * ARRAY_LIMIT);
+		assertEquals(ARRAY_LIMIT + 1, instance.getCardinality());
+		assertEquals(OVERHEAD + BITMAP_BYTES, serialize(instance).length);
+		for(long i = 0; i <= ARRAY_LIMIT; i++)
+		{
+			assertTrue(instance.contains(2 * i));
+			assertFalse(instance.contains(2 * i + 1));
+		}
+	}
+
+	@Test
+	void switchesBackToArrayAtArrayLimit()
+		throws IOException
+	{
+		LongBitmap instance = new LongBitmap();
+		for(long i = 0; i <= ARRAY_LIMIT; i++)
+		{
+			instance.add(i);
+		}
+		assertEquals(OVERHEAD + BITMAP_BYTES, serialize(instance).length);
+
+		assertTrue(instance.remove(7));
+		assertFalse(instance.remove(7));
+		assertEquals(ARRAY_LIMIT, instance.getCardinality());
+		assertEquals(OVERHEAD + 2 * ARRAY_LIMIT, serialize(instance).length);
+		assertFalse(instance.contains(7));
+		assertTrue(instance.contains(8));
+		assertEquals(instance, deserialize(serialize(instance)));
+	}
+
+	@Test
+	void removingLastValueOfBlockRemovesBlock()
+		throws IOException
+	{
+		LongBitmap instance = new LongBitmap();
+		instance.add(1);
+		instance.add(BLOCK_SIZE + 1);
+		assertTrue(instance.remove(1));
+		assertEquals(1, instance.getCardinality());
+		assertEquals(OVERHEAD + 2, serialize(instance).length);
+		assertTrue(instance.remove(BLOCK_SIZE + 1));
+		assertTrue(instance.isEmpty());
+		assertEquals(new LongBitmap(), instance);
+	}
+
+	@Test
+	void outOfOrderAddKeepsValuesSorted()
+	{
+		LongBitmap instance = new LongBitmap();
+		long[] values = {3 * BLOCK_SIZE + 5, 17, BLOCK_SIZE, 3 * BLOCK_SIZE + 1, 16};
+		for(long value : values)
+		{
+			instance.add(value);
+		}
+		instance.add(17);
+		assertEquals(values.length, instance.getCardinality());
+		StringBuilder order = new StringBuilder();
+		instance.forEach(value -> order.append(value).append(' '));
+		assertEquals("16 17 " + BLOCK_SIZE + " " + (3 * BLOCK_SIZE + 1) + " " + (3 * BLOCK_SIZE + 5) + " ", order.toString());
+	}
+
+	@Test
+	void range()
+	{
+		for(long end : new long[]{0, 1, 63, 64, 65, BLOCK_SIZE, BLOCK_SIZE + 1, 3 * BLOCK_SIZE - 7})
+		{
+			LongBitmap instance = LongBitmap.range(end);
+			assertEquals(end, instance.getCardinality());
+			assertTrue(end == 0 || instance.contains(end - 1));
+			assertFalse(instance.contains(end));
+		}
+	}
+
+	@Test
+	void andAcrossBlocks()
+	{
+		LongBitmap multiplesOfTwo = multiples(2, 3 * BLOCK_SIZE);
+		LongBitmap multiplesOfThree = multiples(3, 3 * BLOCK_SIZE);
+		LongBitmap sparse = sparse();
+
+		assertEquals(multiples(6, 3 * BLOCK_SIZE), multiplesOfTwo.and(multiplesOfThree));
+		assertEquals(expected(sparse, value -> value % 2 == 0), sparse.and(multiplesOfTwo));
+		assertEquals(expected(sparse, value -> value % 2 == 0), multiplesOfTwo.and(sparse));
+		assertTrue(sparse.and(new LongBitmap()).isEmpty());
+	}
+
+	@Test
+	void orAcrossBlocks()
+	{
+		LongBitmap multiplesOfTwo = multiples(2, 3 * BLOCK_SIZE);
+		LongBitmap multiplesOfThree = multiples(3, 3 * BLOCK_SIZE);
+		LongBitmap sparse = sparse();
+
+		LongBitmap result = multiplesOfTwo.or(multiplesOfThree);
+		LongBitmap expected = new LongBitmap();
+		for(long i = 0; i < 3 * BLOCK_SIZE; i++)
+		{
+			if(i % 2 == 0 || i % 3 == 0)
+			{
+				expected.add(i);
+			}
+		}
+		assertEquals(expected, result);
+
+		LongBitmap merged = sparse.or(multiplesOfTwo);
+		assertEquals(multiplesOfTwo.getCardinality() + expected(sparse, value -> value % 2 != 0).getCardinality(), merged.getCardinality());
+		assertTrue(merged.contains(5 * BLOCK_SIZE + 3));
+		assertEquals(sparse, sparse.or(new LongBitmap()));
+	}
+
+	@Test
+	void andNotAcrossBlocks()
+	{
+		LongBitmap all = LongBitmap.range(3 * BLOCK_SIZE);
+		LongBitmap multiplesOfTwo = multiples(2, 3 * BLOCK_SIZE);
+		LongBitmap sparse = sparse();
+
+		LongBitmap odd = all.andNot(multiplesOfTwo);
+		assertEquals(3 * BLOCK_SIZE / 2, odd.getCardinality());
+		assertTrue(odd.and(multiplesOfTwo).isEmpty());
+		assertEquals(expected(sparse, value -> value % 2 != 0), sparse.andNot(multiplesOfTwo));
+		assertEquals(expected(sparse, value -> value >= 3 * BLOCK_SIZE), sparse.andNot(all));
+		assertEquals(sparse, sparse.andNot(new LongBitmap()));
+	}
+
+	@Test
+	void operationsDontModifyOperands()
+	{
+		LongBitmap first = multiples(2, 2 * BLOCK_SIZE);
+		LongBitmap second = sparse();
+		LongBitmap firstCopy = first.copy();
+		LongBitmap secondCopy = second.copy();
+		first.and(second);
+		first.or(second);
+		first.andNot(second);
+		second.andNot(first);
+		assertEquals(firstCopy, first);
+		assertEquals(secondCopy, second);
+	}
+
+	@Test
+	void writeAndReadArrayBlocks()
+		throws IOException
+	{
+		LongBitmap instance = sparse();
+		LongBitmap read = deserialize(serialize(instance));
+		assertEquals(instance, read);
+		assertEquals(instance.hashCode(), read.hashCode());
+	}
+
+	@Test
+	void writeAndReadBitmapBlocks()
+		throws IOException
+	{
+		LongBitmap instance = multiples(3, 4 * BLOCK_SIZE).or(sparse());
+		LongBitmap read = deserialize(serialize(instance));
+		assertEquals(instance, read);
+		assertEquals(instance.getCardinality(), read.getCardinality());
+		assertEquals(multiples(3, 4 * BLOCK_SIZE), read.and(multiples(3, 4 * BLOCK_SIZE)));
+	}
+
+	@Test
+	void writeAndReadEmptyBitmap()
+		throws IOException
+	{
+		assertEquals(new LongBitmap(), deserialize(serialize(new LongBitmap())));
+	}
+
+	/**
+	 * Values of a few array blocks, including blocks that aren't contained in the dense bitmaps.
+	 */
+	private static LongBitmap sparse()
+	{
+		LongBitmap result = new LongBitmap();
+		for(long i = 0; i < 100; i++)
+		{
+			result.add(7 * i);
+			result.add(BLOCK_SIZE - 1 - i);
+			result.add(2 * BLOCK_SIZE + 11 * i);
+			result.add(5 * BLOCK_SIZE + 2 * i + 1);
+		}
+		return result;
+	}
+
+	private static LongBitmap multiples(long factor, long end)
+	{
+		LongBitmap result = new LongBitmap();
+		for(long i = 0; i < end; i += factor)
+		{
+			result.add(i);
+		}
+		return result;
+	}
+
+	private static LongBitmap expected(LongBitmap source, LongPredicate predicate)
+	{
+		LongBitmap result = new LongBitmap();
+		source.forEach(value -> {
+			if(predicate.test(value))
+			{
+				result.add(value);
+			}
+		});
+		return result;
+	}
+
+	private static byte[] serialize(LongBitmap bitmap)
+		throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(DataOutputStream output = new DataOutputStream(bytes))
+		{
+			bitmap.write(output);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static LongBitmap deserialize(byte[] bytes)
+		throws IOException
+	{
+		try(DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes)))
+		{
+			return LongBitmap.read(input);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers.filtering;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LongIndexStoreTest
+{
+	@Test
+	void emptyStore()
+	{
+		LongIndexStore instance = new LongIndexStore();
+		assertEquals(0, instance.size());
+		assertEquals(0, instance.getArrayChunkCount());
+		assertEquals(-1, instance.get(0));
+		assertEquals(-1, instance.get(-1));
+	}
+
+	@Test
+	void consecutiveValuesShareRun()
+	{
+		LongIndexStore instance = new LongIndexStore();
+		for(long i = 10; i < 5_000; i++)
+		{
+			instance.add(i);
+		}
+		assertEquals(4_990, instance.size());
+		// only the incomplete last chunk keeps its array
+		assertEquals(1, instance.getArrayChunkCount());
+		for(long i = 0; i < instance.size(); i++)
+		{
+			assertEquals(i + 10, instance.get(i));
+		}
+		assertEquals(-1, instance.get(instance.size()));
+	}
+
+	@Test
+	void sparseValuesSpanSeveralChunks()
+	{
+		LongIndexStore instance = new LongIndexStore();
+		int count = 5_000;
+		for(int i = 0; i < count; i++)
+		{
+			instance.add(3L * i);
+		}
+		assertEquals(count, instance.size());
+		assertEquals(5, instance.getArrayChunkCount());
+		for(int i = 0; i < count; i++)
+		{
+			assertEquals(3L * i, instance.get(i));
+		}
+	}
+
+	@Test
+	void mixedRunsAndGaps()
+	{
+		LongIndexStore instance = new LongIndexStore();
+		long[] expected = {0, 1, 2, 7, 9, 10, 11, 12, 100, 2_000, 2_001};
+		for(long value : expected)
+		{
+			instance.add(value);
+		}
+		assertEquals(expected.length, instance.size());
+		assertEquals(1, instance.getArrayChunkCount());
+		for(int i = 0; i < expected.length; i++)
+		{
+			assertEquals(expected[i], instance.get(i));
+		}
+	}
+
+	@Test
+	void onlyCompletedRunChunksDropTheirArray()
+	{
+		LongIndexStore instance = new LongIndexStore();
+		// chunk 0: a single run, chunk 1: a gap in the middle, chunk 2: a single run starting after a gap
+		for(long i = 0; i < 1_024; i++)
+		{
+			instance.add(i);
+		}
+		for(long i = 0; i < 1_024; i++)
+		{
+			instance.add(i < 512 ? 1_024 + i : 2_000 + i);
+		}
+		for(long i = 0; i < 1_024; i++)
+		{
+			instance.add(10_000 + i);
+		}
+		assertEquals(1, instance.getArrayChunkCount());
+		assertEquals(1_023, instance.get(1_023));
+		assertEquals(1_024 + 511, instance.get(1_024 + 511));
+		assertEquals(2_000 + 512, instance.get(1_024 + 512));
+		assertEquals(10_000, instance.get(2_048));
+		assertEquals(10_000 + 1_023, instance.get(3_071));
+		assertEquals(-1, instance.get(3_072));
+	}
+
+	@Test
+	void scannedCount()
+	{
+		LongIndexStore instance = new LongIndexStore();
+		assertEquals(0, instance.getScannedCount());
+		instance.add(5);
+		instance.setScannedCount(17);
+		assertEquals(17, instance.getScannedCount());
+		assertEquals(1, instance.size());
+	}
+
+	@Test
+	void concurrentReadsSeeConsistentPrefix()
+		throws InterruptedException
+	{
+		LongIndexStore instance = new LongIndexStore();
+		int count = 200_000;
+		Thread reader = new Thread(() -> {
+			long size;
+			do
+			{
+				size = instance.size();
+				if(size > 0)
+				{
+					long last = instance.get(size - 1);
+					if(last != 2 * (size - 1) - (size - 1) % 2)
+					{
+						throw new IllegalStateException("Unexpected value " + last + " at " + (size - 1) + "!");
+					}
+				}
+			}
+			while(size < count);
+		});
+		Throwable[] failure = new Throwable[1];
+		reader.setUncaughtExceptionHandler((thread, throwable) -> failure[0] = throwable);
+		reader.start();
+		for(long i = 0; i < count; i++)
+		{
+			// pairs of consecutive values: 0, 1, 4, 5, 8, 9, ...
+			instance.add(2 * i - i % 2);
+		}
+		reader.join();
+		assertNull(failure[0]);
+	}
+}
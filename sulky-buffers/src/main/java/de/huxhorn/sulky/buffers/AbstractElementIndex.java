@@ -0,0 +1,142 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.io.File;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class of secondary indices of a buffer that are optionally persisted to a file next to the data file.
+ *
+ * The index is registered as ElementProcessor of the indexed buffer, e.g. a CodecFileBuffer, so it is updated
+ * while elements are added. Appended elements are indexed at getIndexedCount(). Elements that have been set
+ * are processed using processElement(long, Object) so an index stays correct for sparse buffers and for
+ * elements that have been replaced.
+ *
+ * @param <E> the type of the elements.
+ */
+public abstract class AbstractElementIndex<E>
+	implements IndexedElementProcessor<E>, ResetOperation
+{
+	private final Logger logger = LoggerFactory.getLogger(AbstractElementIndex.class);
+
+	/**
+	 * The number of elements retrieved from the buffer at once by synchronize.
+	 */
+	public static final int SYNCHRONIZE_CHUNK_SIZE = 1024;
+
+	private final File file;
+
+	/**
+	 * @param file the file used to persist the index, may be null if the index isn't persisted.
+	 */
+	protected AbstractElementIndex(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * @param dataFile the data file of a buffer.
+	 * @param extension the extension of the index file.
+	 * @return a file next to the data file using the same name and the given extension.
+	 */
+	public static File getDefaultFile(File dataFile, String extension)
+	{
+		String name = dataFile.getName();
+		int dotIndex = name.lastIndexOf('.');
+		if(dotIndex > 0)
+		{
+			name = name.substring(0, dotIndex);
+		}
+		return new File(dataFile.getParentFile(), name + extension);
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * @return the number of elements that have been indexed.
+	 */
+	public abstract long getIndexedCount();
+
+	/**
+	 * Indexes all elements of the buffer that haven't been indexed yet.
+	 * The index is rebuilt if it contains more elements than the buffer.
+	 *
+	 * Must not be called while elements are added to the buffer.
+	 *
+	 * @param buffer the indexed buffer.
+	 */
+	public void synchronize(Buffer<E> buffer)
+	{
+		long size = buffer.getSize();
+		if(getIndexedCount() > size)
+		{
+			if(logger.isInfoEnabled()) logger.info("Rebuilding {} since it contains more elements than the buffer.", this);
+			reset();
+		}
+		for(;;)
+		{
+			long start = getIndexedCount();
+			if(start >= size)
+			{
+				break;
+			}
+			int count = (int) Math.min(SYNCHRONIZE_CHUNK_SIZE, size - start);
+			// the buffer isn't accessed while locked
+			List<E> elements = GetRange.getRange(buffer, start, count);
+			if(elements.isEmpty())
+			{
+				break;
+			}
+			processElements(elements);
+		}
+	}
+
+	/**
+	 * Deletes the file of the index, if available.
+	 */
+	protected void deleteFile()
+	{
+		if(file != null && file.isFile() && !file.delete())
+		{
+			if(logger.isDebugEnabled()) logger.debug("Couldn't delete {}.", file.getAbsolutePath());
+		}
+	}
+}
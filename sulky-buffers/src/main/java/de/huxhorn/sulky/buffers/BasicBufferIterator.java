@@ -35,15 +35,30 @@
 package de.huxhorn.sulky.buffers;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 
+/**
+ * Iterator using get(long) of the given buffer.
+ *
+ * If the buffer implements GetRangeOperation, elements are retrieved in chunks of RANGE_SIZE elements instead.
+ *
+ * @param <E> the type of the elements.
+ */
 public class BasicBufferIterator<E>
 	implements Iterator<E>
 {
+	/**
+	 * The number of elements that are retrieved at once if the buffer implements GetRangeOperation.
+	 */
+	public static final int RANGE_SIZE = 64;
+
 	private final Buffer<E> buffer;
 	private final long size;
 	private long current;
+	private List<E> range;
+	private long rangeStart;
 
 	public BasicBufferIterator(Buffer<E> buffer)
 	{
@@ -65,7 +80,29 @@ public class BasicBufferIterator<E>
 		{
 			throw new NoSuchElementException("Iterator doesn't have more entries");
 		}
-		E result = buffer.get(current);
+		E result;
+		if(buffer instanceof GetRangeOperation)
+		{
+			if(range == null || current - rangeStart >= range.size())
+			{
+				rangeStart = current;
+				range = GetRange.getRange(buffer, current, (int) Math.min(RANGE_SIZE, size - current));
+			}
+			long rangeIndex = current - rangeStart;
+			if(rangeIndex < range.size())
+			{
+				result = range.get((int) rangeIndex);
+			}
+			else
+			{
+				// buffer shrank in the meantime
+				result = null;
+			}
+		}
+		else
+		{
+			result = buffer.get(current);
+		}
 		current++;
 		return result;
 	}
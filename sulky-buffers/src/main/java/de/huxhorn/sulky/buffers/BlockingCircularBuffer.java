@@ -34,15 +34,21 @@
 
 package de.huxhorn.sulky.buffers;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Registered SizeChangeListeners are notified after elements have been added or removed.
+ */
 public class BlockingCircularBuffer<E>
-	implements CircularBuffer<E>
+	implements CircularBuffer<E>, SizeChangeOperation
 {
 	private final Logger logger = LoggerFactory.getLogger(BlockingCircularBuffer.class);
 
@@ -50,12 +56,14 @@ public class BlockingCircularBuffer<E>
 	private OverwritingCircularBuffer<E> events;
 	private static final int DEFAULT_CONGESTION_DELAY = 500;
 	private int congestionDelay;
+	private final SizeChangeSupport sizeChangeSupport;
 
 	public BlockingCircularBuffer(int bufferSize, int congestionDelay)
 	{
 		events = new OverwritingCircularBuffer<>(bufferSize);
 		lock = new ReentrantLock(true);
 		this.congestionDelay = congestionDelay;
+		sizeChangeSupport = new SizeChangeSupport(this);
 	}
 
 	public BlockingCircularBuffer(int bufferSize)
@@ -79,6 +87,53 @@ public class BlockingCircularBuffer<E>
 
 	@Override
 	public void add(E element)
+	{
+		if(internalAdd(element))
+		{
+			sizeChangeSupport.fireSizeChanged();
+		}
+	}
+
+	@Override
+	public void addAll(List<E> elements)
+	{
+		boolean added = false;
+		for(E element : elements)
+		{
+			if(!internalAdd(element))
+			{
+				break;
+			}
+			added = true;
+		}
+		if(added)
+		{
+			sizeChangeSupport.fireSizeChanged();
+		}
+	}
+
+	@Override
+	public void addAll(E[] elements)
+	{
+		addAll(Arrays.asList(elements));
+	}
+
+	@Override
+	public void addSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.addSizeChangeListener(listener);
+	}
+
+	@Override
+	public void removeSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.removeSizeChangeListener(listener);
+	}
+
+	/**
+	 * @return false if interrupted while waiting for available space.
+	 */
+	private boolean internalAdd(E element)
 	{
 		lock.lock();
 		try
@@ -98,11 +153,12 @@ public class BlockingCircularBuffer<E>
 				catch(InterruptedException e)
 				{
 					if(logger.isInfoEnabled()) logger.info("Interrupted...");
-					return;
+					return false;
 				}
 				lock.lock();
 			}
 			events.add(element);
+			return true;
 		}
 		finally
 		{
@@ -111,70 +167,109 @@ public class BlockingCircularBuffer<E>
 	}
 
 	@Override
-	public void addAll(List<E> elements)
+	public boolean isFull()
 	{
-		for(E element : elements)
+		lock.lock();
+		try
 		{
-			add(element);
+			return events.isFull();
+		}
+		finally
+		{
+			lock.unlock();
 		}
 	}
 
 	@Override
-	public void addAll(E[] elements)
+	public E removeFirst()
 	{
-		for(E element : elements)
+		E result;
+		lock.lock();
+		try
 		{
-			add(element);
+			result = events.removeFirst();
 		}
+		finally
+		{
+			lock.unlock();
+		}
+		if(result != null)
+		{
+			sizeChangeSupport.fireSizeChanged();
+		}
+		return result;
 	}
 
+	/**
+	 * @return either <code>null</code> or a List containing all accumulated events.
+	 */
 	@Override
-	public boolean isFull()
+	public List<E> removeAll()
 	{
+		List<E> result = null;
 		lock.lock();
 		try
 		{
-			return events.isFull();
+			if(!events.isEmpty())
+			{
+				result = events.removeAll();
+			}
 		}
 		finally
 		{
 			lock.unlock();
 		}
+		if(result != null)
+		{
+			sizeChangeSupport.fireSizeChanged();
+		}
+		return result;
 	}
 
+	/**
+	 * The target collection is filled while holding the lock.
+	 */
 	@Override
-	public E removeFirst()
+	public int drainTo(Collection<? super E> target, int maxElements)
 	{
+		int result;
 		lock.lock();
 		try
 		{
-			return events.removeFirst();
+			result = events.drainTo(target, maxElements);
 		}
 		finally
 		{
 			lock.unlock();
 		}
+		if(result > 0)
+		{
+			sizeChangeSupport.fireSizeChanged();
+		}
+		return result;
 	}
 
 	/**
-	 * @return either <code>null</code> or a List containing all accumulated events.
+	 * The consumer is called while holding the lock so it should return quickly.
 	 */
 	@Override
-	public List<E> removeAll()
+	public int drainTo(Consumer<? super E> consumer, int maxElements)
 	{
+		int result;
 		lock.lock();
 		try
 		{
-			if(!events.isEmpty())
-			{
-				return events.removeAll();
-			}
-			return null;
+			result = events.drainTo(consumer, maxElements);
 		}
 		finally
 		{
 			lock.unlock();
 		}
+		if(result > 0)
+		{
+			sizeChangeSupport.fireSizeChanged();
+		}
+		return result;
 	}
 
 	@Override
@@ -189,6 +284,7 @@ public class BlockingCircularBuffer<E>
 		{
 			lock.unlock();
 		}
+		sizeChangeSupport.fireSizeChanged();
 	}
 
 	@Override
@@ -299,6 +395,7 @@ public class BlockingCircularBuffer<E>
 		{
 			lock.unlock();
 		}
+		sizeChangeSupport.fireSizeChanged();
 	}
 
 	@Override
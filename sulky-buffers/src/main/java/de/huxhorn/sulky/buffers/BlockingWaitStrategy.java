@@ -0,0 +1,120 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocks waiting threads on a condition until they are signalled.
+ *
+ * signalAll only acquires the lock if there are waiting threads so it doesn't slow down the
+ * uncongested case. Waiting is limited to maxWaitNanos to cope with a signal that has been
+ * sent between the check of the condition and the start of waiting.
+ */
+public class BlockingWaitStrategy
+	implements WaitStrategy
+{
+	public static final long DEFAULT_MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition signal = lock.newCondition();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final long maxWaitNanos;
+
+	public BlockingWaitStrategy()
+	{
+		this(DEFAULT_MAX_WAIT_NANOS);
+	}
+
+	public BlockingWaitStrategy(long maxWaitNanos)
+	{
+		if(maxWaitNanos < 1)
+		{
+			throw new IllegalArgumentException("maxWaitNanos (" + maxWaitNanos + ") must be positive!");
+		}
+		this.maxWaitNanos = maxWaitNanos;
+	}
+
+	@Override
+	public void idle(int attempt)
+		throws InterruptedException
+	{
+		lock.lock();
+		try
+		{
+			waiting.incrementAndGet();
+			try
+			{
+				signal.awaitNanos(maxWaitNanos);
+			}
+			finally
+			{
+				waiting.decrementAndGet();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void signalAll()
+	{
+		if(waiting.get() == 0)
+		{
+			return;
+		}
+		lock.lock();
+		try
+		{
+			signal.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "BlockingWaitStrategy[maxWaitNanos=" + maxWaitNanos + "]";
+	}
+}
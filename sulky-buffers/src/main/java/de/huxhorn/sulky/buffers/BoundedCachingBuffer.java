@@ -0,0 +1,475 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * Caches the elements of the wrapped buffer in a bounded least-recently-used cache.
+ *
+ * In contrast to SoftReferenceCachingBuffer, the cache is bounded explicitly, either by the number of
+ * elements or by the sum of their weights, e.g. an estimate of their size in bytes.
+ *
+ * The cache is split into several independently locked segments, each of them bounded by an equal
+ * share of the maximum weight. Elements are never fetched from the wrapped buffer while a segment is locked.
+ *
+ * @param <E> the type of the elements.
+ */
+public class BoundedCachingBuffer<E>
+	implements Buffer<E>, GetRangeOperation<E>, ResetOperation, DisposeOperation, FlushOperation
+{
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private final Buffer<E> buffer;
+	private final ToLongFunction<? super E> weigher;
+	private final long maximumWeight;
+	private final Segment<E>[] segments;
+	private final int segmentShift;
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+	private volatile boolean disposed;
+
+	/**
+	 * Creates a cache bounded by the number of elements.
+	 *
+	 * @param buffer the wrapped buffer.
+	 * @param maximumSize the maximum number of cached elements.
+	 */
+	public BoundedCachingBuffer(Buffer<E> buffer, long maximumSize)
+	{
+		this(buffer, maximumSize, element -> 1, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * Creates a cache bounded by the sum of the weights of the elements.
+	 *
+	 * @param buffer the wrapped buffer.
+	 * @param maximumWeight the maximum sum of the weights of all cached elements.
+	 * @param weigher calculates the weight of an element, e.g. its estimated size in bytes.
+	 */
+	public BoundedCachingBuffer(Buffer<E> buffer, long maximumWeight, ToLongFunction<? super E> weigher)
+	{
+		this(buffer, maximumWeight, weigher, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * @param buffer the wrapped buffer.
+	 * @param maximumWeight the maximum sum of the weights of all cached elements.
+	 * @param weigher calculates the weight of an element, e.g. its estimated size in bytes.
+	 * @param concurrencyLevel the number of segments, rounded up to a power of two.
+	 */
+	@SuppressWarnings("unchecked")
+	public BoundedCachingBuffer(Buffer<E> buffer, long maximumWeight, ToLongFunction<? super E> weigher, int concurrencyLevel)
+	{
+		this.buffer = Objects.requireNonNull(buffer, "buffer must not be null!");
+		this.weigher = Objects.requireNonNull(weigher, "weigher must not be null!");
+		if(maximumWeight < 0)
+		{
+			throw new IllegalArgumentException("maximumWeight must not be negative!");
+		}
+		if(concurrencyLevel < 1)
+		{
+			throw new IllegalArgumentException("concurrencyLevel must be positive!");
+		}
+		int segmentCount = 1;
+		int shift = 0;
+		while(segmentCount < concurrencyLevel && segmentCount < (1 << 16))
+		{
+			segmentCount <<= 1;
+			shift++;
+		}
+		// don't create segments that could not contain a single element
+		while(segmentCount > 1 && maximumWeight / segmentCount < 1)
+		{
+			segmentCount >>= 1;
+			shift--;
+		}
+		this.maximumWeight = maximumWeight;
+		this.segmentShift = 32 - shift;
+		this.segments = new Segment[segmentCount];
+		long segmentWeight = maximumWeight / segmentCount;
+		for(int i = 0; i < segmentCount; i++)
+		{
+			segments[i] = new Segment<>(segmentWeight);
+		}
+	}
+
+	Buffer<E> getWrappedBuffer()
+	{
+		return buffer;
+	}
+
+	public long getMaximumWeight()
+	{
+		return maximumWeight;
+	}
+
+	public long getHitCount()
+	{
+		return hitCount.sum();
+	}
+
+	public long getMissCount()
+	{
+		return missCount.sum();
+	}
+
+	public long getEvictionCount()
+	{
+		return evictionCount.sum();
+	}
+
+	/**
+	 * @return the number of cached elements.
+	 */
+	public long getCachedCount()
+	{
+		long result = 0;
+		for(Segment<E> segment : segments)
+		{
+			result += segment.getCount();
+		}
+		return result;
+	}
+
+	/**
+	 * @return the sum of the weights of all cached elements.
+	 */
+	public long getCachedWeight()
+	{
+		long result = 0;
+		for(Segment<E> segment : segments)
+		{
+			result += segment.getWeight();
+		}
+		return result;
+	}
+
+	@Override
+	public E get(long index)
+	{
+		if(disposed)
+		{
+			return null;
+		}
+		Segment<E> segment = segmentFor(index);
+		E result = segment.get(index);
+		if(result != null)
+		{
+			hitCount.increment();
+			return result;
+		}
+		missCount.increment();
+		result = buffer.get(index);
+		cache(index, result);
+		return result;
+	}
+
+	/**
+	 * Cached elements are taken from the cache, the remaining ones are fetched from the wrapped buffer
+	 * using a single getRange call spanning all of them.
+	 */
+	@Override
+	public List<E> getRange(long startIndex, int count)
+	{
+		GetRange.checkRange(startIndex, count);
+		if(disposed)
+		{
+			return new ArrayList<>();
+		}
+		long size = buffer.getSize();
+		int actualCount = (int) Math.max(0, Math.min(count, size - startIndex));
+		List<E> result = new ArrayList<>(actualCount);
+		int firstMiss = -1;
+		int lastMiss = -1;
+		for(int i = 0; i < actualCount; i++)
+		{
+			long index = startIndex + i;
+			E element = segmentFor(index).get(index);
+			if(element != null)
+			{
+				hitCount.increment();
+			}
+			else
+			{
+				missCount.increment();
+				if(firstMiss < 0)
+				{
+					firstMiss = i;
+				}
+				lastMiss = i;
+			}
+			result.add(element);
+		}
+		if(firstMiss >= 0)
+		{
+			List<E> fetched = GetRange.getRange(buffer, startIndex + firstMiss, lastMiss - firstMiss + 1);
+			for(int i = 0; i < fetched.size(); i++)
+			{
+				int resultIndex = firstMiss + i;
+				if(result.get(resultIndex) == null)
+				{
+					E element = fetched.get(i);
+					result.set(resultIndex, element);
+					cache(startIndex + resultIndex, element);
+				}
+			}
+			if(firstMiss + fetched.size() < result.size())
+			{
+				// the wrapped buffer has shrunk
+				return new ArrayList<>(result.subList(0, firstMiss + fetched.size()));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public long getSize()
+	{
+		return buffer.getSize();
+	}
+
+	@Override
+	public Iterator<E> iterator()
+	{
+		return buffer.iterator();
+	}
+
+	@Override
+	public void reset()
+	{
+		Reset.reset(buffer);
+		clear();
+	}
+
+	@Override
+	public void dispose()
+	{
+		disposed = true;
+		clear();
+		Dispose.dispose(buffer);
+	}
+
+	@Override
+	public boolean isDisposed()
+	{
+		return disposed;
+	}
+
+	@Override
+	public void flush()
+	{
+		Flush.flush(buffer);
+		clear();
+	}
+
+	/**
+	 * Removes all elements from the cache. The counters are not reset.
+	 */
+	public void clear()
+	{
+		for(Segment<E> segment : segments)
+		{
+			segment.clear();
+		}
+	}
+
+	private void cache(long index, E element)
+	{
+		if(element == null || disposed)
+		{
+			return;
+		}
+		long weight = weigher.applyAsLong(element);
+		evictionCount.add(segmentFor(index).put(index, element, weight));
+	}
+
+	private Segment<E> segmentFor(long index)
+	{
+		if(segments.length == 1)
+		{
+			return segments[0];
+		}
+		// Fibonacci hashing spreads consecutive indices over all segments
+		int hash = (int) ((index ^ (index >>> 32)) * 0x9E3779B97F4A7C15L >>> 32);
+		return segments[hash >>> segmentShift];
+	}
+
+	@Override
+	public String toString()
+	{
+		return "BoundedCachingBuffer[maximumWeight=" + maximumWeight +
+			", segments=" + segments.length +
+			", cachedCount=" + getCachedCount() +
+			", cachedWeight=" + getCachedWeight() +
+			", hitCount=" + getHitCount() +
+			", missCount=" + getMissCount() +
+			", evictionCount=" + getEvictionCount() +
+			", buffer=" + buffer +
+			"]";
+	}
+
+	private static class Segment<E>
+	{
+		private final Lock lock = new ReentrantLock();
+		private final long maximumWeight;
+		private final LinkedHashMap<Long, Entry<E>> entries;
+		private long weight;
+
+		Segment(long maximumWeight)
+		{
+			this.maximumWeight = maximumWeight;
+			// access-order is used for LRU eviction.
+			this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		}
+
+		E get(long index)
+		{
+			lock.lock();
+			try
+			{
+				Entry<E> entry = entries.get(index);
+				if(entry == null)
+				{
+					return null;
+				}
+				return entry.element;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @return the number of evicted elements.
+		 */
+		int put(long index, E element, long elementWeight)
+		{
+			if(elementWeight < 0 || elementWeight > maximumWeight)
+			{
+				// can't be cached at all.
+				return 0;
+			}
+			lock.lock();
+			try
+			{
+				Entry<E> previous = entries.put(index, new Entry<>(element, elementWeight));
+				if(previous != null)
+				{
+					weight -= previous.weight;
+				}
+				weight += elementWeight;
+
+				int evicted = 0;
+				Iterator<Map.Entry<Long, Entry<E>>> iterator = entries.entrySet().iterator();
+				while(weight > maximumWeight && iterator.hasNext())
+				{
+					Entry<E> eldest = iterator.next().getValue();
+					iterator.remove();
+					weight -= eldest.weight;
+					evicted++;
+				}
+				return evicted;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void clear()
+		{
+			lock.lock();
+			try
+			{
+				entries.clear();
+				weight = 0;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		int getCount()
+		{
+			lock.lock();
+			try
+			{
+				return entries.size();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		long getWeight()
+		{
+			lock.lock();
+			try
+			{
+				return weight;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+
+	private static class Entry<E>
+	{
+		final E element;
+		final long weight;
+
+		Entry(E element, long weight)
+		{
+			this.element = element;
+			this.weight = weight;
+		}
+	}
+}
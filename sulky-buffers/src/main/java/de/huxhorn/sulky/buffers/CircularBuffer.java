@@ -34,6 +34,9 @@
 
 package de.huxhorn.sulky.buffers;
 
+import java.util.Collection;
+import java.util.function.Consumer;
+
 public interface CircularBuffer<E>
 	extends Buffer<E>, AppendOperation<E>, RemoveOperation<E>, ResetOperation
 {
@@ -61,4 +64,50 @@ public interface CircularBuffer<E>
 	int getAvailableElements();
 
 	int getBufferSize();
+
+	/**
+	 * Removes at most maxElements elements and adds them to the given collection, in order.
+	 *
+	 * In contrast to removeAll, no list is created so the same collection can be reused for every drain.
+	 *
+	 * @param target the collection the removed elements are added to.
+	 * @param maxElements the maximum number of elements to remove.
+	 * @return the number of removed elements.
+	 */
+	default int drainTo(Collection<? super E> target, int maxElements)
+	{
+		if(maxElements < 0)
+		{
+			throw new IllegalArgumentException("maxElements (" + maxElements + ") must not be negative!");
+		}
+		int count = 0;
+		while(count < maxElements && !isEmpty())
+		{
+			target.add(removeFirst());
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Removes at most maxElements elements and passes them to the given consumer, in order.
+	 *
+	 * @param consumer the consumer receiving the removed elements.
+	 * @param maxElements the maximum number of elements to remove.
+	 * @return the number of removed elements.
+	 */
+	default int drainTo(Consumer<? super E> consumer, int maxElements)
+	{
+		if(maxElements < 0)
+		{
+			throw new IllegalArgumentException("maxElements (" + maxElements + ") must not be negative!");
+		}
+		int count = 0;
+		while(count < maxElements && !isEmpty())
+		{
+			consumer.accept(removeFirst());
+			count++;
+		}
+		return count;
+	}
 }
@@ -0,0 +1,517 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lock-free multi-producer/single-consumer CircularBuffer.
+ *
+ * Producers claim a sequence using compare-and-set and publish the element into the slot of that sequence
+ * afterwards. If the buffer is full, producers wait using the WaitStrategy until the consumer removed elements.
+ * Elements are never overwritten so getOverflowCounter() always returns 0.
+ *
+ * The methods removing elements, i.e. removeFirst, removeAll and clear, must only be called by a single
+ * consumer thread at a time. reset must not be called concurrently with any other method.
+ *
+ * Since getSize() returns the number of elements ever added, registered SizeChangeListeners are notified by
+ * the producer after each published element and after reset.
+ *
+ * @param <E> the type of the elements.
+ */
+public class ConcurrentCircularBuffer<E>
+	implements CircularBuffer<E>, SizeChangeOperation
+{
+	private final Logger logger = LoggerFactory.getLogger(ConcurrentCircularBuffer.class);
+
+	private final int bufferSize;
+	private final int mask;
+	private final AtomicReferenceArray<E> slots;
+	/**
+	 * Contains the sequence that has been published into the slot with the same index.
+	 */
+	private final AtomicLongArray published;
+	private final WaitStrategy waitStrategy;
+	/**
+	 * The next sequence that will be claimed by a producer.
+	 */
+	private final PaddedSequence producerSequence;
+	/**
+	 * The next sequence that will be removed by the consumer.
+	 */
+	private final PaddedSequence consumerSequence;
+	private final SizeChangeSupport sizeChangeSupport;
+
+	public ConcurrentCircularBuffer(int bufferSize)
+	{
+		this(bufferSize, new ParkingWaitStrategy());
+	}
+
+	public ConcurrentCircularBuffer(int bufferSize, WaitStrategy waitStrategy)
+	{
+		if(bufferSize < 1 || bufferSize > (1 << 30))
+		{
+			throw new IllegalArgumentException("bufferSize (" + bufferSize + ") must be in the range [1.." + (1 << 30) + "]!");
+		}
+		this.bufferSize = bufferSize;
+		this.waitStrategy = Objects.requireNonNull(waitStrategy, "waitStrategy must not be null!");
+		int capacity = Integer.highestOneBit(bufferSize);
+		if(capacity < bufferSize)
+		{
+			capacity <<= 1;
+		}
+		this.mask = capacity - 1;
+		this.slots = new AtomicReferenceArray<>(capacity);
+		this.published = new AtomicLongArray(capacity);
+		this.producerSequence = new PaddedSequence(0);
+		this.consumerSequence = new PaddedSequence(0);
+		this.sizeChangeSupport = new SizeChangeSupport(this);
+		initPublished();
+	}
+
+	public WaitStrategy getWaitStrategy()
+	{
+		return waitStrategy;
+	}
+
+	/**
+	 * Adds the given element, waiting for free space if necessary.
+	 *
+	 * If the current thread is interrupted while waiting, the element is dropped and the
+	 * interrupted state of the thread is restored.
+	 *
+	 * @param element to add.
+	 */
+	@Override
+	public void add(E element)
+	{
+		int attempt = 0;
+		for(;;)
+		{
+			long sequence = producerSequence.get();
+			if(sequence - consumerSequence.get() >= bufferSize)
+			{
+				try
+				{
+					waitStrategy.idle(attempt);
+				}
+				catch(InterruptedException e)
+				{
+					if(logger.isInfoEnabled()) logger.info("Interrupted...");
+					Thread.currentThread().interrupt();
+					return;
+				}
+				attempt++;
+				continue;
+			}
+			if(producerSequence.compareAndSet(sequence, sequence + 1))
+			{
+				publish(sequence, element);
+				sizeChangeSupport.fireSizeChanged();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Tries to add the given element without waiting.
+	 *
+	 * @param element to add.
+	 * @return true if the element has been added, false if the buffer was full.
+	 */
+	public boolean offer(E element)
+	{
+		for(;;)
+		{
+			long sequence = producerSequence.get();
+			if(sequence - consumerSequence.get() >= bufferSize)
+			{
+				return false;
+			}
+			if(producerSequence.compareAndSet(sequence, sequence + 1))
+			{
+				publish(sequence, element);
+				sizeChangeSupport.fireSizeChanged();
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public void addAll(List<E> elements)
+	{
+		for(E element : elements)
+		{
+			add(element);
+		}
+	}
+
+	@Override
+	public void addAll(E[] elements)
+	{
+		for(E element : elements)
+		{
+			add(element);
+		}
+	}
+
+	@Override
+	public boolean isFull()
+	{
+		return producerSequence.get() - consumerSequence.get() >= bufferSize;
+	}
+
+	/**
+	 * Removes the first element. Elements that have been claimed but not yet published by
+	 * a producer are considered absent.
+	 *
+	 * @return the first element or null if there is none.
+	 */
+	@Override
+	public E removeFirst()
+	{
+		long sequence = consumerSequence.get();
+		int index = (int) sequence & mask;
+		if(published.get(index) != sequence)
+		{
+			return null;
+		}
+		E result = slots.get(index);
+		slots.set(index, null);
+		consumerSequence.set(sequence + 1);
+		waitStrategy.signalAll();
+		return result;
+	}
+
+	/**
+	 * @return either <code>null</code> or a List containing all published elements.
+	 */
+	@Override
+	public List<E> removeAll()
+	{
+		long sequence = consumerSequence.get();
+		long end = producerSequence.get();
+		if(end == sequence)
+		{
+			return null;
+		}
+		List<E> result = new ArrayList<>((int) (end - sequence));
+		drainTo(result, (int) (end - sequence));
+		if(result.isEmpty())
+		{
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 * The consumer sequence is only advanced once, after all elements have been drained.
+	 */
+	@Override
+	public int drainTo(Collection<? super E> target, int maxElements)
+	{
+		long sequence = consumerSequence.get();
+		long end = drainEnd(sequence, maxElements);
+		long start = sequence;
+		for(; sequence < end; sequence++)
+		{
+			int index = (int) sequence & mask;
+			if(published.get(index) != sequence)
+			{
+				break;
+			}
+			target.add(slots.get(index));
+			slots.set(index, null);
+		}
+		return drained(start, sequence);
+	}
+
+	/**
+	 * The consumer sequence is only advanced once, after all elements have been drained.
+	 */
+	@Override
+	public int drainTo(Consumer<? super E> consumer, int maxElements)
+	{
+		long sequence = consumerSequence.get();
+		long end = drainEnd(sequence, maxElements);
+		long start = sequence;
+		for(; sequence < end; sequence++)
+		{
+			int index = (int) sequence & mask;
+			if(published.get(index) != sequence)
+			{
+				break;
+			}
+			consumer.accept(slots.get(index));
+			slots.set(index, null);
+		}
+		return drained(start, sequence);
+	}
+
+	private long drainEnd(long sequence, int maxElements)
+	{
+		if(maxElements < 0)
+		{
+			throw new IllegalArgumentException("maxElements (" + maxElements + ") must not be negative!");
+		}
+		return Math.min(producerSequence.get(), sequence + maxElements);
+	}
+
+	private int drained(long start, long end)
+	{
+		if(end == start)
+		{
+			return 0;
+		}
+		consumerSequence.set(end);
+		waitStrategy.signalAll();
+		return (int) (end - start);
+	}
+
+	@Override
+	public void clear()
+	{
+		while(removeAll() != null)
+		{
+			// remove until empty
+		}
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return producerSequence.get() == consumerSequence.get();
+	}
+
+	@Override
+	public E getRelative(int index)
+	{
+		long sequence = consumerSequence.get();
+		long end = producerSequence.get();
+		if(index < 0 || index >= end - sequence)
+		{
+			throw new IndexOutOfBoundsException("Invalid index " + index + "! Must be 0.." + (end - sequence - 1) + ".");
+		}
+		return getSequence(sequence + index);
+	}
+
+	@Override
+	public E setRelative(int index, E element)
+	{
+		long sequence = consumerSequence.get() + index;
+		long end = producerSequence.get();
+		if(index < 0 || sequence >= end)
+		{
+			throw new IndexOutOfBoundsException("Invalid index " + index + "! Must be 0.." + (end - sequence + index - 1) + ".");
+		}
+		int slotIndex = (int) sequence & mask;
+		if(published.get(slotIndex) != sequence)
+		{
+			return null;
+		}
+		return slots.getAndSet(slotIndex, element);
+	}
+
+	@Override
+	public long getOverflowCounter()
+	{
+		return 0;
+	}
+
+	@Override
+	public int getAvailableElements()
+	{
+		long consumer = consumerSequence.get();
+		return (int) Math.max(0, Math.min(bufferSize, producerSequence.get() - consumer));
+	}
+
+	@Override
+	public int getBufferSize()
+	{
+		return bufferSize;
+	}
+
+	/**
+	 * Returns the element with the given index, counting all elements that have been added since creation
+	 * or the last reset.
+	 *
+	 * @param index must be in the range <code>[0..(getSize()-1)]</code>.
+	 * @return the element or null if it has already been removed or hasn't been published yet.
+	 */
+	@Override
+	public E get(long index)
+	{
+		long size = producerSequence.get();
+		if(index < 0 || index >= size)
+		{
+			throw new IndexOutOfBoundsException("Invalid index " + index + "! Must be 0.." + (size - 1) + ".");
+		}
+		if(index < consumerSequence.get())
+		{
+			return null;
+		}
+		return getSequence(index);
+	}
+
+	@Override
+	public long getSize()
+	{
+		return producerSequence.get();
+	}
+
+	@Override
+	public void reset()
+	{
+		clear();
+		for(int i = 0; i < slots.length(); i++)
+		{
+			slots.set(i, null);
+		}
+		initPublished();
+		producerSequence.set(0);
+		consumerSequence.set(0);
+		waitStrategy.signalAll();
+		sizeChangeSupport.fireSizeChanged();
+	}
+
+	@Override
+	public void addSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.addSizeChangeListener(listener);
+	}
+
+	@Override
+	public void removeSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.removeSizeChangeListener(listener);
+	}
+
+	@Override
+	public Iterator<E> iterator()
+	{
+		return new BufferIterator(consumerSequence.get(), producerSequence.get());
+	}
+
+	private void publish(long sequence, E element)
+	{
+		int index = (int) sequence & mask;
+		// invalidate the previous sequence for readers of getSequence before replacing the element.
+		published.set(index, -1);
+		slots.set(index, element);
+		published.set(index, sequence);
+	}
+
+	private E getSequence(long sequence)
+	{
+		int index = (int) sequence & mask;
+		if(published.get(index) != sequence)
+		{
+			return null;
+		}
+		E result = slots.get(index);
+		// make sure the slot hasn't been reused in the meantime
+		if(published.get(index) != sequence)
+		{
+			return null;
+		}
+		return result;
+	}
+
+	private void initPublished()
+	{
+		for(int i = 0; i < published.length(); i++)
+		{
+			// no sequence is negative
+			published.set(i, -1);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ConcurrentCircularBuffer[bufferSize=" + bufferSize +
+			", producerSequence=" + producerSequence +
+			", consumerSequence=" + consumerSequence +
+			", waitStrategy=" + waitStrategy +
+			"]";
+	}
+
+	private class BufferIterator
+		implements Iterator<E>
+	{
+		private long current;
+		private final long end;
+
+		BufferIterator(long start, long end)
+		{
+			this.current = start;
+			this.end = end;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return current < end;
+		}
+
+		@Override
+		public E next()
+		{
+			if(!hasNext())
+			{
+				throw new NoSuchElementException("Iterator doesn't have more entries");
+			}
+			E result = getSequence(current);
+			current++;
+			return result;
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException("Buffer does not support removal of arbitrary elements!");
+		}
+	}
+}
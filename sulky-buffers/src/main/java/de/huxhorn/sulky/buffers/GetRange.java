@@ -0,0 +1,92 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class GetRange
+{
+	private GetRange()
+	{}
+
+	/**
+	 * Executes getRange(startIndex, count) on the given buffer if it implements GetRangeOperation.
+	 * Otherwise, the range is resolved by calling get(long) for every index.
+	 *
+	 * @param buffer the buffer containing the values.
+	 * @param startIndex the index of the first value, must not be negative.
+	 * @param count the maximum number of values to return, must not be negative.
+	 * @param <E> the type of the values.
+	 * @return a list containing the values of the given range.
+	 * @throws IllegalArgumentException if startIndex or count is negative.
+	 * @see GetRangeOperation#getRange(long, int)
+	 */
+	public static <E> List<E> getRange(Buffer<E> buffer, long startIndex, int count)
+	{
+		if(buffer instanceof GetRangeOperation)
+		{
+			@SuppressWarnings("unchecked")
+			GetRangeOperation<E> getRange = (GetRangeOperation<E>) buffer;
+			return getRange.getRange(startIndex, count);
+		}
+		checkRange(startIndex, count);
+		long size = buffer.getSize();
+		int actualCount = (int) Math.max(0, Math.min(count, size - startIndex));
+		List<E> result = new ArrayList<>(actualCount);
+		for(int i = 0; i < actualCount; i++)
+		{
+			result.add(buffer.get(startIndex + i));
+		}
+		return result;
+	}
+
+	/**
+	 * @param startIndex the index of the first value, must not be negative.
+	 * @param count the maximum number of values, must not be negative.
+	 * @throws IllegalArgumentException if startIndex or count is negative.
+	 */
+	public static void checkRange(long startIndex, int count)
+	{
+		if(startIndex < 0)
+		{
+			throw new IllegalArgumentException("startIndex (" + startIndex + ") must not be negative!");
+		}
+		if(count < 0)
+		{
+			throw new IllegalArgumentException("count (" + count + ") must not be negative!");
+		}
+	}
+}
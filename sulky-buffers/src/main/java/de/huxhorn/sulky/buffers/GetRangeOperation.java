@@ -0,0 +1,55 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.util.List;
+
+public interface GetRangeOperation<E>
+{
+	/**
+	 * Returns the values in the range <code>[startIndex..(startIndex+count-1)]</code>.
+	 *
+	 * The result contains fewer than count values if the range exceeds the size of the buffer.
+	 * Values that couldn't be resolved are contained as <code>null</code>, as in Buffer.get(long).
+	 *
+	 * Implementations are supposed to resolve the whole range more efficiently than count calls of get(long).
+	 *
+	 * @param startIndex the index of the first value, must not be negative.
+	 * @param count the maximum number of values to return, must not be negative.
+	 * @return a list containing the values of the given range.
+	 * @throws IllegalArgumentException if startIndex or count is negative.
+	 */
+	List<E> getRange(long startIndex, int count);
+}
@@ -36,10 +36,13 @@ package de.huxhorn.sulky.buffers;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.RandomAccess;
+import java.util.function.Consumer;
 
 /**
  * http://c2.com/cgi/wiki?CircularBuffer
@@ -180,15 +183,80 @@ public final class OverwritingCircularBuffer<E>
 	@Override
 	public List<E> removeAll()
 	{
-		long availableElements = getAvailableElements();
-		List<E> result = new ArrayList<>((int) availableElements);
+		int availableElements = getAvailableElements();
+		List<E> result = new ArrayList<>(availableElements);
+		drainTo(result, availableElements);
+		return result;
+	}
 
-		for(int i = 0; i < availableElements; i++)
+	/**
+	 * Removes the elements in at most two contiguous chunks of the underlying array.
+	 */
+	@Override
+	public int drainTo(Collection<? super E> target, int maxElements)
+	{
+		int count = drainCount(maxElements);
+		int remaining = count;
+		while(remaining > 0)
 		{
-			result.add(removeFirst());
+			int chunk = Math.min(remaining, bufferSize - startIndex);
+			for(int i = startIndex; i < startIndex + chunk; i++)
+			{
+				@SuppressWarnings({"unchecked"})
+				E element = (E) array[i];
+				target.add(element);
+			}
+			removeChunk(chunk);
+			remaining -= chunk;
 		}
+		return count;
+	}
 
-		return result;
+	/**
+	 * Removes the elements in at most two contiguous chunks of the underlying array.
+	 */
+	@Override
+	public int drainTo(Consumer<? super E> consumer, int maxElements)
+	{
+		int count = drainCount(maxElements);
+		int remaining = count;
+		while(remaining > 0)
+		{
+			int chunk = Math.min(remaining, bufferSize - startIndex);
+			for(int i = startIndex; i < startIndex + chunk; i++)
+			{
+				@SuppressWarnings({"unchecked"})
+				E element = (E) array[i];
+				consumer.accept(element);
+			}
+			removeChunk(chunk);
+			remaining -= chunk;
+		}
+		return count;
+	}
+
+	private int drainCount(int maxElements)
+	{
+		if(maxElements < 0)
+		{
+			throw new IllegalArgumentException("maxElements (" + maxElements + ") must not be negative!");
+		}
+		return Math.min(maxElements, getAvailableElements());
+	}
+
+	/**
+	 * Removes chunk elements starting at startIndex. The chunk must not wrap around.
+	 */
+	private void removeChunk(int chunk)
+	{
+		Arrays.fill(array, startIndex, startIndex + chunk, null);
+		int newStart = startIndex + chunk;
+		if(newStart == bufferSize)
+		{
+			newStart = 0;
+		}
+		startIndex = newStart;
+		full = false;
 	}
 
 	@Override
@@ -211,10 +279,7 @@ public final class OverwritingCircularBuffer<E>
 		full = false;
 
 		// just because of garbage collection...
-		for(int i = 0; i < array.length; i++)
-		{
-			array[i] = null;
-		}
+		Arrays.fill(array, null);
 	}
 
 	@Override
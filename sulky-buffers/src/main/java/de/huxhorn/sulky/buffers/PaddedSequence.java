@@ -0,0 +1,102 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A volatile long padded on both sides so it doesn't share a cache line with other frequently written fields.
+ */
+@SuppressWarnings("unused")
+class PaddedSequence
+	extends PaddedSequenceValue
+{
+	// right-hand side padding
+	private long p9, p10, p11, p12, p13, p14, p15;
+
+	private static final VarHandle VALUE;
+
+	static
+	{
+		try
+		{
+			VALUE = MethodHandles.lookup().findVarHandle(PaddedSequenceValue.class, "value", long.class);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	PaddedSequence(long initialValue)
+	{
+		VALUE.setVolatile(this, initialValue);
+	}
+
+	long get()
+	{
+		return (long) VALUE.getVolatile(this);
+	}
+
+	void set(long newValue)
+	{
+		VALUE.setVolatile(this, newValue);
+	}
+
+	boolean compareAndSet(long expectedValue, long newValue)
+	{
+		return VALUE.compareAndSet(this, expectedValue, newValue);
+	}
+
+	@Override
+	public String toString()
+	{
+		return Long.toString(get());
+	}
+}
+
+@SuppressWarnings("unused")
+class PaddedSequenceLeftPadding
+{
+	// left-hand side padding
+	private long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class PaddedSequenceValue
+	extends PaddedSequenceLeftPadding
+{
+	volatile long value;
+}
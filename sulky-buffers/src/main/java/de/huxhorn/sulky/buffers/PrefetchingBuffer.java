@@ -0,0 +1,487 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prefetches elements of the wrapped buffer if they are accessed sequentially.
+ *
+ * The access pattern is tracked per thread. As soon as a thread accesses at least SEQUENTIAL_THRESHOLD
+ * consecutive indices in the same direction, the next window of elements in that direction is fetched
+ * asynchronously using GetRange. The window starts at minimumWindow elements and is doubled every time
+ * the thread gets close to the end of the prefetched elements, up to maximumWindow elements.
+ * Any other access resets the window.
+ *
+ * Prefetched elements are kept in a cache of 4 * maximumWindow elements that evicts the least recently used elements.
+ * An element that is part of a running prefetch is retrieved from the wrapped buffer instead of waiting for the
+ * whole window so callers, e.g. the event dispatch thread, only ever block for the element they requested.
+ *
+ * Setting an element removes it from the cache and drops the results of running prefetches containing it.
+ *
+ * @param <E> the type of the elements.
+ */
+public class PrefetchingBuffer<E>
+	implements Buffer<E>, SetOperation<E>, GetRangeOperation<E>, ResetOperation, DisposeOperation, FlushOperation
+{
+	private final Logger logger = LoggerFactory.getLogger(PrefetchingBuffer.class);
+
+	public static final int SEQUENTIAL_THRESHOLD = 3;
+	public static final int DEFAULT_MINIMUM_WINDOW = 64;
+	public static final int DEFAULT_MAXIMUM_WINDOW = 4096;
+
+	private final Buffer<E> buffer;
+	private final int minimumWindow;
+	private final int maximumWindow;
+	private final Executor executor;
+	private final ThreadLocal<AccessPattern> accessPatterns;
+	private final Map<Long, E> cache;
+	private final List<Prefetch> prefetches;
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder prefetchCount = new LongAdder();
+	private volatile boolean disposed;
+
+	public PrefetchingBuffer(Buffer<E> buffer)
+	{
+		this(buffer, DEFAULT_MINIMUM_WINDOW, DEFAULT_MAXIMUM_WINDOW, null);
+	}
+
+	/**
+	 * @param buffer the wrapped buffer.
+	 * @param minimumWindow the initial number of prefetched elements.
+	 * @param maximumWindow the maximum number of prefetched elements.
+	 * @param executor the executor used to prefetch elements, null for ForkJoinPool.commonPool().
+	 */
+	public PrefetchingBuffer(Buffer<E> buffer, int minimumWindow, int maximumWindow, Executor executor)
+	{
+		this.buffer = Objects.requireNonNull(buffer, "buffer must not be null!");
+		if(minimumWindow < 1)
+		{
+			throw new IllegalArgumentException("minimumWindow must be positive!");
+		}
+		if(maximumWindow < minimumWindow)
+		{
+			throw new IllegalArgumentException("maximumWindow must not be smaller than minimumWindow!");
+		}
+		this.minimumWindow = minimumWindow;
+		this.maximumWindow = maximumWindow;
+		this.executor = executor == null ? ForkJoinPool.commonPool() : executor;
+		this.accessPatterns = ThreadLocal.withInitial(() -> new AccessPattern(minimumWindow));
+		int cacheSize = 4 * maximumWindow;
+		this.cache = new LinkedHashMap<Long, E>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, E> eldest)
+			{
+				return size() > cacheSize;
+			}
+		};
+		this.prefetches = new ArrayList<>();
+	}
+
+	Buffer<E> getWrappedBuffer()
+	{
+		return buffer;
+	}
+
+	public int getMinimumWindow()
+	{
+		return minimumWindow;
+	}
+
+	public int getMaximumWindow()
+	{
+		return maximumWindow;
+	}
+
+	public long getHitCount()
+	{
+		return hitCount.sum();
+	}
+
+	public long getMissCount()
+	{
+		return missCount.sum();
+	}
+
+	/**
+	 * @return the number of prefetches that have been started.
+	 */
+	public long getPrefetchCount()
+	{
+		return prefetchCount.sum();
+	}
+
+	@Override
+	public E get(long index)
+	{
+		if(disposed)
+		{
+			return null;
+		}
+		E result = getCached(index);
+		if(result != null)
+		{
+			hitCount.increment();
+		}
+		else
+		{
+			missCount.increment();
+			result = buffer.get(index);
+		}
+		accessed(index, index);
+		return result;
+	}
+
+	/**
+	 * Cached elements are taken from the cache, the others are retrieved using GetRange.
+	 * The range counts as sequential access.
+	 */
+	@Override
+	public List<E> getRange(long startIndex, int count)
+	{
+		GetRange.checkRange(startIndex, count);
+		if(disposed)
+		{
+			return new ArrayList<>();
+		}
+		List<E> result = new ArrayList<>(count);
+		boolean complete = true;
+		for(int i = 0; i < count; i++)
+		{
+			E element = getCached(startIndex + i);
+			if(element == null)
+			{
+				complete = false;
+				break;
+			}
+			result.add(element);
+		}
+		if(complete)
+		{
+			hitCount.add(count);
+		}
+		else
+		{
+			missCount.add(count);
+			result = GetRange.getRange(buffer, startIndex, count);
+		}
+		if(!result.isEmpty())
+		{
+			accessed(startIndex, startIndex + result.size() - 1);
+		}
+		return result;
+	}
+
+	@Override
+	public long getSize()
+	{
+		return buffer.getSize();
+	}
+
+	/**
+	 * Sets the element in the wrapped buffer and removes the previous element from the cache.
+	 *
+	 * @throws UnsupportedOperationException if the wrapped buffer does not support set.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean set(long index, E element)
+	{
+		if(!(buffer instanceof SetOperation))
+		{
+			throw new UnsupportedOperationException("Wrapped buffer does not support set!");
+		}
+		boolean result = ((SetOperation<E>) buffer).set(index, element);
+		invalidate(index);
+		return result;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean isSetSupported()
+	{
+		return buffer instanceof SetOperation && ((SetOperation<E>) buffer).isSetSupported();
+	}
+
+	@Override
+	public Iterator<E> iterator()
+	{
+		return buffer.iterator();
+	}
+
+	@Override
+	public void reset()
+	{
+		Reset.reset(buffer);
+		clear();
+	}
+
+	@Override
+	public void dispose()
+	{
+		disposed = true;
+		clear();
+		Dispose.dispose(buffer);
+	}
+
+	@Override
+	public boolean isDisposed()
+	{
+		return disposed;
+	}
+
+	@Override
+	public void flush()
+	{
+		Flush.flush(buffer);
+		clear();
+	}
+
+	/**
+	 * Removes all prefetched elements. Running prefetches are not cancelled but their results are dropped.
+	 */
+	public void clear()
+	{
+		synchronized(cache)
+		{
+			cache.clear();
+			prefetches.clear();
+		}
+	}
+
+	private E getCached(long index)
+	{
+		synchronized(cache)
+		{
+			return cache.get(index);
+		}
+	}
+
+	/**
+	 * Removes the element from the cache and drops the results of running prefetches containing it
+	 * since they might have read the previous element.
+	 */
+	private void invalidate(long index)
+	{
+		synchronized(cache)
+		{
+			cache.remove(index);
+			prefetches.removeIf(prefetch -> prefetch.contains(index));
+		}
+	}
+
+	/**
+	 * Updates the access pattern of the current thread after the elements [firstIndex..lastIndex] have been accessed.
+	 */
+	private void accessed(long firstIndex, long lastIndex)
+	{
+		AccessPattern pattern = accessPatterns.get();
+		int direction = 0;
+		if(pattern.lastIndex >= 0)
+		{
+			if(firstIndex == pattern.lastIndex + 1)
+			{
+				direction = 1;
+			}
+			else if(lastIndex == pattern.lastIndex - 1)
+			{
+				direction = -1;
+			}
+			else if(firstIndex == pattern.lastIndex && firstIndex == lastIndex)
+			{
+				// same element again
+				return;
+			}
+		}
+		int accessedCount = (int) (lastIndex - firstIndex + 1);
+		if(direction != 0 && direction == pattern.direction)
+		{
+			pattern.runLength += accessedCount;
+		}
+		else
+		{
+			pattern.direction = direction;
+			pattern.runLength = direction == 0 ? accessedCount : accessedCount + 1;
+			pattern.window = minimumWindow;
+			pattern.frontier = -1;
+		}
+		if(direction < 0)
+		{
+			pattern.lastIndex = firstIndex;
+		}
+		else
+		{
+			pattern.lastIndex = lastIndex;
+		}
+		if(pattern.direction == 0 && accessedCount > 1)
+		{
+			// a range counts as forward access
+			pattern.direction = 1;
+		}
+		if(pattern.direction != 0 && pattern.runLength >= SEQUENTIAL_THRESHOLD)
+		{
+			prefetchIfNecessary(pattern);
+		}
+	}
+
+	private void prefetchIfNecessary(AccessPattern pattern)
+	{
+		long index = pattern.lastIndex;
+		long start;
+		long end;
+		if(pattern.direction > 0)
+		{
+			start = Math.max(index + 1, pattern.frontier);
+			if(pattern.frontier >= 0 && start - index > pattern.window / 2)
+			{
+				// still enough elements ahead
+				return;
+			}
+			end = Math.min(start + pattern.window, buffer.getSize());
+			pattern.frontier = end;
+		}
+		else
+		{
+			end = pattern.frontier >= 0 ? Math.min(index, pattern.frontier) : index;
+			if(pattern.frontier >= 0 && index - end > pattern.window / 2)
+			{
+				// still enough elements ahead
+				return;
+			}
+			start = Math.max(0, end - pattern.window);
+			pattern.frontier = start;
+		}
+		if(pattern.window < maximumWindow)
+		{
+			pattern.window = Math.min(maximumWindow, 2 * pattern.window);
+		}
+		if(end > start)
+		{
+			prefetch(start, (int) (end - start));
+		}
+	}
+
+	private void prefetch(long startIndex, int count)
+	{
+		prefetchCount.increment();
+		Prefetch prefetch = new Prefetch(startIndex, count);
+		synchronized(cache)
+		{
+			prefetches.add(prefetch);
+		}
+		CompletableFuture.supplyAsync(() -> GetRange.getRange(buffer, startIndex, count), executor)
+			.whenComplete((elements, throwable) -> {
+				synchronized(cache)
+				{
+					if(prefetches.remove(prefetch) && elements != null)
+					{
+						for(int i = 0; i < elements.size(); i++)
+						{
+							E element = elements.get(i);
+							if(element != null)
+							{
+								cache.put(startIndex + i, element);
+							}
+						}
+					}
+				}
+				if(throwable != null)
+				{
+					if(logger.isWarnEnabled()) logger.warn("Couldn't prefetch {} elements starting at index {}!", count, startIndex, throwable);
+				}
+			});
+	}
+
+	@Override
+	public String toString()
+	{
+		return "PrefetchingBuffer[minimumWindow=" + minimumWindow +
+			", maximumWindow=" + maximumWindow +
+			", hitCount=" + getHitCount() +
+			", missCount=" + getMissCount() +
+			", prefetchCount=" + getPrefetchCount() +
+			", buffer=" + buffer +
+			"]";
+	}
+
+	private static class AccessPattern
+	{
+		long lastIndex = -1;
+		int direction;
+		int runLength;
+		int window;
+		/**
+		 * The first index that hasn't been prefetched in the current direction, -1 if nothing has been prefetched.
+		 */
+		long frontier = -1;
+
+		AccessPattern(int window)
+		{
+			this.window = window;
+		}
+	}
+
+	private static class Prefetch
+	{
+		final long startIndex;
+		final int count;
+
+		Prefetch(long startIndex, int count)
+		{
+			this.startIndex = startIndex;
+			this.count = count;
+		}
+
+		boolean contains(long index)
+		{
+			return index >= startIndex && index < startIndex + count;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages the SizeChangeListeners of a buffer.
+ *
+ * Firing is cheap if no listener is registered so it can be called after every modification.
+ */
+public final class SizeChangeSupport
+{
+	private final Logger logger = LoggerFactory.getLogger(SizeChangeSupport.class);
+
+	private final Buffer<?> buffer;
+	private final List<SizeChangeListener> listeners;
+
+	public SizeChangeSupport(Buffer<?> buffer)
+	{
+		this.buffer = Objects.requireNonNull(buffer, "buffer must not be null!");
+		this.listeners = new CopyOnWriteArrayList<>();
+	}
+
+	public void addSizeChangeListener(SizeChangeListener listener)
+	{
+		Objects.requireNonNull(listener, "listener must not be null!");
+		listeners.add(listener);
+	}
+
+	public void removeSizeChangeListener(SizeChangeListener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	public boolean hasListeners()
+	{
+		return !listeners.isEmpty();
+	}
+
+	/**
+	 * Notifies all listeners. Must not be called while the buffer is locked.
+	 */
+	public void fireSizeChanged()
+	{
+		if(listeners.isEmpty())
+		{
+			return;
+		}
+		for(SizeChangeListener current : listeners)
+		{
+			try
+			{
+				current.sizeChanged(buffer);
+			}
+			catch(RuntimeException e)
+			{
+				if(logger.isWarnEnabled()) logger.warn("Exception while notifying {}!", current, e);
+			}
+		}
+	}
+}
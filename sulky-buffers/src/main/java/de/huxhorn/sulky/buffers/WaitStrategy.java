@@ -0,0 +1,57 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+/**
+ * Defines how a thread waits for a condition of a ConcurrentCircularBuffer, e.g. for free space.
+ *
+ * Implementations must be thread-safe.
+ */
+public interface WaitStrategy
+{
+	/**
+	 * Called repeatedly while the condition the caller is waiting for is not met.
+	 *
+	 * @param attempt the number of previous unsuccessful attempts, starting with 0.
+	 * @throws InterruptedException if the waiting thread has been interrupted.
+	 */
+	void idle(int attempt)
+		throws InterruptedException;
+
+	/**
+	 * Called after the state of the buffer has changed, e.g. after elements have been removed.
+	 */
+	void signalAll();
+}
@@ -0,0 +1,90 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+/**
+ * Spins for a few attempts, yielding the processor afterwards.
+ */
+public class YieldingWaitStrategy
+	implements WaitStrategy
+{
+	public static final int DEFAULT_SPIN_TRIES = 100;
+
+	private final int spinTries;
+
+	public YieldingWaitStrategy()
+	{
+		this(DEFAULT_SPIN_TRIES);
+	}
+
+	public YieldingWaitStrategy(int spinTries)
+	{
+		if(spinTries < 0)
+		{
+			throw new IllegalArgumentException("spinTries (" + spinTries + ") must not be negative!");
+		}
+		this.spinTries = spinTries;
+	}
+
+	@Override
+	public void idle(int attempt)
+		throws InterruptedException
+	{
+		if(Thread.interrupted())
+		{
+			throw new InterruptedException();
+		}
+		if(attempt < spinTries)
+		{
+			Thread.onSpinWait();
+		}
+		else
+		{
+			Thread.yield();
+		}
+	}
+
+	@Override
+	public void signalAll()
+	{
+		// nothing to do
+	}
+
+	@Override
+	public String toString()
+	{
+		return "YieldingWaitStrategy[spinTries=" + spinTries + "]";
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockingCircularBufferTest
+{
+	@Test
+	void drainTo()
+	{
+		BlockingCircularBuffer<Long> instance = new BlockingCircularBuffer<>(5);
+		for(long i = 0; i < 4; i++)
+		{
+			instance.add(i);
+		}
+		List<Long> target = new ArrayList<>();
+		assertEquals(2, instance.drainTo(target, 2));
+		assertEquals(2, instance.drainTo(target::add, 10));
+		assertEquals(List.of(0L, 1L, 2L, 3L), target);
+		assertTrue(instance.isEmpty());
+	}
+
+	@Test
+	void sizeChangeListenerIsNotifiedOncePerOperation()
+	{
+		BlockingCircularBuffer<Long> instance = new BlockingCircularBuffer<>(5);
+		AtomicInteger counter = new AtomicInteger();
+		SizeChangeListener listener = buffer -> {
+			assertTrue(buffer == instance);
+			counter.incrementAndGet();
+		};
+		instance.addSizeChangeListener(listener);
+
+		instance.add(1L);
+		assertEquals(1, counter.get());
+		instance.addAll(List.of(2L, 3L, 4L));
+		assertEquals(2, counter.get());
+		instance.removeFirst();
+		assertEquals(3, counter.get());
+		instance.clear();
+		assertEquals(4, counter.get());
+		// nothing to remove
+		instance.removeFirst();
+		assertEquals(4, counter.get());
+
+		instance.removeSizeChangeListener(listener);
+		instance.add(5L);
+		assertEquals(4, counter.get());
+	}
+}
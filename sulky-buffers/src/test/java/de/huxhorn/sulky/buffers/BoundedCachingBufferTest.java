@@ -0,0 +1,178 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedCachingBufferTest
+{
+	private CountingBuffer wrapped;
+
+	@BeforeEach
+	void setUp()
+	{
+		wrapped = new CountingBuffer(1000);
+	}
+
+	@Test
+	void repeatedGetIsServedFromCache()
+	{
+		BoundedCachingBuffer<String> instance = new BoundedCachingBuffer<>(wrapped, 100, value -> 1, 1);
+		assertEquals("Value-17", instance.get(17));
+		assertEquals("Value-17", instance.get(17));
+		assertEquals(1, wrapped.getCount);
+		assertEquals(1, instance.getHitCount());
+		assertEquals(1, instance.getMissCount());
+		assertEquals(0, instance.getEvictionCount());
+		assertEquals(1, instance.getCachedCount());
+	}
+
+	@Test
+	void leastRecentlyUsedElementIsEvicted()
+	{
+		BoundedCachingBuffer<String> instance = new BoundedCachingBuffer<>(wrapped, 3, value -> 1, 1);
+		instance.get(0);
+		instance.get(1);
+		instance.get(2);
+		// 0 is now the most recently used element
+		instance.get(0);
+		instance.get(3);
+		assertEquals(1, instance.getEvictionCount());
+		assertEquals(3, instance.getCachedCount());
+
+		wrapped.getCount = 0;
+		instance.get(0);
+		instance.get(2);
+		instance.get(3);
+		assertEquals(0, wrapped.getCount);
+		instance.get(1);
+		assertEquals(1, wrapped.getCount);
+	}
+
+	@Test
+	void weightIsBounded()
+	{
+		BoundedCachingBuffer<String> instance = new BoundedCachingBuffer<>(wrapped, 1000, String::length);
+		for(int i = 0; i < wrapped.getSize(); i++)
+		{
+			assertEquals("Value-" + i, instance.get(i));
+			assertTrue(instance.getCachedWeight() <= instance.getMaximumWeight());
+		}
+		assertTrue(instance.getEvictionCount() > 0);
+		assertEquals(instance.getMissCount(), instance.getCachedCount() + instance.getEvictionCount());
+	}
+
+	@Test
+	void elementsHeavierThanSegmentAreNotCached()
+	{
+		BoundedCachingBuffer<String> instance = new BoundedCachingBuffer<>(wrapped, 5, String::length, 1);
+		instance.get(0);
+		assertEquals(0, instance.getCachedCount());
+		assertEquals(0, instance.getEvictionCount());
+	}
+
+	@Test
+	void getRangeCombinesCacheAndWrappedBuffer()
+	{
+		BoundedCachingBuffer<String> instance = new BoundedCachingBuffer<>(wrapped, 100);
+		instance.get(11);
+		instance.get(13);
+		List<String> range = instance.getRange(10, 5);
+		assertEquals(List.of("Value-10", "Value-11", "Value-12", "Value-13", "Value-14"), range);
+		assertEquals(2, instance.getHitCount());
+		assertEquals(2 + 3, instance.getMissCount());
+		assertEquals(5, instance.getCachedCount());
+		assertEquals(List.of("Value-998", "Value-999"), instance.getRange(998, 10));
+		assertTrue(instance.getRange(1000, 10).isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> instance.getRange(-1, 10));
+	}
+
+	@Test
+	void resetAndDisposeClearCache()
+	{
+		BoundedCachingBuffer<String> instance = new BoundedCachingBuffer<>(wrapped, 100);
+		instance.get(1);
+		instance.reset();
+		assertEquals(0, instance.getCachedCount());
+		instance.get(1);
+		instance.dispose();
+		assertTrue(instance.isDisposed());
+		assertEquals(0, instance.getCachedCount());
+		assertNull(instance.get(1));
+	}
+
+	private static class CountingBuffer
+		implements Buffer<String>
+	{
+		private final long size;
+		int getCount;
+
+		CountingBuffer(long size)
+		{
+			this.size = size;
+		}
+
+		@Override
+		public String get(long index)
+		{
+			getCount++;
+			if(index < 0 || index >= size)
+			{
+				return null;
+			}
+			return "Value-" + index;
+		}
+
+		@Override
+		public long getSize()
+		{
+			return size;
+		}
+
+		@Override
+		public Iterator<String> iterator()
+		{
+			return new BasicBufferIterator<>(this);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentCircularBufferTest
+{
+	private static final int PRODUCERS = 4;
+	private static final int ELEMENTS_PER_PRODUCER = 20_000;
+
+	@Test
+	void empty()
+	{
+		ConcurrentCircularBuffer<Long> instance = new ConcurrentCircularBuffer<>(5);
+		assertTrue(instance.isEmpty());
+		assertFalse(instance.isFull());
+		assertEquals(0, instance.getAvailableElements());
+		assertEquals(5, instance.getBufferSize());
+		assertEquals(0, instance.getOverflowCounter());
+		assertNull(instance.removeFirst());
+		assertNull(instance.removeAll());
+		assertFalse(instance.iterator().hasNext());
+	}
+
+	@Test
+	void addAndRemove()
+	{
+		ConcurrentCircularBuffer<Long> instance = new ConcurrentCircularBuffer<>(5);
+		for(long i = 0; i < 5; i++)
+		{
+			instance.add(i);
+		}
+		assertTrue(instance.isFull());
+		assertFalse(instance.offer(5L));
+		assertEquals(5, instance.getAvailableElements());
+		assertEquals(5, instance.getSize());
+		assertEquals(Long.valueOf(2), instance.getRelative(2));
+		assertEquals(Long.valueOf(3), instance.get(3));
+		assertEquals(Long.valueOf(0), instance.removeFirst());
+		assertNull(instance.get(0));
+		assertTrue(instance.offer(5L));
+		assertEquals(6, instance.getSize());
+
+		List<Long> values = new ArrayList<>();
+		Iterator<Long> iterator = instance.iterator();
+		while(iterator.hasNext())
+		{
+			values.add(iterator.next());
+		}
+		assertEquals(List.of(1L, 2L, 3L, 4L, 5L), values);
+		assertEquals(Long.valueOf(3), instance.setRelative(2, 17L));
+		assertEquals(List.of(1L, 2L, 17L, 4L, 5L), instance.removeAll());
+		assertTrue(instance.isEmpty());
+		assertThrows(IndexOutOfBoundsException.class, () -> instance.getRelative(0));
+		assertThrows(IndexOutOfBoundsException.class, () -> instance.get(6));
+
+		instance.add(6L);
+		instance.reset();
+		assertTrue(instance.isEmpty());
+		assertEquals(0, instance.getSize());
+	}
+
+	@ParameterizedTest
+	@MethodSource("waitStrategies")
+	void multipleProducersSingleConsumer(WaitStrategy waitStrategy)
+		throws InterruptedException
+	{
+		ConcurrentCircularBuffer<Long> instance = new ConcurrentCircularBuffer<>(100, waitStrategy);
+		List<Thread> producers = new ArrayList<>();
+		for(int p = 0; p < PRODUCERS; p++)
+		{
+			long producer = p;
+			Thread thread = new Thread(() -> {
+				for(long i = 0; i < ELEMENTS_PER_PRODUCER; i++)
+				{
+					instance.add(producer * ELEMENTS_PER_PRODUCER + i);
+				}
+			});
+			producers.add(thread);
+			thread.start();
+		}
+
+		long[] expectedNext = new long[PRODUCERS];
+		for(int p = 0; p < PRODUCERS; p++)
+		{
+			expectedNext[p] = (long) p * ELEMENTS_PER_PRODUCER;
+		}
+		int received = 0;
+		while(received < PRODUCERS * ELEMENTS_PER_PRODUCER)
+		{
+			List<Long> elements = instance.removeAll();
+			if(elements == null)
+			{
+				Thread.onSpinWait();
+				continue;
+			}
+			for(Long element : elements)
+			{
+				int producer = (int) (element / ELEMENTS_PER_PRODUCER);
+				assertEquals(expectedNext[producer], element.longValue());
+				expectedNext[producer]++;
+				received++;
+			}
+		}
+		for(Thread thread : producers)
+		{
+			thread.join();
+		}
+		assertTrue(instance.isEmpty());
+		assertEquals(PRODUCERS * ELEMENTS_PER_PRODUCER, instance.getSize());
+	}
+
+	@Test
+	void drainTo()
+	{
+		ConcurrentCircularBuffer<Long> instance = new ConcurrentCircularBuffer<>(5);
+		for(long i = 0; i < 5; i++)
+		{
+			instance.add(i);
+		}
+		List<Long> target = new ArrayList<>();
+		assertEquals(3, instance.drainTo(target, 3));
+		assertEquals(List.of(0L, 1L, 2L), target);
+		instance.add(5L);
+		List<Long> consumed = new ArrayList<>();
+		assertEquals(3, instance.drainTo(consumed::add, 10));
+		assertEquals(List.of(3L, 4L, 5L), consumed);
+		assertEquals(0, instance.drainTo(target, 10));
+		assertThrows(IllegalArgumentException.class, () -> instance.drainTo(target, -1));
+	}
+
+	@Test
+	void interruptedProducerDropsElement()
+		throws InterruptedException
+	{
+		ConcurrentCircularBuffer<Long> instance = new ConcurrentCircularBuffer<>(1, new BlockingWaitStrategy());
+		instance.add(1L);
+		Thread producer = new Thread(() -> instance.add(2L));
+		producer.start();
+		producer.interrupt();
+		producer.join();
+		assertEquals(List.of(1L), instance.removeAll());
+		assertTrue(instance.isEmpty());
+	}
+
+	private static Stream<WaitStrategy> waitStrategies()
+	{
+		return Stream.of(
+				new SpinningWaitStrategy(),
+				new YieldingWaitStrategy(),
+				new ParkingWaitStrategy(),
+				new BlockingWaitStrategy()
+		);
+	}
+}
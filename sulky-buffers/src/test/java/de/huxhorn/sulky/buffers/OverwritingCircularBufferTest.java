@@ -432,4 +432,31 @@ class OverwritingCircularBufferTest
 		assertTrue(impl.isEmpty(), "Instance isn't empty!");
 		assertFalse(impl.isFull(), "Instance is full!");
 	}
+
+	@Test
+	void drainToWrappingAround()
+	{
+		for(long i = 0; i < 8; i++)
+		{
+			instance.add(i);
+		}
+		// contains 3..7, starting in the middle of the array
+		List<Long> target = new ArrayList<>();
+		assertEquals(2, instance.drainTo(target, 2), "Unexpected number of drained elements!");
+		assertEquals(List.of(3L, 4L), target);
+		assertEquals(3, instance.getAvailableElements(), "Size doesn't match!");
+		assertFalse(instance.isFull(), "Instance is full!");
+
+		instance.add(8L);
+		instance.add(9L);
+		List<Long> consumed = new ArrayList<>();
+		assertEquals(5, instance.drainTo(consumed::add, 100), "Unexpected number of drained elements!");
+		assertEquals(List.of(5L, 6L, 7L, 8L, 9L), consumed);
+		assertTrue(instance.isEmpty(), "Instance isn't empty!");
+		assertEquals(0, instance.drainTo(target, 100), "Unexpected number of drained elements!");
+		assertEquals(10, instance.getSize(), "getSize doesn't match!");
+
+		instance.add(10L);
+		assertEquals(List.of(10L), instance.removeAll());
+	}
 }
@@ -0,0 +1,294 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.buffers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrefetchingBufferTest
+{
+	private static final int SIZE = 10_000;
+
+	private CountingBuffer wrapped;
+
+	@BeforeEach
+	void setUp()
+	{
+		wrapped = new CountingBuffer(SIZE);
+	}
+
+	@Test
+	void forwardScanIsPrefetched()
+	{
+		PrefetchingBuffer<String> instance = new PrefetchingBuffer<>(wrapped, 16, 256, Runnable::run);
+		for(int i = 0; i < SIZE; i++)
+		{
+			assertEquals("Value-" + i, instance.get(i));
+		}
+		assertEquals(PrefetchingBuffer.SEQUENTIAL_THRESHOLD, instance.getMissCount());
+		assertTrue(instance.getPrefetchCount() < SIZE / 128);
+	}
+
+	@Test
+	void backwardScanIsPrefetched()
+	{
+		PrefetchingBuffer<String> instance = new PrefetchingBuffer<>(wrapped, 16, 256, Runnable::run);
+		for(int i = SIZE - 1; i >= 0; i--)
+		{
+			assertEquals("Value-" + i, instance.get(i));
+		}
+		assertEquals(PrefetchingBuffer.SEQUENTIAL_THRESHOLD, instance.getMissCount());
+		assertTrue(instance.getPrefetchCount() < SIZE / 128);
+	}
+
+	@Test
+	void randomAccessIsNotPrefetched()
+	{
+		PrefetchingBuffer<String> instance = new PrefetchingBuffer<>(wrapped, 16, 256, Runnable::run);
+		for(int i = 0; i < 100; i++)
+		{
+			long index = (i * 7919L) % SIZE;
+			assertEquals("Value-" + index, instance.get(index));
+		}
+		assertEquals(0, instance.getPrefetchCount());
+		assertEquals(100, wrapped.getCount);
+	}
+
+	@Test
+	void chunkedRangesArePrefetched()
+	{
+		PrefetchingBuffer<String> instance = new PrefetchingBuffer<>(wrapped, 16, 256, Runnable::run);
+		List<String> expected = new ArrayList<>();
+		List<String> actual = new ArrayList<>();
+		for(int i = 0; i < 1000; i += 10)
+		{
+			actual.addAll(instance.getRange(i, 10));
+		}
+		for(int i = 0; i < 1000; i++)
+		{
+			expected.add("Value-" + i);
+		}
+		assertEquals(expected, actual);
+		assertTrue(instance.getHitCount() > instance.getMissCount());
+	}
+
+	@Test
+	void concurrentScansWithExecutor()
+		throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try
+		{
+			PrefetchingBuffer<String> instance = new PrefetchingBuffer<>(wrapped, 16, 256, executor);
+			Thread backward = new Thread(() -> {
+				for(int i = SIZE - 1; i >= 0; i--)
+				{
+					assertEquals("Value-" + i, instance.get(i));
+				}
+			});
+			backward.start();
+			for(int i = 0; i < SIZE; i++)
+			{
+				assertEquals("Value-" + i, instance.get(i));
+			}
+			backward.join();
+			// elements that are still being prefetched are retrieved directly so the ratio depends on timing
+			assertEquals(2L * SIZE, instance.getHitCount() + instance.getMissCount());
+			assertTrue(instance.getPrefetchCount() > 0);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void disposeClearsCache()
+	{
+		PrefetchingBuffer<String> instance = new PrefetchingBuffer<>(wrapped, 16, 256, Runnable::run);
+		for(int i = 0; i < 10; i++)
+		{
+			instance.get(i);
+		}
+		instance.dispose();
+		assertTrue(instance.isDisposed());
+		assertNull(instance.get(11));
+	}
+
+	@Test
+	void getDoesNotWaitForRunningPrefetch()
+	{
+		List<Runnable> pending = new ArrayList<>();
+		PrefetchingBuffer<String> instance = new PrefetchingBuffer<>(wrapped, 16, 256, pending::add);
+		for(int i = 0; i < 100; i++)
+		{
+			assertEquals("Value-" + i, instance.get(i));
+		}
+		assertFalse(pending.isEmpty());
+		assertEquals(100, wrapped.getCount);
+		assertEquals(0, instance.getHitCount());
+
+		for(Runnable current : pending)
+		{
+			current.run();
+		}
+		int getCount = wrapped.getCount;
+		assertEquals("Value-100", instance.get(100));
+		assertEquals(getCount, wrapped.getCount);
+		assertEquals(1, instance.getHitCount());
+	}
+
+	@Test
+	void setRemovesCachedElement()
+	{
+		PrefetchingBuffer<String> instance = new PrefetchingBuffer<>(wrapped, 16, 256, Runnable::run);
+		assertTrue(instance.isSetSupported());
+		for(int i = 0; i < 10; i++)
+		{
+			instance.get(i);
+		}
+		assertTrue(instance.set(12, "Changed"));
+		assertEquals("Changed", instance.get(12));
+		assertEquals("Value-11", instance.get(11));
+	}
+
+	@Test
+	void resetClearsCache()
+	{
+		PrefetchingBuffer<String> instance = new PrefetchingBuffer<>(wrapped, 16, 256, Runnable::run);
+		for(int i = 0; i < 10; i++)
+		{
+			instance.get(i);
+		}
+		instance.reset();
+		wrapped.set(10, "Changed");
+		assertEquals("Changed", instance.get(10));
+	}
+
+	@Test
+	void setWithoutSetOperation()
+	{
+		Buffer<String> readOnly = new Buffer<String>()
+		{
+			@Override
+			public String get(long index)
+			{
+				return wrapped.get(index);
+			}
+
+			@Override
+			public long getSize()
+			{
+				return wrapped.getSize();
+			}
+
+			@Override
+			public Iterator<String> iterator()
+			{
+				return wrapped.iterator();
+			}
+		};
+		PrefetchingBuffer<String> instance = new PrefetchingBuffer<>(readOnly, 16, 256, Runnable::run);
+		assertFalse(instance.isSetSupported());
+		assertThrows(UnsupportedOperationException.class, () -> instance.set(0, "Changed"));
+	}
+
+	private static class CountingBuffer
+		implements Buffer<String>, SetOperation<String>
+	{
+		private final long size;
+		private final Map<Long, String> changed = new HashMap<>();
+		volatile int getCount;
+
+		CountingBuffer(long size)
+		{
+			this.size = size;
+		}
+
+		@Override
+		public synchronized String get(long index)
+		{
+			getCount++;
+			if(index < 0 || index >= size)
+			{
+				return null;
+			}
+			String result = changed.get(index);
+			if(result != null)
+			{
+				return result;
+			}
+			return "Value-" + index;
+		}
+
+		@Override
+		public synchronized boolean set(long index, String element)
+		{
+			changed.put(index, element);
+			return true;
+		}
+
+		@Override
+		public boolean isSetSupported()
+		{
+			return true;
+		}
+
+		@Override
+		public long getSize()
+		{
+			return size;
+		}
+
+		@Override
+		public Iterator<String> iterator()
+		{
+			return new BasicBufferIterator<>(this);
+		}
+	}
+}
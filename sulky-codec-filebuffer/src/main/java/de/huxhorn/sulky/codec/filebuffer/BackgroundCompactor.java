@@ -0,0 +1,181 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.filebuffer;
+
+import de.huxhorn.sulky.buffers.DisposeOperation;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically compacts a sparse CodecFileBuffer on a daemon thread.
+ *
+ * A compaction is started as soon as the dead bytes of the buffer, i.e. bytes of records that have been
+ * replaced or removed by set, reach both minimumDeadBytes and deadRatio of the length of its data file.
+ * Readers and writers of the buffer keep working while it is compacted, see CodecFileBuffer.compact().
+ *
+ * The dead bytes of a reopened buffer are estimated by the first check, see CodecFileBuffer.getDeadBytes().
+ * The estimate reads the header of every live record in chunks, so writers aren't blocked, and a buffer
+ * that has been reopened is compacted once the estimated dead bytes reach both thresholds.
+ */
+public class BackgroundCompactor
+	implements DisposeOperation
+{
+	public static final double DEFAULT_DEAD_RATIO = 0.5;
+	public static final long DEFAULT_MINIMUM_DEAD_BYTES = 16 * 1024 * 1024;
+	public static final long DEFAULT_CHECK_INTERVAL = 60_000;
+
+	private final CodecFileBuffer<?> buffer;
+	private final double deadRatio;
+	private final long minimumDeadBytes;
+	private final ScheduledExecutorService executor;
+	private volatile boolean disposed;
+
+	public BackgroundCompactor(CodecFileBuffer<?> buffer)
+	{
+		this(buffer, DEFAULT_DEAD_RATIO, DEFAULT_MINIMUM_DEAD_BYTES, DEFAULT_CHECK_INTERVAL);
+	}
+
+	/**
+	 * @param buffer the buffer to compact.
+	 * @param deadRatio the ratio of dead bytes to data file length that triggers a compaction, in the range (0..1].
+	 * @param minimumDeadBytes the minimum number of dead bytes that triggers a compaction.
+	 * @param checkInterval the interval in milliseconds between two checks.
+	 */
+	public BackgroundCompactor(CodecFileBuffer<?> buffer, double deadRatio, long minimumDeadBytes, long checkInterval)
+	{
+		this.buffer = Objects.requireNonNull(buffer, "buffer must not be null!");
+		if(!(deadRatio > 0 && deadRatio <= 1))
+		{
+			throw new IllegalArgumentException("deadRatio must be in the range (0..1]!");
+		}
+		if(minimumDeadBytes < 0)
+		{
+			throw new IllegalArgumentException("minimumDeadBytes must not be negative!");
+		}
+		if(checkInterval < 1)
+		{
+			throw new IllegalArgumentException("checkInterval must be positive!");
+		}
+		this.deadRatio = deadRatio;
+		this.minimumDeadBytes = minimumDeadBytes;
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread t = new Thread(runnable, "BackgroundCompactor");
+			t.setDaemon(true);
+			return t;
+		});
+		this.executor.scheduleWithFixedDelay(this::compactIfNecessary, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+	}
+
+	public CodecFileBuffer<?> getBuffer()
+	{
+		return buffer;
+	}
+
+	public double getDeadRatio()
+	{
+		return deadRatio;
+	}
+
+	public long getMinimumDeadBytes()
+	{
+		return minimumDeadBytes;
+	}
+
+	/**
+	 * @return true if the dead bytes of the buffer reach both minimumDeadBytes and deadRatio.
+	 */
+	public boolean isCompactionNecessary()
+	{
+		long deadBytes = buffer.getDeadBytes();
+		if(deadBytes <= 0 || deadBytes < minimumDeadBytes)
+		{
+			return false;
+		}
+		long length = buffer.getDataFile().length();
+		return deadBytes >= length * deadRatio;
+	}
+
+	/**
+	 * Compacts the buffer on the calling thread if isCompactionNecessary() returns true.
+	 *
+	 * @return true if the buffer has been compacted.
+	 */
+	public boolean compactIfNecessary()
+	{
+		if(disposed || buffer.isDisposed() || !isCompactionNecessary())
+		{
+			return false;
+		}
+		return buffer.compact();
+	}
+
+	/**
+	 * Stops the compactor thread. A running compaction is finished first.
+	 *
+	 * The buffer itself is not disposed.
+	 */
+	@Override
+	public void dispose()
+	{
+		disposed = true;
+		executor.shutdown();
+		try
+		{
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public boolean isDisposed()
+	{
+		return disposed;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "BackgroundCompactor[buffer=" + buffer +
+			", deadRatio=" + deadRatio +
+			", minimumDeadBytes=" + minimumDeadBytes +
+			", disposed=" + disposed +
+			"]";
+	}
+}
@@ -0,0 +1,839 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.filebuffer;
+
+import de.huxhorn.sulky.buffers.ResetOperation;
+import de.huxhorn.sulky.codec.Codec;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Groups records into blocks that are deflated together instead of compressing every element on its own.
+ *
+ * A block consists of an int containing the compressed length, an int containing the uncompressed length
+ * and an int containing the number of records, followed by the compressed records. Every uncompressed record
+ * consists of an int containing the length of the data followed by the data itself.
+ *
+ * The index contains the offset of the block shifted left by RECORD_NUMBER_BITS combined with the number
+ * of the record inside of the block.
+ *
+ * Records are appended to the open tail of the data file until its uncompressed size reaches the block size.
+ * The tail consists of open blocks that aren't compressed. Their compressed length is OPEN_BLOCK_MARKER and
+ * the header continues with an int containing the number of records and an int containing the uncompressed
+ * size of the tail up to and including the block, followed by a long containing the distance from the start
+ * of the tail. Every add appends a new open block, so records that have been written are never rewritten.
+ *
+ * As soon as the tail is full, its records are compressed into blocks that are appended after the tail before
+ * the index is updated, so a crash at any point leaves all records that had been added before readable.
+ * Afterwards, the new blocks are copied to the start of the tail if they fit into its space, the index is
+ * updated again and the data file is truncated. Otherwise the space of the tail remains unused.
+ * Neither file is forced to the storage device, so this protects against crashes of the process but
+ * not against writes reordered by the operating system during a power loss.
+ *
+ * Decompressed blocks are kept in a small LRU cache so neighbouring reads don't inflate the same block again.
+ *
+ * CodecFileBuffer uses this strategy for non-sparse buffers if the meta data contains BLOCK_SIZE_KEY.
+ */
+public class BlockCompressedDataStrategy<E>
+	implements DataStrategy<E>, ResetOperation
+{
+	/**
+	 * The meta data key of the block size. CodecFileBuffer uses this strategy if it is contained in the meta data.
+	 */
+	public static final String BLOCK_SIZE_KEY = "sulky.codec.filebuffer.blockSize";
+
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+	public static final int DEFAULT_CACHED_BLOCKS = 16;
+
+	/**
+	 * The size of the block header, i.e. compressed length, uncompressed length and record count.
+	 */
+	public static final long BLOCK_HEADER_SIZE = 12;
+
+	/**
+	 * The size of the header of an open block, i.e. BLOCK_HEADER_SIZE followed by the record count and
+	 * uncompressed size of the tail and the distance from the start of the tail.
+	 */
+	public static final long OPEN_BLOCK_HEADER_SIZE = 28;
+
+	/**
+	 * The compressed length of an open, i.e. uncompressed, block.
+	 */
+	public static final int OPEN_BLOCK_MARKER = -1;
+
+	/**
+	 * The number of bits of an index entry used for the number of the record inside of its block.
+	 */
+	public static final int RECORD_NUMBER_BITS = 16;
+
+	public static final int MAXIMUM_RECORDS_PER_BLOCK = 1 << RECORD_NUMBER_BITS;
+
+	private static final long RECORD_NUMBER_MASK = MAXIMUM_RECORDS_PER_BLOCK - 1;
+	private static final long MAXIMUM_BLOCK_OFFSET = Long.MAX_VALUE >>> RECORD_NUMBER_BITS;
+
+	private final int blockSize;
+	private final Map<Long, Block> cache;
+
+	public BlockCompressedDataStrategy()
+	{
+		this(DEFAULT_BLOCK_SIZE);
+	}
+
+	public BlockCompressedDataStrategy(int blockSize)
+	{
+		this(blockSize, DEFAULT_CACHED_BLOCKS);
+	}
+
+	/**
+	 * @param blockSize the uncompressed size at which a block is closed, must be positive.
+	 * @param cachedBlocks the maximum number of decompressed blocks kept in memory, must not be negative.
+	 */
+	public BlockCompressedDataStrategy(int blockSize, int cachedBlocks)
+	{
+		if(blockSize <= 0)
+		{
+			throw new IllegalArgumentException("blockSize must be positive but was " + blockSize + "!");
+		}
+		if(cachedBlocks < 0)
+		{
+			throw new IllegalArgumentException("cachedBlocks must not be negative but was " + cachedBlocks + "!");
+		}
+		this.blockSize = blockSize;
+		this.cache = new LinkedHashMap<Long, Block>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = -4475004744263541826L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Block> eldest)
+			{
+				return size() > cachedBlocks;
+			}
+		};
+	}
+
+	/**
+	 * @param metaData the meta data of a buffer.
+	 * @return true if the meta data contains BLOCK_SIZE_KEY.
+	 */
+	public static boolean isBlockCompressed(MetaData metaData)
+	{
+		return metaData != null && metaData.getData().containsKey(BLOCK_SIZE_KEY);
+	}
+
+	/**
+	 * @param metaData the meta data of a buffer.
+	 * @return the block size contained in the meta data or DEFAULT_BLOCK_SIZE if it is missing or invalid.
+	 */
+	public static int getBlockSize(MetaData metaData)
+	{
+		if(metaData != null)
+		{
+			String value = metaData.getData().get(BLOCK_SIZE_KEY);
+			if(value != null)
+			{
+				try
+				{
+					int result = Integer.parseInt(value.trim());
+					if(result > 0)
+					{
+						return result;
+					}
+				}
+				catch(NumberFormatException e)
+				{
+					// ignore
+				}
+			}
+		}
+		return DEFAULT_BLOCK_SIZE;
+	}
+
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	@Override
+	public void add(E element,
+	                RandomAccessFile indexFile,
+	                RandomAccessFile dataFile,
+	                Codec<E> codec,
+	                IndexStrategy indexStrategy)
+		throws IOException
+	{
+		addAll(Collections.singletonList(element), indexFile, dataFile, codec, indexStrategy);
+	}
+
+	@Override
+	public void addAll(List<E> elements,
+	                   RandomAccessFile indexFile,
+	                   RandomAccessFile dataFile,
+	                   Codec<E> codec,
+	                   IndexStrategy indexStrategy)
+		throws IOException
+	{
+		if(elements != null && !elements.isEmpty())
+		{
+			addAllEncoded(RecordBatchWriter.encode(elements, codec), indexFile, dataFile, indexStrategy);
+		}
+	}
+
+	/**
+	 * Appends the records to the open tail. If the tail reaches the block size, its records and the added records
+	 * are compressed into new blocks instead. The offsets of all added records are set using a single call
+	 * of IndexStrategy.setOffsets before the space of the tail is reused.
+	 */
+	@Override
+	public void addAllEncoded(List<byte[]> encodedElements,
+	                          RandomAccessFile indexFile,
+	                          RandomAccessFile dataFile,
+	                          IndexStrategy indexStrategy)
+		throws IOException
+	{
+		if(encodedElements == null || encodedElements.isEmpty())
+		{
+			return;
+		}
+		long elementsCount = indexStrategy.getSize(indexFile);
+		long end = dataFile.length();
+		Block tail = getTail(elementsCount, indexFile, dataFile, indexStrategy, end);
+		long tailStart = tail == null ? end : tail.offset - tail.tailDistance;
+		int tailRecordCount = tail == null ? 0 : tail.tailRecordCount;
+		int tailSize = tail == null ? 0 : tail.tailSize;
+		long addedSize = 0;
+		for(byte[] current : encodedElements)
+		{
+			addedSize += DefaultDataStrategy.DATA_LENGTH_SIZE + current.length;
+		}
+		boolean closing = tailSize + addedSize >= blockSize
+			|| (long) tailRecordCount + encodedElements.size() >= MAXIMUM_RECORDS_PER_BLOCK;
+
+		List<byte[]> records = encodedElements;
+		long firstIndex = elementsCount;
+		if(closing && tail != null)
+		{
+			records = readTailRecords(dataFile, tailStart, end);
+			if(records.size() != tailRecordCount)
+			{
+				throw new IOException("Expected " + tailRecordCount + " records in tail at offset " + tailStart + " but found " + records.size() + "!");
+			}
+			records.addAll(encodedElements);
+			firstIndex -= tailRecordCount;
+		}
+		long freeSize = closing ? end - tailStart : 0;
+
+		int count = records.size();
+		long[] offsets = new long[count];
+		List<Block> blocks = new ArrayList<>();
+		List<byte[]> written = new ArrayList<>();
+		long position = end;
+		dataFile.seek(end);
+		BlockBuilder builder = null;
+		for(int i = 0; i < count; i++)
+		{
+			if(builder != null && closing
+				&& (builder.size >= blockSize || builder.recordCount == MAXIMUM_RECORDS_PER_BLOCK))
+			{
+				position = writeBlock(dataFile, builder, false, 0, 0, 0, blocks, written, position - end < freeSize);
+			}
+			if(builder == null || builder.offset != position)
+			{
+				if(position > MAXIMUM_BLOCK_OFFSET)
+				{
+					throw new IOException("Data file is too large for block offset " + position + "!");
+				}
+				builder = new BlockBuilder(position);
+			}
+			offsets[i] = (builder.offset << RECORD_NUMBER_BITS) | builder.recordCount;
+			builder.add(records.get(i));
+		}
+		if(closing)
+		{
+			// a new tail starts at the last block unless it's full
+			boolean open = builder.size < blockSize && builder.recordCount < MAXIMUM_RECORDS_PER_BLOCK;
+			position = writeBlock(dataFile, builder, open, builder.recordCount, builder.size, 0, blocks, written, position - end < freeSize);
+		}
+		else
+		{
+			position = writeBlock(dataFile, builder, true, tailRecordCount + builder.recordCount, tailSize + builder.size, end - tailStart, blocks, written, false);
+		}
+		indexStrategy.setOffsets(indexFile, firstIndex, offsets);
+
+		long writtenSize = position - end;
+		if(writtenSize <= freeSize && freeSize > 0)
+		{
+			// the tail isn't referenced anymore, reuse its space
+			dataFile.seek(tailStart);
+			for(byte[] current : written)
+			{
+				dataFile.write(current);
+			}
+			long shift = (end - tailStart) << RECORD_NUMBER_BITS;
+			for(int i = 0; i < count; i++)
+			{
+				offsets[i] -= shift;
+			}
+			indexStrategy.setOffsets(indexFile, firstIndex, offsets);
+			dataFile.setLength(tailStart + writtenSize);
+			List<Block> moved = new ArrayList<>(blocks.size());
+			for(Block current : blocks)
+			{
+				moved.add(current.moveTo(current.offset - (end - tailStart)));
+			}
+			blocks = moved;
+		}
+		synchronized(cache)
+		{
+			if(closing)
+			{
+				cache.keySet().removeIf(offset -> offset >= tailStart);
+			}
+			for(Block current : blocks)
+			{
+				cache.put(current.offset, current);
+			}
+		}
+	}
+
+	@Override
+	public boolean set(long index, E element, RandomAccessFile indexFile, RandomAccessFile dataFile, Codec<E> codec, IndexStrategy indexStrategy)
+	{
+		throw new UnsupportedOperationException("BlockCompressedDataStrategy does not support set!");
+	}
+
+	@Override
+	public boolean isSetSupported()
+	{
+		return false;
+	}
+
+	@Override
+	public E get(long index,
+	             RandomAccessFile indexFile,
+	             RandomAccessFile dataFile,
+	             Codec<E> codec,
+	             IndexStrategy indexStrategy)
+		throws IOException
+	{
+		if(codec == null)
+		{
+			throw new IllegalStateException("Codec has not been initialized!");
+		}
+		ByteBuffer record = readRecord(index, indexFile, dataFile, indexStrategy);
+		if(record == null)
+		{
+			return null;
+		}
+		return RecordRangeReader.decode(Collections.singletonList(record), codec).get(0);
+	}
+
+	@Override
+	public byte[] getEncoded(long index,
+	                         RandomAccessFile indexFile,
+	                         RandomAccessFile dataFile,
+	                         IndexStrategy indexStrategy)
+		throws IOException
+	{
+		return toBytes(readRecord(index, indexFile, dataFile, indexStrategy));
+	}
+
+	/**
+	 * Reads the index slice of the range at once and decompresses every block of the range at most once.
+	 */
+	@Override
+	public List<E> getRange(long startIndex,
+	                        int count,
+	                        RandomAccessFile indexFile,
+	                        RandomAccessFile dataFile,
+	                        Codec<E> codec,
+	                        IndexStrategy indexStrategy)
+		throws IOException
+	{
+		if(codec == null)
+		{
+			throw new IllegalStateException("Codec has not been initialized!");
+		}
+		return RecordRangeReader.decode(readSlices(startIndex, count, indexFile, dataFile, indexStrategy), codec);
+	}
+
+	/**
+	 * Reads the index slice of the range at once and decompresses every block of the range at most once.
+	 */
+	@Override
+	public List<byte[]> getEncodedRange(long startIndex,
+	                                    int count,
+	                                    RandomAccessFile indexFile,
+	                                    RandomAccessFile dataFile,
+	                                    IndexStrategy indexStrategy)
+		throws IOException
+	{
+		List<ByteBuffer> slices = readSlices(startIndex, count, indexFile, dataFile, indexStrategy);
+		List<byte[]> result = new ArrayList<>(slices.size());
+		for(ByteBuffer current : slices)
+		{
+			result.add(toBytes(current));
+		}
+		return result;
+	}
+
+	/**
+	 * Clears the cache of decompressed blocks.
+	 */
+	@Override
+	public void reset()
+	{
+		synchronized(cache)
+		{
+			cache.clear();
+		}
+	}
+
+	private ByteBuffer readRecord(long index,
+	                              RandomAccessFile indexFile,
+	                              RandomAccessFile dataFile,
+	                              IndexStrategy indexStrategy)
+		throws IOException
+	{
+		long elementsCount = indexStrategy.getSize(indexFile);
+		if(index >= 0 && index < elementsCount)
+		{
+			long offset = indexStrategy.getOffset(indexFile, index);
+			if(offset < 0)
+			{
+				return null;
+			}
+			int recordNumber = (int) (offset & RECORD_NUMBER_MASK);
+			return getBlock(dataFile, offset >>> RECORD_NUMBER_BITS, recordNumber + 1).getRecord(recordNumber);
+		}
+		return null;
+	}
+
+	private List<ByteBuffer> readSlices(long startIndex,
+	                                    int count,
+	                                    RandomAccessFile indexFile,
+	                                    RandomAccessFile dataFile,
+	                                    IndexStrategy indexStrategy)
+		throws IOException
+	{
+		long elementsCount = indexStrategy.getSize(indexFile);
+		int actualCount = (int) Math.max(0, Math.min(count, elementsCount - startIndex));
+		List<ByteBuffer> result = new ArrayList<>(actualCount);
+		if(actualCount > 0)
+		{
+			long[] offsets = indexStrategy.getOffsets(indexFile, startIndex, actualCount);
+			Block block = null;
+			for(long offset : offsets)
+			{
+				if(offset < 0)
+				{
+					result.add(null);
+					continue;
+				}
+				long blockOffset = offset >>> RECORD_NUMBER_BITS;
+				int recordNumber = (int) (offset & RECORD_NUMBER_MASK);
+				if(block == null || block.offset != blockOffset || block.recordCount <= recordNumber)
+				{
+					block = getBlock(dataFile, blockOffset, recordNumber + 1);
+				}
+				result.add(block.getRecord(recordNumber));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the last block if it is an open block located at the end of the data file.
+	 */
+	private Block getTail(long elementsCount,
+	                      RandomAccessFile indexFile,
+	                      RandomAccessFile dataFile,
+	                      IndexStrategy indexStrategy,
+	                      long end)
+		throws IOException
+	{
+		if(elementsCount <= 0)
+		{
+			return null;
+		}
+		long offset = indexStrategy.getOffset(indexFile, elementsCount - 1);
+		if(offset < 0)
+		{
+			return null;
+		}
+		Block block = getBlock(dataFile, offset >>> RECORD_NUMBER_BITS, (int) (offset & RECORD_NUMBER_MASK) + 1);
+		if(!block.isOpen() || block.getEnd() != end || block.tailDistance > block.offset)
+		{
+			return null;
+		}
+		return block;
+	}
+
+	private List<byte[]> readTailRecords(RandomAccessFile dataFile, long tailStart, long end)
+		throws IOException
+	{
+		List<byte[]> result = new ArrayList<>();
+		long offset = tailStart;
+		while(offset < end)
+		{
+			Block block = getBlock(dataFile, offset, 0);
+			if(!block.isOpen())
+			{
+				throw new IOException("Expected open block at offset " + offset + "!");
+			}
+			for(int i = 0; i < block.recordCount; i++)
+			{
+				result.add(toBytes(block.getRecord(i)));
+			}
+			offset = block.getEnd();
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the builder at the current position of the data file, either compressed or as open block.
+	 *
+	 * @param keeping whether or not the written bytes are added to written.
+	 * @return the end of the written block.
+	 */
+	private static long writeBlock(RandomAccessFile dataFile,
+	                               BlockBuilder builder,
+	                               boolean open,
+	                               int tailRecordCount,
+	                               int tailSize,
+	                               long tailDistance,
+	                               List<Block> blocks,
+	                               List<byte[]> written,
+	                               boolean keeping)
+		throws IOException
+	{
+		ByteBuffer buffer;
+		if(open)
+		{
+			buffer = ByteBuffer.allocate((int) OPEN_BLOCK_HEADER_SIZE + builder.size);
+			buffer.putInt(OPEN_BLOCK_MARKER);
+			buffer.putInt(builder.size);
+			buffer.putInt(builder.recordCount);
+			buffer.putInt(tailRecordCount);
+			buffer.putInt(tailSize);
+			buffer.putLong(tailDistance);
+			buffer.put(builder.data, 0, builder.size);
+		}
+		else
+		{
+			byte[] compressed = deflate(builder.data, builder.size);
+			buffer = ByteBuffer.allocate((int) BLOCK_HEADER_SIZE + compressed.length);
+			buffer.putInt(compressed.length);
+			buffer.putInt(builder.size);
+			buffer.putInt(builder.recordCount);
+			buffer.put(compressed);
+			tailRecordCount = -1;
+			tailSize = 0;
+			tailDistance = 0;
+		}
+		dataFile.write(buffer.array());
+		if(keeping)
+		{
+			written.add(buffer.array());
+		}
+		long end = builder.offset + buffer.capacity();
+		blocks.add(new Block(builder.offset,
+			end,
+			Arrays.copyOf(builder.data, builder.size),
+			Arrays.copyOf(builder.recordOffsets, builder.recordCount),
+			builder.recordCount,
+			tailRecordCount,
+			tailSize,
+			tailDistance));
+		return end;
+	}
+
+	/**
+	 * Returns the cached block at offset if it contains at least requiredRecords records.
+	 * It is read and decompressed otherwise.
+	 */
+	private Block getBlock(RandomAccessFile dataFile, long offset, int requiredRecords)
+		throws IOException
+	{
+		Block result;
+		synchronized(cache)
+		{
+			result = cache.get(offset);
+		}
+		if(result != null && result.recordCount >= requiredRecords)
+		{
+			return result;
+		}
+		result = readBlock(dataFile, offset);
+		if(result.recordCount < requiredRecords)
+		{
+			throw new IndexOutOfBoundsException("Block at offset " + offset + " contains only " + result.recordCount + " records!");
+		}
+		synchronized(cache)
+		{
+			cache.put(offset, result);
+		}
+		return result;
+	}
+
+	private static Block readBlock(RandomAccessFile dataFile, long offset)
+		throws IOException
+	{
+		long dataLength = dataFile.length();
+		if(dataLength < offset + BLOCK_HEADER_SIZE)
+		{
+			throw new IndexOutOfBoundsException("Invalid offset: " + offset + "! Couldn't read block header!");
+		}
+		ByteBuffer header = ByteBuffer.wrap(PositionalIO.readBytes(dataFile, offset, (int) BLOCK_HEADER_SIZE));
+		int compressedLength = header.getInt();
+		int uncompressedLength = header.getInt();
+		int recordCount = header.getInt();
+		int tailRecordCount = -1;
+		int tailSize = 0;
+		long tailDistance = 0;
+		long end;
+		byte[] data;
+		if(compressedLength == OPEN_BLOCK_MARKER)
+		{
+			if(dataLength < offset + OPEN_BLOCK_HEADER_SIZE)
+			{
+				throw new IndexOutOfBoundsException("Invalid offset: " + offset + "! Couldn't read open block header!");
+			}
+			ByteBuffer tailHeader = ByteBuffer.wrap(PositionalIO.readBytes(dataFile, offset + BLOCK_HEADER_SIZE, (int) (OPEN_BLOCK_HEADER_SIZE - BLOCK_HEADER_SIZE)));
+			tailRecordCount = tailHeader.getInt();
+			tailSize = tailHeader.getInt();
+			tailDistance = tailHeader.getLong();
+			end = offset + OPEN_BLOCK_HEADER_SIZE + uncompressedLength;
+			if(uncompressedLength < 0 || recordCount < 0 || tailRecordCount < recordCount || tailSize < uncompressedLength
+				|| tailDistance < 0 || dataLength < end)
+			{
+				throw new IndexOutOfBoundsException("Invalid open block header (" + uncompressedLength + ", " + recordCount + ", " + tailRecordCount + ", " + tailSize + ", " + tailDistance + ") at offset: " + offset + "!");
+			}
+			data = PositionalIO.readBytes(dataFile, offset + OPEN_BLOCK_HEADER_SIZE, uncompressedLength);
+		}
+		else
+		{
+			end = offset + BLOCK_HEADER_SIZE + compressedLength;
+			if(compressedLength < 0 || uncompressedLength < 0 || recordCount < 0
+				|| dataLength < end)
+			{
+				throw new IndexOutOfBoundsException("Invalid block header (" + compressedLength + ", " + uncompressedLength + ", " + recordCount + ") at offset: " + offset + "!");
+			}
+			byte[] compressed = PositionalIO.readBytes(dataFile, offset + BLOCK_HEADER_SIZE, compressedLength);
+			data = inflate(compressed, uncompressedLength);
+		}
+
+		ByteBuffer records = ByteBuffer.wrap(data);
+		int[] recordOffsets = new int[recordCount];
+		int position = 0;
+		for(int i = 0; i < recordCount; i++)
+		{
+			if(position + DefaultDataStrategy.DATA_LENGTH_SIZE > data.length)
+			{
+				throw new IndexOutOfBoundsException("Invalid record " + i + " in block at offset: " + offset + "!");
+			}
+			int length = records.getInt(position);
+			if(length < 0 || position + DefaultDataStrategy.DATA_LENGTH_SIZE + length > data.length)
+			{
+				throw new IndexOutOfBoundsException("Invalid length (" + length + ") of record " + i + " in block at offset: " + offset + "!");
+			}
+			recordOffsets[i] = position;
+			position += (int) DefaultDataStrategy.DATA_LENGTH_SIZE + length;
+		}
+		return new Block(offset, end, data, recordOffsets, recordCount, tailRecordCount, tailSize, tailDistance);
+	}
+
+	private static byte[] deflate(byte[] data, int length)
+	{
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try
+		{
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			byte[] result = new byte[Math.max(64, length / 2)];
+			int size = 0;
+			while(!deflater.finished())
+			{
+				if(size == result.length)
+				{
+					result = Arrays.copyOf(result, result.length * 2);
+				}
+				size += deflater.deflate(result, size, result.length - size);
+			}
+			return Arrays.copyOf(result, size);
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] compressed, int uncompressedLength)
+		throws IOException
+	{
+		Inflater inflater = new Inflater(true);
+		try
+		{
+			inflater.setInput(compressed);
+			byte[] result = new byte[uncompressedLength];
+			int size = 0;
+			while(size < uncompressedLength)
+			{
+				int inflated = inflater.inflate(result, size, uncompressedLength - size);
+				if(inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+				{
+					break;
+				}
+				size += inflated;
+			}
+			if(size != uncompressedLength)
+			{
+				throw new IOException("Expected " + uncompressedLength + " bytes but inflated only " + size + "!");
+			}
+			return result;
+		}
+		catch(DataFormatException e)
+		{
+			throw new IOException("Corrupt block!", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	private static byte[] toBytes(ByteBuffer record)
+	{
+		if(record == null)
+		{
+			return null;
+		}
+		byte[] result = new byte[record.remaining()];
+		record.get(result);
+		return result;
+	}
+
+	private static final class Block
+	{
+		private final long offset;
+		private final long end;
+		private final byte[] data;
+		private final int[] recordOffsets;
+		private final int recordCount;
+		/**
+		 * The number of records of the tail up to and including this block or -1 if the block is compressed.
+		 */
+		private final int tailRecordCount;
+		private final int tailSize;
+		private final long tailDistance;
+
+		Block(long offset, long end, byte[] data, int[] recordOffsets, int recordCount, int tailRecordCount, int tailSize, long tailDistance)
+		{
+			this.offset = offset;
+			this.end = end;
+			this.data = data;
+			this.recordOffsets = recordOffsets;
+			this.recordCount = recordCount;
+			this.tailRecordCount = tailRecordCount;
+			this.tailSize = tailSize;
+			this.tailDistance = tailDistance;
+		}
+
+		long getEnd()
+		{
+			return end;
+		}
+
+		boolean isOpen()
+		{
+			return tailRecordCount >= 0;
+		}
+
+		Block moveTo(long newOffset)
+		{
+			return new Block(newOffset, end - offset + newOffset, data, recordOffsets, recordCount, tailRecordCount, tailSize, tailDistance);
+		}
+
+		ByteBuffer getRecord(int recordNumber)
+		{
+			int position = recordOffsets[recordNumber];
+			int length = ByteBuffer.wrap(data).getInt(position);
+			return ByteBuffer.wrap(data, position + (int) DefaultDataStrategy.DATA_LENGTH_SIZE, length).slice();
+		}
+	}
+
+	private static final class BlockBuilder
+	{
+		private final long offset;
+		private byte[] data;
+		private int size;
+		private int[] recordOffsets;
+		private int recordCount;
+
+		BlockBuilder(long offset)
+		{
+			this.offset = offset;
+			this.data = new byte[1024];
+			this.recordOffsets = new int[16];
+		}
+
+		void add(byte[] encoded)
+		{
+			int recordSize = (int) DefaultDataStrategy.DATA_LENGTH_SIZE + encoded.length;
+			if(size + recordSize > data.length)
+			{
+				data = Arrays.copyOf(data, Math.max(size + recordSize, data.length * 2));
+			}
+			if(recordCount == recordOffsets.length)
+			{
+				recordOffsets = Arrays.copyOf(recordOffsets, recordOffsets.length * 2);
+			}
+			recordOffsets[recordCount] = size;
+			ByteBuffer.wrap(data).putInt(size, encoded.length);
+			System.arraycopy(encoded, 0, data, size + (int) DefaultDataStrategy.DATA_LENGTH_SIZE, encoded.length);
+			size += recordSize;
+			recordCount++;
+		}
+	}
+}
@@ -39,22 +39,40 @@ import de.huxhorn.sulky.buffers.Dispose;
 import de.huxhorn.sulky.buffers.DisposeOperation;
 import de.huxhorn.sulky.buffers.ElementProcessor;
 import de.huxhorn.sulky.buffers.FileBuffer;
+import de.huxhorn.sulky.buffers.GetRange;
+import de.huxhorn.sulky.buffers.GetRangeOperation;
+import de.huxhorn.sulky.buffers.IndexedElementProcessor;
 import de.huxhorn.sulky.buffers.Reset;
 import de.huxhorn.sulky.buffers.SetOperation;
+import de.huxhorn.sulky.buffers.SizeChangeListener;
+import de.huxhorn.sulky.buffers.SizeChangeOperation;
+import de.huxhorn.sulky.buffers.SizeChangeSupport;
 import de.huxhorn.sulky.codec.Codec;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InvalidClassException;
 import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,7 +92,14 @@ import org.slf4j.LoggerFactory;
  * Optional meta data that can be used to provide additional information about the content of the buffer.
  * It might be used to identify the correct Codec required by the buffer
  * </li>
- * <li>Optional ElementProcessors that are executed after elements are added to the buffer.</li>
+ * <li>Optional ElementProcessors that are executed after elements are added to the buffer,
+ * e.g. a TimeIndex used to search elements by time.</li>
+ * <li>An optional mode that keeps the data and index file open until close() or dispose() is called
+ * instead of opening and closing them for every single operation.
+ * Elements are read using positional reads in either case so concurrent readers don't block each other.
+ * </li>
+ * <li>SizeChangeListeners that are notified after elements have been added or the buffer has been reset.</li>
+ * <li>Online compaction of sparse buffers, see compact().</li>
  * </ul>
  *
  * TODO: more documentation :p
@@ -82,10 +107,22 @@ import org.slf4j.LoggerFactory;
  * @param <E> the type of objects that are stored in this buffer.
  */
 public class CodecFileBuffer<E>
-	implements FileBuffer<E>, SetOperation<E>, DisposeOperation
+	implements FileBuffer<E>, SetOperation<E>, GetRangeOperation<E>, DisposeOperation, SizeChangeOperation
 {
 	private final Logger logger = LoggerFactory.getLogger(CodecFileBuffer.class);
 
+	/**
+	 * The number of elements decoded by a single task of getRangeAsync.
+	 */
+	public static final int DECODE_CHUNK_SIZE = 64;
+
+	/**
+	 * The number of elements copied by compact() while holding the read lock.
+	 */
+	public static final int COMPACTION_CHUNK_SIZE = 1024;
+
+	private static final String COMPACTING_EXTENSION = ".compacting";
+
 	private final ReadWriteLock readWriteLock;
 
 	/**
@@ -109,6 +146,15 @@ public class CodecFileBuffer<E>
 	private boolean preferredSparse;
 	private DataStrategy<E> dataStrategy;
 	private IndexStrategy indexStrategy;
+	private final Object sharedFilesMonitor = new Object();
+	private volatile boolean keepingFilesOpen;
+	private volatile OpenFiles sharedFiles;
+	private volatile boolean disposed;
+	private volatile Executor decodeExecutor;
+	private final SizeChangeSupport sizeChangeSupport;
+	private final Lock compactionLock = new ReentrantLock();
+	private final Lock estimateLock = new ReentrantLock();
+	private volatile Compaction compaction;
 
 	/**
 	 * TODO: add description :p
@@ -127,10 +173,29 @@ public class CodecFileBuffer<E>
 
 	public CodecFileBuffer(int magicValue, boolean preferredSparse, Map<String, String> preferredMetaData, Codec<E> codec, File dataFile, File indexFile, FileHeaderStrategy fileHeaderStrategy)
 	{
-		this.indexStrategy = new DefaultIndexStrategy();
+		this(magicValue, preferredSparse, preferredMetaData, codec, dataFile, indexFile, fileHeaderStrategy, new DefaultIndexStrategy());
+	}
+
+	/**
+	 * @param magicValue         the magic value of the buffer.
+	 * @param preferredSparse    whether or not this buffer is sparse, i.e. not continuous.
+	 * @param preferredMetaData  the meta data of the buffer. Might be null.
+	 *                           Non-sparse buffers use block compression if it contains
+	 *                           BlockCompressedDataStrategy.BLOCK_SIZE_KEY.
+	 * @param codec              the codec used by this buffer. Might be null.
+	 * @param dataFile           the data file.
+	 * @param indexFile          the index file of the buffer.
+	 * @param fileHeaderStrategy the strategy used to read and write the file header.
+	 * @param indexStrategy      the strategy used to access the index file, e.g. a MappedIndexStrategy.
+	 *                           It must not be shared with other buffers.
+	 */
+	public CodecFileBuffer(int magicValue, boolean preferredSparse, Map<String, String> preferredMetaData, Codec<E> codec, File dataFile, File indexFile, FileHeaderStrategy fileHeaderStrategy, IndexStrategy indexStrategy)
+	{
+		this.indexStrategy = Objects.requireNonNull(indexStrategy, "indexStrategy must not be null!");
 		this.magicValue = magicValue;
 		this.fileHeaderStrategy = fileHeaderStrategy;
 		this.readWriteLock = new ReentrantReadWriteLock(true);
+		this.sizeChangeSupport = new SizeChangeSupport(this);
 		this.preferredSparse = preferredSparse;
 		if(preferredMetaData != null)
 		{
@@ -159,6 +224,7 @@ public class CodecFileBuffer<E>
 		}
 
 		setIndexFile(indexFile);
+		restoreCompactedIndex();
 
 		if(!initFilesIfNecessary())
 		{
@@ -234,6 +300,78 @@ public class CodecFileBuffer<E>
 		this.elementProcessors = elementProcessors;
 	}
 
+	/**
+	 * @return true if data and index file are kept open between calls.
+	 */
+	public boolean isKeepingFilesOpen()
+	{
+		return keepingFilesOpen;
+	}
+
+	/**
+	 * If keepingFilesOpen is true, data and index file are opened on demand and kept open until
+	 * close() or dispose() is called. Otherwise they are opened and closed by every call.
+	 *
+	 * @param keepingFilesOpen whether or not the files should be kept open.
+	 */
+	public void setKeepingFilesOpen(boolean keepingFilesOpen)
+	{
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try
+		{
+			this.keepingFilesOpen = keepingFilesOpen;
+			if(!keepingFilesOpen)
+			{
+				closeFiles();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes data and index file if they are kept open. They will be reopened on demand.
+	 */
+	public void close()
+	{
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try
+		{
+			closeFiles();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the executor used by getAsync and getRangeAsync.
+	 */
+	public Executor getDecodeExecutor()
+	{
+		Executor result = decodeExecutor;
+		if(result == null)
+		{
+			return ForkJoinPool.commonPool();
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the executor used to read and decode elements in getAsync and getRangeAsync.
+	 *
+	 * @param decodeExecutor the executor, null for ForkJoinPool.commonPool().
+	 */
+	public void setDecodeExecutor(Executor decodeExecutor)
+	{
+		this.decodeExecutor = decodeExecutor;
+	}
+
 	private boolean initFilesIfNecessary()
 	{
 		if(!dataFile.exists() || dataFile.length() < fileHeaderStrategy.getMinimalSize())
@@ -245,6 +383,9 @@ public class CodecFileBuffer<E>
 			lock.lock();
 			try
 			{
+				abortCompaction();
+				closeFiles();
+				Reset.reset(indexStrategy);
 				dataDeleted=dataFile.delete();
 				setFileHeader(fileHeaderStrategy.writeFileHeader(dataFile, magicValue, preferredMetaData, preferredSparse));
 				indexDeleted=indexFile.delete();
@@ -303,6 +444,11 @@ public class CodecFileBuffer<E>
 		return indexFile;
 	}
 
+	public IndexStrategy getIndexStrategy()
+	{
+		return indexStrategy;
+	}
+
 	@Override
 	public long getSize()
 	{
@@ -314,9 +460,9 @@ public class CodecFileBuffer<E>
 		Throwable throwable;
 		Lock lock = readWriteLock.readLock();
 		lock.lock(); // FindBugs "Multithreaded correctness - Method does not release lock on all exception paths" is a false positive
-		try(RandomAccessFile raf = new RandomAccessFile(indexFile, "r"))
+		try(OpenFiles files = openFiles(false))
 		{
-			return indexStrategy.getSize(raf);
+			return indexStrategy.getSize(files.indexFile);
 		}
 		catch(Throwable e)
 		{
@@ -349,10 +495,21 @@ public class CodecFileBuffer<E>
 		Lock lock = readWriteLock.readLock();
 		lock.lock();
 		Throwable throwable;
-		try(RandomAccessFile randomSerializeIndexFile = new RandomAccessFile(indexFile, "r");
-			RandomAccessFile randomSerializeFile = new RandomAccessFile(dataFile, "r"))
+		try
 		{
-			return dataStrategy.get(index, randomSerializeIndexFile, randomSerializeFile, codec, indexStrategy);
+			try
+			{
+				return internalGet(index);
+			}
+			catch(ClosedChannelException e)
+			{
+				if(!keepingFilesOpen || Thread.currentThread().isInterrupted())
+				{
+					throw e;
+				}
+				// the shared files have been closed by the interruption of another reading thread.
+				return internalGet(index);
+			}
 		}
 		catch(Throwable e)
 		{
@@ -380,6 +537,277 @@ public class CodecFileBuffer<E>
 		return null;
 	}
 
+	/**
+	 * Returns the elements of the given range using a single read lock and, depending on the DataStrategy,
+	 * a single read of the index and the data file.
+	 *
+	 * If the bulk read fails, the elements are retrieved one by one so that only the broken elements
+	 * are resolved to null.
+	 *
+	 * @param startIndex the index of the first element.
+	 * @param count the maximum number of elements.
+	 * @return the elements of the given range.
+	 */
+	@Override
+	public List<E> getRange(long startIndex, int count)
+	{
+		GetRange.checkRange(startIndex, count);
+		if(count == 0 || !dataFile.canRead() || !indexFile.canRead())
+		{
+			return new ArrayList<>();
+		}
+
+		Lock lock = readWriteLock.readLock();
+		lock.lock();
+		Throwable throwable;
+		try
+		{
+			try
+			{
+				return internalGetRange(startIndex, count);
+			}
+			catch(ClosedChannelException e)
+			{
+				if(!keepingFilesOpen || Thread.currentThread().isInterrupted())
+				{
+					throw e;
+				}
+				// the shared files have been closed by the interruption of another reading thread.
+				return internalGetRange(startIndex, count);
+			}
+		}
+		catch(Throwable e)
+		{
+			throwable = e;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		// it's a really bad idea to log while locked *sigh*
+		if(logger.isDebugEnabled()) logger.debug("Couldn't retrieve range of {} elements starting at index {}! Falling back to single reads.", count, startIndex, throwable);
+
+		long size = getSize();
+		int actualCount = (int) Math.max(0, Math.min(count, size - startIndex));
+		List<E> result = new ArrayList<>(actualCount);
+		for(int i = 0; i < actualCount; i++)
+		{
+			result.add(get(startIndex + i));
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieves the element at the given index on the decode executor.
+	 *
+	 * The read lock is only held while reading the encoded element so several elements
+	 * can be decoded concurrently.
+	 *
+	 * @param index the index of the element.
+	 * @return a future of the element, completing with null if the element couldn't be retrieved.
+	 * @see #setDecodeExecutor(Executor)
+	 */
+	public CompletableFuture<E> getAsync(long index)
+	{
+		return CompletableFuture.supplyAsync(() -> decode(index, getEncoded(index)), getDecodeExecutor());
+	}
+
+	/**
+	 * Retrieves the elements of the given range on the decode executor.
+	 *
+	 * The encoded elements are read at once while holding the read lock. Afterwards they are
+	 * decoded concurrently in chunks of DECODE_CHUNK_SIZE elements. The order of the elements is preserved.
+	 *
+	 * @param startIndex the index of the first element.
+	 * @param count the maximum number of elements.
+	 * @return a future of the elements of the given range.
+	 * @see #setDecodeExecutor(Executor)
+	 */
+	public CompletableFuture<List<E>> getRangeAsync(long startIndex, int count)
+	{
+		GetRange.checkRange(startIndex, count);
+		Executor executor = getDecodeExecutor();
+		return CompletableFuture.supplyAsync(() -> getEncodedRange(startIndex, count), executor)
+			.thenCompose(encoded -> {
+				if(encoded == null)
+				{
+					return CompletableFuture.supplyAsync(() -> getRange(startIndex, count), executor);
+				}
+				return decodeRange(startIndex, encoded, executor);
+			});
+	}
+
+	private byte[] getEncoded(long index)
+	{
+		if(!dataFile.canRead() || !indexFile.canRead())
+		{
+			return null;
+		}
+
+		Lock lock = readWriteLock.readLock();
+		lock.lock();
+		Throwable throwable;
+		try
+		{
+			try
+			{
+				return internalGetEncoded(index);
+			}
+			catch(ClosedChannelException e)
+			{
+				if(!keepingFilesOpen || Thread.currentThread().isInterrupted())
+				{
+					throw e;
+				}
+				// the shared files have been closed by the interruption of another reading thread.
+				return internalGetEncoded(index);
+			}
+		}
+		catch(Throwable e)
+		{
+			throwable = e;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		// it's a really bad idea to log while locked *sigh*
+		if(logger.isWarnEnabled()) logger.warn("Couldn't retrieve element at index {}!", index, throwable);
+		return null;
+	}
+
+	/**
+	 * @return the encoded elements or null if they couldn't be retrieved.
+	 */
+	private List<byte[]> getEncodedRange(long startIndex, int count)
+	{
+		if(count == 0 || !dataFile.canRead() || !indexFile.canRead())
+		{
+			return new ArrayList<>();
+		}
+
+		Lock lock = readWriteLock.readLock();
+		lock.lock();
+		Throwable throwable;
+		try
+		{
+			try
+			{
+				return internalGetEncodedRange(startIndex, count);
+			}
+			catch(ClosedChannelException e)
+			{
+				if(!keepingFilesOpen || Thread.currentThread().isInterrupted())
+				{
+					throw e;
+				}
+				// the shared files have been closed by the interruption of another reading thread.
+				return internalGetEncodedRange(startIndex, count);
+			}
+		}
+		catch(Throwable e)
+		{
+			throwable = e;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		// it's a really bad idea to log while locked *sigh*
+		if(logger.isDebugEnabled()) logger.debug("Couldn't retrieve range of {} encoded elements starting at index {}!", count, startIndex, throwable);
+		return null;
+	}
+
+	private CompletableFuture<List<E>> decodeRange(long startIndex, List<byte[]> encoded, Executor executor)
+	{
+		int size = encoded.size();
+		List<CompletableFuture<List<E>>> chunks = new ArrayList<>();
+		for(int chunkStart = 0; chunkStart < size; chunkStart += DECODE_CHUNK_SIZE)
+		{
+			int from = chunkStart;
+			int to = Math.min(size, chunkStart + DECODE_CHUNK_SIZE);
+			chunks.add(CompletableFuture.supplyAsync(() -> {
+				List<E> result = new ArrayList<>(to - from);
+				for(int i = from; i < to; i++)
+				{
+					result.add(decode(startIndex + i, encoded.get(i)));
+				}
+				return result;
+			}, executor));
+		}
+		return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
+			.thenApply(ignored -> {
+				List<E> result = new ArrayList<>(size);
+				for(CompletableFuture<List<E>> current : chunks)
+				{
+					result.addAll(current.join());
+				}
+				return result;
+			});
+	}
+
+	private E decode(long index, byte[] encoded)
+	{
+		if(encoded == null)
+		{
+			return null;
+		}
+		Codec<E> localCodec = codec;
+		if(localCodec == null)
+		{
+			if(logger.isWarnEnabled()) logger.warn("Couldn't decode element at index {}! Codec has not been initialized!", index);
+			return null;
+		}
+		try
+		{
+			return localCodec.decode(encoded);
+		}
+		catch(Throwable e)
+		{
+			if(logger.isWarnEnabled()) logger.warn("Couldn't decode element at index {}!", index, e);
+			return null;
+		}
+	}
+
+	private byte[] internalGetEncoded(long index)
+		throws IOException
+	{
+		try(OpenFiles files = openFiles(false))
+		{
+			return dataStrategy.getEncoded(index, files.indexFile, files.dataFile, indexStrategy);
+		}
+	}
+
+	private List<byte[]> internalGetEncodedRange(long startIndex, int count)
+		throws IOException
+	{
+		try(OpenFiles files = openFiles(false))
+		{
+			return dataStrategy.getEncodedRange(startIndex, count, files.indexFile, files.dataFile, indexStrategy);
+		}
+	}
+
+	private List<E> internalGetRange(long startIndex, int count)
+		throws IOException, ClassNotFoundException
+	{
+		try(OpenFiles files = openFiles(false))
+		{
+			return dataStrategy.getRange(startIndex, count, files.indexFile, files.dataFile, codec, indexStrategy);
+		}
+	}
+
+	private E internalGet(long index)
+		throws IOException, ClassNotFoundException
+	{
+		try(OpenFiles files = openFiles(false))
+		{
+			return dataStrategy.get(index, files.indexFile, files.dataFile, codec, indexStrategy);
+		}
+	}
+
 	/**
 	 * Adds the element to the end of the buffer.
 	 *
@@ -394,10 +822,9 @@ public class CodecFileBuffer<E>
 		Lock lock = readWriteLock.writeLock();
 		lock.lock();
 		Throwable throwable = null;
-		try(RandomAccessFile randomIndexFile = new RandomAccessFile(indexFile, "rw");
-			RandomAccessFile randomDataFile = new RandomAccessFile(dataFile, "rw"))
+		try(OpenFiles files = openFiles(true))
 		{
-			dataStrategy.add(element, randomIndexFile, randomDataFile, codec, indexStrategy);
+			dataStrategy.add(element, files.indexFile, files.dataFile, codec, indexStrategy);
 			// call processors if available
 			List<ElementProcessor<E>> localProcessors = elementProcessors;
 			if(localProcessors != null)
@@ -420,7 +847,9 @@ public class CodecFileBuffer<E>
 		{
 			// it's a really bad idea to log while locked *sigh*
 			if(logger.isWarnEnabled()) logger.warn("Couldn't write element!", throwable); // NOPMD
+			return;
 		}
+		sizeChangeSupport.fireSizeChanged();
 	}
 
 	/**
@@ -440,12 +869,10 @@ public class CodecFileBuffer<E>
 			{
 				Lock lock = readWriteLock.writeLock();
 				lock.lock();
-				Throwable throwable;
-				try(RandomAccessFile randomIndexFile = new RandomAccessFile(indexFile, "rw");
-					RandomAccessFile randomDataFile = new RandomAccessFile(dataFile, "rw")
-				)
+				Throwable throwable = null;
+				try(OpenFiles files = openFiles(true))
 				{
-					dataStrategy.addAll(elements, randomIndexFile, randomDataFile, codec, indexStrategy);
+					dataStrategy.addAll(elements, files.indexFile, files.dataFile, codec, indexStrategy);
 
 					// call processors if available
 					if(elementProcessors != null)
@@ -455,7 +882,6 @@ public class CodecFileBuffer<E>
 							current.processElements(elements);
 						}
 					}
-					return;
 				}
 				catch(Throwable e)
 				{
@@ -465,29 +891,87 @@ public class CodecFileBuffer<E>
 				{
 					lock.unlock();
 				}
-				// it's a really bad idea to log while locked *sigh*
-				if(logger.isWarnEnabled()) logger.warn("Couldn't write element!", throwable); // NOPMD
+				if(throwable != null)
+				{
+					// it's a really bad idea to log while locked *sigh*
+					if(logger.isWarnEnabled()) logger.warn("Couldn't write element!", throwable); // NOPMD
+					return;
+				}
+				sizeChangeSupport.fireSizeChanged();
 			}
 		}
 	}
 
-	@Override
-	public void addAll(E[] elements)
-	{
-		addAll(Arrays.asList(elements));
-	}
-
-
-	@Override
-	public void reset()
+	/**
+	 * Appends elements that have already been encoded using the codec of this buffer.
+	 *
+	 * In contrast to addAll, failures are not logged but thrown.
+	 *
+	 * @param elements the elements, passed to the element processors.
+	 * @param encodedElements the encoded elements, in the same order.
+	 * @param syncing whether or not both files should be synced to the underlying device.
+	 * @throws IOException in case of IOException :p
+	 */
+	void addAllEncoded(List<E> elements, List<byte[]> encodedElements, boolean syncing)
+		throws IOException
 	{
-		Throwable t=null;
-		boolean indexDeleted=false;
+		if(elements.size() != encodedElements.size())
+		{
+			throw new IllegalArgumentException("elements and encodedElements must have the same size!");
+		}
+		if(elements.isEmpty())
+		{
+			return;
+		}
+		initFilesIfNecessary();
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try(OpenFiles files = openFiles(true))
+		{
+			dataStrategy.addAllEncoded(encodedElements, files.indexFile, files.dataFile, indexStrategy);
+			if(syncing)
+			{
+				files.dataFile.getFD().sync();
+				files.indexFile.getFD().sync();
+			}
+
+			// call processors if available
+			if(elementProcessors != null)
+			{
+				for(ElementProcessor<E> current : elementProcessors)
+				{
+					current.processElements(elements);
+				}
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		sizeChangeSupport.fireSizeChanged();
+	}
+
+	@Override
+	public void addAll(E[] elements)
+	{
+		addAll(Arrays.asList(elements));
+	}
+
+
+	@Override
+	public void reset()
+	{
+		Throwable t=null;
+		boolean indexDeleted=false;
 		boolean dataDeleted=false;
 		Lock lock = readWriteLock.writeLock();
 		lock.lock();
 		try
 		{
+			abortCompaction();
+			closeFiles();
+			Reset.reset(indexStrategy);
+			Reset.reset(dataStrategy);
 			indexDeleted=indexFile.delete();
 			dataDeleted=dataFile.delete();
 			fileHeaderStrategy.writeFileHeader(dataFile, magicValue, preferredMetaData, preferredSparse);
@@ -519,6 +1003,19 @@ public class CodecFileBuffer<E>
 		{
 			if(logger.isWarnEnabled()) logger.warn("Exception while resetting file!", t); // NOPMD
 		}
+		sizeChangeSupport.fireSizeChanged();
+	}
+
+	@Override
+	public void addSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.addSizeChangeListener(listener);
+	}
+
+	@Override
+	public void removeSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.removeSizeChangeListener(listener);
 	}
 
 	/**
@@ -596,6 +1093,8 @@ public class CodecFileBuffer<E>
 		}
 
 		result.append(", codec=").append(codec)
+				.append(", indexStrategy=").append(indexStrategy)
+				.append(", keepingFilesOpen=").append(keepingFilesOpen)
 				.append(']');
 
 		return result.toString();
@@ -604,6 +1103,18 @@ public class CodecFileBuffer<E>
 	@Override
 	public void dispose()
 	{
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try
+		{
+			disposed = true;
+			abortCompaction();
+			closeFiles();
+		}
+		finally
+		{
+			lock.unlock();
+		}
 
 		if(elementProcessors != null)
 		{
@@ -612,13 +1123,62 @@ public class CodecFileBuffer<E>
 				Dispose.dispose(current);
 			}
 		}
-		// TODO: implement dispose()
 	}
 
 	@Override
 	public boolean isDisposed()
 	{
-		return false;  // TODO: implement isDisposed()
+		return disposed;
+	}
+
+	/**
+	 * Returns the files to be used by a single operation.
+	 *
+	 * The result must be closed after use. This is a no-op if the files are kept open.
+	 *
+	 * @param writing whether or not the files are about to be modified.
+	 * @return the files to be used by a single operation.
+	 * @throws IOException if the files could not be opened.
+	 */
+	private OpenFiles openFiles(boolean writing)
+		throws IOException
+	{
+		if(!keepingFilesOpen || disposed)
+		{
+			return new OpenFiles(indexFile, dataFile, writing ? "rw" : "r", false);
+		}
+		OpenFiles result = sharedFiles;
+		if(result != null && result.isValid(writing))
+		{
+			return result;
+		}
+		synchronized(sharedFilesMonitor)
+		{
+			result = sharedFiles;
+			if(result == null || !result.isValid(writing))
+			{
+				if(result != null)
+				{
+					result.closeFiles();
+				}
+				// shared files stay read-only until the first write so read-only files can still be read.
+				result = new OpenFiles(indexFile, dataFile, writing ? "rw" : "r", true);
+				sharedFiles = result;
+			}
+			return result;
+		}
+	}
+
+	private void closeFiles()
+	{
+		synchronized(sharedFilesMonitor)
+		{
+			if(sharedFiles != null)
+			{
+				sharedFiles.closeFiles();
+				sharedFiles = null;
+			}
+		}
 	}
 
 	private void setFileHeader(FileHeader fileHeader)
@@ -628,6 +1188,10 @@ public class CodecFileBuffer<E>
 		{
 			dataStrategy = new SparseDataStrategy<>();
 		}
+		else if(BlockCompressedDataStrategy.isBlockCompressed(metaData))
+		{
+			dataStrategy = new BlockCompressedDataStrategy<>(BlockCompressedDataStrategy.getBlockSize(metaData));
+		}
 		else
 		{
 			dataStrategy = new DefaultDataStrategy<>();
@@ -644,17 +1208,28 @@ public class CodecFileBuffer<E>
 		lock.lock();
 		Throwable throwable = null;
 		boolean result = false;
-		try(RandomAccessFile randomIndexFile = new RandomAccessFile(indexFile, "rw");
-			RandomAccessFile randomDataFile = new RandomAccessFile(dataFile, "rw"))
+		try(OpenFiles files = openFiles(true))
 		{
-			result = dataStrategy.set(index, element, randomIndexFile, randomDataFile, codec, indexStrategy);
+			result = dataStrategy.set(index, element, files.indexFile, files.dataFile, codec, indexStrategy);
+			Compaction currentCompaction = compaction;
+			if(result && currentCompaction != null)
+			{
+				currentCompaction.dirtyIndices.add(index);
+			}
 			// call processors if available
 			List<ElementProcessor<E>> localProcessors = elementProcessors;
-			if(localProcessors != null)
+			if(result && localProcessors != null)
 			{
-				for(ElementProcessor<E> current : elementProcessors)
+				for(ElementProcessor<E> current : localProcessors)
 				{
-					current.processElement(element);
+					if(current instanceof IndexedElementProcessor)
+					{
+						((IndexedElementProcessor<E>) current).processElement(index, element);
+					}
+					else
+					{
+						current.processElement(element);
+					}
 				}
 			}
 		}
@@ -671,6 +1246,11 @@ public class CodecFileBuffer<E>
 			// it's a really bad idea to log while locked *sigh*
 			if(logger.isWarnEnabled()) logger.warn("Couldn't write element!", throwable); // NOPMD
 		}
+		if(result)
+		{
+			// a sparse set past the end grows the buffer
+			sizeChangeSupport.fireSizeChanged();
+		}
 		return result;
 	}
 
@@ -679,4 +1259,458 @@ public class CodecFileBuffer<E>
 	{
 		return dataStrategy != null && dataStrategy.isSetSupported();
 	}
+
+	/**
+	 * Returns the number of bytes in the data file that are occupied by records that have been
+	 * replaced or removed by set.
+	 *
+	 * The dead bytes of an existing data file are estimated from the records referenced by the index
+	 * the first time this method is called. Afterwards, replaced records are counted.
+	 * Like compact(), the estimate reads chunks of COMPACTION_CHUNK_SIZE records while holding the read lock
+	 * so writers aren't blocked for long. Concurrent calls return the dead bytes known so far.
+	 *
+	 * @return the number of dead bytes, always 0 if this buffer isn't sparse.
+	 */
+	public long getDeadBytes()
+	{
+		DataStrategy<E> strategy = dataStrategy;
+		if(!(strategy instanceof SparseDataStrategy))
+		{
+			return 0;
+		}
+		SparseDataStrategy<E> sparseStrategy = (SparseDataStrategy<E>) strategy;
+		if(!sparseStrategy.isDeadBytesKnown() && indexFile.canRead() && estimateLock.tryLock())
+		{
+			try
+			{
+				estimateDeadBytes(sparseStrategy);
+			}
+			finally
+			{
+				estimateLock.unlock();
+			}
+		}
+		return sparseStrategy.getDeadBytes();
+	}
+
+	private void estimateDeadBytes(SparseDataStrategy<E> strategy)
+	{
+		Throwable throwable = null;
+		boolean started = false;
+		boolean running = true;
+		try
+		{
+			while(running)
+			{
+				Lock lock = readWriteLock.readLock();
+				lock.lock();
+				try(OpenFiles files = openFiles(false))
+				{
+					if(dataStrategy != strategy || strategy.isDeadBytesKnown())
+					{
+						// replaced by reset, compaction or another data file
+						break;
+					}
+					if(!started)
+					{
+						strategy.startEstimate(files.indexFile, files.dataFile, indexStrategy);
+						started = true;
+					}
+					running = strategy.continueEstimate(files.indexFile, files.dataFile, fileHeader.getDataOffset(), indexStrategy, COMPACTION_CHUNK_SIZE);
+				}
+				finally
+				{
+					lock.unlock();
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			throwable = e;
+		}
+		if(throwable != null)
+		{
+			if(logger.isDebugEnabled()) logger.debug("Couldn't estimate dead bytes!", throwable);
+		}
+	}
+
+	/**
+	 * Rewrites all live records of a sparse buffer into a fresh data file and index file,
+	 * dropping records that have been replaced or removed by set.
+	 *
+	 * Records are copied in chunks of COMPACTION_CHUNK_SIZE while holding the read lock
+	 * so readers and writers keep working during compaction. Elements that are set or added
+	 * in the meantime are copied again while holding the write lock, followed by the replacement
+	 * of data and index file.
+	 *
+	 * The data file is replaced before the index file, so a failure to replace the data file leaves
+	 * the previous files untouched. If the index file can't be replaced afterwards, the compacted index
+	 * is kept and restored the next time a buffer is created for these files.
+	 *
+	 * Only a single compaction is executed at any time. A compaction is aborted by reset() and dispose().
+	 *
+	 * @return true if the buffer has been compacted, false if it isn't sparse, compaction has been aborted,
+	 * another compaction is already running or an error occurred.
+	 */
+	public boolean compact()
+	{
+		if(!compactionLock.tryLock())
+		{
+			return false;
+		}
+		File tempDataFile = new File(dataFile.getParentFile(), dataFile.getName() + COMPACTING_EXTENSION);
+		File tempIndexFile = new File(indexFile.getParentFile(), indexFile.getName() + COMPACTING_EXTENSION);
+		Compaction current = new Compaction();
+		Throwable throwable = null;
+		CompactionResult result = null;
+		try
+		{
+			result = internalCompact(current, tempDataFile, tempIndexFile);
+		}
+		catch(IOException | RuntimeException e)
+		{
+			throwable = e;
+		}
+		finally
+		{
+			compaction = null;
+			compactionLock.unlock();
+		}
+		if(result == null && !current.dataReplaced)
+		{
+			// the index is deleted first, see restoreCompactedIndex()
+			deleteTempFile(tempIndexFile);
+			deleteTempFile(tempDataFile);
+		}
+		if(throwable != null)
+		{
+			if(logger.isWarnEnabled()) logger.warn("Exception while compacting {}!", dataFile.getAbsolutePath(), throwable); // NOPMD
+			return false;
+		}
+		if(result == null)
+		{
+			return false;
+		}
+		if(logger.isInfoEnabled()) logger.info("Compacted {} from {} to {} bytes.", dataFile.getAbsolutePath(), result.previousLength, result.length); // NOPMD
+		return true;
+	}
+
+	private CompactionResult internalCompact(Compaction current, File tempDataFile, File tempIndexFile)
+		throws IOException
+	{
+		if(!indexFile.canRead())
+		{
+			return null;
+		}
+		long size;
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try(OpenFiles files = openFiles(false))
+		{
+			if(disposed || !(dataStrategy instanceof SparseDataStrategy))
+			{
+				return null;
+			}
+			size = indexStrategy.getSize(files.indexFile);
+			compaction = current;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		Files.deleteIfExists(tempDataFile.toPath());
+		Files.deleteIfExists(tempIndexFile.toPath());
+		Map<String, String> metaData = fileHeader.getMetaData().getData();
+		fileHeaderStrategy.writeFileHeader(tempDataFile, magicValue, metaData.isEmpty() ? null : metaData, true);
+		IndexStrategy tempIndexStrategy = new DefaultIndexStrategy();
+		try(RandomAccessFile tempData = new RandomAccessFile(tempDataFile, "rw");
+			RandomAccessFile tempIndex = new RandomAccessFile(tempIndexFile, "rw"))
+		{
+			for(long startIndex = 0; startIndex < size; startIndex += COMPACTION_CHUNK_SIZE)
+			{
+				int count = (int) Math.min(COMPACTION_CHUNK_SIZE, size - startIndex);
+				List<byte[]> encoded;
+				lock = readWriteLock.readLock();
+				lock.lock();
+				try(OpenFiles files = openFiles(false))
+				{
+					if(current.aborted)
+					{
+						return null;
+					}
+					encoded = dataStrategy.getEncodedRange(startIndex, count, files.indexFile, files.dataFile, indexStrategy);
+				}
+				finally
+				{
+					lock.unlock();
+				}
+				// writing the copy doesn't require any lock.
+				copyRecords(tempData, tempIndex, tempIndexStrategy, startIndex, encoded);
+			}
+
+			lock = readWriteLock.writeLock();
+			lock.lock();
+			try
+			{
+				if(current.aborted)
+				{
+					return null;
+				}
+				long deadBytes = 0;
+				long previousLength;
+				try(OpenFiles files = openFiles(false))
+				{
+					for(Long index : current.dirtyIndices)
+					{
+						if(index >= size)
+						{
+							// copied below
+							continue;
+						}
+						long previousOffset = tempIndexStrategy.getOffset(tempIndex, index);
+						if(previousOffset >= 0)
+						{
+							deadBytes += SparseDataStrategy.getRecordSize(tempData, previousOffset);
+						}
+						byte[] encoded = dataStrategy.getEncoded(index, files.indexFile, files.dataFile, indexStrategy);
+						if(encoded == null)
+						{
+							tempIndexStrategy.setOffset(tempIndex, index, -1);
+						}
+						else
+						{
+							copyRecords(tempData, tempIndex, tempIndexStrategy, index, Collections.singletonList(encoded));
+						}
+					}
+					long currentSize = indexStrategy.getSize(files.indexFile);
+					for(long startIndex = size; startIndex < currentSize; startIndex += COMPACTION_CHUNK_SIZE)
+					{
+						int count = (int) Math.min(COMPACTION_CHUNK_SIZE, currentSize - startIndex);
+						copyRecords(tempData, tempIndex, tempIndexStrategy, startIndex, dataStrategy.getEncodedRange(startIndex, count, files.indexFile, files.dataFile, indexStrategy));
+					}
+					if(currentSize > 0 && tempIndexStrategy.getSize(tempIndex) < currentSize)
+					{
+						// trailing null values
+						tempIndexStrategy.setOffset(tempIndex, currentSize - 1, -1);
+					}
+					previousLength = files.dataFile.length();
+				}
+				tempData.getFD().sync();
+				tempIndex.getFD().sync();
+				long length = tempData.length();
+				tempData.close();
+				tempIndex.close();
+
+				closeFiles();
+				moveFile(tempDataFile, dataFile);
+				current.dataReplaced = true;
+				Reset.reset(indexStrategy);
+				try
+				{
+					moveFile(tempIndexFile, indexFile);
+				}
+				catch(IOException e)
+				{
+					// the previous index doesn't match the compacted data file.
+					Files.deleteIfExists(indexFile.toPath());
+					throw e;
+				}
+				((SparseDataStrategy<E>) dataStrategy).setDeadBytes(deadBytes);
+				return new CompactionResult(previousLength, length);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Writes runs of consecutive non-null records into the given files.
+	 * Null values are implicitly contained as -1 offsets if they are followed by a record.
+	 */
+	private static void copyRecords(RandomAccessFile dataFile, RandomAccessFile indexFile, IndexStrategy indexStrategy, long startIndex, List<byte[]> encoded)
+		throws IOException
+	{
+		int count = encoded.size();
+		int runStart = 0;
+		while(runStart < count)
+		{
+			while(runStart < count && encoded.get(runStart) == null)
+			{
+				runStart++;
+			}
+			int runEnd = runStart;
+			while(runEnd < count && encoded.get(runEnd) != null)
+			{
+				runEnd++;
+			}
+			if(runEnd > runStart)
+			{
+				long runIndex = startIndex + runStart;
+				long[] offsets = RecordBatchWriter.writeRecords(dataFile, encoded.subList(runStart, runEnd), runIndex, true);
+				indexStrategy.setOffsets(indexFile, runIndex, offsets);
+			}
+			runStart = runEnd;
+		}
+	}
+
+	private static void moveFile(File source, File target)
+		throws IOException
+	{
+		try
+		{
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e)
+		{
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Moves the index of a compaction into place if the compaction has replaced the data file
+	 * but failed to replace the index file. This is the case if the temporary index file
+	 * exists without its temporary data file.
+	 */
+	private void restoreCompactedIndex()
+	{
+		File tempDataFile = new File(dataFile.getParentFile(), dataFile.getName() + COMPACTING_EXTENSION);
+		File tempIndexFile = new File(indexFile.getParentFile(), indexFile.getName() + COMPACTING_EXTENSION);
+		if(!tempIndexFile.isFile() || tempDataFile.exists())
+		{
+			return;
+		}
+		try
+		{
+			moveFile(tempIndexFile, indexFile);
+			if(logger.isInfoEnabled()) logger.info("Restored compacted index {}.", indexFile.getAbsolutePath()); // NOPMD
+		}
+		catch(IOException e)
+		{
+			if(logger.isWarnEnabled()) logger.warn("Exception while restoring compacted index {}!", indexFile.getAbsolutePath(), e); // NOPMD
+		}
+	}
+
+	private void deleteTempFile(File file)
+	{
+		if(file.exists() && !file.delete())
+		{
+			if(logger.isDebugEnabled()) logger.debug("Couldn't delete temporary file {}.", file.getAbsolutePath()); // NOPMD
+		}
+	}
+
+	/**
+	 * Must be called while holding the write lock.
+	 */
+	private void abortCompaction()
+	{
+		Compaction current = compaction;
+		if(current != null)
+		{
+			current.aborted = true;
+		}
+	}
+
+	/**
+	 * State of a running compaction. dirtyIndices is only accessed while holding the write lock.
+	 */
+	private static final class Compaction
+	{
+		private final Set<Long> dirtyIndices = new HashSet<>();
+		private volatile boolean aborted;
+		private boolean dataReplaced;
+	}
+
+	private static final class CompactionResult
+	{
+		private final long previousLength;
+		private final long length;
+
+		CompactionResult(long previousLength, long length)
+		{
+			this.previousLength = previousLength;
+			this.length = length;
+		}
+	}
+
+	private static final class OpenFiles
+		implements Closeable
+	{
+		private final File indexPath;
+		private final RandomAccessFile indexFile;
+		private final RandomAccessFile dataFile;
+		private final boolean writable;
+		private final boolean shared;
+
+		OpenFiles(File indexPath, File dataPath, String mode, boolean shared)
+			throws IOException
+		{
+			this.indexPath = indexPath;
+			this.indexFile = new RandomAccessFile(indexPath, mode);
+			try
+			{
+				this.dataFile = new RandomAccessFile(dataPath, mode);
+			}
+			catch(IOException ex)
+			{
+				indexFile.close();
+				throw ex;
+			}
+			this.writable = "rw".equals(mode);
+			this.shared = shared;
+		}
+
+		/**
+		 * @param writing whether or not the files are about to be modified.
+		 * @return false if the files have been closed, e.g. because of an interrupted read,
+		 * if the index file has been deleted in the meantime or if the files have only been opened for reading.
+		 */
+		boolean isValid(boolean writing)
+		{
+			if(!indexFile.getChannel().isOpen() || !dataFile.getChannel().isOpen())
+			{
+				return false;
+			}
+			return !writing || writable && indexPath.exists();
+		}
+
+		@Override
+		public void close()
+			throws IOException
+		{
+			if(!shared)
+			{
+				try
+				{
+					indexFile.close();
+				}
+				finally
+				{
+					dataFile.close();
+				}
+			}
+		}
+
+		void closeFiles()
+		{
+			try
+			{
+				indexFile.close();
+			}
+			catch (IOException e)
+			{
+				// ignore
+			}
+			try
+			{
+				dataFile.close();
+			}
+			catch (IOException e)
+			{
+				// ignore
+			}
+		}
+	}
 }
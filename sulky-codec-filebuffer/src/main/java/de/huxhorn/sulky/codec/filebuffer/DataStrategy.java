@@ -37,6 +37,7 @@ package de.huxhorn.sulky.codec.filebuffer;
 import de.huxhorn.sulky.codec.Codec;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.List;
 
 public interface DataStrategy<E>
@@ -56,6 +57,21 @@ public interface DataStrategy<E>
 	            IndexStrategy indexStrategy)
 		throws IOException;
 
+	/**
+	 * Appends elements that have already been encoded, e.g. on other threads.
+	 *
+	 * @param encodedElements the encoded elements, must not contain null.
+	 * @param indexFile the index file.
+	 * @param dataFile the data file.
+	 * @param indexStrategy the index strategy.
+	 * @throws IOException in case of IOException :p
+	 */
+	void addAllEncoded(List<byte[]> encodedElements,
+	                   RandomAccessFile indexFile,
+	                   RandomAccessFile dataFile,
+	                   IndexStrategy indexStrategy)
+		throws IOException;
+
 	boolean set(long index, E element,
 	            RandomAccessFile indexFile,
 	            RandomAccessFile dataFile,
@@ -71,4 +87,90 @@ public interface DataStrategy<E>
 	      Codec<E> codec,
 	      IndexStrategy indexStrategy)
 		throws IOException, ClassNotFoundException;
+
+	/**
+	 * Returns the encoded element at the given index so that it can be decoded by the caller,
+	 * e.g. on another thread.
+	 *
+	 * @param index the index of the element.
+	 * @param indexFile the index file.
+	 * @param dataFile the data file.
+	 * @param indexStrategy the index strategy.
+	 * @return the encoded element or null if there is no element at the given index.
+	 * @throws IOException in case of IOException :p
+	 */
+	byte[] getEncoded(long index,
+	                  RandomAccessFile indexFile,
+	                  RandomAccessFile dataFile,
+	                  IndexStrategy indexStrategy)
+		throws IOException;
+
+	/**
+	 * Returns the encoded elements in the range <code>[startIndex..(startIndex+count-1)]</code>.
+	 *
+	 * The result contains fewer than count elements if the range exceeds the number of elements.
+	 * Missing elements are contained as null.
+	 *
+	 * This default implementation simply calls getEncoded for every index.
+	 *
+	 * @param startIndex the index of the first element, must not be negative.
+	 * @param count the maximum number of elements, must not be negative.
+	 * @param indexFile the index file.
+	 * @param dataFile the data file.
+	 * @param indexStrategy the index strategy.
+	 * @return the encoded elements of the given range.
+	 * @throws IOException in case of IOException :p
+	 */
+	default List<byte[]> getEncodedRange(long startIndex,
+	                                     int count,
+	                                     RandomAccessFile indexFile,
+	                                     RandomAccessFile dataFile,
+	                                     IndexStrategy indexStrategy)
+		throws IOException
+	{
+		long elementsCount = indexStrategy.getSize(indexFile);
+		int actualCount = (int) Math.max(0, Math.min(count, elementsCount - startIndex));
+		List<byte[]> result = new ArrayList<>(actualCount);
+		for(int i = 0; i < actualCount; i++)
+		{
+			result.add(getEncoded(startIndex + i, indexFile, dataFile, indexStrategy));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the elements in the range <code>[startIndex..(startIndex+count-1)]</code>.
+	 *
+	 * The result contains fewer than count elements if the range exceeds the number of elements.
+	 * Missing elements are contained as null.
+	 *
+	 * This default implementation simply calls get for every index.
+	 *
+	 * @param startIndex the index of the first element, must not be negative.
+	 * @param count the maximum number of elements, must not be negative.
+	 * @param indexFile the index file.
+	 * @param dataFile the data file.
+	 * @param codec the codec used to decode the elements.
+	 * @param indexStrategy the index strategy.
+	 * @return the elements of the given range.
+	 * @throws IOException in case of IOException :p
+	 * @throws ClassNotFoundException if an element could not be decoded.
+	 */
+	default List<E> getRange(long startIndex,
+	                         int count,
+	                         RandomAccessFile indexFile,
+	                         RandomAccessFile dataFile,
+	                         Codec<E> codec,
+	                         IndexStrategy indexStrategy)
+		throws IOException, ClassNotFoundException
+	{
+		long elementsCount = indexStrategy.getSize(indexFile);
+		int actualCount = (int) Math.max(0, Math.min(count, elementsCount - startIndex));
+		List<E> result = new ArrayList<>(actualCount);
+		for(int i = 0; i < actualCount; i++)
+		{
+			result.add(get(startIndex + i, indexFile, dataFile, codec, indexStrategy));
+		}
+		return result;
+	}
 }
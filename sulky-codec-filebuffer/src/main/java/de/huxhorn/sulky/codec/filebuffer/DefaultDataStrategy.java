@@ -35,8 +35,11 @@
 package de.huxhorn.sulky.codec.filebuffer;
 
 import de.huxhorn.sulky.codec.Codec;
+import de.huxhorn.sulky.codec.buffer.ByteBufferCodecs;
+import de.huxhorn.sulky.codec.buffer.ByteBufferEncoder;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.Collections;
 import java.util.List;
 
 public class DefaultDataStrategy<E>
@@ -55,6 +58,11 @@ public class DefaultDataStrategy<E>
 	                IndexStrategy indexStrategy)
 		throws IOException
 	{
+		if(ByteBufferCodecs.directEncoderOf(codec) != null)
+		{
+			addAll(Collections.singletonList(element), indexFile, dataFile, codec, indexStrategy);
+			return;
+		}
 		long elementsCount = indexStrategy.getSize(indexFile);
 
 		long offset = dataFile.length();
@@ -65,6 +73,12 @@ public class DefaultDataStrategy<E>
 
 	}
 
+	/**
+	 * Encodes all elements before appending them using a single write of the data file
+	 * and a single call of IndexStrategy.setOffsets.
+	 *
+	 * If the codec writes directly into ByteBuffers, the elements are encoded directly into the write buffer.
+	 */
 	@Override
 	public void addAll(List<E> elements,
 	                   RandomAccessFile indexFile,
@@ -73,31 +87,32 @@ public class DefaultDataStrategy<E>
 	                   IndexStrategy indexStrategy)
 		throws IOException
 	{
-		if(elements != null)
+		if(elements != null && !elements.isEmpty())
 		{
-			int newElementCount = elements.size();
-			if(newElementCount > 0)
+			ByteBufferEncoder<E> encoder = ByteBufferCodecs.directEncoderOf(codec);
+			if(encoder != null)
 			{
 				long elementsCount = indexStrategy.getSize(indexFile);
-
-				long offset = dataFile.length();
-				long[] offsets = new long[newElementCount];
-				int index = 0;
-				for(E element : elements)
-				{
-					offsets[index] = offset;
-					offset = offset + internalWriteElement(dataFile, offset, element, codec) + DATA_LENGTH_SIZE;
-					index++;
-				}
-
-				index = 0;
-				for(long curOffset : offsets)
-				{
-					indexStrategy.setOffset(indexFile, elementsCount + index, curOffset);
-					index++;
-				}
+				long[] offsets = RecordBatchWriter.writeElements(dataFile, elements, encoder, elementsCount, false);
+				indexStrategy.setOffsets(indexFile, elementsCount, offsets);
+				return;
 			}
+			addAllEncoded(RecordBatchWriter.encode(elements, codec), indexFile, dataFile, indexStrategy);
+		}
+	}
 
+	@Override
+	public void addAllEncoded(List<byte[]> encodedElements,
+	                          RandomAccessFile indexFile,
+	                          RandomAccessFile dataFile,
+	                          IndexStrategy indexStrategy)
+		throws IOException
+	{
+		if(encodedElements != null && !encodedElements.isEmpty())
+		{
+			long elementsCount = indexStrategy.getSize(indexFile);
+			long[] offsets = RecordBatchWriter.writeRecords(dataFile, encodedElements, elementsCount, false);
+			indexStrategy.setOffsets(indexFile, elementsCount, offsets);
 		}
 	}
 
@@ -135,6 +150,61 @@ public class DefaultDataStrategy<E>
 		return null;
 	}
 
+	/**
+	 * Reads the index slice of the range at once, followed by a single read of the data region
+	 * containing all elements of the range.
+	 */
+	@Override
+	public List<E> getRange(long startIndex,
+	                        int count,
+	                        RandomAccessFile indexFile,
+	                        RandomAccessFile dataFile,
+	                        Codec<E> codec,
+	                        IndexStrategy indexStrategy)
+		throws IOException
+	{
+		if(codec == null)
+		{
+			throw new IllegalStateException("Codec has not been initialized!");
+		}
+		return RecordRangeReader.decode(RecordRangeReader.readSlices(startIndex, count, indexFile, dataFile, indexStrategy, (int) DATA_LENGTH_SIZE), codec);
+	}
+
+	@Override
+	public byte[] getEncoded(long index,
+	                         RandomAccessFile indexFile,
+	                         RandomAccessFile dataFile,
+	                         IndexStrategy indexStrategy)
+		throws IOException
+	{
+		long elementsCount = indexStrategy.getSize(indexFile);
+		if(index >= 0 && index < elementsCount)
+		{
+			long offset = indexStrategy.getOffset(indexFile, index);
+			if(offset < 0)
+			{
+				return null;
+			}
+
+			return internalReadEncoded(dataFile, offset);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the index slice of the range at once, followed by a single read of the data region
+	 * containing all elements of the range.
+	 */
+	@Override
+	public List<byte[]> getEncodedRange(long startIndex,
+	                                    int count,
+	                                    RandomAccessFile indexFile,
+	                                    RandomAccessFile dataFile,
+	                                    IndexStrategy indexStrategy)
+		throws IOException
+	{
+		return RecordRangeReader.readRange(startIndex, count, indexFile, dataFile, indexStrategy, (int) DATA_LENGTH_SIZE);
+	}
 
 	private int internalWriteElement(RandomAccessFile dataFile, long offset, E element, Codec<E> codec)
 		throws IOException
@@ -160,19 +230,21 @@ public class DefaultDataStrategy<E>
 		{
 			throw new IllegalStateException("Codec has not been initialized!");
 		}
+		return codec.decode(internalReadEncoded(dataFile, offset));
+	}
 
+	private byte[] internalReadEncoded(RandomAccessFile dataFile, long offset)
+		throws IOException
+	{
 		if(dataFile.length() < offset + DATA_LENGTH_SIZE)
 		{
 			throw new IndexOutOfBoundsException("Invalid offset: " + offset + "! Couldn't read length of data!");
 		}
-		dataFile.seek(offset);
-		int bufferSize = dataFile.readInt();
-		if(dataFile.length() < offset + DATA_LENGTH_SIZE + bufferSize)
+		int bufferSize = PositionalIO.readInt(dataFile, offset);
+		if(bufferSize < 0 || dataFile.length() < offset + DATA_LENGTH_SIZE + bufferSize)
 		{
 			throw new IndexOutOfBoundsException("Invalid length (" + bufferSize + ") at offset: " + offset + "!");
 		}
-		byte[] buffer = new byte[bufferSize];
-		dataFile.readFully(buffer);
-		return codec.decode(buffer);
+		return PositionalIO.readBytes(dataFile, offset + DATA_LENGTH_SIZE, bufferSize);
 	}
 }
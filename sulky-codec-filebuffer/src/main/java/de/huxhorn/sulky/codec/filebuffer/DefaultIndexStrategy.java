@@ -36,12 +36,17 @@ package de.huxhorn.sulky.codec.filebuffer;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class DefaultIndexStrategy
 	implements IndexStrategy
 {
 	public static final long DATA_OFFSET_SIZE = 8;
 
+	private static final int MAXIMUM_READ_COUNT = 8192;
+	private static final int FILL_BUFFER_SIZE = 8192;
+
 	@Override
 	public void setOffset(RandomAccessFile indexFile, long index, long offset)
 		throws IOException
@@ -52,16 +57,66 @@ public class DefaultIndexStrategy
 		{
 			// extend file, filling with -1
 			long lastIndex = fileLength / DATA_OFFSET_SIZE;
-			indexFile.seek(lastIndex * DATA_OFFSET_SIZE); // this copes with malformed files
-			for(long i = lastIndex; i < index; i++)
-			{
-				indexFile.writeLong(-1L);
-			}
+			fill(indexFile, lastIndex, index);
 		}
 		indexFile.seek(offsetOffset);
 		indexFile.writeLong(offset);
 	}
 
+	/**
+	 * Writes all offsets using a single write.
+	 */
+	@Override
+	public void setOffsets(RandomAccessFile indexFile, long startIndex, long[] offsets)
+		throws IOException
+	{
+		if(offsets.length == 0)
+		{
+			return;
+		}
+		long offsetOffset = DATA_OFFSET_SIZE * startIndex;
+		long fileLength = indexFile.length();
+		if(fileLength < offsetOffset)
+		{
+			// extend file, filling with -1
+			long lastIndex = fileLength / DATA_OFFSET_SIZE;
+			fill(indexFile, lastIndex, startIndex);
+		}
+		writeOffsets(indexFile, offsetOffset, offsets);
+	}
+
+	static void writeOffsets(RandomAccessFile indexFile, long position, long[] offsets)
+		throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(offsets.length * (int) DATA_OFFSET_SIZE);
+		buffer.asLongBuffer().put(offsets);
+		indexFile.seek(position);
+		indexFile.write(buffer.array());
+	}
+
+	/**
+	 * Fills the offsets [fromIndex..toIndex) with -1.
+	 */
+	static void fill(RandomAccessFile indexFile, long fromIndex, long toIndex)
+		throws IOException
+	{
+		long remaining = (toIndex - fromIndex) * DATA_OFFSET_SIZE;
+		if(remaining <= 0)
+		{
+			return;
+		}
+		byte[] buffer = new byte[(int) Math.min(FILL_BUFFER_SIZE, remaining)];
+		// -1L is 0xFFFFFFFFFFFFFFFF
+		Arrays.fill(buffer, (byte) 0xFF);
+		indexFile.seek(fromIndex * DATA_OFFSET_SIZE); // this copes with malformed files
+		while(remaining > 0)
+		{
+			int length = (int) Math.min(buffer.length, remaining);
+			indexFile.write(buffer, 0, length);
+			remaining -= length;
+		}
+	}
+
 	@Override
 	public long getOffset(RandomAccessFile indexFile, long index)
 		throws IOException
@@ -75,8 +130,37 @@ public class DefaultIndexStrategy
 		{
 			return -1;
 		}
-		indexFile.seek(offsetOffset);
-		return indexFile.readLong();
+		return PositionalIO.readLong(indexFile, offsetOffset);
+	}
+
+	/**
+	 * Reads the offsets using one positional read per 8192 offsets.
+	 */
+	@Override
+	public long[] getOffsets(RandomAccessFile indexFile, long startIndex, int count)
+		throws IOException
+	{
+		long[] result = new long[count];
+		long available = getSize(indexFile) - startIndex;
+		int readable = (int) Math.max(0, Math.min(count, available));
+		if(readable < count)
+		{
+			Arrays.fill(result, readable, count, -1L);
+		}
+		ByteBuffer buffer = null;
+		for(int i = 0; i < readable; )
+		{
+			int chunk = Math.min(MAXIMUM_READ_COUNT, readable - i);
+			if(buffer == null || buffer.capacity() < chunk * (int) DATA_OFFSET_SIZE)
+			{
+				buffer = ByteBuffer.allocate(chunk * (int) DATA_OFFSET_SIZE);
+			}
+			buffer.clear().limit(chunk * (int) DATA_OFFSET_SIZE);
+			PositionalIO.readFully(indexFile, buffer, DATA_OFFSET_SIZE * (startIndex + i));
+			buffer.asLongBuffer().get(result, i, chunk);
+			i += chunk;
+		}
+		return result;
 	}
 
 	@Override
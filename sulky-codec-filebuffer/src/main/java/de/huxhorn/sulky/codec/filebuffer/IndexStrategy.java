@@ -47,4 +47,45 @@ public interface IndexStrategy
 
 	long getSize(RandomAccessFile indexFile)
 		throws IOException;
+
+	/**
+	 * Sets the offsets of offsets.length consecutive indices starting at startIndex.
+	 *
+	 * This default implementation simply calls setOffset for every index.
+	 *
+	 * @param indexFile the index file.
+	 * @param startIndex the first index, must not be negative.
+	 * @param offsets the offsets.
+	 * @throws IOException in case of IOException :p
+	 */
+	default void setOffsets(RandomAccessFile indexFile, long startIndex, long[] offsets)
+		throws IOException
+	{
+		for(int i = 0; i < offsets.length; i++)
+		{
+			setOffset(indexFile, startIndex + i, offsets[i]);
+		}
+	}
+
+	/**
+	 * Returns the offsets of count consecutive indices starting at startIndex.
+	 *
+	 * Offsets of indices that aren't contained in the index file are returned as -1.
+	 *
+	 * @param indexFile the index file.
+	 * @param startIndex the first index, must not be negative.
+	 * @param count the number of offsets to return.
+	 * @return an array of length count containing the offsets.
+	 * @throws IOException in case of IOException :p
+	 */
+	default long[] getOffsets(RandomAccessFile indexFile, long startIndex, int count)
+		throws IOException
+	{
+		long[] result = new long[count];
+		for(int i = 0; i < count; i++)
+		{
+			result[i] = getOffset(indexFile, startIndex + i);
+		}
+		return result;
+	}
 }
@@ -0,0 +1,256 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.filebuffer;
+
+import de.huxhorn.sulky.buffers.ResetOperation;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * IndexStrategy using the same file format as DefaultIndexStrategy but resolving offsets
+ * from read-only memory mappings of the index file.
+ *
+ * The index file is mapped in segments of 2^segmentShift offsets. A segment is mapped on demand.
+ * If a requested offset isn't contained in its mapping yet because the index file has grown in the meantime,
+ * the segment is only mapped again once it has doubled in size or is complete. Until then, such offsets are
+ * read using a positional read, so a reader following the end of the buffer doesn't create a mapping per
+ * added element. Offsets of mapped segments are resolved without any system call.
+ *
+ * Offsets are still written using the RandomAccessFile. Gaps in a sparse index are filled
+ * using bulk writes instead of one writeLong per missing offset.
+ *
+ * An instance caches the mappings of a single index file so it must not be shared between buffers.
+ * reset() must be called if the index file is deleted or replaced.
+ *
+ * Mappings are only released by garbage collection, even after reset(). On Windows, a file can't be deleted
+ * or replaced while it is mapped, so CodecFileBuffer.reset() and CodecFileBuffer.compact() may fail to
+ * delete or replace the index file. Use DefaultIndexStrategy on Windows if either is required.
+ */
+public class MappedIndexStrategy
+	implements IndexStrategy, ResetOperation
+{
+	/**
+	 * 2^20 offsets, i.e. 8MB, per segment.
+	 */
+	public static final int DEFAULT_SEGMENT_SHIFT = 20;
+
+	private static final int MAXIMUM_SEGMENT_SHIFT = 27;
+	private static final int DATA_OFFSET_SIZE = (int) DefaultIndexStrategy.DATA_OFFSET_SIZE;
+
+	private final int segmentShift;
+	private final long segmentMask;
+	private final Object mappingMonitor = new Object();
+	private volatile MappedByteBuffer[] segments;
+	private int mappingCount;
+
+	public MappedIndexStrategy()
+	{
+		this(DEFAULT_SEGMENT_SHIFT);
+	}
+
+	/**
+	 * @param segmentShift each segment contains 2^segmentShift offsets. Must be in the range [0..27].
+	 */
+	public MappedIndexStrategy(int segmentShift)
+	{
+		if(segmentShift < 0 || segmentShift > MAXIMUM_SEGMENT_SHIFT)
+		{
+			throw new IllegalArgumentException("segmentShift (" + segmentShift + ") must be in the range [0.." + MAXIMUM_SEGMENT_SHIFT + "]!");
+		}
+		this.segmentShift = segmentShift;
+		this.segmentMask = (1L << segmentShift) - 1;
+		this.segments = new MappedByteBuffer[0];
+	}
+
+	public int getSegmentShift()
+	{
+		return segmentShift;
+	}
+
+	@Override
+	public void setOffset(RandomAccessFile indexFile, long index, long offset)
+		throws IOException
+	{
+		long offsetOffset = DATA_OFFSET_SIZE * index;
+		long fileLength = indexFile.length();
+		if(fileLength < offsetOffset)
+		{
+			// extend file, filling with -1
+			long lastIndex = fileLength / DATA_OFFSET_SIZE;
+			DefaultIndexStrategy.fill(indexFile, lastIndex, index);
+		}
+		indexFile.seek(offsetOffset);
+		indexFile.writeLong(offset);
+	}
+
+	/**
+	 * Writes all offsets using a single write.
+	 */
+	@Override
+	public void setOffsets(RandomAccessFile indexFile, long startIndex, long[] offsets)
+		throws IOException
+	{
+		if(offsets.length == 0)
+		{
+			return;
+		}
+		long offsetOffset = DATA_OFFSET_SIZE * startIndex;
+		long fileLength = indexFile.length();
+		if(fileLength < offsetOffset)
+		{
+			// extend file, filling with -1
+			long lastIndex = fileLength / DATA_OFFSET_SIZE;
+			DefaultIndexStrategy.fill(indexFile, lastIndex, startIndex);
+		}
+		DefaultIndexStrategy.writeOffsets(indexFile, offsetOffset, offsets);
+	}
+
+	@Override
+	public long getOffset(RandomAccessFile indexFile, long index)
+		throws IOException
+	{
+		if(index < 0)
+		{
+			return -1;
+		}
+		int segmentIndex = (int) (index >>> segmentShift);
+		int position = (int) (index & segmentMask) * DATA_OFFSET_SIZE;
+		MappedByteBuffer[] current = segments;
+		if(segmentIndex < current.length)
+		{
+			MappedByteBuffer segment = current[segmentIndex];
+			if(segment != null && position + DATA_OFFSET_SIZE <= segment.capacity())
+			{
+				return segment.getLong(position);
+			}
+		}
+
+		long offsetOffset = DATA_OFFSET_SIZE * index;
+		if(indexFile.length() < offsetOffset + DATA_OFFSET_SIZE)
+		{
+			return -1;
+		}
+		MappedByteBuffer segment = map(indexFile, segmentIndex);
+		if(position + DATA_OFFSET_SIZE > segment.capacity())
+		{
+			// the segment hasn't grown enough to be mapped again
+			return PositionalIO.readLong(indexFile, offsetOffset);
+		}
+		return segment.getLong(position);
+	}
+
+	@Override
+	public long getSize(RandomAccessFile indexFile)
+		throws IOException
+	{
+		return indexFile.length() / DATA_OFFSET_SIZE;
+	}
+
+	/**
+	 * Drops all mappings. They are recreated on demand.
+	 * The dropped mappings stay valid until they are garbage collected.
+	 */
+	@Override
+	public void reset()
+	{
+		synchronized(mappingMonitor)
+		{
+			segments = new MappedByteBuffer[0];
+		}
+	}
+
+	private MappedByteBuffer map(RandomAccessFile indexFile, int segmentIndex)
+		throws IOException
+	{
+		synchronized(mappingMonitor)
+		{
+			long segmentSize = (long) DATA_OFFSET_SIZE << segmentShift;
+			long segmentStart = segmentSize * segmentIndex;
+			long available = indexFile.length() - segmentStart;
+			long mappedSize = Math.min(segmentSize, available - available % DATA_OFFSET_SIZE);
+
+			MappedByteBuffer[] current = segments;
+			if(segmentIndex < current.length)
+			{
+				MappedByteBuffer segment = current[segmentIndex];
+				if(segment != null && segment.capacity() >= mappedSize)
+				{
+					// mapped by another thread in the meantime
+					return segment;
+				}
+				if(segment != null && mappedSize < segmentSize && mappedSize < 2L * segment.capacity())
+				{
+					return segment;
+				}
+			}
+
+			// only map the existing part of the file since mapping beyond the end would extend it.
+			MappedByteBuffer segment = indexFile.getChannel().map(FileChannel.MapMode.READ_ONLY, segmentStart, mappedSize);
+			mappingCount++;
+			MappedByteBuffer[] changed = current;
+			if(segmentIndex >= changed.length)
+			{
+				changed = Arrays.copyOf(current, segmentIndex + 1);
+			}
+			else
+			{
+				changed = current.clone();
+			}
+			changed[segmentIndex] = segment;
+			segments = changed;
+			return segment;
+		}
+	}
+
+	/**
+	 * @return the number of mappings created since this instance has been created.
+	 */
+	int getMappingCount()
+	{
+		synchronized(mappingMonitor)
+		{
+			return mappingCount;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MappedIndexStrategy[segmentShift=" + segmentShift + "]";
+	}
+}
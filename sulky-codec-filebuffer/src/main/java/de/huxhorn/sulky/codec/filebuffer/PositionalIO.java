@@ -0,0 +1,110 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.filebuffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads from a RandomAccessFile at an absolute position using its FileChannel.
+ *
+ * In contrast to seek followed by read, this does not modify the file pointer so
+ * any number of threads may read from the same file concurrently.
+ */
+final class PositionalIO
+{
+	static
+	{
+		// for the sake of coverage
+		new PositionalIO();
+	}
+
+	private PositionalIO()
+	{}
+
+	/**
+	 * Fills the remaining bytes of buffer with the content of file starting at position.
+	 * The buffer is flipped afterwards, i.e. it is ready to be read.
+	 *
+	 * @param file the file to read from.
+	 * @param buffer the buffer to fill.
+	 * @param position the position in the file that corresponds to the current position of buffer.
+	 * @throws EOFException if the end of the file is reached before buffer has been filled.
+	 * @throws IOException in case of any other I/O error.
+	 */
+	static void readFully(RandomAccessFile file, ByteBuffer buffer, long position)
+		throws IOException
+	{
+		FileChannel channel = file.getChannel();
+		long current = position;
+		while(buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, current);
+			if(read < 0)
+			{
+				throw new EOFException("Reached end of file at position " + current + "!");
+			}
+			current += read;
+		}
+		buffer.flip();
+	}
+
+	static int readInt(RandomAccessFile file, long position)
+		throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(4);
+		readFully(file, buffer, position);
+		return buffer.getInt();
+	}
+
+	static long readLong(RandomAccessFile file, long position)
+		throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		readFully(file, buffer, position);
+		return buffer.getLong();
+	}
+
+	static byte[] readBytes(RandomAccessFile file, long position, int length)
+		throws IOException
+	{
+		byte[] result = new byte[length];
+		readFully(file, ByteBuffer.wrap(result), position);
+		return result;
+	}
+}
@@ -36,29 +36,46 @@ package de.huxhorn.sulky.codec.filebuffer;
 
 import de.huxhorn.sulky.buffers.BasicBufferIterator;
 import de.huxhorn.sulky.buffers.Buffer;
+import de.huxhorn.sulky.buffers.GetRange;
+import de.huxhorn.sulky.buffers.GetRangeOperation;
 import de.huxhorn.sulky.codec.Codec;
 import java.io.File;
 import java.io.IOException;
 import java.io.InvalidClassException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.List;
+import java.util.Objects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Read-only access to the files of a CodecFileBuffer that aren't modified anymore, e.g. archived files.
+ *
+ * Data and index file are kept open until close() is called. Elements are read using positional reads
+ * without any lock so any number of threads can read concurrently. The number of elements is determined
+ * once by the constructor since the files are expected to be immutable.
+ *
+ * If a reading thread is interrupted, the files are closed by the JVM. They are reopened transparently
+ * for all other threads.
+ *
+ * @param <E> the type of objects that are stored in this buffer.
+ */
 public class ReadOnlyExclusiveCodecFileBuffer<E>
-	implements Buffer<E>
+	implements Buffer<E>, GetRangeOperation<E>
 {
 	private final Logger logger = LoggerFactory.getLogger(ReadOnlyExclusiveCodecFileBuffer.class);
-	private final Lock lock=new ReentrantLock();
 
-	private Codec<E> codec;
-	private DataStrategy<E> dataStrategy;
-	private IndexStrategy indexStrategy;
-	private FileHeader fileHeader;
-	private RandomAccessFile randomAccessIndexFile;
-	private RandomAccessFile randomAccessDataFile;
+	private final File dataFile;
+	private final File indexFile;
+	private final DataStrategy<E> dataStrategy;
+	private final IndexStrategy indexStrategy;
+	private final FileHeader fileHeader;
+	private final long size;
+	private final Object filesMonitor = new Object();
+	private volatile Codec<E> codec;
+	private volatile OpenFiles files;
 
 	public ReadOnlyExclusiveCodecFileBuffer(File dataFile, File indexFile)
 			throws IOException
@@ -69,7 +86,13 @@ public class ReadOnlyExclusiveCodecFileBuffer<E>
 	public ReadOnlyExclusiveCodecFileBuffer(File dataFile, File indexFile, FileHeaderStrategy fileHeaderStrategy)
 			throws IOException
 	{
-		this.indexStrategy = new DefaultIndexStrategy();
+		this(dataFile, indexFile, fileHeaderStrategy, new DefaultIndexStrategy());
+	}
+
+	public ReadOnlyExclusiveCodecFileBuffer(File dataFile, File indexFile, FileHeaderStrategy fileHeaderStrategy, IndexStrategy indexStrategy)
+			throws IOException
+	{
+		Objects.requireNonNull(indexStrategy, "indexStrategy must not be null!");
 		if(!dataFile.canRead())
 		{
 			throw new IllegalArgumentException("'"+dataFile.getAbsolutePath()+"' is not readable.");
@@ -78,50 +101,39 @@ public class ReadOnlyExclusiveCodecFileBuffer<E>
 		{
 			throw new IllegalArgumentException("'"+indexFile.getAbsolutePath()+"' is not readable.");
 		}
-		lock.lock();
-		try
-		{
-			FileHeader header = fileHeaderStrategy.readFileHeader(dataFile);
-
-			if(header == null)
-			{
-				throw new IllegalArgumentException("Could not read file header from file '" + dataFile.getAbsolutePath() + "'. File isn't compatible.");
-			}
-			setFileHeader(header);
+		FileHeader header = fileHeaderStrategy.readFileHeader(dataFile);
 
-			randomAccessIndexFile = new RandomAccessFile(indexFile, "r");
-			randomAccessDataFile = new RandomAccessFile(dataFile, "r");
-		}
-		finally
+		if(header == null)
 		{
-			lock.unlock();
+			throw new IllegalArgumentException("Could not read file header from file '" + dataFile.getAbsolutePath() + "'. File isn't compatible.");
 		}
-	}
+		this.fileHeader = header;
+		this.dataStrategy = createDataStrategy(header.getMetaData());
+		this.dataFile = dataFile;
+		this.indexFile = indexFile;
 
-	public Codec<E> getCodec()
-	{
-		lock.lock();
+		OpenFiles openFiles = new OpenFiles(indexFile, dataFile);
 		try
 		{
-			return codec;
+			this.size = indexStrategy.getSize(openFiles.indexFile);
 		}
-		finally
+		catch(IOException ex)
 		{
-			lock.unlock();
+			openFiles.closeFiles();
+			throw ex;
 		}
+		this.indexStrategy = new FixedSizeIndexStrategy(indexStrategy, size);
+		this.files = openFiles;
+	}
+
+	public Codec<E> getCodec()
+	{
+		return codec;
 	}
 
 	public void setCodec(Codec<E> codec)
 	{
-		lock.lock();
-		try
-		{
-			this.codec = codec;
-		}
-		finally
-		{
-			lock.unlock();
-		}
+		this.codec = codec;
 	}
 
 	/**
@@ -134,32 +146,33 @@ public class ReadOnlyExclusiveCodecFileBuffer<E>
 	@Override
 	public E get(long index)
 	{
+		Codec<E> localCodec = codec;
+		if(localCodec == null)
+		{
+			throw new IllegalStateException("codec must not be null!");
+		}
 		Throwable throwable = null;
-		lock.lock();
-		try
+		OpenFiles current = files;
+		if(current != null)
 		{
-			if(codec == null)
-			{
-				throw new IllegalStateException("codec must not be null!");
-			}
-			if(randomAccessIndexFile != null && randomAccessDataFile != null)
+			try
 			{
 				try
 				{
-					return dataStrategy.get(index, randomAccessIndexFile, randomAccessDataFile, codec, indexStrategy);
+					return dataStrategy.get(index, current.indexFile, current.dataFile, localCodec, indexStrategy);
 				}
-				catch(Throwable e)
+				catch(IOException e)
 				{
-					throwable = e;
+					current = reopenFiles(current, e);
+					return dataStrategy.get(index, current.indexFile, current.dataFile, localCodec, indexStrategy);
 				}
 			}
+			catch(Throwable e)
+			{
+				throwable = e;
+			}
 		}
-		finally
-		{
-			lock.unlock();
-		}
-		// it's a really bad idea to log while locked *sigh*
-		if(throwable != null)
+		if(throwable != null && files != null)
 		{
 			if(throwable instanceof ClassNotFoundException
 				|| throwable instanceof InvalidClassException)
@@ -182,40 +195,71 @@ public class ReadOnlyExclusiveCodecFileBuffer<E>
 		return null;
 	}
 
+	/**
+	 * Missing elements are returned as null.
+	 *
+	 * @param startIndex the index of the first element.
+	 * @param count the maximum number of elements.
+	 * @return the elements of the given range.
+	 * @throws IllegalStateException if no Decoder has been set.
+	 */
 	@Override
-	public long getSize()
+	public List<E> getRange(long startIndex, int count)
 	{
+		GetRange.checkRange(startIndex, count);
+		Codec<E> localCodec = codec;
+		if(localCodec == null)
+		{
+			throw new IllegalStateException("codec must not be null!");
+		}
 		Throwable throwable = null;
-		lock.lock();
-		try
+		OpenFiles current = files;
+		if(current != null)
 		{
-			if(randomAccessIndexFile != null)
+			try
 			{
 				try
 				{
-					return indexStrategy.getSize(randomAccessIndexFile);
+					return dataStrategy.getRange(startIndex, count, current.indexFile, current.dataFile, localCodec, indexStrategy);
 				}
-				catch(Throwable e)
+				catch(IOException e)
 				{
-					throwable = e;
+					current = reopenFiles(current, e);
+					return dataStrategy.getRange(startIndex, count, current.indexFile, current.dataFile, localCodec, indexStrategy);
 				}
 			}
+			catch(Throwable e)
+			{
+				throwable = e;
+			}
 		}
-		finally
+		if(throwable != null && files != null)
 		{
-			lock.unlock();
+			if(logger.isDebugEnabled()) logger.debug("Couldn't retrieve range of {} elements starting at index {}! Falling back to single reads.", count, startIndex, throwable);
+			int actualCount = (int) Math.max(0, Math.min(count, size - startIndex));
+			List<E> result = new ArrayList<>(actualCount);
+			for(int i = 0; i < actualCount; i++)
+			{
+				result.add(get(startIndex + i));
+			}
+			return result;
 		}
+		if(logger.isWarnEnabled()) logger.warn("Buffer has already been closed.");
+		return new ArrayList<>();
+	}
 
-		// it's a really bad idea to log while locked *sigh*
-		if(throwable != null)
-		{
-			if(logger.isDebugEnabled()) logger.debug("Couldn't retrieve size!", throwable);
-		}
-		else
+	/**
+	 * @return the number of elements determined by the constructor, 0 if the buffer has been closed.
+	 */
+	@Override
+	public long getSize()
+	{
+		if(files == null)
 		{
 			if(logger.isWarnEnabled()) logger.warn("Buffer has already been closed.");
+			return 0;
 		}
-		return 0;
+		return size;
 	}
 
 	@Override
@@ -224,78 +268,171 @@ public class ReadOnlyExclusiveCodecFileBuffer<E>
 		return new BasicBufferIterator<>(this);
 	}
 
+	/**
+	 * Closes data and index file. Reads that are executed concurrently will fail.
+	 */
 	public void close()
 	{
-		lock.lock();
-		try
+		OpenFiles current;
+		synchronized(filesMonitor)
 		{
-			if(randomAccessIndexFile != null) {
-				try
-				{
-					randomAccessIndexFile.close();
-				}
-				catch (IOException e)
-				{
-					// ignore
-				}
-				finally
-				{
-					randomAccessIndexFile = null;
-				}
-			}
-			if(randomAccessDataFile != null) {
-				try
-				{
-					randomAccessDataFile.close();
-				}
-				catch (IOException e)
-				{
-					// ignore
-				}
-				finally
-				{
-					randomAccessDataFile = null;
-				}
-			}
+			current = files;
+			files = null;
 		}
-		finally
+		if(current != null)
 		{
-			lock.unlock();
+			current.closeFiles();
 		}
 	}
 
 	public FileHeader getFileHeader()
 	{
-		lock.lock();
-		try
+		return fileHeader;
+	}
+
+	/**
+	 * Replaces files that have been closed because a reading thread has been interrupted.
+	 *
+	 * @param previous the files used by the failed read.
+	 * @param cause the exception thrown by the read.
+	 * @return the reopened files.
+	 * @throws IOException the cause if the files are still open, the current thread has been interrupted
+	 * or the buffer has been closed.
+	 */
+	private OpenFiles reopenFiles(OpenFiles previous, IOException cause)
+		throws IOException
+	{
+		if(previous.isOpen() || Thread.currentThread().isInterrupted())
+		{
+			throw cause;
+		}
+		synchronized(filesMonitor)
+		{
+			OpenFiles current = files;
+			if(current == null)
+			{
+				throw cause;
+			}
+			if(current != previous)
+			{
+				// reopened by another thread in the meantime
+				return current;
+			}
+			OpenFiles result = new OpenFiles(indexFile, dataFile);
+			files = result;
+			previous.closeFiles();
+			return result;
+		}
+	}
+
+	private static <E> DataStrategy<E> createDataStrategy(MetaData metaData)
+	{
+		if(metaData.isSparse())
 		{
-			return fileHeader;
+			return new SparseDataStrategy<>();
 		}
-		finally
+		if(BlockCompressedDataStrategy.isBlockCompressed(metaData))
 		{
-			lock.unlock();
+			return new BlockCompressedDataStrategy<>(BlockCompressedDataStrategy.getBlockSize(metaData));
 		}
+		return new DefaultDataStrategy<>();
 	}
 
-	private void setFileHeader(FileHeader fileHeader)
+	private static final class OpenFiles
 	{
-		lock.lock();
-		try
+		private final RandomAccessFile indexFile;
+		private final RandomAccessFile dataFile;
+
+		OpenFiles(File indexPath, File dataPath)
+			throws IOException
 		{
-			MetaData metaData = fileHeader.getMetaData();
-			if(metaData.isSparse())
+			this.indexFile = new RandomAccessFile(indexPath, "r");
+			try
 			{
-				dataStrategy = new SparseDataStrategy<>();
+				this.dataFile = new RandomAccessFile(dataPath, "r");
 			}
-			else
+			catch(IOException ex)
+			{
+				indexFile.close();
+				throw ex;
+			}
+		}
+
+		boolean isOpen()
+		{
+			return indexFile.getChannel().isOpen() && dataFile.getChannel().isOpen();
+		}
+
+		void closeFiles()
+		{
+			try
+			{
+				indexFile.close();
+			}
+			catch(IOException e)
+			{
+				// ignore
+			}
+			try
+			{
+				dataFile.close();
+			}
+			catch(IOException e)
+			{
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Returns the size determined by the constructor instead of asking the file system for every read.
+	 */
+	private static final class FixedSizeIndexStrategy
+		implements IndexStrategy
+	{
+		private final IndexStrategy delegate;
+		private final long size;
+
+		FixedSizeIndexStrategy(IndexStrategy delegate, long size)
+		{
+			this.delegate = delegate;
+			this.size = size;
+		}
+
+		@Override
+		public void setOffset(RandomAccessFile indexFile, long index, long offset)
+		{
+			throw new UnsupportedOperationException("Buffer is read-only!");
+		}
+
+		@Override
+		public void setOffsets(RandomAccessFile indexFile, long startIndex, long[] offsets)
+		{
+			throw new UnsupportedOperationException("Buffer is read-only!");
+		}
+
+		@Override
+		public long getOffset(RandomAccessFile indexFile, long index)
+			throws IOException
+		{
+			if(index >= size)
 			{
-				dataStrategy = new DefaultDataStrategy<>();
+				return -1;
 			}
-			this.fileHeader = fileHeader;
+			return delegate.getOffset(indexFile, index);
+		}
+
+		@Override
+		public long[] getOffsets(RandomAccessFile indexFile, long startIndex, int count)
+			throws IOException
+		{
+			return delegate.getOffsets(indexFile, startIndex, count);
 		}
-		finally
+
+		@Override
+		public long getSize(RandomAccessFile indexFile)
 		{
-			lock.unlock();
+			return size;
 		}
 	}
 }
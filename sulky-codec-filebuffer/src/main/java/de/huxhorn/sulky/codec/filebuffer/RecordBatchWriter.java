@@ -0,0 +1,262 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.filebuffer;
+
+import de.huxhorn.sulky.codec.Encoder;
+import de.huxhorn.sulky.codec.buffer.ByteBufferEncoder;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Appends a batch of records to a data file using as few writes as possible.
+ *
+ * Every record consists of an int containing the length of the data, optionally followed by
+ * a long containing the index of the record, followed by the data itself.
+ */
+final class RecordBatchWriter
+{
+	/**
+	 * Batches exceeding this size are written using several writes.
+	 */
+	static final int MAXIMUM_WRITE_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * The expected size of an encoded element, used to size the initial buffer of writeElements.
+	 */
+	private static final int EXPECTED_ELEMENT_SIZE = 512;
+	private static final int MINIMUM_BUFFER_SIZE = 1024;
+	/**
+	 * The buffer grows at least by this factor if an element doesn't fit, limiting the number of encode retries.
+	 */
+	private static final int GROWTH_FACTOR = 4;
+
+	/**
+	 * The size of the largest element that required a retry, used to grow the buffer of later calls at once.
+	 * Racy updates are fine since this is only an estimate.
+	 */
+	private static volatile int largeElementSize;
+
+	static
+	{
+		// for the sake of coverage
+		new RecordBatchWriter();
+	}
+
+	private RecordBatchWriter()
+	{}
+
+	static <E> List<byte[]> encode(List<E> elements, Encoder<E> encoder)
+	{
+		if(encoder == null)
+		{
+			throw new IllegalStateException("Codec has not been initialized!");
+		}
+		List<byte[]> result = new ArrayList<>(elements.size());
+		for(E element : elements)
+		{
+			result.add(encoder.encode(element));
+		}
+		return result;
+	}
+
+	/**
+	 * Encodes the elements directly into the write buffer and appends them to the end of the data file.
+	 *
+	 * In contrast to encode and writeRecords, no byte[] is created for the single elements. The buffer is grown
+	 * if an element doesn't fit and written as soon as it contains MAXIMUM_WRITE_SIZE bytes. Since the size
+	 * of an element is only known after it has been encoded, it is grown to the size of the largest element that
+	 * didn't fit previously or by GROWTH_FACTOR, whichever is larger, before the element is encoded again.
+	 *
+	 * @param dataFile the data file.
+	 * @param elements the elements.
+	 * @param encoder the encoder.
+	 * @param firstIndex the index of the first record, only used if writingIndex is true.
+	 * @param writingIndex whether or not the index of every record is written after its length.
+	 * @param <E> the type of the elements.
+	 * @return the offsets of the written records.
+	 * @throws IOException in case of IOException :p
+	 */
+	static <E> long[] writeElements(RandomAccessFile dataFile,
+	                                List<E> elements,
+	                                ByteBufferEncoder<E> encoder,
+	                                long firstIndex,
+	                                boolean writingIndex)
+		throws IOException
+	{
+		int headerSize = (int) (writingIndex ? DefaultDataStrategy.DATA_LENGTH_SIZE + SparseDataStrategy.INDEX_SIZE : DefaultDataStrategy.DATA_LENGTH_SIZE);
+		int count = elements.size();
+		long[] offsets = new long[count];
+		// the offset of the start of the buffer in the data file
+		long offset = dataFile.length();
+		dataFile.seek(offset);
+
+		long initialSize = Math.max(MINIMUM_BUFFER_SIZE, Math.min(MAXIMUM_WRITE_SIZE, (long) count * EXPECTED_ELEMENT_SIZE));
+		ByteBuffer buffer = ByteBuffer.allocate((int) initialSize);
+		for(int i = 0; i < count; i++)
+		{
+			boolean retried = false;
+			for(;;)
+			{
+				int recordStart = buffer.position();
+				try
+				{
+					if(buffer.remaining() < headerSize)
+					{
+						throw new BufferOverflowException();
+					}
+					buffer.position(recordStart + headerSize);
+					encoder.encode(elements.get(i), buffer);
+					buffer.putInt(recordStart, buffer.position() - recordStart - headerSize);
+					if(writingIndex)
+					{
+						buffer.putLong(recordStart + (int) DefaultDataStrategy.DATA_LENGTH_SIZE, firstIndex + i);
+					}
+					offsets[i] = offset + recordStart;
+					if(retried)
+					{
+						largeElementSize = Math.max(largeElementSize, buffer.position() - recordStart);
+					}
+					break;
+				}
+				catch(BufferOverflowException e)
+				{
+					buffer.position(recordStart);
+					retried = true;
+					if(recordStart >= MAXIMUM_WRITE_SIZE / 2)
+					{
+						// write the complete records and retry using the whole buffer
+						dataFile.write(buffer.array(), buffer.arrayOffset(), recordStart);
+						offset += recordStart;
+						buffer.clear();
+					}
+					else
+					{
+						buffer = grow(buffer, recordStart + (long) headerSize + largeElementSize);
+					}
+				}
+			}
+			if(buffer.position() >= MAXIMUM_WRITE_SIZE)
+			{
+				dataFile.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+				offset += buffer.position();
+				buffer.clear();
+			}
+		}
+		if(buffer.position() > 0)
+		{
+			dataFile.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+		}
+		return offsets;
+	}
+
+	/**
+	 * @param buffer the buffer.
+	 * @param estimatedSize the estimated required capacity.
+	 * @return a buffer containing the written bytes of buffer whose capacity is at least GROWTH_FACTOR times as large.
+	 */
+	private static ByteBuffer grow(ByteBuffer buffer, long estimatedSize)
+	{
+		int capacity = buffer.capacity();
+		if(capacity == Integer.MAX_VALUE)
+		{
+			throw new IllegalStateException("Element is too large!");
+		}
+		long newCapacity = Math.max((long) GROWTH_FACTOR * capacity, estimatedSize);
+		ByteBuffer result = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, newCapacity));
+		result.put(buffer.array(), buffer.arrayOffset(), buffer.position());
+		return result;
+	}
+
+	/**
+	 * Appends the records to the end of the data file.
+	 *
+	 * @param dataFile the data file.
+	 * @param encodedElements the encoded elements.
+	 * @param firstIndex the index of the first record, only used if writingIndex is true.
+	 * @param writingIndex whether or not the index of every record is written after its length.
+	 * @return the offsets of the written records.
+	 * @throws IOException in case of IOException :p
+	 */
+	static long[] writeRecords(RandomAccessFile dataFile,
+	                           List<byte[]> encodedElements,
+	                           long firstIndex,
+	                           boolean writingIndex)
+		throws IOException
+	{
+		int headerSize = (int) (writingIndex ? DefaultDataStrategy.DATA_LENGTH_SIZE + SparseDataStrategy.INDEX_SIZE : DefaultDataStrategy.DATA_LENGTH_SIZE);
+		int count = encodedElements.size();
+		long[] offsets = new long[count];
+		long offset = dataFile.length();
+		dataFile.seek(offset);
+
+		int batchStart = 0;
+		while(batchStart < count)
+		{
+			long batchSize = 0;
+			int batchEnd = batchStart;
+			while(batchEnd < count)
+			{
+				long recordSize = headerSize + (long) encodedElements.get(batchEnd).length;
+				if(batchEnd > batchStart && batchSize + recordSize > MAXIMUM_WRITE_SIZE)
+				{
+					break;
+				}
+				batchSize += recordSize;
+				batchEnd++;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) batchSize);
+			for(int i = batchStart; i < batchEnd; i++)
+			{
+				byte[] encoded = encodedElements.get(i);
+				offsets[i] = offset + buffer.position();
+				buffer.putInt(encoded.length);
+				if(writingIndex)
+				{
+					buffer.putLong(firstIndex + i);
+				}
+				buffer.put(encoded);
+			}
+			dataFile.write(buffer.array());
+			offset += batchSize;
+			batchStart = batchEnd;
+		}
+		return offsets;
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.filebuffer;
+
+import de.huxhorn.sulky.codec.Decoder;
+import de.huxhorn.sulky.codec.buffer.ByteBufferCodecs;
+import de.huxhorn.sulky.codec.buffer.ByteBufferDecoder;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a range of records with a single read of the data region spanning all of them.
+ *
+ * Every record is expected to start with an int containing the length of its data,
+ * followed by the rest of the header and the data itself.
+ */
+final class RecordRangeReader
+{
+	/**
+	 * Ranges spanning more bytes are split in halves, e.g. in case of records that have been overwritten.
+	 */
+	static final int MAXIMUM_REGION_SIZE = 16 * 1024 * 1024;
+
+	static
+	{
+		// for the sake of coverage
+		new RecordRangeReader();
+	}
+
+	private RecordRangeReader()
+	{}
+
+	/**
+	 * @param startIndex the index of the first record.
+	 * @param count the maximum number of records.
+	 * @param indexFile the index file.
+	 * @param dataFile the data file.
+	 * @param indexStrategy the index strategy.
+	 * @param headerSize the size of the header preceding the data of every record, including the length.
+	 * @return the data of the records in the given range, null for missing records.
+	 * @throws IOException in case of IOException :p
+	 */
+	static List<byte[]> readRange(long startIndex,
+	                              int count,
+	                              RandomAccessFile indexFile,
+	                              RandomAccessFile dataFile,
+	                              IndexStrategy indexStrategy,
+	                              int headerSize)
+		throws IOException
+	{
+		List<ByteBuffer> slices = readSlices(startIndex, count, indexFile, dataFile, indexStrategy, headerSize);
+		List<byte[]> result = new ArrayList<>(slices.size());
+		for(ByteBuffer current : slices)
+		{
+			if(current == null)
+			{
+				result.add(null);
+				continue;
+			}
+			byte[] data = new byte[current.remaining()];
+			current.get(data);
+			result.add(data);
+		}
+		return result;
+	}
+
+	/**
+	 * Same as readRange but returns slices of the region that has been read instead of copies.
+	 *
+	 * @param startIndex the index of the first record.
+	 * @param count the maximum number of records.
+	 * @param indexFile the index file.
+	 * @param dataFile the data file.
+	 * @param indexStrategy the index strategy.
+	 * @param headerSize the size of the header preceding the data of every record, including the length.
+	 * @return slices containing the data of the records in the given range, null for missing records.
+	 * @throws IOException in case of IOException :p
+	 */
+	static List<ByteBuffer> readSlices(long startIndex,
+	                                   int count,
+	                                   RandomAccessFile indexFile,
+	                                   RandomAccessFile dataFile,
+	                                   IndexStrategy indexStrategy,
+	                                   int headerSize)
+		throws IOException
+	{
+		long elementsCount = indexStrategy.getSize(indexFile);
+		int actualCount = (int) Math.max(0, Math.min(count, elementsCount - startIndex));
+		List<ByteBuffer> result = new ArrayList<>(actualCount);
+		if(actualCount > 0)
+		{
+			long[] offsets = indexStrategy.getOffsets(indexFile, startIndex, actualCount);
+			readRecords(offsets, 0, actualCount, dataFile, dataFile.length(), headerSize, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes the slices directly if the decoder implements ByteBufferDecoder.
+	 *
+	 * @param slices the slices returned by readSlices.
+	 * @param decoder the decoder.
+	 * @param <E> the type of the elements.
+	 * @return the decoded elements, null for missing records.
+	 */
+	static <E> List<E> decode(List<ByteBuffer> slices, Decoder<E> decoder)
+	{
+		ByteBufferDecoder<E> bufferDecoder = ByteBufferCodecs.decoderFor(decoder);
+		List<E> result = new ArrayList<>(slices.size());
+		for(ByteBuffer current : slices)
+		{
+			result.add(current == null ? null : bufferDecoder.decode(current));
+		}
+		return result;
+	}
+
+	private static void readRecords(long[] offsets,
+	                                int from,
+	                                int to,
+	                                RandomAccessFile dataFile,
+	                                long dataLength,
+	                                int headerSize,
+	                                List<ByteBuffer> result)
+		throws IOException
+	{
+		long minOffset = Long.MAX_VALUE;
+		long maxOffset = -1;
+		for(int i = from; i < to; i++)
+		{
+			long offset = offsets[i];
+			if(offset >= 0)
+			{
+				minOffset = Math.min(minOffset, offset);
+				maxOffset = Math.max(maxOffset, offset);
+			}
+		}
+		if(maxOffset < 0)
+		{
+			for(int i = from; i < to; i++)
+			{
+				result.add(null);
+			}
+			return;
+		}
+
+		if(dataLength < maxOffset + headerSize)
+		{
+			throw new IndexOutOfBoundsException("Invalid offset: " + maxOffset + "! Couldn't read length of data!");
+		}
+		int lastLength = PositionalIO.readInt(dataFile, maxOffset);
+		long end = maxOffset + headerSize + lastLength;
+		if(lastLength < 0 || dataLength < end)
+		{
+			throw new IndexOutOfBoundsException("Invalid length (" + lastLength + ") at offset: " + maxOffset + "!");
+		}
+
+		long regionSize = end - minOffset;
+		if(regionSize > MAXIMUM_REGION_SIZE && to - from > 1)
+		{
+			int middle = (from + to) >>> 1;
+			readRecords(offsets, from, middle, dataFile, dataLength, headerSize, result);
+			readRecords(offsets, middle, to, dataFile, dataLength, headerSize, result);
+			return;
+		}
+
+		ByteBuffer region = ByteBuffer.allocate((int) regionSize);
+		PositionalIO.readFully(dataFile, region, minOffset);
+		for(int i = from; i < to; i++)
+		{
+			long offset = offsets[i];
+			if(offset < 0)
+			{
+				result.add(null);
+				continue;
+			}
+			int position = (int) (offset - minOffset);
+			int length = region.getInt(position);
+			if(length < 0 || position + headerSize + length > regionSize)
+			{
+				throw new IndexOutOfBoundsException("Invalid length (" + length + ") at offset: " + offset + "!");
+			}
+			result.add(region.slice(position + headerSize, length));
+		}
+	}
+}
@@ -0,0 +1,826 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.filebuffer;
+
+import de.huxhorn.sulky.buffers.BasicBufferIterator;
+import de.huxhorn.sulky.buffers.DisposeOperation;
+import de.huxhorn.sulky.buffers.FileBuffer;
+import de.huxhorn.sulky.buffers.GetRange;
+import de.huxhorn.sulky.buffers.GetRangeOperation;
+import de.huxhorn.sulky.buffers.SizeChangeListener;
+import de.huxhorn.sulky.buffers.SizeChangeOperation;
+import de.huxhorn.sulky.buffers.SizeChangeSupport;
+import de.huxhorn.sulky.codec.Codec;
+import java.io.File;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Presents a chain of CodecFileBuffer segments as a single buffer.
+ *
+ * Elements are appended to the last segment. A new segment is started as soon as the last one contains
+ * maximumSegmentElements elements, its files reach maximumSegmentBytes or it is older than maximumSegmentAge.
+ *
+ * Whole segments are dropped from the start of the chain, without rewriting any data, if there are more
+ * than maximumSegments segments, all segments are larger than maximumTotalBytes or a segment has been
+ * rolled over longer than retentionAge ago. The last segment is never dropped.
+ *
+ * Indices are stable, i.e. dropping a segment does not change the index of any other element or the size
+ * of this buffer. Elements of dropped segments are returned as null. getFirstIndex returns the index of
+ * the first element that is still available.
+ *
+ * The segments are stored in a single directory. Their data files are named
+ * <code>baseName-firstIndex.data</code>, with firstIndex padded to 19 digits, so the chain is restored
+ * by simply creating a new instance for the same directory and base name.
+ *
+ * All limits are disabled, i.e. 0, by default.
+ *
+ * @param <E> the type of objects that are stored in this buffer.
+ */
+public class SegmentedCodecFileBuffer<E>
+	implements FileBuffer<E>, GetRangeOperation<E>, DisposeOperation, SizeChangeOperation
+{
+	private final Logger logger = LoggerFactory.getLogger(SegmentedCodecFileBuffer.class);
+
+	/**
+	 * The meta data key of the creation time of a segment.
+	 */
+	public static final String CREATED_KEY = "sulky.segment.created";
+
+	public static final String DATA_EXTENSION = ".data";
+
+	private final int magicValue;
+	private final Map<String, String> preferredMetaData;
+	private final File directory;
+	private final String baseName;
+	private final Pattern segmentPattern;
+	private final Supplier<IndexStrategy> indexStrategyFactory;
+	private final Lock writeLock;
+	private final SizeChangeSupport sizeChangeSupport;
+
+	/**
+	 * Replaced on every change so readers don't need a lock.
+	 */
+	private volatile Segment<E>[] segments;
+	private volatile Codec<E> codec;
+	private volatile boolean keepingFilesOpen;
+	private volatile boolean disposed;
+	private volatile long maximumSegmentElements;
+	private volatile long maximumSegmentBytes;
+	private volatile long maximumSegmentAge;
+	private volatile int maximumSegments;
+	private volatile long maximumTotalBytes;
+	private volatile long retentionAge;
+	private final Clock clock;
+
+	public SegmentedCodecFileBuffer(int magicValue, Map<String, String> preferredMetaData, Codec<E> codec, File directory, String baseName)
+	{
+		this(magicValue, preferredMetaData, codec, directory, baseName, DefaultIndexStrategy::new);
+	}
+
+	/**
+	 * @param magicValue           the magic value of all segments.
+	 * @param preferredMetaData    the meta data of new segments. Might be null.
+	 * @param codec                the codec used by all segments. Might be null.
+	 * @param directory            the directory containing the segments.
+	 * @param baseName             the common prefix of the segment files.
+	 * @param indexStrategyFactory creates the IndexStrategy of every segment, e.g. a MappedIndexStrategy.
+	 */
+	public SegmentedCodecFileBuffer(int magicValue, Map<String, String> preferredMetaData, Codec<E> codec, File directory, String baseName, Supplier<IndexStrategy> indexStrategyFactory)
+	{
+		this(magicValue, preferredMetaData, codec, directory, baseName, indexStrategyFactory, Clock.systemUTC());
+	}
+
+	SegmentedCodecFileBuffer(int magicValue, Map<String, String> preferredMetaData, Codec<E> codec, File directory, String baseName, Supplier<IndexStrategy> indexStrategyFactory, Clock clock)
+	{
+		this.magicValue = magicValue;
+		if(preferredMetaData == null)
+		{
+			this.preferredMetaData = Collections.emptyMap();
+		}
+		else
+		{
+			this.preferredMetaData = new HashMap<>(preferredMetaData);
+		}
+		this.codec = codec;
+		this.directory = Objects.requireNonNull(directory, "directory must not be null!");
+		this.baseName = Objects.requireNonNull(baseName, "baseName must not be null!");
+		this.segmentPattern = Pattern.compile(Pattern.quote(baseName) + "-(\\d{19})" + Pattern.quote(DATA_EXTENSION));
+		this.indexStrategyFactory = Objects.requireNonNull(indexStrategyFactory, "indexStrategyFactory must not be null!");
+		this.writeLock = new ReentrantLock();
+		this.sizeChangeSupport = new SizeChangeSupport(this);
+		this.clock = Objects.requireNonNull(clock, "clock must not be null!");
+
+		if(directory.mkdirs())
+		{
+			if(logger.isDebugEnabled()) logger.debug("Created directory {}.", directory.getAbsolutePath()); // NOPMD
+		}
+		if(!directory.isDirectory())
+		{
+			throw new IllegalArgumentException(directory.getAbsolutePath() + " is not a directory!");
+		}
+		this.segments = openSegments();
+	}
+
+	public Codec<E> getCodec()
+	{
+		return codec;
+	}
+
+	public void setCodec(Codec<E> codec)
+	{
+		writeLock.lock();
+		try
+		{
+			this.codec = codec;
+			for(Segment<E> current : segments)
+			{
+				current.buffer.setCodec(codec);
+			}
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
+
+	public boolean isKeepingFilesOpen()
+	{
+		return keepingFilesOpen;
+	}
+
+	/**
+	 * @param keepingFilesOpen whether or not the files of the segments are kept open.
+	 * @see CodecFileBuffer#setKeepingFilesOpen(boolean)
+	 */
+	public void setKeepingFilesOpen(boolean keepingFilesOpen)
+	{
+		writeLock.lock();
+		try
+		{
+			this.keepingFilesOpen = keepingFilesOpen;
+			for(Segment<E> current : segments)
+			{
+				current.buffer.setKeepingFilesOpen(keepingFilesOpen);
+			}
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
+
+	public long getMaximumSegmentElements()
+	{
+		return maximumSegmentElements;
+	}
+
+	/**
+	 * @param maximumSegmentElements the number of elements after which a new segment is started, 0 for no limit.
+	 */
+	public void setMaximumSegmentElements(long maximumSegmentElements)
+	{
+		this.maximumSegmentElements = requireNotNegative(maximumSegmentElements, "maximumSegmentElements");
+	}
+
+	public long getMaximumSegmentBytes()
+	{
+		return maximumSegmentBytes;
+	}
+
+	/**
+	 * @param maximumSegmentBytes the size of data and index file after which a new segment is started, 0 for no limit.
+	 */
+	public void setMaximumSegmentBytes(long maximumSegmentBytes)
+	{
+		this.maximumSegmentBytes = requireNotNegative(maximumSegmentBytes, "maximumSegmentBytes");
+	}
+
+	public long getMaximumSegmentAge()
+	{
+		return maximumSegmentAge;
+	}
+
+	/**
+	 * @param maximumSegmentAge the age in milliseconds after which a new segment is started, 0 for no limit.
+	 */
+	public void setMaximumSegmentAge(long maximumSegmentAge)
+	{
+		this.maximumSegmentAge = requireNotNegative(maximumSegmentAge, "maximumSegmentAge");
+	}
+
+	public int getMaximumSegments()
+	{
+		return maximumSegments;
+	}
+
+	/**
+	 * @param maximumSegments the maximum number of retained segments, 0 for no limit.
+	 */
+	public void setMaximumSegments(int maximumSegments)
+	{
+		this.maximumSegments = (int) requireNotNegative(maximumSegments, "maximumSegments");
+	}
+
+	public long getMaximumTotalBytes()
+	{
+		return maximumTotalBytes;
+	}
+
+	/**
+	 * @param maximumTotalBytes the maximum size of the files of all retained segments, 0 for no limit.
+	 */
+	public void setMaximumTotalBytes(long maximumTotalBytes)
+	{
+		this.maximumTotalBytes = requireNotNegative(maximumTotalBytes, "maximumTotalBytes");
+	}
+
+	public long getRetentionAge()
+	{
+		return retentionAge;
+	}
+
+	/**
+	 * @param retentionAge the time in milliseconds a segment is retained after it has been rolled over, 0 for no limit.
+	 */
+	public void setRetentionAge(long retentionAge)
+	{
+		this.retentionAge = requireNotNegative(retentionAge, "retentionAge");
+	}
+
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	public String getBaseName()
+	{
+		return baseName;
+	}
+
+	/**
+	 * @return the data file of the segment that is currently appended to.
+	 */
+	@Override
+	public File getDataFile()
+	{
+		Segment<E>[] current = segments;
+		return current[current.length - 1].buffer.getDataFile();
+	}
+
+	/**
+	 * @return the data files of all retained segments, oldest first.
+	 */
+	public List<File> getSegmentFiles()
+	{
+		Segment<E>[] current = segments;
+		List<File> result = new ArrayList<>(current.length);
+		for(Segment<E> segment : current)
+		{
+			result.add(segment.buffer.getDataFile());
+		}
+		return result;
+	}
+
+	public int getSegmentCount()
+	{
+		return segments.length;
+	}
+
+	/**
+	 * @return the index of the first element that has not been dropped.
+	 */
+	public long getFirstIndex()
+	{
+		return segments[0].firstIndex;
+	}
+
+	@Override
+	public long getSize()
+	{
+		Segment<E>[] current = segments;
+		Segment<E> last = current[current.length - 1];
+		return last.firstIndex + last.buffer.getSize();
+	}
+
+	/**
+	 * @param index must be in the range <code>[0..(getSize()-1)]</code>.
+	 * @return the element at the given index or null if it has been dropped.
+	 */
+	@Override
+	public E get(long index)
+	{
+		Segment<E>[] current = segments;
+		int segmentIndex = findSegment(current, index);
+		if(segmentIndex < 0)
+		{
+			return null;
+		}
+		Segment<E> segment = current[segmentIndex];
+		return segment.buffer.get(index - segment.firstIndex);
+	}
+
+	/**
+	 * Elements of dropped segments are returned as null.
+	 *
+	 * @param startIndex the index of the first element.
+	 * @param count the maximum number of elements.
+	 * @return the elements of the given range.
+	 */
+	@Override
+	public List<E> getRange(long startIndex, int count)
+	{
+		GetRange.checkRange(startIndex, count);
+		Segment<E>[] current = segments;
+		Segment<E> last = current[current.length - 1];
+		long size = last.firstIndex + last.buffer.getSize();
+		int actualCount = (int) Math.max(0, Math.min(count, size - startIndex));
+		List<E> result = new ArrayList<>(actualCount);
+		long index = startIndex;
+		long end = startIndex + actualCount;
+		while(index < end)
+		{
+			int segmentIndex = findSegment(current, index);
+			long segmentEnd = segmentIndex + 1 < current.length ? current[segmentIndex + 1].firstIndex : end;
+			int chunk = (int) (Math.min(end, segmentEnd) - index);
+			if(segmentIndex >= 0)
+			{
+				Segment<E> segment = current[segmentIndex];
+				result.addAll(segment.buffer.getRange(index - segment.firstIndex, chunk));
+			}
+			while(result.size() < index - startIndex + chunk)
+			{
+				// dropped or missing
+				result.add(null);
+			}
+			index += chunk;
+		}
+		return result;
+	}
+
+	@Override
+	public void add(E element)
+	{
+		addAll(Collections.singletonList(element));
+	}
+
+	@Override
+	public void addAll(E[] elements)
+	{
+		addAll(Arrays.asList(elements));
+	}
+
+	/**
+	 * Appends the elements, starting new segments as necessary, and drops old segments afterwards
+	 * according to the retention settings.
+	 *
+	 * @param elements the elements to add.
+	 */
+	@Override
+	public void addAll(List<E> elements)
+	{
+		if(elements == null || elements.isEmpty())
+		{
+			return;
+		}
+		List<Segment<E>> dropped;
+		writeLock.lock();
+		try
+		{
+			int count = elements.size();
+			int offset = 0;
+			while(offset < count)
+			{
+				rollIfNecessary();
+				Segment<E>[] current = segments;
+				Segment<E> last = current[current.length - 1];
+				int chunk = count - offset;
+				long limit = maximumSegmentElements;
+				if(limit > 0)
+				{
+					chunk = (int) Math.max(1, Math.min(chunk, limit - last.buffer.getSize()));
+				}
+				last.buffer.addAll(elements.subList(offset, offset + chunk));
+				offset += chunk;
+			}
+			dropped = applyRetentionInternal();
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+		deleteSegments(dropped);
+		sizeChangeSupport.fireSizeChanged();
+	}
+
+	/**
+	 * Drops old segments according to the retention settings. This is also done after every add.
+	 *
+	 * @return the number of dropped segments.
+	 */
+	public int applyRetention()
+	{
+		List<Segment<E>> dropped;
+		writeLock.lock();
+		try
+		{
+			dropped = applyRetentionInternal();
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+		deleteSegments(dropped);
+		return dropped.size();
+	}
+
+	/**
+	 * Deletes all segments and starts over at index 0.
+	 */
+	@Override
+	public void reset()
+	{
+		List<File> undeletedFiles;
+		writeLock.lock();
+		try
+		{
+			List<Segment<E>> dropped = Arrays.asList(segments);
+			for(Segment<E> current : dropped)
+			{
+				current.buffer.dispose();
+			}
+			// the files must be gone before the new first segment is created
+			undeletedFiles = deleteFiles(dropped);
+			segments = newSegmentArray(createSegment(0));
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+		// it's a really bad idea to log while locked *sigh*
+		logUndeletedFiles(undeletedFiles);
+		sizeChangeSupport.fireSizeChanged();
+	}
+
+	@Override
+	public void addSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.addSizeChangeListener(listener);
+	}
+
+	@Override
+	public void removeSizeChangeListener(SizeChangeListener listener)
+	{
+		sizeChangeSupport.removeSizeChangeListener(listener);
+	}
+
+	/**
+	 * @return will always return false, i.e. it does not check for disk space!
+	 */
+	@Override
+	public boolean isFull()
+	{
+		return false;
+	}
+
+	@Override
+	public Iterator<E> iterator()
+	{
+		return new BasicBufferIterator<>(this);
+	}
+
+	/**
+	 * Closes the files of all segments. They will be reopened on demand.
+	 */
+	public void close()
+	{
+		for(Segment<E> current : segments)
+		{
+			current.buffer.close();
+		}
+	}
+
+	@Override
+	public void dispose()
+	{
+		writeLock.lock();
+		try
+		{
+			disposed = true;
+			for(Segment<E> current : segments)
+			{
+				current.buffer.dispose();
+			}
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isDisposed()
+	{
+		return disposed;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "SegmentedCodecFileBuffer[directory=\"" + directory.getAbsolutePath()
+			+ "\", baseName=" + baseName
+			+ ", segmentCount=" + segments.length
+			+ ", codec=" + codec
+			+ "]";
+	}
+
+	/**
+	 * @return the index of the segment containing index, -1 if index is smaller than the first index.
+	 */
+	private static int findSegment(Segment<?>[] segments, long index)
+	{
+		int low = 0;
+		int high = segments.length - 1;
+		int result = -1;
+		while(low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			if(segments[middle].firstIndex <= index)
+			{
+				result = middle;
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle - 1;
+			}
+		}
+		return result;
+	}
+
+	private void rollIfNecessary()
+	{
+		Segment<E>[] current = segments;
+		Segment<E> last = current[current.length - 1];
+		long size = last.buffer.getSize();
+		if(size == 0)
+		{
+			return;
+		}
+		long elementsLimit = maximumSegmentElements;
+		long bytesLimit = maximumSegmentBytes;
+		long ageLimit = maximumSegmentAge;
+		boolean rolling = (elementsLimit > 0 && size >= elementsLimit)
+			|| (bytesLimit > 0 && last.getBytes() >= bytesLimit)
+			|| (ageLimit > 0 && clock.millis() - last.created >= ageLimit);
+		if(rolling)
+		{
+			Segment<E>[] result = Arrays.copyOf(current, current.length + 1);
+			result[current.length] = createSegment(last.firstIndex + size);
+			segments = result;
+		}
+	}
+
+	private List<Segment<E>> applyRetentionInternal()
+	{
+		Segment<E>[] current = segments;
+		int segmentsLimit = maximumSegments;
+		long bytesLimit = maximumTotalBytes;
+		long ageLimit = retentionAge;
+		long now = clock.millis();
+
+		long totalBytes = 0;
+		if(bytesLimit > 0)
+		{
+			int last = current.length - 1;
+			for(int i = 0; i < last; i++)
+			{
+				totalBytes += current[i].getClosedBytes();
+			}
+			totalBytes += current[last].getBytes();
+		}
+
+		int dropCount = 0;
+		while(dropCount < current.length - 1)
+		{
+			Segment<E> oldest = current[dropCount];
+			// a segment has been rolled over as soon as its successor has been created
+			long rolledOver = current[dropCount + 1].created;
+			boolean dropping = (segmentsLimit > 0 && current.length - dropCount > segmentsLimit)
+				|| (bytesLimit > 0 && totalBytes > bytesLimit)
+				|| (ageLimit > 0 && now - rolledOver >= ageLimit);
+			if(!dropping)
+			{
+				break;
+			}
+			if(bytesLimit > 0)
+			{
+				totalBytes -= oldest.getClosedBytes();
+			}
+			dropCount++;
+		}
+		if(dropCount == 0)
+		{
+			return Collections.emptyList();
+		}
+		List<Segment<E>> result = new ArrayList<>(Arrays.asList(current).subList(0, dropCount));
+		segments = Arrays.copyOfRange(current, dropCount, current.length);
+		return result;
+	}
+
+	private void deleteSegments(List<Segment<E>> dropped)
+	{
+		if(dropped.isEmpty())
+		{
+			return;
+		}
+		for(Segment<E> current : dropped)
+		{
+			current.buffer.dispose();
+		}
+		logUndeletedFiles(deleteFiles(dropped));
+		if(logger.isInfoEnabled()) logger.info("Dropped {} segment(s) of {}.", dropped.size(), this);
+	}
+
+	/**
+	 * @return the files that couldn't be deleted.
+	 */
+	private static List<File> deleteFiles(List<? extends Segment<?>> dropped)
+	{
+		List<File> result = new ArrayList<>();
+		for(Segment<?> current : dropped)
+		{
+			File dataFile = current.buffer.getDataFile();
+			File indexFile = current.buffer.getIndexFile();
+			if(!dataFile.delete() && dataFile.exists())
+			{
+				result.add(dataFile);
+			}
+			if(!indexFile.delete() && indexFile.exists())
+			{
+				result.add(indexFile);
+			}
+		}
+		return result;
+	}
+
+	private void logUndeletedFiles(List<File> files)
+	{
+		for(File current : files)
+		{
+			if(logger.isWarnEnabled()) logger.warn("Couldn't delete {}.", current.getAbsolutePath()); // NOPMD
+		}
+	}
+
+	private Segment<E>[] openSegments()
+	{
+		List<Segment<E>> result = new ArrayList<>();
+		File[] files = directory.listFiles();
+		if(files != null)
+		{
+			Arrays.sort(files);
+			for(File current : files)
+			{
+				Matcher matcher = segmentPattern.matcher(current.getName());
+				if(current.isFile() && matcher.matches())
+				{
+					long firstIndex = Long.parseLong(matcher.group(1));
+					CodecFileBuffer<E> buffer = newBuffer(current, preferredMetaData);
+					String created = buffer.getFileHeader().getMetaData().getData().get(CREATED_KEY);
+					long createdTime;
+					try
+					{
+						createdTime = created == null ? current.lastModified() : Long.parseLong(created);
+					}
+					catch(NumberFormatException e)
+					{
+						createdTime = current.lastModified();
+					}
+					result.add(new Segment<>(firstIndex, createdTime, buffer));
+				}
+			}
+		}
+		if(result.isEmpty())
+		{
+			return newSegmentArray(createSegment(0));
+		}
+		@SuppressWarnings("unchecked")
+		Segment<E>[] array = result.toArray(new Segment[0]);
+		return array;
+	}
+
+	private Segment<E> createSegment(long firstIndex)
+	{
+		long created = clock.millis();
+		Map<String, String> metaData = new HashMap<>(preferredMetaData);
+		metaData.put(CREATED_KEY, Long.toString(created));
+		File dataFile = new File(directory, baseName + "-" + String.format("%019d", firstIndex) + DATA_EXTENSION);
+		return new Segment<>(firstIndex, created, newBuffer(dataFile, metaData));
+	}
+
+	private CodecFileBuffer<E> newBuffer(File dataFile, Map<String, String> metaData)
+	{
+		CodecFileBuffer<E> result = new CodecFileBuffer<>(magicValue, false, metaData, codec, dataFile, null, new DefaultFileHeaderStrategy(), indexStrategyFactory.get());
+		result.setKeepingFilesOpen(keepingFilesOpen);
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <E> Segment<E>[] newSegmentArray(Segment<E> segment)
+	{
+		return new Segment[]{segment};
+	}
+
+	private static long requireNotNegative(long value, String name)
+	{
+		if(value < 0)
+		{
+			throw new IllegalArgumentException(name + " must not be negative but was " + value + "!");
+		}
+		return value;
+	}
+
+	private static final class Segment<E>
+	{
+		private final long firstIndex;
+		private final long created;
+		private final CodecFileBuffer<E> buffer;
+		/**
+		 * The size of the files once the segment has been rolled over, -1 if unknown.
+		 * Only accessed while holding the write lock.
+		 */
+		private long closedBytes = -1;
+
+		Segment(long firstIndex, long created, CodecFileBuffer<E> buffer)
+		{
+			this.firstIndex = firstIndex;
+			this.created = created;
+			this.buffer = buffer;
+		}
+
+		long getBytes()
+		{
+			return buffer.getDataFile().length() + buffer.getIndexFile().length();
+		}
+
+		/**
+		 * Must only be called after the segment has been rolled over since elements are only added to the last one.
+		 *
+		 * @return the cached size of the files.
+		 */
+		long getClosedBytes()
+		{
+			if(closedBytes < 0)
+			{
+				closedBytes = getBytes();
+			}
+			return closedBytes;
+		}
+	}
+}
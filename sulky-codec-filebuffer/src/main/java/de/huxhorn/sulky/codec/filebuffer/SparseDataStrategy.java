@@ -34,13 +34,17 @@
 
 package de.huxhorn.sulky.codec.filebuffer;
 
+import de.huxhorn.sulky.buffers.ResetOperation;
 import de.huxhorn.sulky.codec.Codec;
+import de.huxhorn.sulky.codec.buffer.ByteBufferCodecs;
+import de.huxhorn.sulky.codec.buffer.ByteBufferEncoder;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.Collections;
 import java.util.List;
 
 public class SparseDataStrategy<E>
-	implements DataStrategy<E>
+	implements DataStrategy<E>, ResetOperation
 {
 	/**
 	 * The size of the data size, i.e. an int.
@@ -54,6 +58,23 @@ public class SparseDataStrategy<E>
 
 	private boolean supportingOverwrite;
 
+	/**
+	 * Bytes of records that have been overwritten or removed by set, written only by set.
+	 */
+	private volatile long deadBytes;
+
+	/**
+	 * Whether deadBytes covers the whole data file, i.e. it has been estimated, reset or set by compaction.
+	 */
+	private volatile boolean deadBytesKnown;
+
+	// state of a running estimate, only accessed while holding a lock of the buffer.
+	// set requires the write lock while the estimate is continued holding the read lock.
+	private long estimateLength = -1;
+	private long estimateSize;
+	private long estimatedIndices;
+	private long estimateLiveBytes;
+
 	public SparseDataStrategy()
 	{
 		this(true);
@@ -74,6 +95,112 @@ public class SparseDataStrategy<E>
 		this.supportingOverwrite = supportingOverwrite;
 	}
 
+	/**
+	 * Returns the number of bytes in the data file that belong to records that have been replaced
+	 * or removed by set.
+	 *
+	 * Only records replaced since this strategy has been created are counted unless the dead bytes
+	 * of the data file have been estimated by startEstimate and continueEstimate.
+	 *
+	 * Those bytes can be reclaimed by CodecFileBuffer.compact().
+	 *
+	 * @return the number of dead bytes.
+	 */
+	public long getDeadBytes()
+	{
+		return deadBytes;
+	}
+
+	void setDeadBytes(long deadBytes)
+	{
+		this.deadBytes = deadBytes;
+		this.deadBytesKnown = true;
+		this.estimateLength = -1;
+	}
+
+	boolean isDeadBytesKnown()
+	{
+		return deadBytesKnown;
+	}
+
+	/**
+	 * Starts to estimate the dead bytes of an existing data file as all bytes after the file header
+	 * that don't belong to a record referenced by the index. The estimate only covers the records
+	 * contained in the files at this point, records written by set are counted as usual.
+	 *
+	 * @param indexFile the index file.
+	 * @param dataFile the data file.
+	 * @param indexStrategy the index strategy.
+	 * @throws IOException in case of IOException :p
+	 */
+	void startEstimate(RandomAccessFile indexFile, RandomAccessFile dataFile, IndexStrategy indexStrategy)
+		throws IOException
+	{
+		deadBytes = 0;
+		estimateLength = dataFile.length();
+		estimateSize = indexStrategy.getSize(indexFile);
+		estimatedIndices = 0;
+		estimateLiveBytes = 0;
+	}
+
+	/**
+	 * Adds the sizes of the live records of the next count indices to the estimate.
+	 * The buffer may be changed by set and add between calls.
+	 *
+	 * @param indexFile the index file.
+	 * @param dataFile the data file.
+	 * @param dataOffset the offset of the first record.
+	 * @param indexStrategy the index strategy.
+	 * @param count the number of indices.
+	 * @return true if the estimate isn't finished yet.
+	 * @throws IOException in case of IOException :p
+	 */
+	boolean continueEstimate(RandomAccessFile indexFile, RandomAccessFile dataFile, long dataOffset, IndexStrategy indexStrategy, int count)
+		throws IOException
+	{
+		if(estimateLength < 0)
+		{
+			// finished, aborted by setDeadBytes or never started
+			return false;
+		}
+		try
+		{
+			int chunkSize = (int) Math.min(count, estimateSize - estimatedIndices);
+			if(chunkSize > 0)
+			{
+				for(long offset : indexStrategy.getOffsets(indexFile, estimatedIndices, chunkSize))
+				{
+					// records written since the start are counted by set
+					if(offset >= 0 && offset < estimateLength)
+					{
+						estimateLiveBytes += getRecordSize(dataFile, offset);
+					}
+				}
+				estimatedIndices += chunkSize;
+			}
+			if(estimatedIndices < estimateSize)
+			{
+				return true;
+			}
+			setDeadBytes(Math.max(0, estimateLength - dataOffset - estimateLiveBytes) + deadBytes);
+			return false;
+		}
+		catch(IOException | RuntimeException e)
+		{
+			estimateLength = -1;
+			throw e;
+		}
+	}
+
+	/**
+	 * Resets the number of dead bytes.
+	 */
+	@Override
+	public void reset()
+	{
+		setDeadBytes(0);
+	}
+
 	@Override
 	public void add(E element,
 	                RandomAccessFile indexFile,
@@ -82,6 +209,11 @@ public class SparseDataStrategy<E>
 	                IndexStrategy indexStrategy)
 		throws IOException
 	{
+		if(ByteBufferCodecs.directEncoderOf(codec) != null)
+		{
+			addAll(Collections.singletonList(element), indexFile, dataFile, codec, indexStrategy);
+			return;
+		}
 		long elementsCount = indexStrategy.getSize(indexFile);
 
 		long offset = dataFile.length();
@@ -91,6 +223,12 @@ public class SparseDataStrategy<E>
 		indexStrategy.setOffset(indexFile, elementsCount, offset);
 	}
 
+	/**
+	 * Encodes all elements before appending them using a single write of the data file
+	 * and a single call of IndexStrategy.setOffsets.
+	 *
+	 * If the codec writes directly into ByteBuffers, the elements are encoded directly into the write buffer.
+	 */
 	@Override
 	public void addAll(List<E> elements,
 	                   RandomAccessFile indexFile,
@@ -99,32 +237,32 @@ public class SparseDataStrategy<E>
 	                   IndexStrategy indexStrategy)
 		throws IOException
 	{
-		if(elements != null)
+		if(elements != null && !elements.isEmpty())
 		{
-			int newElementCount = elements.size();
-			if(newElementCount > 0)
+			ByteBufferEncoder<E> encoder = ByteBufferCodecs.directEncoderOf(codec);
+			if(encoder != null)
 			{
 				long elementsCount = indexStrategy.getSize(indexFile);
-
-				long offset = dataFile.length();
-
-				long[] offsets = new long[newElementCount];
-				int index = 0;
-				for(E element : elements)
-				{
-					offsets[index] = offset;
-					offset = offset + internalWriteElement(dataFile, offset, elementsCount + index, element, codec) + DATA_LENGTH_SIZE + INDEX_SIZE;
-					index++;
-				}
-
-				index = 0;
-				for(long curOffset : offsets)
-				{
-					indexStrategy.setOffset(indexFile, elementsCount + index, curOffset);
-					index++;
-				}
+				long[] offsets = RecordBatchWriter.writeElements(dataFile, elements, encoder, elementsCount, true);
+				indexStrategy.setOffsets(indexFile, elementsCount, offsets);
+				return;
 			}
+			addAllEncoded(RecordBatchWriter.encode(elements, codec), indexFile, dataFile, indexStrategy);
+		}
+	}
 
+	@Override
+	public void addAllEncoded(List<byte[]> encodedElements,
+	                          RandomAccessFile indexFile,
+	                          RandomAccessFile dataFile,
+	                          IndexStrategy indexStrategy)
+		throws IOException
+	{
+		if(encodedElements != null && !encodedElements.isEmpty())
+		{
+			long elementsCount = indexStrategy.getSize(indexFile);
+			long[] offsets = RecordBatchWriter.writeRecords(dataFile, encodedElements, elementsCount, true);
+			indexStrategy.setOffsets(indexFile, elementsCount, offsets);
 		}
 	}
 
@@ -137,6 +275,11 @@ public class SparseDataStrategy<E>
 		{
 			return false;
 		}
+		// a record the running estimate hasn't reached yet is counted by the estimate since it isn't referenced anymore.
+		if(offset >= 0 && !(estimateLength >= 0 && index >= estimatedIndices && offset < estimateLength))
+		{
+			deadBytes += getRecordSize(dataFile, offset);
+		}
 		if(element != null)
 		{
 			offset = dataFile.length();
@@ -181,6 +324,83 @@ public class SparseDataStrategy<E>
 		return null;
 	}
 
+	/**
+	 * Reads the index slice of the range at once, followed by a single read of the data region
+	 * containing all elements of the range.
+	 */
+	@Override
+	public List<E> getRange(long startIndex,
+	                        int count,
+	                        RandomAccessFile indexFile,
+	                        RandomAccessFile dataFile,
+	                        Codec<E> codec,
+	                        IndexStrategy indexStrategy)
+		throws IOException
+	{
+		if(codec == null)
+		{
+			throw new IllegalStateException("Codec has not been initialized!");
+		}
+		return RecordRangeReader.decode(RecordRangeReader.readSlices(startIndex, count, indexFile, dataFile, indexStrategy, (int) (DATA_LENGTH_SIZE + INDEX_SIZE)), codec);
+	}
+
+	@Override
+	public byte[] getEncoded(long index,
+	                         RandomAccessFile indexFile,
+	                         RandomAccessFile dataFile,
+	                         IndexStrategy indexStrategy)
+		throws IOException
+	{
+		long elementsCount = indexStrategy.getSize(indexFile);
+		if(index >= 0 && index < elementsCount)
+		{
+			long offset = indexStrategy.getOffset(indexFile, index);
+			if(offset < 0)
+			{
+				return null;
+			}
+
+			return internalReadEncoded(dataFile, offset);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the index slice of the range at once, followed by a single read of the data region
+	 * containing all elements of the range.
+	 */
+	@Override
+	public List<byte[]> getEncodedRange(long startIndex,
+	                                    int count,
+	                                    RandomAccessFile indexFile,
+	                                    RandomAccessFile dataFile,
+	                                    IndexStrategy indexStrategy)
+		throws IOException
+	{
+		return RecordRangeReader.readRange(startIndex, count, indexFile, dataFile, indexStrategy, (int) (DATA_LENGTH_SIZE + INDEX_SIZE));
+	}
+
+	/**
+	 * @param dataFile the data file.
+	 * @param offset the offset of a record.
+	 * @return the size of the record at the given offset, including its header, or 0 if it can't be read.
+	 * @throws IOException in case of IOException :p
+	 */
+	static long getRecordSize(RandomAccessFile dataFile, long offset)
+		throws IOException
+	{
+		long headerSize = DATA_LENGTH_SIZE + INDEX_SIZE;
+		if(dataFile.length() < offset + headerSize)
+		{
+			return 0;
+		}
+		int bufferSize = PositionalIO.readInt(dataFile, offset);
+		if(bufferSize < 0)
+		{
+			return 0;
+		}
+		return headerSize + bufferSize;
+	}
 
 	private int internalWriteElement(RandomAccessFile dataFile, long offset, long index, E element, Codec<E> codec)
 		throws IOException
@@ -207,22 +427,23 @@ public class SparseDataStrategy<E>
 		{
 			throw new IllegalStateException("Codec has not been initialized!");
 		}
+		return codec.decode(internalReadEncoded(dataFile, offset));
+	}
 
+	private byte[] internalReadEncoded(RandomAccessFile dataFile, long offset)
+		throws IOException
+	{
 		if(dataFile.length() < offset + DATA_LENGTH_SIZE + INDEX_SIZE)
 		{
 			throw new IndexOutOfBoundsException("Invalid offset: " + offset + "! Couldn't read length of data!");
 		}
-		dataFile.seek(offset);
-		int bufferSize = dataFile.readInt();
+		int bufferSize = PositionalIO.readInt(dataFile, offset);
 		long startOfData = offset + DATA_LENGTH_SIZE + INDEX_SIZE;
-		if(dataFile.length() < startOfData + bufferSize)
+		if(bufferSize < 0 || dataFile.length() < startOfData + bufferSize)
 		{
 			throw new IndexOutOfBoundsException("Invalid length (" + bufferSize + ") at offset: " + offset + "!");
 		}
 		// ignore stored index in case of read
-		dataFile.seek(startOfData);
-		byte[] buffer = new byte[bufferSize];
-		dataFile.readFully(buffer);
-		return codec.decode(buffer);
+		return PositionalIO.readBytes(dataFile, startOfData, bufferSize);
 	}
 }
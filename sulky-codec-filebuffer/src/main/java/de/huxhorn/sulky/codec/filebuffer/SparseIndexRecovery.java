@@ -0,0 +1,606 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.filebuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebuilds the index file of a sparse CodecFileBuffer from its data file.
+ *
+ * Every record written by SparseDataStrategy contains the index of its element, so the data file is
+ * self-describing. The data file is split into chunks of chunkSize bytes that are scanned concurrently
+ * using large sequential reads. Every chunk except the first starts with a search for a position followed by
+ * a chain of valid record headers. The chunks are stitched together in file order afterwards. A chunk whose
+ * first record doesn't match the end of its predecessor is scanned again, starting at that end.
+ *
+ * Records later in the data file win over earlier records with the same index since SparseDataStrategy
+ * appends overwritten elements. Elements that have been set to null aren't contained in the data file,
+ * so their previous value is recovered.
+ *
+ * The scan stops at the first invalid record header, e.g. a record that has only partially been written
+ * before a crash, or at the zero-filled tail of a file whose length has been updated before its content.
+ * A zero-filled header is only considered to be a tail if all following bytes are zero, too. Otherwise it's
+ * an empty record of element 0. The boundary search additionally rejects zero-filled headers and indices
+ * that are larger than the number of records that could precede the chunk plus the number of records that
+ * could follow. It never ends the scan of a chunk that starts at the end of its predecessor, so records of
+ * elements set far beyond the size of the buffer are recovered.
+ *
+ * The bytes following the last valid record are moved into a tail file next to the data file,
+ * so new records can be appended safely without losing anything. They are only discarded
+ * if discardingTail is true.
+ *
+ * The index is written to a temporary file that replaces the index file afterwards.
+ */
+public class SparseIndexRecovery
+{
+	private final Logger logger = LoggerFactory.getLogger(SparseIndexRecovery.class);
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The number of consecutive valid record headers required to accept a position as a record boundary.
+	 */
+	public static final int VALIDATION_RECORDS = 8;
+
+	private static final String TEMP_EXTENSION = ".recovering";
+	private static final String TAIL_EXTENSION = ".tail";
+	private static final int HEADER_SIZE = (int) (SparseDataStrategy.DATA_LENGTH_SIZE + SparseDataStrategy.INDEX_SIZE);
+	private static final int WINDOW_SIZE = 1024 * 1024;
+	private static final int MAXIMUM_RUN_LENGTH = 8192;
+
+	private final Executor executor;
+	private final int chunkSize;
+	private final boolean discardingTail;
+
+	public SparseIndexRecovery()
+	{
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param executor the executor used to scan the chunks.
+	 * @param chunkSize the number of bytes scanned by a single task, must be positive.
+	 */
+	public SparseIndexRecovery(Executor executor, int chunkSize)
+	{
+		this(executor, chunkSize, false);
+	}
+
+	/**
+	 * @param executor the executor used to scan the chunks.
+	 * @param chunkSize the number of bytes scanned by a single task, must be positive.
+	 * @param discardingTail whether the bytes following the last valid record are discarded
+	 * instead of being moved into a tail file.
+	 */
+	public SparseIndexRecovery(Executor executor, int chunkSize, boolean discardingTail)
+	{
+		this.discardingTail = discardingTail;
+		this.executor = Objects.requireNonNull(executor, "executor must not be null!");
+		if(chunkSize <= 0)
+		{
+			throw new IllegalArgumentException("chunkSize must be positive but was " + chunkSize + "!");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public Result recover(File dataFile, File indexFile)
+		throws IOException
+	{
+		return recover(dataFile, indexFile, new DefaultFileHeaderStrategy(), new DefaultIndexStrategy());
+	}
+
+	/**
+	 * Rebuilds indexFile from dataFile. The buffer must not be used while this method is running.
+	 *
+	 * @param dataFile the data file of a sparse buffer.
+	 * @param indexFile the index file to create or replace.
+	 * @param fileHeaderStrategy the strategy used to read the file header.
+	 * @param indexStrategy the strategy used to write the index file.
+	 * @return the result of the recovery.
+	 * @throws IOException in case of IOException :p
+	 * @throws IllegalArgumentException if dataFile doesn't contain a sparse buffer.
+	 */
+	public Result recover(File dataFile, File indexFile, FileHeaderStrategy fileHeaderStrategy, IndexStrategy indexStrategy)
+		throws IOException
+	{
+		FileHeader header = fileHeaderStrategy.readFileHeader(dataFile);
+		if(header == null)
+		{
+			throw new IllegalArgumentException("Could not read file header from file '" + dataFile.getAbsolutePath() + "'. File isn't compatible.");
+		}
+		if(!header.getMetaData().isSparse())
+		{
+			throw new IllegalArgumentException("'" + dataFile.getAbsolutePath() + "' does not contain a sparse buffer!");
+		}
+
+		File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + TEMP_EXTENSION);
+		Result result;
+		try(RandomAccessFile data = new RandomAccessFile(dataFile, "rw");
+			RandomAccessFile index = new RandomAccessFile(tempFile, "rw"))
+		{
+			index.setLength(0);
+			result = recover(data, header.getDataOffset(), index, indexStrategy);
+			if(result.truncatedBytes > 0)
+			{
+				if(!discardingTail)
+				{
+					File tailFile = writeTail(data, dataFile, result.validLength);
+					result = new Result(result.recordCount, result.elementCount, result.validLength, result.truncatedBytes, result.rescannedChunks, tailFile);
+				}
+				data.setLength(result.validLength);
+			}
+			index.getFD().sync();
+		}
+		try
+		{
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e)
+		{
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		if(logger.isInfoEnabled()) logger.info("Recovered index of {}: {}", dataFile.getAbsolutePath(), result);
+		return result;
+	}
+
+	private Result recover(RandomAccessFile data, long dataOffset, RandomAccessFile index, IndexStrategy indexStrategy)
+		throws IOException
+	{
+		long fileLength = data.length();
+		List<CompletableFuture<Chunk>> futures = new ArrayList<>();
+		for(long start = dataOffset; start < fileLength; start += chunkSize)
+		{
+			long chunkStart = start;
+			long chunkEnd = Math.min(fileLength, start + chunkSize);
+			boolean authoritative = chunkStart == dataOffset;
+			futures.add(CompletableFuture.supplyAsync(() -> scan(data, dataOffset, chunkStart, chunkEnd, fileLength, authoritative), executor));
+		}
+
+		IndexWriter writer = new IndexWriter(index, indexStrategy);
+		long expected = dataOffset;
+		long recordCount = 0;
+		int rescannedChunks = 0;
+		boolean corrupt = false;
+		try
+		{
+			for(CompletableFuture<Chunk> future : futures)
+			{
+				Chunk chunk = join(future);
+				if(expected >= chunk.chunkEnd)
+				{
+					// a single record spans the whole chunk
+					continue;
+				}
+				if(chunk.firstRecord != expected)
+				{
+					rescannedChunks++;
+					chunk = scan(data, dataOffset, expected, chunk.chunkEnd, fileLength, true);
+				}
+				for(int i = 0; i < chunk.indices.size; i++)
+				{
+					writer.add(chunk.indices.values[i], chunk.offsets.values[i]);
+				}
+				recordCount += chunk.indices.size;
+				expected = chunk.end;
+				if(chunk.corrupt)
+				{
+					corrupt = true;
+					break;
+				}
+			}
+			writer.flush();
+		}
+		finally
+		{
+			if(corrupt)
+			{
+				for(CompletableFuture<Chunk> future : futures)
+				{
+					future.cancel(false);
+				}
+			}
+		}
+		return new Result(recordCount, indexStrategy.getSize(index), expected, fileLength - expected, rescannedChunks, null);
+	}
+
+	/**
+	 * Copies all bytes starting at validLength into a new tail file next to dataFile.
+	 */
+	private static File writeTail(RandomAccessFile data, File dataFile, long validLength)
+		throws IOException
+	{
+		String name = dataFile.getName() + "." + validLength;
+		File tailFile = new File(dataFile.getParentFile(), name + TAIL_EXTENSION);
+		for(int i = 1; tailFile.exists(); i++)
+		{
+			tailFile = new File(dataFile.getParentFile(), name + "-" + i + TAIL_EXTENSION);
+		}
+		try(RandomAccessFile tail = new RandomAccessFile(tailFile, "rw"))
+		{
+			FileChannel channel = data.getChannel();
+			long position = validLength;
+			long end = data.length();
+			while(position < end)
+			{
+				position += channel.transferTo(position, end - position, tail.getChannel());
+			}
+			tail.getFD().sync();
+		}
+		return tailFile;
+	}
+
+	private static Chunk join(CompletableFuture<Chunk> future)
+		throws IOException
+	{
+		try
+		{
+			return future.join();
+		}
+		catch(CompletionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof UncheckedIOException)
+			{
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			throw e;
+		}
+	}
+
+	private static Chunk scan(RandomAccessFile data, long dataOffset, long chunkStart, long chunkEnd, long fileLength, boolean authoritative)
+	{
+		try
+		{
+			HeaderReader reader = new HeaderReader(data, fileLength);
+			long position = authoritative ? chunkStart : findBoundary(reader, dataOffset, chunkStart, chunkEnd);
+			Chunk result = new Chunk(chunkEnd, position);
+			if(position < 0)
+			{
+				return result;
+			}
+			while(position < chunkEnd)
+			{
+				long next = reader.next(position, false);
+				if(next < 0)
+				{
+					result.corrupt = true;
+					break;
+				}
+				result.indices.add(reader.index);
+				result.offsets.add(position);
+				position = next;
+			}
+			result.end = position;
+			return result;
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return the first position in the chunk followed by VALIDATION_RECORDS valid headers
+	 * or by valid headers up to the end of the file, -1 if there is none.
+	 */
+	private static long findBoundary(HeaderReader reader, long dataOffset, long chunkStart, long chunkEnd)
+		throws IOException
+	{
+		// the largest index possible before chunkStart
+		long maximumIndex = (chunkStart - dataOffset) / HEADER_SIZE - 1;
+		for(long position = chunkStart; position < chunkEnd; position++)
+		{
+			reader.maximumIndex = maximumIndex;
+			long current = position;
+			int valid = 0;
+			while(valid < VALIDATION_RECORDS && current < reader.fileLength)
+			{
+				current = reader.next(current, true);
+				if(current < 0)
+				{
+					break;
+				}
+				valid++;
+			}
+			if(valid == VALIDATION_RECORDS || (valid > 0 && current == reader.fileLength))
+			{
+				return position;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads record headers using a window of WINDOW_SIZE bytes.
+	 */
+	private static final class HeaderReader
+	{
+		private final RandomAccessFile data;
+		private final long fileLength;
+		private final ByteBuffer window;
+		private long windowStart;
+		private long index;
+		private long maximumIndex;
+
+		HeaderReader(RandomAccessFile data, long fileLength)
+		{
+			this.data = data;
+			this.fileLength = fileLength;
+			this.window = ByteBuffer.allocate(WINDOW_SIZE);
+			this.window.limit(0);
+		}
+
+		/**
+		 * Reads the header at position and stores the index of the record.
+		 * A zero-filled header is invalid if it's followed by zeros up to the end of the file.
+		 *
+		 * @param searching whether a boundary is searched. In that case, zero-filled headers and indices
+		 * larger than maximumIndex plus the number of records that could start at or after position are invalid.
+		 * @return the position of the following record or -1 if the header is invalid.
+		 */
+		long next(long position, boolean searching)
+			throws IOException
+		{
+			if(position + HEADER_SIZE > fileLength)
+			{
+				return -1;
+			}
+			if(position < windowStart || position + HEADER_SIZE > windowStart + window.limit())
+			{
+				window.clear();
+				window.limit((int) Math.min(WINDOW_SIZE, fileLength - position));
+				PositionalIO.readFully(data, window, position);
+				windowStart = position;
+			}
+			int offset = (int) (position - windowStart);
+			int length = window.getInt(offset);
+			long recordIndex = window.getLong(offset + (int) SparseDataStrategy.DATA_LENGTH_SIZE);
+			long next = position + HEADER_SIZE + length;
+			if(length < 0 || recordIndex < 0 || next > fileLength)
+			{
+				return -1;
+			}
+			if(length == 0 && recordIndex == 0 && (searching || isZeroTail(position)))
+			{
+				return -1;
+			}
+			if(searching && recordIndex > maximumIndex + (fileLength - position) / HEADER_SIZE)
+			{
+				return -1;
+			}
+			index = recordIndex;
+			maximumIndex = Math.max(maximumIndex, recordIndex);
+			return next;
+		}
+
+		/**
+		 * @return true if all bytes from position to the end of the file are zero.
+		 */
+		private boolean isZeroTail(long position)
+			throws IOException
+		{
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(WINDOW_SIZE, fileLength - position));
+			while(position < fileLength)
+			{
+				int count = (int) Math.min(buffer.capacity(), fileLength - position);
+				buffer.clear();
+				buffer.limit(count);
+				PositionalIO.readFully(data, buffer, position);
+				for(int i = 0; i < count; i++)
+				{
+					if(buffer.get(i) != 0)
+					{
+						return false;
+					}
+				}
+				position += count;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Writes runs of consecutive indices using a single setOffsets call.
+	 */
+	private static final class IndexWriter
+	{
+		private final RandomAccessFile index;
+		private final IndexStrategy indexStrategy;
+		private final long[] run;
+		private long runStart;
+		private int runLength;
+
+		IndexWriter(RandomAccessFile index, IndexStrategy indexStrategy)
+		{
+			this.index = index;
+			this.indexStrategy = indexStrategy;
+			this.run = new long[MAXIMUM_RUN_LENGTH];
+		}
+
+		void add(long elementIndex, long offset)
+			throws IOException
+		{
+			if(runLength > 0 && (elementIndex != runStart + runLength || runLength == run.length))
+			{
+				flush();
+			}
+			if(runLength == 0)
+			{
+				runStart = elementIndex;
+			}
+			run[runLength++] = offset;
+		}
+
+		void flush()
+			throws IOException
+		{
+			if(runLength > 0)
+			{
+				indexStrategy.setOffsets(index, runStart, Arrays.copyOf(run, runLength));
+				runLength = 0;
+			}
+		}
+	}
+
+	private static final class Chunk
+	{
+		private final long chunkEnd;
+		private final long firstRecord;
+		private final LongList indices = new LongList();
+		private final LongList offsets = new LongList();
+		private long end;
+		private boolean corrupt;
+
+		Chunk(long chunkEnd, long firstRecord)
+		{
+			this.chunkEnd = chunkEnd;
+			this.firstRecord = firstRecord;
+			this.end = firstRecord;
+		}
+	}
+
+	private static final class LongList
+	{
+		private long[] values = new long[1024];
+		private int size;
+
+		void add(long value)
+		{
+			if(size == values.length)
+			{
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+
+	public static final class Result
+	{
+		private final long recordCount;
+		private final long elementCount;
+		private final long validLength;
+		private final long truncatedBytes;
+		private final int rescannedChunks;
+		private final File tailFile;
+
+		Result(long recordCount, long elementCount, long validLength, long truncatedBytes, int rescannedChunks, File tailFile)
+		{
+			this.tailFile = tailFile;
+			this.recordCount = recordCount;
+			this.elementCount = elementCount;
+			this.validLength = validLength;
+			this.truncatedBytes = truncatedBytes;
+			this.rescannedChunks = rescannedChunks;
+		}
+
+		/**
+		 * @return the number of valid records, including overwritten ones.
+		 */
+		public long getRecordCount()
+		{
+			return recordCount;
+		}
+
+		/**
+		 * @return the size of the recovered buffer.
+		 */
+		public long getElementCount()
+		{
+			return elementCount;
+		}
+
+		/**
+		 * @return the end of the last valid record.
+		 */
+		public long getValidLength()
+		{
+			return validLength;
+		}
+
+		/**
+		 * @return the number of bytes following the last valid record that have been removed from the data file.
+		 */
+		public long getTruncatedBytes()
+		{
+			return truncatedBytes;
+		}
+
+		/**
+		 * @return the file containing the removed bytes, null if there were none or they have been discarded.
+		 */
+		public File getTailFile()
+		{
+			return tailFile;
+		}
+
+		/**
+		 * @return the number of chunks that had to be scanned again because their boundary search failed.
+		 */
+		public int getRescannedChunks()
+		{
+			return rescannedChunks;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Result[recordCount=" + recordCount
+				+ ", elementCount=" + elementCount
+				+ ", validLength=" + validLength
+				+ ", truncatedBytes=" + truncatedBytes
+				+ ", rescannedChunks=" + rescannedChunks
+				+ ", tailFile=" + tailFile
+				+ "]";
+		}
+	}
+}
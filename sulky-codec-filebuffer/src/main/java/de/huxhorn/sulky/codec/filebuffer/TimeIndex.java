@@ -0,0 +1,667 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.filebuffer;
+
+import de.huxhorn.sulky.buffers.AbstractElementIndex;
+import de.huxhorn.sulky.buffers.Buffer;
+import de.huxhorn.sulky.buffers.GetRange;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sparse index of the timestamps of the elements of a buffer, e.g. a CodecFileBuffer.
+ *
+ * The elements are grouped into blocks of interval elements and only the minimum and maximum timestamp
+ * of every block is kept, so the index requires 16 bytes per block instead of 8 bytes per element.
+ * A search by time uses a binary search on the blocks, followed by a scan of the elements of a single block,
+ * so it decodes at most interval elements instead of O(log n) elements. Since every block knows both its
+ * minimum and maximum timestamp, searches are correct even if timestamps are slightly out of order.
+ *
+ * An element that has been set only widens the bounds of its block since the timestamp of the replaced
+ * element isn't known anymore. Searches stay correct but may scan a few more elements.
+ *
+ * Every completed block is appended to the file of the index, if available, so it doesn't need to be flushed.
+ * If the file already exists, it is loaded by the constructor. Call synchronize(Buffer) afterwards to index
+ * the elements of the last, incomplete block and elements that have been added to the buffer without
+ * updating the index.
+ *
+ * @param <E> the type of the elements.
+ */
+public class TimeIndex<E>
+	extends AbstractElementIndex<E>
+{
+	private final Logger logger = LoggerFactory.getLogger(TimeIndex.class);
+
+	/**
+	 * The file extension used by getDefaultFile.
+	 */
+	public static final String TIME_INDEX_EXTENSION = ".timeindex";
+
+	public static final int DEFAULT_INTERVAL = 128;
+
+	private static final int MAGIC_VALUE = 0x7153_1DE0;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+	private static final int ENTRY_SIZE = 16;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final TimestampExtractor<E> extractor;
+	private final int interval;
+	private final ReadWriteLock readWriteLock;
+
+	private int capacity;
+	private int blockCount;
+	private int persistedBlockCount;
+	private long[] minimums;
+	private long[] maximums;
+	/**
+	 * maximumPrefix[i] is the maximum of maximums[0..i], i.e. it is sorted.
+	 */
+	private long[] maximumPrefix;
+	/**
+	 * Implicit binary tree of the minimums, the minimum of block i is at capacity+i.
+	 */
+	private long[] minimumTree;
+	private int currentCount;
+	private long currentMinimum;
+	private long currentMaximum;
+
+	public TimeIndex(File file, TimestampExtractor<E> extractor)
+	{
+		this(file, extractor, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * @param file the file used to persist the index, may be null if the index isn't persisted.
+	 * @param extractor the extractor of the timestamps.
+	 * @param interval the number of elements per block.
+	 */
+	public TimeIndex(File file, TimestampExtractor<E> extractor, int interval)
+	{
+		super(file);
+		this.extractor = Objects.requireNonNull(extractor, "extractor must not be null!");
+		if(interval < 1)
+		{
+			throw new IllegalArgumentException("interval must be positive!");
+		}
+		this.interval = interval;
+		this.readWriteLock = new ReentrantReadWriteLock(true);
+		clear();
+		load();
+	}
+
+	/**
+	 * @param dataFile the data file of a buffer.
+	 * @return a file next to the data file using the same name and TIME_INDEX_EXTENSION.
+	 */
+	public static File getDefaultFile(File dataFile)
+	{
+		return getDefaultFile(dataFile, TIME_INDEX_EXTENSION);
+	}
+
+	public TimestampExtractor<E> getExtractor()
+	{
+		return extractor;
+	}
+
+	public int getInterval()
+	{
+		return interval;
+	}
+
+	@Override
+	public long getIndexedCount()
+	{
+		Lock lock = readWriteLock.readLock();
+		lock.lock();
+		try
+		{
+			return internalGetIndexedCount();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void processElement(E element)
+	{
+		Throwable throwable = null;
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try
+		{
+			internalAdd(element);
+			persist();
+		}
+		catch(IOException e)
+		{
+			throwable = e;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		logPersistFailure(throwable);
+	}
+
+	@Override
+	public void processElements(List<E> elements)
+	{
+		Throwable throwable = null;
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try
+		{
+			for(E element : elements)
+			{
+				internalAdd(element);
+			}
+			persist();
+		}
+		catch(IOException e)
+		{
+			throwable = e;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		logPersistFailure(throwable);
+	}
+
+	/**
+	 * Widens the bounds of the block containing the index by the timestamp of the element.
+	 * Indices between the indexed elements and the given index don't contain any element.
+	 */
+	@Override
+	public void processElement(long index, E element)
+	{
+		Throwable throwable = null;
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try
+		{
+			long indexedCount = internalGetIndexedCount();
+			if(index >= indexedCount)
+			{
+				skip(index - indexedCount);
+				internalAdd(element);
+			}
+			else
+			{
+				widen(index, getTimestamp(element));
+			}
+			persist();
+		}
+		catch(IOException e)
+		{
+			throwable = e;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		logPersistFailure(throwable);
+	}
+
+	/**
+	 * Returns the index of the first element whose timestamp is at least the given time.
+	 *
+	 * @param buffer the indexed buffer.
+	 * @param time the time.
+	 * @return the index of the first element whose timestamp is at least time or -1 if there is no such element.
+	 */
+	public long indexOfTime(Buffer<E> buffer, long time)
+	{
+		long block;
+		long indexedCount;
+		Lock lock = readWriteLock.readLock();
+		lock.lock();
+		try
+		{
+			block = firstBlockWithMaximum(time);
+			indexedCount = internalGetIndexedCount();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		if(block < 0)
+		{
+			return -1;
+		}
+		for(long start = block * interval; start < indexedCount; start += interval)
+		{
+			int count = (int) Math.min(interval, indexedCount - start);
+			List<E> elements = GetRange.getRange(buffer, start, count);
+			for(int i = 0; i < elements.size(); i++)
+			{
+				long timestamp = getTimestamp(elements.get(i));
+				if(timestamp != TimestampExtractor.NO_TIMESTAMP && timestamp >= time)
+				{
+					return start + i;
+				}
+			}
+			if(elements.size() < count)
+			{
+				break;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the last element whose timestamp is before the given time.
+	 *
+	 * @param buffer the indexed buffer.
+	 * @param time the time.
+	 * @return the index of the last element whose timestamp is before time or -1 if there is no such element.
+	 */
+	public long lastIndexBeforeTime(Buffer<E> buffer, long time)
+	{
+		long block;
+		long indexedCount;
+		Lock lock = readWriteLock.readLock();
+		lock.lock();
+		try
+		{
+			block = lastBlockWithMinimum(time);
+			indexedCount = internalGetIndexedCount();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		for(long start = block * interval; start >= 0; start -= interval)
+		{
+			int count = (int) Math.min(interval, indexedCount - start);
+			List<E> elements = GetRange.getRange(buffer, start, count);
+			for(int i = elements.size() - 1; i >= 0; i--)
+			{
+				long timestamp = getTimestamp(elements.get(i));
+				if(timestamp != TimestampExtractor.NO_TIMESTAMP && timestamp < time)
+				{
+					return start + i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns a view of the buffer starting with the first element whose timestamp is at least startTime
+	 * and ending with the last element whose timestamp is before endTime.
+	 *
+	 * @param buffer the indexed buffer.
+	 * @param startTime the start of the time range, inclusive.
+	 * @param endTime the end of the time range, exclusive.
+	 * @return a view of the elements of the time range, empty if there aren't any.
+	 */
+	public TimeRangeBuffer<E> getTimeRange(Buffer<E> buffer, long startTime, long endTime)
+	{
+		long startIndex = indexOfTime(buffer, startTime);
+		if(startIndex < 0)
+		{
+			return new TimeRangeBuffer<>(buffer, startTime, endTime, 0, 0);
+		}
+		long lastIndex = lastIndexBeforeTime(buffer, endTime);
+		if(lastIndex < startIndex)
+		{
+			return new TimeRangeBuffer<>(buffer, startTime, endTime, startIndex, startIndex);
+		}
+		return new TimeRangeBuffer<>(buffer, startTime, endTime, startIndex, lastIndex + 1);
+	}
+
+	@Override
+	public void reset()
+	{
+		Lock lock = readWriteLock.writeLock();
+		lock.lock();
+		try
+		{
+			clear();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		deleteFile();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "TimeIndex[file=" + getFile() + ", interval=" + interval + ", indexedCount=" + getIndexedCount() + "]";
+	}
+
+	private long getTimestamp(E element)
+	{
+		if(element == null)
+		{
+			return TimestampExtractor.NO_TIMESTAMP;
+		}
+		return extractor.extractTimestamp(element);
+	}
+
+	private long internalGetIndexedCount()
+	{
+		return (long) blockCount * interval + currentCount;
+	}
+
+	private void internalAdd(E element)
+	{
+		long timestamp = getTimestamp(element);
+		if(timestamp != TimestampExtractor.NO_TIMESTAMP)
+		{
+			currentMinimum = Math.min(currentMinimum, timestamp);
+			currentMaximum = Math.max(currentMaximum, timestamp);
+		}
+		currentCount++;
+		if(currentCount == interval)
+		{
+			appendBlock(currentMinimum, currentMaximum);
+			currentCount = 0;
+			currentMinimum = Long.MAX_VALUE;
+			currentMaximum = Long.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Indexes count elements without timestamp, whole blocks at once.
+	 */
+	private void skip(long count)
+	{
+		while(count > 0)
+		{
+			if(currentCount == 0 && count >= interval)
+			{
+				appendBlock(Long.MAX_VALUE, Long.MIN_VALUE);
+				count -= interval;
+			}
+			else
+			{
+				internalAdd(null);
+				count--;
+			}
+		}
+	}
+
+	/**
+	 * Widens the bounds of the block containing the already indexed index.
+	 */
+	private void widen(long index, long timestamp)
+	{
+		if(timestamp == TimestampExtractor.NO_TIMESTAMP)
+		{
+			return;
+		}
+		int block = (int) (index / interval);
+		if(block == blockCount)
+		{
+			currentMinimum = Math.min(currentMinimum, timestamp);
+			currentMaximum = Math.max(currentMaximum, timestamp);
+			return;
+		}
+		if(minimums[block] <= timestamp && timestamp <= maximums[block])
+		{
+			return;
+		}
+		updateBlock(block, Math.min(minimums[block], timestamp), Math.max(maximums[block], timestamp));
+		for(int i = block + 1; i < blockCount; i++)
+		{
+			maximumPrefix[i] = Math.max(maximumPrefix[i - 1], maximums[i]);
+		}
+		persistedBlockCount = Math.min(persistedBlockCount, block);
+	}
+
+	/**
+	 * A block without any timestamp has a minimum of Long.MAX_VALUE and a maximum of Long.MIN_VALUE.
+	 */
+	private void appendBlock(long minimum, long maximum)
+	{
+		if(blockCount == capacity)
+		{
+			grow();
+		}
+		updateBlock(blockCount, minimum, maximum);
+		blockCount++;
+	}
+
+	private void updateBlock(int block, long minimum, long maximum)
+	{
+		minimums[block] = minimum;
+		maximums[block] = maximum;
+		maximumPrefix[block] = block == 0 ? maximum : Math.max(maximumPrefix[block - 1], maximum);
+		int node = capacity + block;
+		minimumTree[node] = minimum;
+		for(node >>= 1; node > 0; node >>= 1)
+		{
+			minimumTree[node] = Math.min(minimumTree[2 * node], minimumTree[2 * node + 1]);
+		}
+	}
+
+	private void grow()
+	{
+		int newCapacity = capacity * 2;
+		minimums = Arrays.copyOf(minimums, newCapacity);
+		maximums = Arrays.copyOf(maximums, newCapacity);
+		maximumPrefix = Arrays.copyOf(maximumPrefix, newCapacity);
+		long[] tree = new long[2 * newCapacity];
+		Arrays.fill(tree, Long.MAX_VALUE);
+		System.arraycopy(minimums, 0, tree, newCapacity, blockCount);
+		for(int node = newCapacity - 1; node > 0; node--)
+		{
+			tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
+		}
+		minimumTree = tree;
+		capacity = newCapacity;
+	}
+
+	/**
+	 * Must be called while holding the read lock.
+	 *
+	 * @return the first block, including the incomplete one, that contains a timestamp of at least time or -1.
+	 */
+	private long firstBlockWithMaximum(long time)
+	{
+		int low = 0;
+		int high = blockCount;
+		while(low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if(maximumPrefix[middle] >= time)
+			{
+				high = middle;
+			}
+			else
+			{
+				low = middle + 1;
+			}
+		}
+		if(low < blockCount)
+		{
+			return low;
+		}
+		if(currentCount > 0 && currentMaximum >= time)
+		{
+			return blockCount;
+		}
+		return -1;
+	}
+
+	/**
+	 * Must be called while holding the read lock.
+	 *
+	 * @return the last block, including the incomplete one, that contains a timestamp before time or -1.
+	 */
+	private long lastBlockWithMinimum(long time)
+	{
+		if(currentCount > 0 && currentMinimum < time)
+		{
+			return blockCount;
+		}
+		if(minimumTree[1] >= time)
+		{
+			return -1;
+		}
+		int node = 1;
+		while(node < capacity)
+		{
+			node = minimumTree[2 * node + 1] < time ? 2 * node + 1 : 2 * node;
+		}
+		return node - capacity;
+	}
+
+	private void clear()
+	{
+		capacity = INITIAL_CAPACITY;
+		blockCount = 0;
+		persistedBlockCount = 0;
+		minimums = new long[capacity];
+		maximums = new long[capacity];
+		maximumPrefix = new long[capacity];
+		minimumTree = new long[2 * capacity];
+		Arrays.fill(minimumTree, Long.MAX_VALUE);
+		currentCount = 0;
+		currentMinimum = Long.MAX_VALUE;
+		currentMaximum = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Appends the blocks that have been completed since the last call to the file.
+	 * The whole file is rewritten if it doesn't contain the previously persisted blocks.
+	 *
+	 * Must be called while holding the write lock.
+	 */
+	private void persist()
+		throws IOException
+	{
+		File file = getFile();
+		if(file == null || persistedBlockCount == blockCount)
+		{
+			return;
+		}
+		try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"))
+		{
+			long persistedLength = HEADER_SIZE + (long) persistedBlockCount * ENTRY_SIZE;
+			int firstBlock = persistedBlockCount;
+			if(persistedBlockCount == 0 || randomAccessFile.length() < persistedLength)
+			{
+				firstBlock = 0;
+			}
+			int headerSize = firstBlock == 0 ? HEADER_SIZE : 0;
+			ByteBuffer buffer = ByteBuffer.allocate(headerSize + (blockCount - firstBlock) * ENTRY_SIZE);
+			if(firstBlock == 0)
+			{
+				buffer.putInt(MAGIC_VALUE);
+				buffer.putInt(VERSION);
+				buffer.putInt(interval);
+			}
+			for(int i = firstBlock; i < blockCount; i++)
+			{
+				buffer.putLong(minimums[i]);
+				buffer.putLong(maximums[i]);
+			}
+			randomAccessFile.seek(firstBlock == 0 ? 0 : persistedLength);
+			randomAccessFile.write(buffer.array());
+			randomAccessFile.setLength(HEADER_SIZE + (long) blockCount * ENTRY_SIZE);
+			persistedBlockCount = blockCount;
+		}
+	}
+
+	private void logPersistFailure(Throwable throwable)
+	{
+		if(throwable != null)
+		{
+			// it's a really bad idea to log while locked *sigh*
+			if(logger.isWarnEnabled()) logger.warn("Couldn't write index to {}!", getFile().getAbsolutePath(), throwable);
+		}
+	}
+
+	private void load()
+	{
+		File file = getFile();
+		if(file == null || !file.isFile())
+		{
+			return;
+		}
+		Throwable throwable = null;
+		try(DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if(input.readInt() != MAGIC_VALUE || input.readInt() != VERSION)
+			{
+				throw new IOException("Invalid magic value or version!");
+			}
+			int fileInterval = input.readInt();
+			if(fileInterval != interval)
+			{
+				throw new IOException("Expected interval " + interval + " but found " + fileInterval + "!");
+			}
+			// an incomplete entry at the end of the file is ignored
+			long entries = (file.length() - HEADER_SIZE) / ENTRY_SIZE;
+			for(long i = 0; i < entries; i++)
+			{
+				long minimum = input.readLong();
+				long maximum = input.readLong();
+				appendBlock(minimum, maximum);
+			}
+			persistedBlockCount = blockCount;
+		}
+		catch(IOException e)
+		{
+			throwable = e;
+			clear();
+		}
+		if(throwable != null)
+		{
+			if(logger.isWarnEnabled()) logger.warn("Couldn't load index from {}, ignoring it.", file.getAbsolutePath(), throwable);
+		}
+	}
+}
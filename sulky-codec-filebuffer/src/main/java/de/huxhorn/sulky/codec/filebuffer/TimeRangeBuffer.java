@@ -0,0 +1,155 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.filebuffer;
+
+import de.huxhorn.sulky.buffers.BasicBufferIterator;
+import de.huxhorn.sulky.buffers.Buffer;
+import de.huxhorn.sulky.buffers.GetRange;
+import de.huxhorn.sulky.buffers.GetRangeOperation;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A view of the continuous index range of a buffer that contains the elements of a time range,
+ * as returned by TimeIndex.getTimeRange.
+ *
+ * The view starts with the first element whose timestamp is at least startTime and ends with the last
+ * element whose timestamp is before endTime. Elements are returned in the order of the buffer, so
+ * elements with timestamps slightly out of order are contained if they have been added in between.
+ *
+ * @param <E> the type of the elements.
+ */
+public class TimeRangeBuffer<E>
+	implements Buffer<E>, GetRangeOperation<E>
+{
+	private final Buffer<E> buffer;
+	private final long startTime;
+	private final long endTime;
+	private final long startIndex;
+	private final long endIndex;
+
+	/**
+	 * @param buffer the underlying buffer.
+	 * @param startTime the start of the time range, inclusive.
+	 * @param endTime the end of the time range, exclusive.
+	 * @param startIndex the index of the first element in the underlying buffer, inclusive.
+	 * @param endIndex the index of the last element in the underlying buffer, exclusive.
+	 */
+	public TimeRangeBuffer(Buffer<E> buffer, long startTime, long endTime, long startIndex, long endIndex)
+	{
+		this.buffer = Objects.requireNonNull(buffer, "buffer must not be null!");
+		if(startIndex < 0 || endIndex < startIndex)
+		{
+			throw new IllegalArgumentException("Invalid index range [" + startIndex + ", " + endIndex + ")!");
+		}
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.startIndex = startIndex;
+		this.endIndex = endIndex;
+	}
+
+	public Buffer<E> getBuffer()
+	{
+		return buffer;
+	}
+
+	public long getStartTime()
+	{
+		return startTime;
+	}
+
+	public long getEndTime()
+	{
+		return endTime;
+	}
+
+	/**
+	 * @return the index of the first element of this view in the underlying buffer.
+	 */
+	public long getStartIndex()
+	{
+		return startIndex;
+	}
+
+	/**
+	 * @return the index after the last element of this view in the underlying buffer.
+	 */
+	public long getEndIndex()
+	{
+		return endIndex;
+	}
+
+	@Override
+	public E get(long index)
+	{
+		if(index < 0 || index >= getSize())
+		{
+			return null;
+		}
+		return buffer.get(startIndex + index);
+	}
+
+	@Override
+	public List<E> getRange(long startIndex, int count)
+	{
+		GetRange.checkRange(startIndex, count);
+		int actualCount = (int) Math.max(0, Math.min(count, getSize() - startIndex));
+		return GetRange.getRange(buffer, this.startIndex + startIndex, actualCount);
+	}
+
+	@Override
+	public long getSize()
+	{
+		return endIndex - startIndex;
+	}
+
+	@Override
+	public Iterator<E> iterator()
+	{
+		return new BasicBufferIterator<>(this);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "TimeRangeBuffer[startTime=" + startTime +
+			", endTime=" + endTime +
+			", startIndex=" + startIndex +
+			", endIndex=" + endIndex +
+			", buffer=" + buffer +
+			"]";
+	}
+}
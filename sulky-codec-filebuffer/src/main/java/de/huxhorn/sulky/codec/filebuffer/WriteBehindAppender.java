@@ -0,0 +1,543 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.filebuffer;
+
+import de.huxhorn.sulky.buffers.DisposeOperation;
+import de.huxhorn.sulky.buffers.FlushOperation;
+import de.huxhorn.sulky.codec.Codec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends elements to a CodecFileBuffer asynchronously.
+ *
+ * Elements are accepted into a bounded queue, blocking the caller if it is full.
+ * They are optionally encoded on a pool of encoder threads and committed to the buffer in batches
+ * by a single committer thread. A batch is committed as soon as it contains maxBatchSize elements,
+ * the oldest element has been waiting for maxLatency milliseconds or a flush has been requested.
+ *
+ * The order of elements is the order in which they have been accepted by the queue.
+ *
+ * @param <E> the type of objects that are appended.
+ */
+public class WriteBehindAppender<E>
+	implements FlushOperation, DisposeOperation
+{
+	private final Logger logger = LoggerFactory.getLogger(WriteBehindAppender.class);
+
+	public static final int DEFAULT_CAPACITY = 10_000;
+	public static final int DEFAULT_MAX_BATCH_SIZE = 1_000;
+	public static final long DEFAULT_MAX_LATENCY = 100;
+
+	private final CodecFileBuffer<E> buffer;
+	private final int maxBatchSize;
+	private final long maxLatency;
+	private final boolean syncing;
+	private final BlockingQueue<Entry<E>> queue;
+	private final ExecutorService encoderPool;
+	private final ReadWriteLock stateLock;
+	private final Thread committerThread;
+	private boolean disposed;
+
+	public WriteBehindAppender(CodecFileBuffer<E> buffer)
+	{
+		this(buffer, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_LATENCY, 0, false);
+	}
+
+	/**
+	 * @param buffer the buffer the elements are appended to.
+	 * @param capacity the maximum number of queued elements.
+	 * @param maxBatchSize the maximum number of elements committed at once.
+	 * @param maxLatency the maximum time in milliseconds an element waits for the commit of its batch.
+	 * @param encoderThreads the number of encoder threads, 0 to encode on the committer thread.
+	 * @param syncing whether or not the files are synced to the underlying device after every commit.
+	 */
+	public WriteBehindAppender(CodecFileBuffer<E> buffer, int capacity, int maxBatchSize, long maxLatency, int encoderThreads, boolean syncing)
+	{
+		this.buffer = Objects.requireNonNull(buffer, "buffer must not be null!");
+		if(capacity < 1)
+		{
+			throw new IllegalArgumentException("capacity must be positive!");
+		}
+		if(maxBatchSize < 1)
+		{
+			throw new IllegalArgumentException("maxBatchSize must be positive!");
+		}
+		if(maxLatency < 0)
+		{
+			throw new IllegalArgumentException("maxLatency must not be negative!");
+		}
+		if(encoderThreads < 0)
+		{
+			throw new IllegalArgumentException("encoderThreads must not be negative!");
+		}
+		this.maxBatchSize = maxBatchSize;
+		this.maxLatency = maxLatency;
+		this.syncing = syncing;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.stateLock = new ReentrantReadWriteLock();
+		if(encoderThreads > 0)
+		{
+			this.encoderPool = Executors.newFixedThreadPool(encoderThreads, runnable -> {
+				Thread t = new Thread(runnable, "WriteBehindAppender-Encoder");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		else
+		{
+			this.encoderPool = null;
+		}
+		this.committerThread = new Thread(new CommitterRunnable(), "WriteBehindAppender-Committer");
+		this.committerThread.setDaemon(true);
+		this.committerThread.start();
+	}
+
+	public CodecFileBuffer<E> getBuffer()
+	{
+		return buffer;
+	}
+
+	public int getMaxBatchSize()
+	{
+		return maxBatchSize;
+	}
+
+	public long getMaxLatency()
+	{
+		return maxLatency;
+	}
+
+	public boolean isSyncing()
+	{
+		return syncing;
+	}
+
+	/**
+	 * Queues the given element, waiting for free space if necessary.
+	 *
+	 * @param element the element to append.
+	 * @throws InterruptedException if interrupted while waiting.
+	 * @throws IllegalStateException if this appender has already been disposed.
+	 */
+	public void append(E element)
+		throws InterruptedException
+	{
+		Lock lock = stateLock.readLock();
+		lock.lock();
+		try
+		{
+			checkDisposed();
+			queue.put(new Entry<>(element, encode(element), null, false));
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Queues the given elements, waiting for free space if necessary.
+	 *
+	 * @param elements the elements to append.
+	 * @throws InterruptedException if interrupted while waiting.
+	 * @throws IllegalStateException if this appender has already been disposed.
+	 */
+	public void appendAll(List<E> elements)
+		throws InterruptedException
+	{
+		Lock lock = stateLock.readLock();
+		lock.lock();
+		try
+		{
+			checkDisposed();
+			for(E element : elements)
+			{
+				queue.put(new Entry<>(element, encode(element), null, false));
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Requests the commit of all elements queued before this call.
+	 *
+	 * The returned future completes exceptionally if any of the commits since the previous flush failed.
+	 *
+	 * @return a future that completes as soon as all previously queued elements have been committed.
+	 * @throws InterruptedException if interrupted while waiting for free space in the queue.
+	 */
+	public CompletableFuture<Void> flushAsync()
+		throws InterruptedException
+	{
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		Lock lock = stateLock.readLock();
+		lock.lock();
+		try
+		{
+			if(disposed)
+			{
+				// everything has already been committed by dispose.
+				result.complete(null);
+			}
+			else
+			{
+				queue.put(new Entry<>(null, null, result, false));
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Waits until all previously queued elements have been committed.
+	 */
+	@Override
+	public void flush()
+	{
+		try
+		{
+			flushAsync().get();
+		}
+		catch(InterruptedException e)
+		{
+			if(logger.isInfoEnabled()) logger.info("Interrupted while flushing...");
+			Thread.currentThread().interrupt();
+		}
+		catch(ExecutionException e)
+		{
+			if(logger.isWarnEnabled()) logger.warn("Couldn't commit elements!", e.getCause());
+		}
+	}
+
+	/**
+	 * Commits all queued elements and stops the committer and encoder threads.
+	 *
+	 * The buffer itself is not disposed.
+	 */
+	@Override
+	public void dispose()
+	{
+		Lock lock = stateLock.writeLock();
+		lock.lock();
+		try
+		{
+			if(disposed)
+			{
+				return;
+			}
+			disposed = true;
+			queue.put(new Entry<>(null, null, null, true));
+		}
+		catch(InterruptedException e)
+		{
+			committerThread.interrupt();
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		try
+		{
+			committerThread.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		if(encoderPool != null)
+		{
+			encoderPool.shutdown();
+		}
+	}
+
+	@Override
+	public boolean isDisposed()
+	{
+		Lock lock = stateLock.readLock();
+		lock.lock();
+		try
+		{
+			return disposed;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private void checkDisposed()
+	{
+		if(disposed)
+		{
+			throw new IllegalStateException("WriteBehindAppender has already been disposed!");
+		}
+	}
+
+	private CompletableFuture<byte[]> encode(E element)
+	{
+		if(encoderPool == null)
+		{
+			return null;
+		}
+		return CompletableFuture.supplyAsync(() -> encodeElement(element), encoderPool);
+	}
+
+	private byte[] encodeElement(E element)
+	{
+		Codec<E> codec = buffer.getCodec();
+		if(codec == null)
+		{
+			throw new IllegalStateException("Codec has not been initialized!");
+		}
+		return codec.encode(element);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "WriteBehindAppender[buffer=" + buffer +
+			", maxBatchSize=" + maxBatchSize +
+			", maxLatency=" + maxLatency +
+			", syncing=" + syncing +
+			", queued=" + queue.size() +
+			"]";
+	}
+
+	private static class Entry<E>
+	{
+		final E element;
+		final CompletableFuture<byte[]> encoded;
+		final CompletableFuture<Void> flushFuture;
+		final boolean stop;
+
+		Entry(E element, CompletableFuture<byte[]> encoded, CompletableFuture<Void> flushFuture, boolean stop)
+		{
+			this.element = element;
+			this.encoded = encoded;
+			this.flushFuture = flushFuture;
+			this.stop = stop;
+		}
+
+		boolean isElement()
+		{
+			return flushFuture == null && !stop;
+		}
+	}
+
+	private class CommitterRunnable
+		implements Runnable
+	{
+		private final List<Entry<E>> batch = new ArrayList<>();
+		private final List<E> elements = new ArrayList<>();
+		private final List<byte[]> encodedElements = new ArrayList<>();
+		private Throwable failure;
+
+		@Override
+		public void run()
+		{
+			boolean stopped = false;
+			while(!stopped)
+			{
+				try
+				{
+					collect();
+				}
+				catch(InterruptedException e)
+				{
+					if(logger.isInfoEnabled()) logger.info("Interrupted CommitterRunnable...");
+					stopped = true;
+				}
+				// whatever has been collected is committed.
+				for(Entry<E> entry : batch)
+				{
+					if(entry.isElement())
+					{
+						addEncoded(entry);
+					}
+					else
+					{
+						commit();
+						if(entry.flushFuture != null)
+						{
+							completeFlush(entry.flushFuture);
+						}
+						else
+						{
+							stopped = true;
+						}
+					}
+				}
+				commit();
+				batch.clear();
+			}
+			// fail anything that has still been queued, e.g. after an interruption.
+			List<Entry<E>> remaining = new ArrayList<>();
+			queue.drainTo(remaining);
+			for(Entry<E> entry : remaining)
+			{
+				if(entry.flushFuture != null)
+				{
+					entry.flushFuture.completeExceptionally(new IllegalStateException("WriteBehindAppender has been stopped!"));
+				}
+			}
+			if(logger.isDebugEnabled()) logger.debug("Committer finished.");
+		}
+
+		private void collect()
+			throws InterruptedException
+		{
+			Entry<E> first = queue.take();
+			batch.add(first);
+			if(!first.isElement())
+			{
+				return;
+			}
+			int elementCount = 1;
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLatency);
+			while(elementCount < maxBatchSize)
+			{
+				long remaining = deadline - System.nanoTime();
+				Entry<E> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+				if(next == null)
+				{
+					return;
+				}
+				batch.add(next);
+				if(!next.isElement())
+				{
+					return;
+				}
+				elementCount++;
+			}
+		}
+
+		private void addEncoded(Entry<E> entry)
+		{
+			try
+			{
+				byte[] encoded;
+				if(entry.encoded != null)
+				{
+					encoded = entry.encoded.get();
+				}
+				else
+				{
+					encoded = encodeElement(entry.element);
+				}
+				elements.add(entry.element);
+				encodedElements.add(encoded);
+			}
+			catch(InterruptedException e)
+			{
+				// only the committer thread itself is interrupted and collect will notice it next time.
+				Thread.currentThread().interrupt();
+				fail(e);
+			}
+			catch(ExecutionException e)
+			{
+				fail(e.getCause());
+			}
+			catch(RuntimeException e)
+			{
+				fail(e);
+			}
+		}
+
+		private void commit()
+		{
+			if(elements.isEmpty())
+			{
+				return;
+			}
+			try
+			{
+				buffer.addAllEncoded(elements, encodedElements, syncing);
+			}
+			catch(Throwable e)
+			{
+				fail(e);
+			}
+			finally
+			{
+				elements.clear();
+				encodedElements.clear();
+			}
+		}
+
+		private void fail(Throwable throwable)
+		{
+			if(logger.isWarnEnabled()) logger.warn("Couldn't commit element!", throwable);
+			if(failure == null)
+			{
+				failure = throwable;
+			}
+		}
+
+		private void completeFlush(CompletableFuture<Void> flushFuture)
+		{
+			if(failure == null)
+			{
+				flushFuture.complete(null);
+			}
+			else
+			{
+				flushFuture.completeExceptionally(failure);
+				failure = null;
+			}
+		}
+	}
+}
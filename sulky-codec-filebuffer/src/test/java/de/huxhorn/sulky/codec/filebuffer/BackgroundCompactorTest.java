@@ -0,0 +1,341 @@
+package de.huxhorn.sulky.codec.filebuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.huxhorn.sulky.codec.SerializableCodec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BackgroundCompactorTest {
+
+	private static final int MAGIC_VALUE = 0xDEADBEEF;
+
+	@TempDir
+	Path tempDir;
+
+	private CodecFileBuffer<String> createBuffer(boolean sparse, IndexStrategy indexStrategy) {
+		File dataFile = tempDir.resolve("buffer.data").toFile();
+		File indexFile = tempDir.resolve("buffer.index").toFile();
+		return new CodecFileBuffer<>(MAGIC_VALUE, sparse, null, new SerializableCodec<>(), dataFile, indexFile, new DefaultFileHeaderStrategy(), indexStrategy);
+	}
+
+	private static List<String> fill(CodecFileBuffer<String> buffer) {
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			String value = "Value-" + i;
+			buffer.add(value);
+			expected.add(value);
+		}
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 100; i += 2) {
+				String value = "Overwritten-" + round + "-" + i;
+				assertTrue(buffer.set(i, value));
+				expected.set(i, value);
+			}
+		}
+		for (int i = 1; i < 100; i += 10) {
+			assertTrue(buffer.set(i, null));
+			expected.set(i, null);
+		}
+		// sparse gap followed by trailing null
+		assertTrue(buffer.set(150, "Value-150"));
+		assertTrue(buffer.set(151, null));
+		while (expected.size() < 152) {
+			expected.add(null);
+		}
+		expected.set(150, "Value-150");
+		return expected;
+	}
+
+	private static void assertContent(List<String> expected, CodecFileBuffer<String> buffer) {
+		assertEquals(expected.size(), buffer.getSize());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), buffer.get(i), "index " + i);
+		}
+		assertEquals(expected, buffer.getRange(0, expected.size()));
+	}
+
+	@Test
+	void compactDropsOverwrittenRecords() {
+		CodecFileBuffer<String> buffer = createBuffer(true, new DefaultIndexStrategy());
+		List<String> expected = fill(buffer);
+		long deadBytes = buffer.getDeadBytes();
+		long previousLength = buffer.getDataFile().length();
+		assertTrue(deadBytes > 0);
+
+		assertTrue(buffer.compact());
+
+		assertEquals(0, buffer.getDeadBytes());
+		assertEquals(previousLength - deadBytes, buffer.getDataFile().length());
+		assertContent(expected, buffer);
+		assertFalse(new File(tempDir.toFile(), "buffer.data.compacting").exists());
+		assertFalse(new File(tempDir.toFile(), "buffer.index.compacting").exists());
+
+		CodecFileBuffer<String> reopened = createBuffer(true, new DefaultIndexStrategy());
+		assertContent(expected, reopened);
+
+		// the buffer stays writable
+		buffer.add("Appended");
+		assertTrue(buffer.set(0, "Replaced"));
+		assertEquals("Appended", buffer.get(152));
+		assertEquals("Replaced", buffer.get(0));
+	}
+
+	@Test
+	void restoresIndexOfInterruptedCompaction() throws IOException {
+		CodecFileBuffer<String> buffer = createBuffer(true, new DefaultIndexStrategy());
+		List<String> expected = fill(buffer);
+		Path indexPath = tempDir.resolve("buffer.index");
+		Path tempIndexPath = tempDir.resolve("buffer.index.compacting");
+		byte[] previousIndex = Files.readAllBytes(indexPath);
+
+		assertTrue(buffer.compact());
+		// data file replaced, index file still the previous one
+		Files.move(indexPath, tempIndexPath);
+		Files.write(indexPath, previousIndex);
+
+		CodecFileBuffer<String> reopened = createBuffer(true, new DefaultIndexStrategy());
+		assertContent(expected, reopened);
+		assertFalse(Files.exists(tempIndexPath));
+	}
+
+	@Test
+	void compactWithMappedIndexKeepingFilesOpen() {
+		CodecFileBuffer<String> buffer = createBuffer(true, new MappedIndexStrategy());
+		buffer.setKeepingFilesOpen(true);
+		List<String> expected = fill(buffer);
+		assertContent(expected, buffer);
+
+		assertTrue(buffer.compact());
+
+		assertContent(expected, buffer);
+		assertTrue(buffer.set(2, "After"));
+		expected.set(2, "After");
+		assertContent(expected, buffer);
+		buffer.dispose();
+	}
+
+	@Test
+	void compactIgnoresNonSparseBuffers() {
+		CodecFileBuffer<String> buffer = createBuffer(false, new DefaultIndexStrategy());
+		buffer.add("Foo");
+		assertEquals(0, buffer.getDeadBytes());
+		assertFalse(buffer.compact());
+		assertEquals("Foo", buffer.get(0));
+	}
+
+	@Test
+	void compactEmptyBuffer() {
+		CodecFileBuffer<String> buffer = createBuffer(true, new DefaultIndexStrategy());
+		assertFalse(buffer.compact());
+		assertEquals(0, buffer.getSize());
+	}
+
+	@Test
+	void concurrentWritesAndReadsArePreserved() throws Exception {
+		CodecFileBuffer<String> buffer = createBuffer(true, new DefaultIndexStrategy());
+		int initialSize = 3 * CodecFileBuffer.COMPACTION_CHUNK_SIZE;
+		List<String> initial = new ArrayList<>();
+		for (int i = 0; i < initialSize; i++) {
+			initial.add("Value-" + i);
+		}
+		buffer.addAll(initial);
+
+		ConcurrentHashMap<Long, String> expected = new ConcurrentHashMap<>();
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread writer = new Thread(() -> {
+			try {
+				int counter = 0;
+				while (running.get()) {
+					long index = (counter * 7L) % initialSize;
+					String value = "Set-" + counter;
+					assertTrue(buffer.set(index, value));
+					expected.put(index, value);
+					if (counter % 10 == 0) {
+						String appended = "Added-" + counter;
+						long size = buffer.getSize();
+						buffer.add(appended);
+						expected.put(size, appended);
+					}
+					counter++;
+				}
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+			}
+		});
+		Thread reader = new Thread(() -> {
+			try {
+				while (running.get()) {
+					for (int i = 0; i < initialSize; i += 97) {
+						String value = buffer.get(i);
+						assertTrue(value != null && (value.startsWith("Value-") || value.startsWith("Set-")), "index " + i + ": " + value);
+					}
+				}
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+			}
+		});
+		writer.start();
+		reader.start();
+		try {
+			for (int i = 0; i < 5; i++) {
+				assertTrue(buffer.compact());
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+			reader.join();
+		}
+		assertNull(failure.get());
+
+		long size = buffer.getSize();
+		for (long i = 0; i < size; i++) {
+			String value = expected.get(i);
+			if (value == null) {
+				value = "Value-" + i;
+			}
+			assertEquals(value, buffer.get(i), "index " + i);
+		}
+		buffer.compact();
+		CodecFileBuffer<String> reopened = createBuffer(true, new DefaultIndexStrategy());
+		assertEquals(size, reopened.getSize());
+		assertEquals(buffer.getRange(0, (int) size), reopened.getRange(0, (int) size));
+	}
+
+	@Test
+	void resetClearsDeadBytes() {
+		CodecFileBuffer<String> buffer = createBuffer(true, new DefaultIndexStrategy());
+		fill(buffer);
+		buffer.reset();
+		assertEquals(0, buffer.getDeadBytes());
+		assertFalse(buffer.compact());
+	}
+
+	@Test
+	void deadBytesAreEstimatedAfterReopening() {
+		CodecFileBuffer<String> buffer = createBuffer(true, new DefaultIndexStrategy());
+		fill(buffer);
+		long deadBytes = buffer.getDeadBytes();
+		assertTrue(buffer.set(3, "Value-a"));
+		long replacedBytes = buffer.getDeadBytes() - deadBytes;
+		assertTrue(replacedBytes > 0);
+
+		CodecFileBuffer<String> reopened = createBuffer(true, new DefaultIndexStrategy());
+		// replaces a record of the same size
+		assertTrue(reopened.set(3, "Value-b"));
+		assertEquals(deadBytes + 2 * replacedBytes, reopened.getDeadBytes());
+		BackgroundCompactor compactor = new BackgroundCompactor(reopened, 0.5, 1024, 60_000);
+		try {
+			assertTrue(compactor.compactIfNecessary());
+			assertEquals(0, reopened.getDeadBytes());
+		} finally {
+			compactor.dispose();
+		}
+		assertEquals(0, createBuffer(true, new DefaultIndexStrategy()).getDeadBytes());
+	}
+
+	@Test
+	void deadBytesEstimateIsConsistentWithConcurrentWrites() throws Exception {
+		CodecFileBuffer<String> buffer = createBuffer(true, new DefaultIndexStrategy());
+		int size = 8 * CodecFileBuffer.COMPACTION_CHUNK_SIZE;
+		List<String> initial = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			initial.add("Value-" + i);
+		}
+		buffer.addAll(initial);
+		for (int i = 0; i < size; i += 3) {
+			assertTrue(buffer.set(i, "Replaced-" + i));
+		}
+
+		for (int round = 0; round < 5; round++) {
+			CodecFileBuffer<String> reopened = createBuffer(true, new DefaultIndexStrategy());
+			AtomicReference<Throwable> failure = new AtomicReference<>();
+			int offset = round;
+			Thread writer = new Thread(() -> {
+				try {
+					for (int i = 0; i < 500; i++) {
+						long index = (i * 7919L + offset) % size;
+						assertTrue(reopened.set(index, i % 5 == 0 ? null : "Set-" + offset + "-" + i));
+						if (i % 50 == 0) {
+							reopened.add("Added-" + i);
+						}
+					}
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				}
+			});
+			writer.start();
+			reopened.getDeadBytes();
+			writer.join();
+			assertNull(failure.get());
+
+			long deadBytes = reopened.getDeadBytes();
+			assertEquals(createBuffer(true, new DefaultIndexStrategy()).getDeadBytes(), deadBytes, "round " + round);
+		}
+	}
+
+	@Test
+	void compactionNecessary() {
+		CodecFileBuffer<String> buffer = createBuffer(true, new DefaultIndexStrategy());
+		BackgroundCompactor compactor = new BackgroundCompactor(buffer, 0.5, 1024, 60_000);
+		try {
+			assertFalse(compactor.isCompactionNecessary());
+			buffer.add("Foo");
+			buffer.add("Bar");
+			buffer.set(0, "Foo2");
+			// below minimumDeadBytes
+			assertFalse(compactor.isCompactionNecessary());
+			assertFalse(compactor.compactIfNecessary());
+			fill(buffer);
+			assertTrue(compactor.isCompactionNecessary());
+			assertTrue(compactor.compactIfNecessary());
+			assertEquals(0, buffer.getDeadBytes());
+			assertFalse(compactor.isCompactionNecessary());
+		} finally {
+			compactor.dispose();
+		}
+		assertTrue(compactor.isDisposed());
+		assertFalse(compactor.compactIfNecessary());
+	}
+
+	@Test
+	void compactsInBackground() throws Exception {
+		CodecFileBuffer<String> buffer = createBuffer(true, new DefaultIndexStrategy());
+		List<String> expected = fill(buffer);
+		BackgroundCompactor compactor = new BackgroundCompactor(buffer, 0.1, 0, 10);
+		try {
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (buffer.getDeadBytes() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, buffer.getDeadBytes());
+			assertContent(expected, buffer);
+		} finally {
+			compactor.dispose();
+		}
+	}
+
+	@Test
+	void illegalArguments() {
+		CodecFileBuffer<String> buffer = createBuffer(true, new DefaultIndexStrategy());
+		assertThrows(NullPointerException.class, () -> new BackgroundCompactor(null));
+		assertThrows(IllegalArgumentException.class, () -> new BackgroundCompactor(buffer, 0, 0, 10));
+		assertThrows(IllegalArgumentException.class, () -> new BackgroundCompactor(buffer, 1.5, 0, 10));
+		assertThrows(IllegalArgumentException.class, () -> new BackgroundCompactor(buffer, 0.5, -1, 10));
+		assertThrows(IllegalArgumentException.class, () -> new BackgroundCompactor(buffer, 0.5, 0, 0));
+	}
+}
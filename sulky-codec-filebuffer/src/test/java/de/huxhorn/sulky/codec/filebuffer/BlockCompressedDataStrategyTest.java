@@ -0,0 +1,299 @@
+package de.huxhorn.sulky.codec.filebuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.huxhorn.sulky.buffers.Reset;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class BlockCompressedDataStrategyTest extends DataStrategyTestBase {
+
+	private static final int BLOCK_SIZE = 512;
+
+	@Override
+	protected DataStrategy<String> createInstance() {
+		return new BlockCompressedDataStrategy<>(BLOCK_SIZE, 2);
+	}
+
+	@Test
+	void addAndGetMatchesInput() throws IOException, ClassNotFoundException {
+		assertAddAndGet(defaultValues());
+	}
+
+	@Test
+	void addAllAndGetMatchesInput() throws IOException, ClassNotFoundException {
+		assertAddAllAndGet(defaultValues());
+	}
+
+	@Test
+	void manyAddsSpanSeveralBlocks() throws IOException, ClassNotFoundException {
+		assertAddAndGet(values(200));
+	}
+
+	@Test
+	void rangesSpanningSeveralBlocksMatchGet() throws IOException, ClassNotFoundException {
+		List<String> values = values(500);
+		try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw");
+			 RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "rw")) {
+			instance.addAll(values.subList(0, 17), indexRaf, dataRaf, codec, indexStrategy);
+			for (String value : values.subList(17, 40)) {
+				instance.add(value, indexRaf, dataRaf, codec, indexStrategy);
+			}
+			instance.addAll(values.subList(40, values.size()), indexRaf, dataRaf, codec, indexStrategy);
+
+			assertEquals(values, instance.getRange(0, values.size() + 10, indexRaf, dataRaf, codec, indexStrategy));
+			assertEquals(values.subList(123, 456), instance.getRange(123, 333, indexRaf, dataRaf, codec, indexStrategy));
+			List<byte[]> encoded = instance.getEncodedRange(100, 50, indexRaf, dataRaf, indexStrategy);
+			for (int i = 0; i < encoded.size(); i++) {
+				assertEquals(values.get(100 + i), codec.decode(encoded.get(i)));
+				assertEquals(values.get(100 + i), codec.decode(instance.getEncoded(100 + i, indexRaf, dataRaf, indexStrategy)));
+			}
+			assertNull(instance.get(values.size(), indexRaf, dataRaf, codec, indexStrategy));
+		}
+	}
+
+	@Test
+	void elementsLargerThanBlockSize() throws IOException, ClassNotFoundException {
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			values.add("Small-" + i);
+			values.add("Large-" + i + "x".repeat(BLOCK_SIZE * (i + 1)));
+		}
+		assertAddAllAndGet(values);
+	}
+
+	@Test
+	void reopenedInstanceReadsAndAppends() throws IOException, ClassNotFoundException {
+		List<String> values = values(100);
+		try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw");
+			 RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "rw")) {
+			instance.addAll(values.subList(0, 50), indexRaf, dataRaf, codec, indexStrategy);
+
+			DataStrategy<String> reopened = createInstance();
+			for (String value : values.subList(50, 100)) {
+				reopened.add(value, indexRaf, dataRaf, codec, indexStrategy);
+			}
+			Reset.reset(instance);
+			for (int i = 0; i < values.size(); i++) {
+				assertEquals(values.get(i), instance.get(i, indexRaf, dataRaf, codec, indexStrategy));
+			}
+		}
+	}
+
+	@Test
+	void compressesBetterThanDefaultDataStrategy() throws IOException {
+		List<String> values = values(1000);
+		try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw");
+			 RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "rw")) {
+			instance.addAll(values, indexRaf, dataRaf, codec, indexStrategy);
+			long compressedLength = dataRaf.length();
+
+			dataRaf.setLength(0);
+			indexRaf.setLength(0);
+			new DefaultDataStrategy<String>().addAll(values, indexRaf, dataRaf, codec, indexStrategy);
+			assertTrue(compressedLength * 3 < dataRaf.length(), "compressed: " + compressedLength + ", uncompressed: " + dataRaf.length());
+		}
+	}
+
+	@Test
+	void addsDontRewriteOpenTail() throws IOException, ClassNotFoundException {
+		List<String> values = values(300);
+		int appended = 0;
+		int closed = 0;
+		try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw");
+			 RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "rw")) {
+			for (int i = 0; i < values.size(); i++) {
+				byte[] before = Files.readAllBytes(dataFile.toPath());
+				instance.add(values.get(i), indexRaf, dataRaf, codec, indexStrategy);
+				byte[] after = Files.readAllBytes(dataFile.toPath());
+				if (after.length > before.length && Arrays.equals(before, Arrays.copyOf(after, before.length))) {
+					appended++;
+				} else {
+					closed++;
+				}
+			}
+			Reset.reset(instance);
+			for (int i = 0; i < values.size(); i++) {
+				assertEquals(values.get(i), instance.get(i, indexRaf, dataRaf, codec, indexStrategy));
+			}
+		}
+		assertTrue(closed > 0);
+		assertTrue(appended > 10 * closed, "appended: " + appended + ", closed: " + closed);
+	}
+
+	@Test
+	void singleAddsCompressLikeAddAll() throws IOException {
+		List<String> values = values(1000);
+		try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw");
+			 RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "rw")) {
+			for (String value : values) {
+				instance.add(value, indexRaf, dataRaf, codec, indexStrategy);
+			}
+			long singleLength = dataRaf.length();
+
+			dataRaf.setLength(0);
+			indexRaf.setLength(0);
+			createInstance().addAll(values, indexRaf, dataRaf, codec, indexStrategy);
+			assertTrue(singleLength < dataRaf.length() + BLOCK_SIZE, "single: " + singleLength + ", addAll: " + dataRaf.length());
+		}
+	}
+
+	@Test
+	void incompressibleTailIsKeptAsUnusedSpace() throws IOException, ClassNotFoundException {
+		Random random = new Random(42);
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			StringBuilder builder = new StringBuilder();
+			for (int j = 0; j < 40; j++) {
+				builder.append((char) (0x4E00 + random.nextInt(0x5000)));
+			}
+			values.add(builder.toString());
+		}
+		assertAddAndGet(values);
+		try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw");
+			 RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "rw")) {
+			DataStrategy<String> reopened = createInstance();
+			for (int i = 0; i < values.size(); i++) {
+				assertEquals(values.get(i), reopened.get(i, indexRaf, dataRaf, codec, indexStrategy));
+			}
+		}
+	}
+
+	@Test
+	void crashLeavesPreviouslyAddedRecordsReadable() throws IOException, ClassNotFoundException {
+		List<String> values = values(80);
+		for (int crashAfter = 0; ; crashAfter++) {
+			assertTrue(!indexFile.exists() || indexFile.delete());
+			assertTrue(!dataFile.exists() || dataFile.delete());
+			try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw");
+				 RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "rw")) {
+				DataStrategy<String> writer = createInstance();
+				for (String value : values.subList(0, 40)) {
+					writer.add(value, indexRaf, dataRaf, codec, indexStrategy);
+				}
+			}
+
+			AtomicInteger remainingWrites = new AtomicInteger(crashAfter);
+			boolean crashed = false;
+			try (RandomAccessFile indexRaf = new CrashingRandomAccessFile(indexFile, remainingWrites);
+				 RandomAccessFile dataRaf = new CrashingRandomAccessFile(dataFile, remainingWrites)) {
+				// closes the open tail
+				createInstance().addAll(values.subList(40, 80), indexRaf, dataRaf, codec, indexStrategy);
+			} catch (IOException ex) {
+				crashed = true;
+			}
+
+			try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw");
+				 RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "rw")) {
+				DataStrategy<String> reader = createInstance();
+				long size = indexStrategy.getSize(indexRaf);
+				assertTrue(size == 40 || size == 80, "size " + size + " after " + crashAfter + " writes");
+				for (int i = 0; i < size; i++) {
+					assertEquals(values.get(i), reader.get(i, indexRaf, dataRaf, codec, indexStrategy), "Value at index " + i + " after " + crashAfter + " writes");
+				}
+				// the recovered buffer can still be appended to
+				reader.add("Next", indexRaf, dataRaf, codec, indexStrategy);
+				assertEquals("Next", reader.get(size, indexRaf, dataRaf, codec, indexStrategy));
+			}
+			if (!crashed) {
+				assertTrue(crashAfter > 2);
+				break;
+			}
+		}
+	}
+
+	@Test
+	void metaDataSelectsBlockSize() {
+		assertFalse(BlockCompressedDataStrategy.isBlockCompressed(new MetaData(false)));
+		MetaData metaData = new MetaData(Map.of(BlockCompressedDataStrategy.BLOCK_SIZE_KEY, "1024"));
+		assertTrue(BlockCompressedDataStrategy.isBlockCompressed(metaData));
+		assertEquals(1024, BlockCompressedDataStrategy.getBlockSize(metaData));
+		MetaData invalid = new MetaData(Map.of(BlockCompressedDataStrategy.BLOCK_SIZE_KEY, "foo"));
+		assertEquals(BlockCompressedDataStrategy.DEFAULT_BLOCK_SIZE, BlockCompressedDataStrategy.getBlockSize(invalid));
+	}
+
+	@Test
+	void setIsUnsupported() {
+		assertThrows(UnsupportedOperationException.class,
+				() -> instance.set(0, null, null, null, null, null));
+	}
+
+	@Test
+	void setSupportedReturnsFalse() {
+		assertFalse(instance.isSetSupported());
+	}
+
+	@Test
+	void addAllEncodedIgnoresEmptyList() throws IOException {
+		try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw");
+			 RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "rw")) {
+			instance.addAllEncoded(Collections.emptyList(), indexRaf, dataRaf, indexStrategy);
+			assertEquals(0, indexStrategy.getSize(indexRaf));
+		}
+	}
+
+	/**
+	 * Fails all writes after the given number of writes, shared between files, like a crashed process.
+	 */
+	private static class CrashingRandomAccessFile extends RandomAccessFile {
+		private final AtomicInteger remainingWrites;
+
+		CrashingRandomAccessFile(File file, AtomicInteger remainingWrites) throws FileNotFoundException {
+			super(file, "rw");
+			this.remainingWrites = remainingWrites;
+		}
+
+		private void crashIfNecessary() throws IOException {
+			if (remainingWrites.getAndDecrement() <= 0) {
+				throw new IOException("Crashed!");
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			crashIfNecessary();
+			super.write(b);
+		}
+
+		@Override
+		public void write(byte[] b) throws IOException {
+			crashIfNecessary();
+			super.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			crashIfNecessary();
+			super.write(b, off, len);
+		}
+
+		@Override
+		public void setLength(long newLength) throws IOException {
+			crashIfNecessary();
+			super.setLength(newLength);
+		}
+	}
+
+	private static List<String> values(int count) {
+		List<String> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			result.add("Value-" + i);
+		}
+		return result;
+	}
+}
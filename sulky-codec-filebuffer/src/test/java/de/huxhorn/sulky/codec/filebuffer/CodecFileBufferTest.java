@@ -1,5 +1,6 @@
 package de.huxhorn.sulky.codec.filebuffer;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -7,15 +8,28 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import de.huxhorn.sulky.buffers.ElementProcessor;
+import de.huxhorn.sulky.buffers.SizeChangeListener;
 import de.huxhorn.sulky.codec.Codec;
+import de.huxhorn.sulky.codec.DelegatingCodecBase;
+import de.huxhorn.sulky.codec.DictionaryCompressingCodec;
 import de.huxhorn.sulky.codec.SerializableCodec;
+import de.huxhorn.sulky.codec.XmlDecoder;
+import de.huxhorn.sulky.codec.XmlEncoder;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.io.TempDir;
@@ -274,6 +288,424 @@ class CodecFileBufferTest {
 		assertEquals("dataFile contains data but indexFile " + indexPath + " is not valid!", exception.getMessage());
 	}
 
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void keepingFilesOpenAddThenGet(boolean sparse, Map<String, String> metaData) throws IOException {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		buffer.setKeepingFilesOpen(true);
+		assertTrue(buffer.isKeepingFilesOpen());
+		for (String value : VALUES) {
+			buffer.add(value);
+		}
+		assertSequence(buffer, VALUES);
+
+		buffer.close();
+		assertSequence(buffer, VALUES);
+
+		buffer.dispose();
+		assertTrue(buffer.isDisposed());
+		assertSequence(buffer, VALUES);
+
+		CodecFileBuffer<String> reopened = newBuffer(sparse, metaData);
+		reopened.setKeepingFilesOpen(true);
+		assertSequence(reopened, VALUES);
+		reopened.dispose();
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void keepingFilesOpenResetThenAdd(boolean sparse, Map<String, String> metaData) throws IOException {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		buffer.setKeepingFilesOpen(true);
+		buffer.addAll(Arrays.asList(VALUES));
+		buffer.reset();
+		assertEquals(0, buffer.getSize());
+		buffer.addAll(Arrays.asList(VALUES));
+		assertSequence(buffer, VALUES);
+		assertHeader(buffer, sparse, metaData);
+		buffer.dispose();
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void keepingFilesOpenDeleteDataFileThenAdd(boolean sparse, Map<String, String> metaData) throws IOException {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		buffer.setKeepingFilesOpen(true);
+		for (String value : VALUES) {
+			buffer.add(value);
+		}
+		assertTrue(dataFile.delete());
+		for (String value : VALUES) {
+			buffer.add(value);
+		}
+		assertEquals(8L * VALUES.length, indexFile.length());
+		assertSequence(buffer, VALUES);
+		buffer.dispose();
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void keepingFilesOpenReadOnlyFiles(boolean sparse, Map<String, String> metaData) throws IOException {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		buffer.addAll(Arrays.asList(VALUES));
+		assertTrue(dataFile.setReadOnly());
+		assertTrue(indexFile.setReadOnly());
+		try {
+			CodecFileBuffer<String> reopened = newBuffer(sparse, metaData);
+			reopened.setKeepingFilesOpen(true);
+			assertSequence(reopened, VALUES);
+			reopened.dispose();
+		} finally {
+			assertTrue(dataFile.setWritable(true));
+			assertTrue(indexFile.setWritable(true));
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void keepingFilesOpenConcurrentReads(boolean sparse, Map<String, String> metaData) throws Exception {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		buffer.setKeepingFilesOpen(true);
+		buffer.addAll(Arrays.asList(VALUES));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(() -> {
+					for (int round = 0; round < 50; round++) {
+						for (int j = 0; j < VALUES.length; j++) {
+							if (!VALUES[j].equals(buffer.get(j))) {
+								return false;
+							}
+						}
+					}
+					return true;
+				}));
+			}
+			for (Future<Boolean> future : futures) {
+				assertTrue(future.get());
+			}
+		} finally {
+			executor.shutdown();
+			buffer.dispose();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void mappedIndexStrategyAddResetAndReopen(boolean sparse, Map<String, String> metaData) throws IOException {
+		CodecFileBuffer<String> buffer = new CodecFileBuffer<>(MAGIC_VALUE, sparse, metaData, codec, dataFile, indexFile, fileHeaderStrategy, new MappedIndexStrategy(2));
+		buffer.setKeepingFilesOpen(true);
+		for (String value : VALUES) {
+			buffer.add(value);
+		}
+		assertSequence(buffer, VALUES);
+		buffer.reset();
+		assertEquals(0, buffer.getSize());
+		buffer.addAll(Arrays.asList(VALUES));
+		assertSequence(buffer, VALUES);
+		buffer.dispose();
+
+		CodecFileBuffer<String> reopened = new CodecFileBuffer<>(MAGIC_VALUE, sparse, metaData, codec, dataFile, indexFile, fileHeaderStrategy, new MappedIndexStrategy());
+		assertSequence(reopened, VALUES);
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void getRangeMatchesGet(boolean sparse, Map<String, String> metaData) throws IOException {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		buffer.addAll(Arrays.asList(VALUES));
+		assertEquals(Arrays.asList(VALUES), buffer.getRange(0, VALUES.length));
+		assertEquals(Arrays.asList(VALUES).subList(3, 7), buffer.getRange(3, 4));
+		assertEquals(Arrays.asList(VALUES).subList(8, VALUES.length), buffer.getRange(8, 100));
+		assertTrue(buffer.getRange(VALUES.length, 5).isEmpty());
+		assertTrue(buffer.getRange(100, 5).isEmpty());
+		assertTrue(buffer.getRange(0, 0).isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> buffer.getRange(-1, 5));
+		assertThrows(IllegalArgumentException.class, () -> buffer.getRange(0, -1));
+	}
+
+	@ParameterizedTest
+	@MethodSource("metaDataArguments")
+	void getRangeOnSparseReturnsNullForMissingElements(Map<String, String> metaData) throws IOException {
+		CodecFileBuffer<String> buffer = newBuffer(true, metaData);
+		buffer.set(1, VALUES[1]);
+		buffer.set(4, VALUES[4]);
+		buffer.set(3, VALUES[3]);
+		assertEquals(Arrays.asList(null, VALUES[1], null, VALUES[3], VALUES[4]), buffer.getRange(0, 10));
+
+		ReadOnlyExclusiveCodecFileBuffer<String> readOnly = new ReadOnlyExclusiveCodecFileBuffer<>(dataFile, indexFile);
+		readOnly.setCodec(codec);
+		assertEquals(Arrays.asList(VALUES[1], null, VALUES[3]), readOnly.getRange(1, 3));
+		readOnly.close();
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void readOnlyReadsConcurrently(boolean sparse, Map<String, String> metaData) throws Exception {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			values.add("Value-" + i);
+		}
+		buffer.addAll(values);
+
+		ReadOnlyExclusiveCodecFileBuffer<String> readOnly = new ReadOnlyExclusiveCodecFileBuffer<>(dataFile, indexFile);
+		readOnly.setCodec(codec);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				int offset = t;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < values.size(); i++) {
+						int index = (i * 7 + offset) % values.size();
+						if (!values.get(index).equals(readOnly.get(index))) {
+							return false;
+						}
+					}
+					for (int i = offset; i < values.size(); i += 100) {
+						if (!values.subList(i, Math.min(i + 50, values.size())).equals(readOnly.getRange(i, 50))) {
+							return false;
+						}
+					}
+					return true;
+				}));
+			}
+			for (Future<Boolean> future : futures) {
+				assertTrue(future.get(30, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// the size is determined once since the files are expected to be immutable
+		buffer.add("Appended");
+		assertEquals(values.size(), readOnly.getSize());
+		assertNull(readOnly.get(values.size()));
+		readOnly.close();
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void readOnlyReopensFilesClosedByInterruptedReader(boolean sparse, Map<String, String> metaData) throws Exception {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		buffer.addAll(Arrays.asList(VALUES));
+
+		ReadOnlyExclusiveCodecFileBuffer<String> readOnly = new ReadOnlyExclusiveCodecFileBuffer<>(dataFile, indexFile);
+		readOnly.setCodec(codec);
+		AtomicInteger nulls = new AtomicInteger();
+		Thread interrupted = new Thread(() -> {
+			Thread.currentThread().interrupt();
+			if (readOnly.get(2) == null) {
+				nulls.incrementAndGet();
+			}
+		});
+		interrupted.start();
+		interrupted.join();
+		assertEquals(1, nulls.get());
+
+		assertEquals(VALUES[2], readOnly.get(2));
+		assertEquals(Arrays.asList(VALUES), readOnly.getRange(0, VALUES.length));
+
+		readOnly.close();
+		assertNull(readOnly.get(2));
+		assertTrue(readOnly.getRange(0, VALUES.length).isEmpty());
+		assertEquals(0, readOnly.getSize());
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void getRangeWithDeletedDataFileFallsBackToSingleReads(boolean sparse, Map<String, String> metaData) throws IOException {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		buffer.addAll(Arrays.asList(VALUES));
+		assertTrue(dataFile.delete());
+		assertTrue(buffer.getRange(0, VALUES.length).isEmpty());
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void addAllHandlesElementsLargerThanWriteBuffer(boolean sparse, Map<String, String> metaData) throws IOException {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			values.add("Small-" + i);
+			values.add("Large-" + i + "-" + "x".repeat(100_000 * (i + 1)));
+		}
+		buffer.addAll(values);
+		buffer.add(values.get(1));
+		assertEquals(values.size() + 1, buffer.getSize());
+		assertEquals(values, buffer.getRange(0, values.size()));
+		assertEquals(values.get(1), buffer.get(values.size()));
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void addAllWithCodecNotWritingIntoByteBuffers(boolean sparse, Map<String, String> metaData) throws IOException {
+		Codec<String> plainCodec = new Codec<String>() {
+			@Override
+			public byte[] encode(String object) {
+				return codec.encode(object);
+			}
+
+			@Override
+			public String decode(byte[] bytes) {
+				return codec.decode(bytes);
+			}
+		};
+		CodecFileBuffer<String> buffer = new CodecFileBuffer<>(MAGIC_VALUE, sparse, metaData, plainCodec, dataFile, indexFile, fileHeaderStrategy);
+		buffer.addAll(Arrays.asList(VALUES));
+		buffer.add(VALUES[0]);
+		assertEquals(VALUES.length + 1, buffer.getSize());
+		assertEquals(Arrays.asList(VALUES), buffer.getRange(0, VALUES.length));
+
+		CodecFileBuffer<String> reopened = newBuffer(sparse, metaData);
+		assertEquals(Arrays.asList(VALUES), reopened.getRange(0, VALUES.length));
+		assertEquals(VALUES[0], reopened.get(VALUES.length));
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void addEncodesOnceWithDelegatingCodecNotWritingIntoByteBuffers(boolean sparse, Map<String, String> metaData) throws IOException {
+		AtomicInteger encodeCount = new AtomicInteger();
+		XmlEncoder<String> xmlEncoder = new XmlEncoder<>();
+		Codec<String> delegatingCodec = new DelegatingCodecBase<String>(object -> {
+			encodeCount.incrementAndGet();
+			return xmlEncoder.encode(object);
+		}, new XmlDecoder<>()) {};
+		CodecFileBuffer<String> buffer = new CodecFileBuffer<>(MAGIC_VALUE, sparse, metaData, delegatingCodec, dataFile, indexFile, fileHeaderStrategy);
+		String large = "x".repeat(100_000);
+		buffer.add(large);
+		buffer.addAll(Arrays.asList(VALUES));
+		assertEquals(1 + VALUES.length, encodeCount.get());
+		assertEquals(large, buffer.get(0));
+		assertEquals(Arrays.asList(VALUES), buffer.getRange(1, VALUES.length));
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void largeElementsAreEncodedIntoByteBuffersWithFewRetries(boolean sparse, Map<String, String> metaData) throws IOException {
+		AtomicInteger encodeCount = new AtomicInteger();
+		SerializableCodec<String> serializableCodec = new SerializableCodec<>();
+		Codec<String> directCodec = new DelegatingCodecBase<String>(serializableCodec, serializableCodec) {
+			@Override
+			public void encode(String object, ByteBuffer target) {
+				encodeCount.incrementAndGet();
+				super.encode(object, target);
+			}
+		};
+		CodecFileBuffer<String> buffer = new CodecFileBuffer<>(MAGIC_VALUE, sparse, metaData, directCodec, dataFile, indexFile, fileHeaderStrategy);
+		String large = "x".repeat(100_000);
+		buffer.add(large);
+		// 1 KB, 4 KB, 16 KB, 64 KB and 256 KB at most
+		assertTrue(encodeCount.get() <= 5, "encoded " + encodeCount.get() + " times");
+		encodeCount.set(0);
+		buffer.add(large);
+		// the buffer is grown to the size of the previous large element at once
+		assertTrue(encodeCount.get() <= 2, "encoded " + encodeCount.get() + " times");
+		assertEquals(2, buffer.getSize());
+		assertEquals(large, buffer.get(1));
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void sizeChangeListenerIsNotifiedAfterAdding(boolean sparse, Map<String, String> metaData) throws IOException {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		AtomicInteger counter = new AtomicInteger();
+		List<Long> sizes = new ArrayList<>();
+		SizeChangeListener listener = source -> {
+			counter.incrementAndGet();
+			sizes.add(source.getSize());
+		};
+		buffer.addSizeChangeListener(listener);
+
+		buffer.add(VALUES[0]);
+		buffer.addAll(Arrays.asList(VALUES).subList(1, VALUES.length));
+		buffer.reset();
+		assertEquals(3, counter.get());
+		assertEquals(Arrays.asList(1L, (long) VALUES.length, 0L), sizes);
+
+		buffer.removeSizeChangeListener(listener);
+		buffer.add(VALUES[0]);
+		assertEquals(3, counter.get());
+	}
+
+	@ParameterizedTest
+	@MethodSource("metaDataArguments")
+	void sizeChangeListenerIsNotifiedAfterSparseSet(Map<String, String> metaData) throws IOException {
+		CodecFileBuffer<String> buffer = newBuffer(true, metaData);
+		List<Long> sizes = new ArrayList<>();
+		buffer.addSizeChangeListener(source -> sizes.add(source.getSize()));
+
+		assertTrue(buffer.set(5, VALUES[5]));
+		assertTrue(buffer.set(2, VALUES[2]));
+		assertEquals(Arrays.asList(6L, 6L), sizes);
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void getAsyncMatchesGet(boolean sparse, Map<String, String> metaData) throws Exception {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		buffer.addAll(Arrays.asList(VALUES));
+		List<CompletableFuture<String>> futures = new ArrayList<>();
+		for (int i = 0; i < VALUES.length; i++) {
+			futures.add(buffer.getAsync(i));
+		}
+		for (int i = 0; i < VALUES.length; i++) {
+			assertEquals(VALUES[i], futures.get(i).get(10, TimeUnit.SECONDS));
+		}
+		assertNull(buffer.getAsync(VALUES.length).get(10, TimeUnit.SECONDS));
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void getRangeAsyncPreservesOrder(boolean sparse, Map<String, String> metaData) throws Exception {
+		CodecFileBuffer<String> buffer = newBuffer(sparse, metaData);
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			values.add("Value-" + i);
+		}
+		buffer.addAll(values);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			buffer.setDecodeExecutor(executor);
+			assertEquals(values, buffer.getRangeAsync(0, values.size()).get(10, TimeUnit.SECONDS));
+			assertEquals(values.subList(990, 1000), buffer.getRangeAsync(990, 100).get(10, TimeUnit.SECONDS));
+			assertTrue(buffer.getRangeAsync(1000, 100).get(10, TimeUnit.SECONDS).isEmpty());
+		} finally {
+			executor.shutdown();
+		}
+		buffer.setDecodeExecutor(null);
+		assertEquals(values.subList(100, 300), buffer.getRangeAsync(100, 200).get(10, TimeUnit.SECONDS));
+	}
+
+	@ParameterizedTest
+	@MethodSource("sparseMetaArguments")
+	void dictionaryStoredInMetaDataDecodesReopenedBuffer(boolean sparse, Map<String, String> metaData) throws IOException {
+		List<String> samples = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			samples.add("Sample message " + i);
+		}
+		Map<String, String> dictionaryMetaData = new HashMap<>();
+		if (metaData != null) {
+			dictionaryMetaData.putAll(metaData);
+		}
+		DictionaryCompressingCodec.putDictionary(dictionaryMetaData, DictionaryCompressingCodec.trainDictionary(codec, samples, 1024));
+		byte[] dictionary = DictionaryCompressingCodec.getDictionary(dictionaryMetaData);
+		CodecFileBuffer<String> buffer = new CodecFileBuffer<>(MAGIC_VALUE, sparse, dictionaryMetaData,
+				new DictionaryCompressingCodec<>(codec, dictionary), dataFile, indexFile, fileHeaderStrategy);
+		buffer.addAll(Arrays.asList(VALUES));
+		assertSequence(buffer, VALUES);
+
+		CodecFileBuffer<String> reopened = new CodecFileBuffer<>(MAGIC_VALUE, sparse, null, null, dataFile, indexFile, fileHeaderStrategy);
+		byte[] storedDictionary = DictionaryCompressingCodec.getDictionary(reopened.getFileHeader().getMetaData().getData());
+		assertArrayEquals(dictionary, storedDictionary);
+		reopened.setCodec(new DictionaryCompressingCodec<>(codec, storedDictionary));
+		assertSequence(reopened, VALUES);
+	}
+
 	private CodecFileBuffer<String> newBuffer(boolean sparse, Map<String, String> metaData) throws IOException {
 		return new CodecFileBuffer<>(MAGIC_VALUE, sparse, metaData, codec, dataFile, indexFile, fileHeaderStrategy);
 	}
@@ -283,7 +715,8 @@ class CodecFileBufferTest {
 				Arguments.of(false, null),
 				Arguments.of(true, null),
 				Arguments.of(false, Map.of("foo1", "bar1", "foo2", "bar2")),
-				Arguments.of(true, Map.of("foo1", "bar1", "foo2", "bar2"))
+				Arguments.of(true, Map.of("foo1", "bar1", "foo2", "bar2")),
+				Arguments.of(false, Map.of(BlockCompressedDataStrategy.BLOCK_SIZE_KEY, "256"))
 		);
 	}
 
@@ -1,5 +1,6 @@
 package de.huxhorn.sulky.codec.filebuffer;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import java.io.File;
@@ -81,4 +82,40 @@ class DefaultIndexStrategyTest {
 			}
 		}
 	}
+
+	@Test
+	void setOffsetsRegistersGapWithDefaultValues() throws IOException {
+		long[] offsets = {3, 5, 7, 11};
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			strategy.setOffset(raf, 0, 1);
+			strategy.setOffsets(raf, 10, offsets);
+			assertEquals(14L, strategy.getSize(raf));
+			assertEquals(1L, strategy.getOffset(raf, 0));
+			for (int i = 1; i < 10; i++) {
+				assertEquals(-1L, strategy.getOffset(raf, i));
+			}
+			assertArrayEquals(offsets, strategy.getOffsets(raf, 10, offsets.length));
+
+			strategy.setOffsets(raf, 11, new long[]{13, 17});
+			assertArrayEquals(new long[]{3, 13, 17, 11, -1}, strategy.getOffsets(raf, 10, 5));
+		}
+	}
+
+	@Test
+	void setOffsetsRegistersGapLargerThanFillBuffer() throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			strategy.setOffset(raf, 0, 1);
+			strategy.setOffsets(raf, 3000, new long[]{3, 5});
+			assertEquals(3002L, strategy.getSize(raf));
+			long[] gap = strategy.getOffsets(raf, 1, 2999);
+			for (long offset : gap) {
+				assertEquals(-1L, offset);
+			}
+			assertArrayEquals(new long[]{3, 5}, strategy.getOffsets(raf, 3000, 2));
+
+			strategy.setOffset(raf, 5000, 7);
+			assertEquals(-1L, strategy.getOffset(raf, 4999));
+			assertEquals(7L, strategy.getOffset(raf, 5000));
+		}
+	}
 }
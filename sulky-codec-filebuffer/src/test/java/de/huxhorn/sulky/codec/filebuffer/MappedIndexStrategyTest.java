@@ -0,0 +1,145 @@
+package de.huxhorn.sulky.codec.filebuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedIndexStrategyTest {
+
+	@TempDir
+	Path tempDir;
+
+	private File indexFile;
+	private MappedIndexStrategy strategy;
+
+	@BeforeEach
+	void setUp() {
+		indexFile = tempDir.resolve("index.bin").toFile();
+		// 4 offsets per segment
+		strategy = new MappedIndexStrategy(2);
+	}
+
+	@Test
+	void emptyFileHasSizeZero() throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			assertEquals(0L, strategy.getSize(raf));
+			assertEquals(-1L, strategy.getOffset(raf, 0));
+			assertEquals(0L, raf.length());
+		}
+	}
+
+	@Test
+	void offsetsAcrossSegmentsAreResolved() throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			for (int i = 0; i < 17; i++) {
+				strategy.setOffset(raf, i, i * 100L);
+				// reading directly after writing forces a remapping of the partial segment
+				assertEquals(i * 100L, strategy.getOffset(raf, i));
+			}
+			assertEquals(17L, strategy.getSize(raf));
+			for (int i = 0; i < 17; i++) {
+				assertEquals(i * 100L, strategy.getOffset(raf, i));
+			}
+			assertEquals(-1L, strategy.getOffset(raf, 17));
+			assertEquals(-1L, strategy.getOffset(raf, -1));
+		}
+	}
+
+	@Test
+	void followingTheEndOnlyRemapsAfterDoubling() throws IOException {
+		// 1024 offsets per segment
+		MappedIndexStrategy instance = new MappedIndexStrategy(10);
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			for (int i = 0; i < 2048; i++) {
+				instance.setOffset(raf, i, i * 100L);
+				assertEquals(i * 100L, instance.getOffset(raf, i));
+			}
+			// 1, 2, 4, ..., 1024 offsets for each of both segments
+			assertTrue(instance.getMappingCount() <= 22, "mappingCount " + instance.getMappingCount());
+			for (int i = 0; i < 2048; i++) {
+				assertEquals(i * 100L, instance.getOffset(raf, i));
+			}
+		}
+	}
+
+	@Test
+	void overwrittenOffsetIsVisibleInMapping() throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			strategy.setOffset(raf, 0, 17);
+			assertEquals(17L, strategy.getOffset(raf, 0));
+			strategy.setOffset(raf, 0, 42);
+			assertEquals(42L, strategy.getOffset(raf, 0));
+		}
+	}
+
+	@Test
+	void arbitraryOffsetRegistersGapWithDefaultValues() throws IOException {
+		long index = 10_017;
+		long value = 42;
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			strategy.setOffset(raf, index, value);
+			assertEquals(index + 1, strategy.getSize(raf));
+			assertEquals(value, strategy.getOffset(raf, index));
+			for (int i = 0; i < index; i++) {
+				assertEquals(-1L, strategy.getOffset(raf, i));
+			}
+		}
+	}
+
+	@Test
+	void setOffsetsAcrossMappedSegments() throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			strategy.setOffset(raf, 0, 1);
+			// map the first segment
+			assertEquals(1L, strategy.getOffset(raf, 0));
+			strategy.setOffsets(raf, 2, new long[]{2, 3, 4, 5, 6, 7});
+			assertEquals(8L, strategy.getSize(raf));
+			assertEquals(-1L, strategy.getOffset(raf, 1));
+			for (int i = 2; i < 8; i++) {
+				assertEquals(i, strategy.getOffset(raf, i));
+			}
+		}
+	}
+
+	@Test
+	void fileIsCompatibleWithDefaultIndexStrategy() throws IOException {
+		DefaultIndexStrategy defaultStrategy = new DefaultIndexStrategy();
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			defaultStrategy.setOffset(raf, 3, 3);
+			strategy.setOffset(raf, 7, 7);
+			for (int i = 0; i < 8; i++) {
+				long expected = i == 3 || i == 7 ? i : -1L;
+				assertEquals(expected, defaultStrategy.getOffset(raf, i));
+				assertEquals(expected, strategy.getOffset(raf, i));
+			}
+		}
+	}
+
+	@Test
+	void resetDropsMappingsOfReplacedFile() throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			strategy.setOffset(raf, 0, 17);
+			assertEquals(17L, strategy.getOffset(raf, 0));
+		}
+		strategy.reset();
+		File otherFile = tempDir.resolve("other.bin").toFile();
+		try (RandomAccessFile raf = new RandomAccessFile(otherFile, "rw")) {
+			strategy.setOffset(raf, 0, 42);
+			assertEquals(42L, strategy.getOffset(raf, 0));
+		}
+	}
+
+	@Test
+	void invalidSegmentShiftIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new MappedIndexStrategy(-1));
+		assertThrows(IllegalArgumentException.class, () -> new MappedIndexStrategy(28));
+	}
+}
@@ -0,0 +1,234 @@
+package de.huxhorn.sulky.codec.filebuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.huxhorn.sulky.codec.SerializableCodec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SegmentedCodecFileBufferTest {
+
+	private static final int MAGIC_VALUE = 0xDEADBEEF;
+	private static final String BASE_NAME = "events";
+
+	@TempDir
+	Path tempDir;
+
+	private File directory;
+	private MutableClock clock;
+
+	@BeforeEach
+	void setUp() {
+		directory = tempDir.resolve("segments").toFile();
+		clock = new MutableClock();
+	}
+
+	@Test
+	void rollsByElementCountAndReadsAcrossSegments() {
+		SegmentedCodecFileBuffer<String> buffer = newBuffer();
+		buffer.setMaximumSegmentElements(10);
+		List<String> values = values(0, 35);
+		buffer.addAll(values.subList(0, 7));
+		for (String value : values.subList(7, 12)) {
+			buffer.add(value);
+		}
+		buffer.addAll(values.subList(12, 35));
+
+		assertEquals(4, buffer.getSegmentCount());
+		assertEquals(35, buffer.getSize());
+		for (int i = 0; i < values.size(); i++) {
+			assertEquals(values.get(i), buffer.get(i));
+		}
+		assertEquals(values, buffer.getRange(0, 100));
+		assertEquals(values.subList(5, 28), buffer.getRange(5, 23));
+		List<String> iterated = new ArrayList<>();
+		buffer.forEach(iterated::add);
+		assertEquals(values, iterated);
+	}
+
+	@Test
+	void reopenedBufferRestoresSegments() {
+		SegmentedCodecFileBuffer<String> buffer = newBuffer();
+		buffer.setMaximumSegmentElements(10);
+		buffer.addAll(values(0, 25));
+		buffer.dispose();
+
+		SegmentedCodecFileBuffer<String> reopened = newBuffer();
+		assertEquals(3, reopened.getSegmentCount());
+		assertEquals(25, reopened.getSize());
+		reopened.setMaximumSegmentElements(10);
+		reopened.addAll(values(25, 30));
+		assertEquals(values(0, 30), reopened.getRange(0, 30));
+		assertEquals(3, reopened.getSegmentCount());
+	}
+
+	@Test
+	void maximumSegmentsDropsOldestSegmentsWithoutChangingIndices() {
+		SegmentedCodecFileBuffer<String> buffer = newBuffer();
+		buffer.setMaximumSegmentElements(10);
+		buffer.setMaximumSegments(2);
+		buffer.addAll(values(0, 15));
+		List<File> firstFiles = buffer.getSegmentFiles();
+		buffer.addAll(values(15, 25));
+
+		assertEquals(2, buffer.getSegmentCount());
+		assertEquals(10, buffer.getFirstIndex());
+		assertEquals(25, buffer.getSize());
+		assertFalse(firstFiles.get(0).exists());
+		assertNull(buffer.get(0));
+		assertEquals("Value-10", buffer.get(10));
+		List<String> range = buffer.getRange(8, 4);
+		assertEquals(Arrays.asList(null, null, "Value-10", "Value-11"), range);
+	}
+
+	@Test
+	void rollsAndDropsByAge() {
+		SegmentedCodecFileBuffer<String> buffer = newBuffer();
+		buffer.setMaximumSegmentAge(1000);
+		buffer.setRetentionAge(5000);
+		buffer.addAll(values(0, 5));
+		clock.advance(1000);
+		buffer.addAll(values(5, 10));
+		assertEquals(2, buffer.getSegmentCount());
+
+		clock.advance(4999);
+		assertEquals(0, buffer.applyRetention());
+		clock.advance(1);
+		assertEquals(1, buffer.applyRetention());
+		assertEquals(5, buffer.getFirstIndex());
+		assertEquals(values(5, 10), buffer.getRange(5, 5));
+	}
+
+	@Test
+	void rollsAndDropsByBytes() {
+		SegmentedCodecFileBuffer<String> buffer = newBuffer();
+		buffer.setMaximumSegmentBytes(500);
+		buffer.addAll(values(0, 20));
+		for (String value : values(20, 100)) {
+			buffer.add(value);
+		}
+		int segmentCount = buffer.getSegmentCount();
+		assertTrue(segmentCount > 2, "segmentCount: " + segmentCount);
+		assertEquals(values(0, 100), buffer.getRange(0, 100));
+
+		buffer.setMaximumTotalBytes(1000);
+		assertTrue(buffer.applyRetention() > 0);
+		long totalBytes = 0;
+		for (File current : buffer.getSegmentFiles()) {
+			totalBytes += current.length();
+		}
+		assertTrue(totalBytes <= 1000 + 500, "totalBytes: " + totalBytes);
+		assertEquals(100, buffer.getSize());
+		assertEquals("Value-99", buffer.get(99));
+	}
+
+	@Test
+	void closedSegmentSizesAreCached() throws IOException {
+		SegmentedCodecFileBuffer<String> buffer = newBuffer();
+		buffer.setMaximumSegmentElements(10);
+		buffer.addAll(values(0, 25));
+		long totalBytes = 0;
+		for (File current : buffer.getSegmentFiles()) {
+			String name = current.getName();
+			totalBytes += current.length() + new File(directory, name.substring(0, name.lastIndexOf('.')) + ".index").length();
+		}
+		buffer.setMaximumTotalBytes(totalBytes + 100);
+		assertEquals(0, buffer.applyRetention());
+
+		// closed segments aren't written anymore, so their size isn't checked again
+		File oldest = buffer.getSegmentFiles().get(0);
+		Files.write(oldest.toPath(), new byte[10_000], StandardOpenOption.APPEND);
+		assertEquals(0, buffer.applyRetention());
+
+		// the last segment is checked after every add
+		buffer.addAll(values(25, 30));
+		assertEquals(1, buffer.getFirstIndex() / 10);
+		assertEquals(values(10, 30), buffer.getRange(10, 20));
+	}
+
+	@Test
+	void resetDeletesAllSegments() {
+		SegmentedCodecFileBuffer<String> buffer = newBuffer();
+		buffer.setMaximumSegmentElements(10);
+		buffer.addAll(values(0, 25));
+		List<File> files = buffer.getSegmentFiles();
+		buffer.reset();
+
+		assertEquals(0, buffer.getSize());
+		assertEquals(1, buffer.getSegmentCount());
+		assertEquals(0, buffer.getFirstIndex());
+		assertFalse(files.get(1).exists());
+		assertFalse(files.get(2).exists());
+		buffer.addAll(values(0, 3));
+		assertEquals(values(0, 3), buffer.getRange(0, 3));
+	}
+
+	@Test
+	void segmentsContainMetaData() {
+		SegmentedCodecFileBuffer<String> buffer = new SegmentedCodecFileBuffer<>(MAGIC_VALUE, Map.of("foo", "bar"), new SerializableCodec<>(), directory, BASE_NAME);
+		buffer.add("Foo");
+		CodecFileBuffer<String> segment = new CodecFileBuffer<>(MAGIC_VALUE, false, null, new SerializableCodec<>(), buffer.getDataFile(), null);
+		Map<String, String> metaData = segment.getFileHeader().getMetaData().getData();
+		assertEquals("bar", metaData.get("foo"));
+		assertTrue(metaData.containsKey(SegmentedCodecFileBuffer.CREATED_KEY));
+		assertEquals("Foo", segment.get(0));
+	}
+
+	private SegmentedCodecFileBuffer<String> newBuffer() {
+		return new SegmentedCodecFileBuffer<>(MAGIC_VALUE, null, new SerializableCodec<>(), directory, BASE_NAME, DefaultIndexStrategy::new, clock);
+	}
+
+	private static List<String> values(int from, int to) {
+		List<String> result = new ArrayList<>();
+		for (int i = from; i < to; i++) {
+			result.add("Value-" + i);
+		}
+		return result;
+	}
+
+	private static class MutableClock extends Clock {
+		private final AtomicLong millis = new AtomicLong(1_000_000);
+
+		void advance(long amount) {
+			millis.addAndGet(amount);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public long millis() {
+			return millis.get();
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis());
+		}
+	}
+}
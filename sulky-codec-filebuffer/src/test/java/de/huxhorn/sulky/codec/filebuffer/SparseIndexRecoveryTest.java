@@ -0,0 +1,227 @@
+package de.huxhorn.sulky.codec.filebuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.huxhorn.sulky.codec.Codec;
+import de.huxhorn.sulky.codec.SerializableCodec;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SparseIndexRecoveryTest {
+
+	private static final int MAGIC_VALUE = 0xDEADBEEF;
+
+	@TempDir
+	Path tempDir;
+
+	private File dataFile;
+	private File indexFile;
+	private Codec<String> codec;
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setUp() {
+		dataFile = tempDir.resolve("dump").toFile();
+		indexFile = tempDir.resolve("dump.index").toFile();
+		codec = new SerializableCodec<>();
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	void rebuildsLostIndexUsingManySmallChunks() throws IOException {
+		List<String> expected = writeBuffer();
+		assertTrue(indexFile.delete());
+
+		SparseIndexRecovery.Result result = new SparseIndexRecovery(executor, 256).recover(dataFile, indexFile);
+		assertEquals(expected.size(), result.getElementCount());
+		assertEquals(expected.size() + 2, result.getRecordCount());
+		assertEquals(0, result.getTruncatedBytes());
+		assertEquals(dataFile.length(), result.getValidLength());
+
+		assertBuffer(expected);
+	}
+
+	@Test
+	void rebuildsTruncatedIndexUsingSingleChunk() throws IOException {
+		List<String> expected = writeBuffer();
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			raf.setLength(raf.length() / 2 + 3);
+		}
+
+		SparseIndexRecovery.Result result = new SparseIndexRecovery().recover(dataFile, indexFile);
+		assertEquals(expected.size(), result.getElementCount());
+		assertEquals(0, result.getRescannedChunks());
+		assertBuffer(expected);
+	}
+
+	@Test
+	void truncatesPartiallyWrittenRecord() throws IOException {
+		List<String> expected = writeBuffer();
+		long validLength = dataFile.length();
+		try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+			raf.seek(validLength);
+			raf.writeInt(1000);
+			raf.writeLong(expected.size());
+			raf.write(new byte[10]);
+		}
+		assertTrue(indexFile.delete());
+
+		SparseIndexRecovery.Result result = new SparseIndexRecovery(executor, 100).recover(dataFile, indexFile);
+		assertEquals(validLength, result.getValidLength());
+		assertEquals(22, result.getTruncatedBytes());
+		assertEquals(validLength, dataFile.length());
+		assertEquals(22, result.getTailFile().length());
+		try (RandomAccessFile tail = new RandomAccessFile(result.getTailFile(), "r")) {
+			assertEquals(1000, tail.readInt());
+		}
+		assertBuffer(expected);
+
+		CodecFileBuffer<String> buffer = new CodecFileBuffer<>(MAGIC_VALUE, true, null, codec, dataFile, indexFile);
+		buffer.add("Appended");
+		assertEquals("Appended", buffer.get(expected.size()));
+	}
+
+	@Test
+	void truncatesZeroPaddedTail() throws IOException {
+		List<String> expected = writeBuffer();
+		long validLength = dataFile.length();
+		try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+			raf.setLength(validLength + 4116);
+		}
+		assertTrue(indexFile.delete());
+
+		SparseIndexRecovery.Result result = new SparseIndexRecovery(executor, 256).recover(dataFile, indexFile);
+		assertEquals(expected.size() + 2, result.getRecordCount());
+		assertEquals(validLength, result.getValidLength());
+		assertEquals(4116, result.getTruncatedBytes());
+		assertEquals(validLength, dataFile.length());
+		assertEquals(4116, result.getTailFile().length());
+		assertBuffer(expected);
+	}
+
+	@Test
+	void discardsTailIfRequested() throws IOException {
+		List<String> expected = writeBuffer();
+		long validLength = dataFile.length();
+		try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+			raf.setLength(validLength + 100);
+		}
+
+		SparseIndexRecovery.Result result = new SparseIndexRecovery(executor, 256, true).recover(dataFile, indexFile);
+		assertEquals(100, result.getTruncatedBytes());
+		assertNull(result.getTailFile());
+		assertEquals(validLength, dataFile.length());
+		// data and index file only
+		assertEquals(2, tempDir.toFile().list().length);
+		assertBuffer(expected);
+	}
+
+	@Test
+	void recoversElementSetFarBeyondSize() throws IOException {
+		CodecFileBuffer<String> buffer = new CodecFileBuffer<>(MAGIC_VALUE, true, null, codec, dataFile, indexFile);
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			values.add("Value-" + i);
+		}
+		buffer.addAll(values);
+		assertTrue(buffer.set(1_000_000, "Far"));
+		buffer.add("After");
+		long length = dataFile.length();
+		assertTrue(indexFile.delete());
+
+		for (SparseIndexRecovery recovery : new SparseIndexRecovery[]{new SparseIndexRecovery(), new SparseIndexRecovery(executor, 64)}) {
+			SparseIndexRecovery.Result result = recovery.recover(dataFile, indexFile);
+			assertEquals(12, result.getRecordCount());
+			assertEquals(1_000_002, result.getElementCount());
+			assertEquals(0, result.getTruncatedBytes());
+			assertEquals(length, dataFile.length());
+
+			CodecFileBuffer<String> recovered = new CodecFileBuffer<>(MAGIC_VALUE, true, null, codec, dataFile, indexFile);
+			assertEquals(values, recovered.getRange(0, 10));
+			assertNull(recovered.get(10));
+			assertEquals("Far", recovered.get(1_000_000));
+			assertEquals("After", recovered.get(1_000_001));
+		}
+	}
+
+	@Test
+	void recoversEmptyRecords() throws IOException {
+		Codec<String> stringCodec = new Codec<String>() {
+			@Override
+			public byte[] encode(String object) {
+				return object.getBytes(StandardCharsets.UTF_8);
+			}
+
+			@Override
+			public String decode(byte[] bytes) {
+				return new String(bytes, StandardCharsets.UTF_8);
+			}
+		};
+		CodecFileBuffer<String> buffer = new CodecFileBuffer<>(MAGIC_VALUE, true, null, stringCodec, dataFile, indexFile);
+		List<String> expected = new ArrayList<>(Arrays.asList("", "Foo", "", "Bar", ""));
+		buffer.addAll(expected);
+		buffer.add("Baz");
+		expected.add("Baz");
+		long length = dataFile.length();
+		assertTrue(indexFile.delete());
+
+		SparseIndexRecovery.Result result = new SparseIndexRecovery(executor, 16).recover(dataFile, indexFile);
+		assertEquals(expected.size(), result.getRecordCount());
+		assertEquals(0, result.getTruncatedBytes());
+		assertEquals(length, dataFile.length());
+		CodecFileBuffer<String> recovered = new CodecFileBuffer<>(MAGIC_VALUE, true, null, stringCodec, dataFile, indexFile);
+		assertEquals(expected, recovered.getRange(0, expected.size()));
+	}
+
+	@Test
+	void rejectsNonSparseBuffer() {
+		CodecFileBuffer<String> buffer = new CodecFileBuffer<>(MAGIC_VALUE, false, null, codec, dataFile, indexFile);
+		buffer.add("Foo");
+		assertThrows(IllegalArgumentException.class, () -> new SparseIndexRecovery().recover(dataFile, indexFile));
+		assertFalse(new File(indexFile.getParentFile(), indexFile.getName() + ".recovering").exists());
+	}
+
+	private List<String> writeBuffer() {
+		CodecFileBuffer<String> buffer = new CodecFileBuffer<>(MAGIC_VALUE, true, null, codec, dataFile, indexFile);
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			result.add("Value-" + i + "-" + "x".repeat(i % 37));
+		}
+		buffer.addAll(result.subList(0, 150));
+		for (String value : result.subList(150, 300)) {
+			buffer.add(value);
+		}
+		buffer.set(10, "Overwritten-10");
+		result.set(10, "Overwritten-10");
+		buffer.set(299, "Overwritten-299");
+		result.set(299, "Overwritten-299");
+		return result;
+	}
+
+	private void assertBuffer(List<String> expected) {
+		CodecFileBuffer<String> buffer = new CodecFileBuffer<>(MAGIC_VALUE, true, null, codec, dataFile, indexFile);
+		assertEquals(expected.size(), buffer.getSize());
+		assertEquals(expected, buffer.getRange(0, expected.size()));
+	}
+}
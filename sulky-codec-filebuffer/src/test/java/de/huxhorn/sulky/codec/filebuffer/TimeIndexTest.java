@@ -0,0 +1,340 @@
+package de.huxhorn.sulky.codec.filebuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.huxhorn.sulky.buffers.BasicBufferIterator;
+import de.huxhorn.sulky.buffers.Buffer;
+import de.huxhorn.sulky.codec.SerializableCodec;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TimeIndexTest {
+
+	private static final int MAGIC_VALUE = 0xDEADBEEF;
+	private static final int INTERVAL = 64;
+
+	/**
+	 * Negative elements don't have a timestamp.
+	 */
+	private static final TimestampExtractor<Long> EXTRACTOR = element -> element < 0 ? TimestampExtractor.NO_TIMESTAMP : element;
+
+	@TempDir
+	Path tempDir;
+
+	private CodecFileBuffer<Long> createBuffer() {
+		File dataFile = tempDir.resolve("buffer.data").toFile();
+		File indexFile = tempDir.resolve("buffer.index").toFile();
+		return new CodecFileBuffer<>(MAGIC_VALUE, false, null, new SerializableCodec<>(), dataFile, indexFile);
+	}
+
+	private CodecFileBuffer<Long> createSparseBuffer() {
+		File dataFile = tempDir.resolve("buffer.data").toFile();
+		File indexFile = tempDir.resolve("buffer.index").toFile();
+		return new CodecFileBuffer<>(MAGIC_VALUE, true, null, new SerializableCodec<>(), dataFile, indexFile);
+	}
+
+	private TimeIndex<Long> createIndex(CodecFileBuffer<Long> buffer) {
+		TimeIndex<Long> index = new TimeIndex<>(TimeIndex.getDefaultFile(buffer.getDataFile()), EXTRACTOR, INTERVAL);
+		buffer.setElementProcessors(Collections.singletonList(index));
+		return index;
+	}
+
+	private static List<Long> createTimestamps(int count, int jitter, long seed) {
+		Random random = new Random(seed);
+		List<Long> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			long value = 1000 + i * 10L;
+			if (jitter > 0) {
+				value += random.nextInt(2 * jitter + 1) - jitter;
+			}
+			result.add(value);
+		}
+		return result;
+	}
+
+	private static long expectedIndexOfTime(List<Long> values, long time) {
+		for (int i = 0; i < values.size(); i++) {
+			long timestamp = EXTRACTOR.extractTimestamp(values.get(i));
+			if (timestamp != TimestampExtractor.NO_TIMESTAMP && timestamp >= time) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static long expectedLastIndexBeforeTime(List<Long> values, long time) {
+		for (int i = values.size() - 1; i >= 0; i--) {
+			long timestamp = EXTRACTOR.extractTimestamp(values.get(i));
+			if (timestamp != TimestampExtractor.NO_TIMESTAMP && timestamp < time) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static void assertSearches(TimeIndex<Long> index, Buffer<Long> buffer, List<Long> values) {
+		assertSearches(index, buffer, values, 4 * INTERVAL);
+	}
+
+	private static void assertSearches(TimeIndex<Long> index, Buffer<Long> buffer, List<Long> values, int maximumDecoded) {
+		CountingBuffer counting = new CountingBuffer(buffer);
+		long first = 1000 - 50;
+		long last = 1000 + values.size() * 10L + 50;
+		for (long time = first; time <= last; time += 7) {
+			counting.count = 0;
+			assertEquals(expectedIndexOfTime(values, time), index.indexOfTime(counting, time), "indexOfTime " + time);
+			assertEquals(expectedLastIndexBeforeTime(values, time), index.lastIndexBeforeTime(counting, time), "lastIndexBeforeTime " + time);
+			// only the elements of a few blocks are decoded
+			assertTrue(counting.count <= maximumDecoded, "decoded " + counting.count + " elements for " + time);
+		}
+	}
+
+	@Test
+	void searchesOrderedTimestamps() {
+		CodecFileBuffer<Long> buffer = createBuffer();
+		TimeIndex<Long> index = createIndex(buffer);
+		List<Long> values = createTimestamps(1000, 0, 0);
+		buffer.addAll(values);
+		assertEquals(1000, index.getIndexedCount());
+
+		assertEquals(0, index.indexOfTime(buffer, Long.MIN_VALUE + 1));
+		assertEquals(0, index.indexOfTime(buffer, 1000));
+		assertEquals(1, index.indexOfTime(buffer, 1001));
+		assertEquals(999, index.indexOfTime(buffer, 10990));
+		assertEquals(-1, index.indexOfTime(buffer, 10991));
+		assertEquals(-1, index.lastIndexBeforeTime(buffer, 1000));
+		assertEquals(999, index.lastIndexBeforeTime(buffer, Long.MAX_VALUE));
+		assertSearches(index, buffer, values);
+	}
+
+	@Test
+	void searchesSlightlyOutOfOrderTimestamps() {
+		CodecFileBuffer<Long> buffer = createBuffer();
+		TimeIndex<Long> index = createIndex(buffer);
+		List<Long> values = createTimestamps(2000, 35, 17);
+		for (int i = 0; i < values.size(); i += 10) {
+			// mixes add and addAll, interleaved with elements without timestamp
+			buffer.add(-1L);
+			buffer.addAll(values.subList(i, i + 10));
+		}
+		List<Long> expected = new ArrayList<>();
+		for (int i = 0; i < values.size(); i += 10) {
+			expected.add(-1L);
+			expected.addAll(values.subList(i, i + 10));
+		}
+		assertEquals(expected.size(), index.getIndexedCount());
+		assertSearches(index, buffer, expected);
+	}
+
+	@Test
+	void timeRange() {
+		CodecFileBuffer<Long> buffer = createBuffer();
+		TimeIndex<Long> index = createIndex(buffer);
+		List<Long> values = createTimestamps(500, 12, 42);
+		buffer.addAll(values);
+
+		TimeRangeBuffer<Long> range = index.getTimeRange(buffer, 2000, 3000);
+		long startIndex = expectedIndexOfTime(values, 2000);
+		long endIndex = expectedLastIndexBeforeTime(values, 3000) + 1;
+		assertEquals(startIndex, range.getStartIndex());
+		assertEquals(endIndex, range.getEndIndex());
+		assertEquals(endIndex - startIndex, range.getSize());
+		assertEquals(values.subList((int) startIndex, (int) endIndex), range.getRange(0, (int) range.getSize()));
+		List<Long> iterated = new ArrayList<>();
+		for (Long current : range) {
+			iterated.add(current);
+		}
+		assertEquals(values.subList((int) startIndex, (int) endIndex), iterated);
+		assertEquals(values.get((int) startIndex), range.get(0));
+		assertEquals(null, range.get(range.getSize()));
+
+		assertEquals(0, index.getTimeRange(buffer, 100_000, 200_000).getSize());
+		assertEquals(0, index.getTimeRange(buffer, 0, 500).getSize());
+		assertEquals(0, index.getTimeRange(buffer, 3000, 2000).getSize());
+		assertEquals(values.size(), index.getTimeRange(buffer, Long.MIN_VALUE + 1, Long.MAX_VALUE).getSize());
+	}
+
+	@Test
+	void setWidensBlocks() {
+		CodecFileBuffer<Long> buffer = createSparseBuffer();
+		TimeIndex<Long> index = createIndex(buffer);
+		List<Long> values = createTimestamps(1000, 0, 0);
+		buffer.addAll(values);
+
+		// completed blocks, including the first and an already persisted one, and the incomplete block
+		int[] indices = {0, 100, 500, 990};
+		long[] timestamps = {1500, 1200, 7000, 1100};
+		for (int i = 0; i < indices.length; i++) {
+			assertTrue(buffer.set(indices[i], timestamps[i]));
+			values.set(indices[i], timestamps[i]);
+		}
+		// a timestamp within the bounds and an element without timestamp
+		assertTrue(buffer.set(300, 4005L));
+		values.set(300, 4005L);
+		assertTrue(buffer.set(301, -1L));
+		values.set(301, -1L);
+
+		assertEquals(1000, index.getIndexedCount());
+		assertSearches(index, buffer, values, values.size());
+
+		TimeIndex<Long> reloaded = new TimeIndex<>(index.getFile(), EXTRACTOR, INTERVAL);
+		reloaded.synchronize(buffer);
+		assertEquals(1000, reloaded.getIndexedCount());
+		assertSearches(reloaded, buffer, values, values.size());
+	}
+
+	@Test
+	void sparseSetSkipsMissingElements() {
+		CodecFileBuffer<Long> buffer = createSparseBuffer();
+		TimeIndex<Long> index = createIndex(buffer);
+		List<Long> values = createTimestamps(100, 0, 0);
+		buffer.addAll(values);
+
+		assertTrue(buffer.set(10 * INTERVAL + 5, 20_000L));
+		buffer.add(20_010L);
+		for (int i = values.size(); i < 10 * INTERVAL + 5; i++) {
+			values.add(-1L);
+		}
+		values.add(20_000L);
+		values.add(20_010L);
+
+		assertEquals(buffer.getSize(), index.getIndexedCount());
+		assertEquals(10 * INTERVAL + 5, index.indexOfTime(buffer, 11_000));
+		assertEquals(99, index.lastIndexBeforeTime(buffer, 11_000));
+		assertEquals(10 * INTERVAL + 6, index.indexOfTime(buffer, 20_001));
+
+		TimeIndex<Long> reloaded = new TimeIndex<>(index.getFile(), EXTRACTOR, INTERVAL);
+		reloaded.synchronize(buffer);
+		assertEquals(10 * INTERVAL + 5, reloaded.indexOfTime(buffer, 11_000));
+		assertEquals(99, reloaded.lastIndexBeforeTime(buffer, 11_000));
+	}
+
+	@Test
+	void reloadAndSynchronize() {
+		CodecFileBuffer<Long> buffer = createBuffer();
+		TimeIndex<Long> index = createIndex(buffer);
+		List<Long> values = createTimestamps(1000, 20, 3);
+		buffer.addAll(values);
+		assertTrue(index.getFile().isFile());
+
+		TimeIndex<Long> reloaded = new TimeIndex<>(index.getFile(), EXTRACTOR, INTERVAL);
+		// only complete blocks are persisted
+		assertEquals(1000 / INTERVAL * INTERVAL, reloaded.getIndexedCount());
+		reloaded.synchronize(buffer);
+		assertEquals(1000, reloaded.getIndexedCount());
+		assertSearches(reloaded, buffer, values);
+
+		// elements added without index
+		buffer.setElementProcessors(null);
+		List<Long> more = createTimestamps(1200, 20, 3).subList(1000, 1200);
+		buffer.addAll(more);
+		List<Long> all = new ArrayList<>(values);
+		all.addAll(more);
+		TimeIndex<Long> stale = new TimeIndex<>(index.getFile(), EXTRACTOR, INTERVAL);
+		stale.synchronize(buffer);
+		assertEquals(1200, stale.getIndexedCount());
+		assertSearches(stale, buffer, all);
+	}
+
+	@Test
+	void invalidFilesAreIgnored() throws Exception {
+		CodecFileBuffer<Long> buffer = createBuffer();
+		TimeIndex<Long> index = createIndex(buffer);
+		List<Long> values = createTimestamps(300, 0, 0);
+		buffer.addAll(values);
+
+		TimeIndex<Long> otherInterval = new TimeIndex<>(index.getFile(), EXTRACTOR, INTERVAL * 2);
+		assertEquals(0, otherInterval.getIndexedCount());
+
+		Files.write(index.getFile().toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+		TimeIndex<Long> corrupt = new TimeIndex<>(index.getFile(), EXTRACTOR, INTERVAL);
+		assertEquals(0, corrupt.getIndexedCount());
+		corrupt.synchronize(buffer);
+		assertSearches(corrupt, buffer, values);
+
+		TimeIndex<Long> rewritten = new TimeIndex<>(index.getFile(), EXTRACTOR, INTERVAL);
+		assertEquals(300 / INTERVAL * INTERVAL, rewritten.getIndexedCount());
+	}
+
+	@Test
+	void synchronizeRebuildsLargerIndex() {
+		CodecFileBuffer<Long> buffer = createBuffer();
+		TimeIndex<Long> index = new TimeIndex<>(null, EXTRACTOR, INTERVAL);
+		index.processElements(createTimestamps(100, 0, 0));
+		List<Long> values = createTimestamps(50, 5, 9);
+		buffer.addAll(values);
+		index.synchronize(buffer);
+		assertEquals(50, index.getIndexedCount());
+		assertSearches(index, buffer, values);
+	}
+
+	@Test
+	void bufferResetResetsIndex() {
+		CodecFileBuffer<Long> buffer = createBuffer();
+		TimeIndex<Long> index = createIndex(buffer);
+		buffer.addAll(createTimestamps(200, 0, 0));
+		assertTrue(index.getFile().isFile());
+		buffer.reset();
+		assertEquals(0, index.getIndexedCount());
+		assertFalse(index.getFile().exists());
+		assertEquals(-1, index.indexOfTime(buffer, 0));
+
+		List<Long> values = createTimestamps(150, 0, 0);
+		buffer.addAll(values);
+		assertSearches(index, buffer, values);
+	}
+
+	@Test
+	void emptyIndex() {
+		CodecFileBuffer<Long> buffer = createBuffer();
+		TimeIndex<Long> index = createIndex(buffer);
+		assertEquals(-1, index.indexOfTime(buffer, 0));
+		assertEquals(-1, index.lastIndexBeforeTime(buffer, Long.MAX_VALUE));
+		assertEquals(0, index.getTimeRange(buffer, 0, Long.MAX_VALUE).getSize());
+		buffer.add(-5L);
+		assertEquals(-1, index.indexOfTime(buffer, Long.MIN_VALUE));
+		assertEquals(-1, index.lastIndexBeforeTime(buffer, Long.MAX_VALUE));
+	}
+
+	@Test
+	void illegalArguments() {
+		assertThrows(NullPointerException.class, () -> new TimeIndex<Long>(null, null));
+		assertThrows(IllegalArgumentException.class, () -> new TimeIndex<>(null, EXTRACTOR, 0));
+	}
+
+	private static class CountingBuffer implements Buffer<Long> {
+		private final Buffer<Long> buffer;
+		private int count;
+
+		CountingBuffer(Buffer<Long> buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public Long get(long index) {
+			count++;
+			return buffer.get(index);
+		}
+
+		@Override
+		public long getSize() {
+			return buffer.getSize();
+		}
+
+		@Override
+		public Iterator<Long> iterator() {
+			return new BasicBufferIterator<>(this);
+		}
+	}
+}
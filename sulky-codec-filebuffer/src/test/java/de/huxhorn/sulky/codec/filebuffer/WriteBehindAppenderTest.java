@@ -0,0 +1,139 @@
+package de.huxhorn.sulky.codec.filebuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.huxhorn.sulky.buffers.ElementProcessor;
+import de.huxhorn.sulky.codec.SerializableCodec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteBehindAppenderTest {
+
+	private static final int MAGIC_VALUE = 0xDEADBEEF;
+
+	@TempDir
+	Path tempDir;
+
+	private CodecFileBuffer<String> buffer;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		File dataFile = tempDir.resolve("buffer.data").toFile();
+		File indexFile = tempDir.resolve("buffer.index").toFile();
+		buffer = new CodecFileBuffer<>(MAGIC_VALUE, false, null, new SerializableCodec<>(), dataFile, indexFile, new DefaultFileHeaderStrategy());
+	}
+
+	@Test
+	void appendThenFlush() throws Exception {
+		WriteBehindAppender<String> appender = new WriteBehindAppender<>(buffer);
+		List<String> values = createValues(2500);
+		for (String value : values) {
+			appender.append(value);
+		}
+		appender.flushAsync().get(10, TimeUnit.SECONDS);
+		assertSequence(values);
+		appender.dispose();
+	}
+
+	@Test
+	void appendAllWithEncoderThreadsKeepsOrder() throws Exception {
+		WriteBehindAppender<String> appender = new WriteBehindAppender<>(buffer, 100, 37, 5, 4, true);
+		List<String> values = createValues(1000);
+		appender.appendAll(values.subList(0, 500));
+		for (String value : values.subList(500, values.size())) {
+			appender.append(value);
+		}
+		appender.flush();
+		assertSequence(values);
+		appender.dispose();
+	}
+
+	@Test
+	void batchesAreLimitedByMaxBatchSize() throws Exception {
+		BatchCapturingElementProcessor processor = new BatchCapturingElementProcessor();
+		buffer.setElementProcessors(Collections.singletonList(processor));
+		WriteBehindAppender<String> appender = new WriteBehindAppender<>(buffer, 1000, 10, 1000, 0, false);
+		List<String> values = createValues(95);
+		appender.appendAll(values);
+		appender.flush();
+		assertSequence(values);
+		int total = 0;
+		for (int size : processor.batchSizes) {
+			assertTrue(size <= 10, "batch size " + size);
+			total += size;
+		}
+		assertEquals(values.size(), total);
+		appender.dispose();
+	}
+
+	@Test
+	void maxLatencyCommitsWithoutFlush() throws Exception {
+		WriteBehindAppender<String> appender = new WriteBehindAppender<>(buffer, 1000, 1000, 10, 0, false);
+		appender.append("Foo");
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (buffer.getSize() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals("Foo", buffer.get(0));
+		appender.dispose();
+	}
+
+	@Test
+	void disposeCommitsQueuedElements() throws Exception {
+		WriteBehindAppender<String> appender = new WriteBehindAppender<>(buffer, 1000, 1000, 60_000, 2, false);
+		List<String> values = createValues(100);
+		appender.appendAll(values);
+		appender.dispose();
+		assertTrue(appender.isDisposed());
+		assertSequence(values);
+		assertThrows(IllegalStateException.class, () -> appender.append("Foo"));
+		assertTrue(appender.flushAsync().isDone());
+	}
+
+	@Test
+	void flushFailsIfCodecIsMissing() throws Exception {
+		buffer.setCodec(null);
+		WriteBehindAppender<String> appender = new WriteBehindAppender<>(buffer);
+		appender.append("Foo");
+		assertTrue(appender.flushAsync().handle((result, throwable) -> throwable != null).get(10, TimeUnit.SECONDS));
+		assertEquals(0, buffer.getSize());
+		appender.dispose();
+	}
+
+	private void assertSequence(List<String> expected) {
+		assertEquals(expected.size(), buffer.getSize());
+		assertEquals(expected, buffer.getRange(0, expected.size()));
+	}
+
+	private static List<String> createValues(int count) {
+		List<String> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			result.add("Value-" + i);
+		}
+		return result;
+	}
+
+	private static class BatchCapturingElementProcessor implements ElementProcessor<String> {
+		private final List<Integer> batchSizes = new ArrayList<>();
+
+		@Override
+		public void processElement(String element) {
+			batchSizes.add(1);
+		}
+
+		@Override
+		public void processElements(List<String> elements) {
+			batchSizes.add(elements.size());
+		}
+	}
+}
@@ -34,8 +34,13 @@
 
 package de.huxhorn.sulky.codec;
 
+import de.huxhorn.sulky.codec.buffer.ByteBufferCodec;
+import de.huxhorn.sulky.codec.buffer.ByteBufferCodecs;
+import de.huxhorn.sulky.codec.buffer.ByteBufferEncoder;
+import java.nio.ByteBuffer;
+
 public class DelegatingCodecBase<E>
-	implements Codec<E>
+	implements Codec<E>, ByteBufferCodec<E>
 {
 	private Encoder<E> encoder;
 	private Decoder<E> decoder;
@@ -90,4 +95,39 @@ public class DelegatingCodecBase<E>
 		}
 		return decoder.decode(bytes);
 	}
+
+	/**
+	 * Encodes without intermediate byte[] if the encoder implements ByteBufferEncoder.
+	 */
+	@Override
+	public void encode(E object, ByteBuffer target)
+	{
+		if(encoder == null)
+		{
+			throw new IllegalStateException("encoder must not be null!");
+		}
+		ByteBufferCodecs.encoderFor(encoder).encode(object, target);
+	}
+
+	/**
+	 * @return true if the encoder writes directly into ByteBuffers.
+	 */
+	@Override
+	public boolean isWritingDirectly()
+	{
+		return encoder instanceof ByteBufferEncoder && ((ByteBufferEncoder<?>) encoder).isWritingDirectly();
+	}
+
+	/**
+	 * Decodes without copying if the decoder implements ByteBufferDecoder.
+	 */
+	@Override
+	public E decode(ByteBuffer source)
+	{
+		if(decoder == null)
+		{
+			throw new IllegalStateException("decoder must not be null!");
+		}
+		return ByteBufferCodecs.decoderFor(decoder).decode(source);
+	}
 }
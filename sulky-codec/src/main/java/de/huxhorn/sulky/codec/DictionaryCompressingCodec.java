@@ -0,0 +1,403 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates every element encoded by the wrapped codec using a preset dictionary.
+ *
+ * Small elements compress poorly on their own because every element starts with an empty dictionary.
+ * A dictionary trained from a sample of typical elements, e.g. using trainDictionary, provides the
+ * common content like class descriptors so elements stay individually decodable while getting most
+ * of the ratio of compressing them together.
+ *
+ * The same dictionary must be used to decode the elements. putDictionary and getDictionary store it in
+ * the meta data map of a file, e.g. the preferred meta data of a CodecFileBuffer.
+ *
+ * @param <E> the type of the elements.
+ */
+public class DictionaryCompressingCodec<E>
+	implements Codec<E>
+{
+	/**
+	 * The meta data key of the Base64 encoded dictionary.
+	 */
+	public static final String DICTIONARY_KEY = "sulky.codec.dictionary";
+
+	/**
+	 * The size of the deflate window. Dictionaries are never larger than this.
+	 */
+	public static final int MAXIMUM_DICTIONARY_SIZE = 32 * 1024;
+
+	/**
+	 * The length of the byte sequences counted by trainDictionary.
+	 */
+	private static final int SEQUENCE_LENGTH = 8;
+
+	/**
+	 * The maximum length of a single piece of a trained dictionary.
+	 */
+	private static final int SEGMENT_LENGTH = 64;
+	private static final int SEGMENT_STEP = 16;
+
+	private final Codec<E> codec;
+	private final byte[] dictionary;
+
+	/**
+	 * @param codec the wrapped codec.
+	 * @param dictionary the preset dictionary, might be null or empty.
+	 */
+	public DictionaryCompressingCodec(Codec<E> codec, byte[] dictionary)
+	{
+		this.codec = Objects.requireNonNull(codec, "codec must not be null!");
+		if(dictionary == null)
+		{
+			this.dictionary = new byte[0];
+		}
+		else
+		{
+			if(dictionary.length > MAXIMUM_DICTIONARY_SIZE)
+			{
+				dictionary = Arrays.copyOfRange(dictionary, dictionary.length - MAXIMUM_DICTIONARY_SIZE, dictionary.length);
+			}
+			else
+			{
+				dictionary = dictionary.clone();
+			}
+			this.dictionary = dictionary;
+		}
+	}
+
+	public Codec<E> getCodec()
+	{
+		return codec;
+	}
+
+	public byte[] getDictionary()
+	{
+		return dictionary.clone();
+	}
+
+	@Override
+	public byte[] encode(E object)
+	{
+		byte[] bytes = codec.encode(object);
+		if(bytes == null)
+		{
+			return null;
+		}
+		try(PooledCodecState state = PooledCodecState.acquire())
+		{
+			Deflater deflater = state.deflater();
+			if(dictionary.length > 0)
+			{
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(bytes);
+			deflater.finish();
+			byte[] result = new byte[bytes.length / 2 + 64];
+			int size = 0;
+			while(!deflater.finished())
+			{
+				if(size == result.length)
+				{
+					result = Arrays.copyOf(result, result.length * 2);
+				}
+				size += deflater.deflate(result, size, result.length - size);
+			}
+			return Arrays.copyOf(result, size);
+		}
+	}
+
+	@Override
+	public E decode(byte[] bytes)
+	{
+		if(bytes == null)
+		{
+			return null;
+		}
+		byte[] inflated;
+		try(PooledCodecState state = PooledCodecState.acquire())
+		{
+			Inflater inflater = state.inflater();
+			if(dictionary.length > 0)
+			{
+				inflater.setDictionary(dictionary);
+			}
+			inflater.setInput(bytes);
+			byte[] result = new byte[bytes.length * 4 + 64];
+			int size = 0;
+			while(!inflater.finished())
+			{
+				if(size == result.length)
+				{
+					result = Arrays.copyOf(result, result.length * 2);
+				}
+				int count = inflater.inflate(result, size, result.length - size);
+				if(count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				{
+					// truncated or not deflated using this dictionary
+					return null;
+				}
+				size += count;
+			}
+			inflated = Arrays.copyOf(result, size);
+		}
+		catch(DataFormatException e)
+		{
+			// silently ignore any problems
+			return null;
+		}
+		return codec.decode(inflated);
+	}
+
+	/**
+	 * Stores the dictionary Base64 encoded in the given meta data map.
+	 *
+	 * @param metaData the meta data, e.g. the preferred meta data of a CodecFileBuffer.
+	 * @param dictionary the dictionary.
+	 */
+	public static void putDictionary(Map<String, String> metaData, byte[] dictionary)
+	{
+		metaData.put(DICTIONARY_KEY, Base64.getEncoder().encodeToString(dictionary));
+	}
+
+	/**
+	 * @param metaData the meta data, e.g. the meta data of the file header of a CodecFileBuffer. Might be null.
+	 * @return the dictionary stored using putDictionary or null if there is none.
+	 */
+	public static byte[] getDictionary(Map<String, String> metaData)
+	{
+		if(metaData == null)
+		{
+			return null;
+		}
+		String value = metaData.get(DICTIONARY_KEY);
+		if(value == null)
+		{
+			return null;
+		}
+		try
+		{
+			return Base64.getDecoder().decode(value);
+		}
+		catch(IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Encodes the samples using the given codec and trains a dictionary from the result.
+	 *
+	 * @param codec the codec that is going to be wrapped.
+	 * @param samples typical elements.
+	 * @param maximumSize the maximum size of the dictionary.
+	 * @param <E> the type of the elements.
+	 * @return the trained dictionary.
+	 */
+	public static <E> byte[] trainDictionary(Codec<E> codec, Collection<E> samples, int maximumSize)
+	{
+		List<byte[]> encoded = new ArrayList<>(samples.size());
+		for(E current : samples)
+		{
+			byte[] bytes = codec.encode(current);
+			if(bytes != null)
+			{
+				encoded.add(bytes);
+			}
+		}
+		return trainDictionary(encoded, maximumSize);
+	}
+
+	/**
+	 * Trains a dictionary from the given encoded samples.
+	 *
+	 * Every sample is split into overlapping segments that are scored by the number of samples containing
+	 * their byte sequences. The best segments that still add sequences not yet covered by the dictionary
+	 * are concatenated, the best one last since deflate reaches the end of the dictionary most cheaply.
+	 *
+	 * @param samples typical encoded elements. A few hundred up to a few thousand are usually sufficient.
+	 * @param maximumSize the maximum size of the dictionary, at most MAXIMUM_DICTIONARY_SIZE is used.
+	 * @return the trained dictionary, empty if the samples don't have anything in common.
+	 */
+	public static byte[] trainDictionary(Collection<byte[]> samples, int maximumSize)
+	{
+		int size = Math.min(maximumSize, MAXIMUM_DICTIONARY_SIZE);
+		if(size <= 0 || samples.isEmpty())
+		{
+			return new byte[0];
+		}
+
+		// number of samples containing each sequence
+		Map<Long, Integer> frequencies = new HashMap<>();
+		for(byte[] sample : samples)
+		{
+			Set<Long> sequences = new HashSet<>();
+			for(int i = 0; i + SEQUENCE_LENGTH <= sample.length; i++)
+			{
+				sequences.add(sequence(sample, i));
+			}
+			for(Long current : sequences)
+			{
+				frequencies.merge(current, 1, Integer::sum);
+			}
+		}
+
+		List<Segment> segments = new ArrayList<>();
+		for(byte[] sample : samples)
+		{
+			for(int start = 0; start + SEQUENCE_LENGTH <= sample.length; start += SEGMENT_STEP)
+			{
+				int length = Math.min(SEGMENT_LENGTH, sample.length - start);
+				long score = 0;
+				for(int i = start; i + SEQUENCE_LENGTH <= start + length; i++)
+				{
+					score += commonFrequency(frequencies, sequence(sample, i));
+				}
+				if(score > 0)
+				{
+					segments.add(new Segment(sample, start, length, score));
+				}
+			}
+		}
+		segments.sort(Comparator.comparingLong((Segment s) -> s.score).reversed());
+
+		Set<Long> covered = new HashSet<>();
+		List<Segment> selected = new ArrayList<>();
+		int remaining = size;
+		for(Segment segment : segments)
+		{
+			if(remaining <= 0)
+			{
+				break;
+			}
+			int common = 0;
+			int uncovered = 0;
+			for(int i = segment.start; i + SEQUENCE_LENGTH <= segment.start + segment.length; i++)
+			{
+				long current = sequence(segment.sample, i);
+				if(commonFrequency(frequencies, current) > 0)
+				{
+					common++;
+					if(!covered.contains(current))
+					{
+						uncovered++;
+					}
+				}
+			}
+			if(uncovered * 2 <= common)
+			{
+				// mostly contained already
+				continue;
+			}
+			for(int i = segment.start; i + SEQUENCE_LENGTH <= segment.start + segment.length; i++)
+			{
+				covered.add(sequence(segment.sample, i));
+			}
+			int length = Math.min(segment.length, remaining);
+			selected.add(new Segment(segment.sample, segment.start, length, segment.score));
+			remaining -= length;
+		}
+
+		byte[] result = new byte[size - remaining];
+		int position = result.length;
+		for(Segment segment : selected)
+		{
+			position -= segment.length;
+			System.arraycopy(segment.sample, segment.start, result, position, segment.length);
+		}
+		return result;
+	}
+
+	private static long sequence(byte[] bytes, int offset)
+	{
+		long result = 0;
+		for(int i = 0; i < SEQUENCE_LENGTH; i++)
+		{
+			result = (result << 8) | (bytes[offset + i] & 0xFF);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of samples containing the sequence, 0 if it's contained in a single sample.
+	 */
+	private static int commonFrequency(Map<Long, Integer> frequencies, long sequence)
+	{
+		Integer frequency = frequencies.get(sequence);
+		if(frequency == null || frequency < 2)
+		{
+			return 0;
+		}
+		return frequency;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "DictionaryCompressingCodec[codec=" + codec + ", dictionarySize=" + dictionary.length + "]";
+	}
+
+	private static final class Segment
+	{
+		private final byte[] sample;
+		private final int start;
+		private final int length;
+		private final long score;
+
+		Segment(byte[] sample, int start, int length, long score)
+		{
+			this.sample = sample;
+			this.start = start;
+			this.length = length;
+			this.score = score;
+		}
+	}
+}
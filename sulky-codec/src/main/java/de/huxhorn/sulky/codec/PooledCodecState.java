@@ -0,0 +1,183 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-thread state reused by the encoders and decoders of this package.
+ *
+ * The byte buffer, Deflater and Inflater are created lazily, reset on close() and kept for the next
+ * call on the same thread. A nested acquire() on the same thread, e.g. an encoder called from inside
+ * writeObject, receives an unpooled instance whose native resources are ended on close().
+ */
+final class PooledCodecState
+	implements AutoCloseable
+{
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	/**
+	 * Buffers that grew beyond this size are dropped instead of being kept for the next call.
+	 */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	private static final ThreadLocal<PooledCodecState> POOL = ThreadLocal.withInitial(() -> new PooledCodecState(true));
+
+	private final boolean pooled;
+	private boolean inUse;
+	private ReusableByteArrayOutputStream bytes;
+	private Deflater deflater;
+	private Inflater inflater;
+
+	private PooledCodecState(boolean pooled)
+	{
+		this.pooled = pooled;
+	}
+
+	static PooledCodecState acquire()
+	{
+		PooledCodecState state = POOL.get();
+		if(state.inUse)
+		{
+			return new PooledCodecState(false);
+		}
+		state.inUse = true;
+		return state;
+	}
+
+	/**
+	 * @return an empty byte buffer.
+	 */
+	ByteArrayOutputStream bytes()
+	{
+		if(bytes == null)
+		{
+			bytes = new ReusableByteArrayOutputStream();
+		}
+		return bytes;
+	}
+
+	OutputStream gzip(OutputStream out)
+			throws IOException
+	{
+		return new PooledGZIPOutputStream(out, deflater());
+	}
+
+	InputStream gunzip(InputStream in)
+			throws IOException
+	{
+		return new PooledGZIPInputStream(in, inflater());
+	}
+
+	/**
+	 * @return a Deflater producing raw deflate data, i.e. without zlib header.
+	 */
+	Deflater deflater()
+	{
+		if(deflater == null)
+		{
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+		return deflater;
+	}
+
+	/**
+	 * @return an Inflater reading raw deflate data, i.e. without zlib header.
+	 */
+	Inflater inflater()
+	{
+		if(inflater == null)
+		{
+			inflater = new Inflater(true);
+		}
+		return inflater;
+	}
+
+	@Override
+	public void close()
+	{
+		if(!pooled)
+		{
+			if(deflater != null)
+			{
+				deflater.end();
+			}
+			if(inflater != null)
+			{
+				inflater.end();
+			}
+			return;
+		}
+		if(bytes != null)
+		{
+			if(bytes.capacity() > MAX_RETAINED_BUFFER_SIZE)
+			{
+				bytes = null;
+			}
+			else
+			{
+				bytes.reset();
+			}
+		}
+		if(deflater != null)
+		{
+			deflater.reset();
+		}
+		if(inflater != null)
+		{
+			inflater.reset();
+		}
+		inUse = false;
+	}
+
+	private static class ReusableByteArrayOutputStream
+		extends ByteArrayOutputStream
+	{
+		ReusableByteArrayOutputStream()
+		{
+			super(INITIAL_BUFFER_SIZE);
+		}
+
+		int capacity()
+		{
+			return buf.length;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a single GZIP member like java.util.zip.GZIPInputStream but uses the given Inflater
+ * instead of allocating a new native one. The Inflater is neither reset nor ended by this stream.
+ */
+class PooledGZIPInputStream
+	extends InflaterInputStream
+{
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int BUFFER_SIZE = 512;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final CRC32 crc;
+	private boolean eos;
+
+	PooledGZIPInputStream(InputStream in, Inflater inflater)
+			throws IOException
+	{
+		super(in, inflater, BUFFER_SIZE);
+		crc = new CRC32();
+		readHeader(in);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len)
+			throws IOException
+	{
+		if(eos)
+		{
+			return -1;
+		}
+		int n = super.read(b, off, len);
+		if(n == -1)
+		{
+			eos = true;
+			readTrailer();
+		}
+		else
+		{
+			crc.update(b, off, n);
+		}
+		return n;
+	}
+
+	private void readHeader(InputStream input)
+			throws IOException
+	{
+		CheckedInputStream checked = new CheckedInputStream(input, crc);
+		if(readUShort(checked) != GZIP_MAGIC)
+		{
+			throw new ZipException("Not in GZIP format");
+		}
+		if(readUByte(checked) != Deflater.DEFLATED)
+		{
+			throw new ZipException("Unsupported compression method");
+		}
+		int flags = readUByte(checked);
+		// skip MTIME, XFL and OS
+		skipBytes(checked, 6);
+		if((flags & FEXTRA) == FEXTRA)
+		{
+			skipBytes(checked, readUShort(checked));
+		}
+		if((flags & FNAME) == FNAME)
+		{
+			while(readUByte(checked) != 0)
+			{
+				// skip file name
+			}
+		}
+		if((flags & FCOMMENT) == FCOMMENT)
+		{
+			while(readUByte(checked) != 0)
+			{
+				// skip comment
+			}
+		}
+		if((flags & FHCRC) == FHCRC)
+		{
+			int expected = (int) crc.getValue() & 0xffff;
+			if(readUShort(checked) != expected)
+			{
+				throw new ZipException("Corrupt GZIP header");
+			}
+		}
+		crc.reset();
+	}
+
+	private void readTrailer()
+			throws IOException
+	{
+		InputStream trailer = in;
+		int remaining = inf.getRemaining();
+		if(remaining > 0)
+		{
+			trailer = new SequenceInputStream(
+				new ByteArrayInputStream(buf, len - remaining, remaining), in);
+		}
+		long expectedCrc = readUInt(trailer);
+		long expectedSize = readUInt(trailer);
+		if(expectedCrc != crc.getValue() || expectedSize != (inf.getBytesWritten() & 0xffffffffL))
+		{
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+	}
+
+	private static long readUInt(InputStream input)
+			throws IOException
+	{
+		long low = readUShort(input);
+		return ((long) readUShort(input) << 16) | low;
+	}
+
+	private static int readUShort(InputStream input)
+			throws IOException
+	{
+		int low = readUByte(input);
+		return (readUByte(input) << 8) | low;
+	}
+
+	private static int readUByte(InputStream input)
+			throws IOException
+	{
+		int b = input.read();
+		if(b == -1)
+		{
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	private static void skipBytes(InputStream input, int count)
+			throws IOException
+	{
+		for(int i = 0; i < count; i++)
+		{
+			readUByte(input);
+		}
+	}
+}
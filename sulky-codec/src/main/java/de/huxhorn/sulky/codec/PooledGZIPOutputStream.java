@@ -0,0 +1,101 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes the same GZIP format as java.util.zip.GZIPOutputStream but uses the given Deflater
+ * instead of allocating a new native one. The Deflater is neither reset nor ended by this stream.
+ */
+class PooledGZIPOutputStream
+	extends DeflaterOutputStream
+{
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int BUFFER_SIZE = 512;
+	private static final byte[] HEADER =
+		{
+			(byte) GZIP_MAGIC,
+			(byte) (GZIP_MAGIC >> 8),
+			Deflater.DEFLATED,
+			0, 0, 0, 0, 0, 0, 0,
+		};
+
+	private final CRC32 crc;
+	private boolean trailerWritten;
+
+	PooledGZIPOutputStream(OutputStream out, Deflater deflater)
+			throws IOException
+	{
+		super(out, deflater, BUFFER_SIZE);
+		crc = new CRC32();
+		out.write(HEADER);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len)
+			throws IOException
+	{
+		super.write(b, off, len);
+		crc.update(b, off, len);
+	}
+
+	@Override
+	public void finish()
+			throws IOException
+	{
+		super.finish();
+		if(!trailerWritten)
+		{
+			trailerWritten = true;
+			byte[] trailer = new byte[8];
+			writeInt((int) crc.getValue(), trailer, 0);
+			writeInt((int) def.getBytesRead(), trailer, 4);
+			out.write(trailer);
+		}
+	}
+
+	private static void writeInt(int value, byte[] buf, int offset)
+	{
+		buf[offset] = (byte) value;
+		buf[offset + 1] = (byte) (value >> 8);
+		buf[offset + 2] = (byte) (value >> 16);
+		buf[offset + 3] = (byte) (value >> 24);
+	}
+}
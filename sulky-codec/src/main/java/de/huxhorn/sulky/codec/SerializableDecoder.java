@@ -34,14 +34,17 @@
 
 package de.huxhorn.sulky.codec;
 
+import de.huxhorn.sulky.codec.buffer.ByteBufferDecoder;
+import de.huxhorn.sulky.codec.buffer.ByteBufferInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.zip.GZIPInputStream;
+import java.nio.ByteBuffer;
 
 public class SerializableDecoder<E extends Serializable>
-	implements Decoder<E>
+	implements Decoder<E>, ByteBufferDecoder<E>
 {
 	private boolean compressing;
 
@@ -68,7 +71,22 @@ public class SerializableDecoder<E extends Serializable>
 	@Override
 	public E decode(byte[] bytes)
 	{
-		try(ObjectInputStream ois = createObjectInputStream(bytes))
+		return decode(new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * Deserializes the object directly from the remaining bytes of source, without copying them.
+	 */
+	@Override
+	public E decode(ByteBuffer source)
+	{
+		return decode(new ByteBufferInputStream(source));
+	}
+
+	private E decode(InputStream input)
+	{
+		try(PooledCodecState state = PooledCodecState.acquire();
+			ObjectInputStream ois = createObjectInputStream(state, input))
 		{
 			Object result = ois.readObject();
 			@SuppressWarnings({"unchecked"})
@@ -82,14 +100,12 @@ public class SerializableDecoder<E extends Serializable>
 		}
 	}
 
-	private ObjectInputStream createObjectInputStream(byte[] bytes)
+	private ObjectInputStream createObjectInputStream(PooledCodecState state, InputStream bis)
 			throws IOException
 	{
-		ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
 		if(compressing)
 		{
-			GZIPInputStream gis = new GZIPInputStream(bis);
-			return new ObjectInputStream(gis);
+			return new ObjectInputStream(state.gunzip(bis));
 		}
 		return new ObjectInputStream(bis);
 	}
@@ -34,14 +34,19 @@
 
 package de.huxhorn.sulky.codec;
 
+import de.huxhorn.sulky.codec.buffer.ByteBufferEncoder;
+import de.huxhorn.sulky.codec.buffer.ByteBufferOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.zip.GZIPOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 public class SerializableEncoder<E extends Serializable>
-	implements Encoder<E>
+	implements Encoder<E>, ByteBufferEncoder<E>
 {
 	private boolean compressing;
 
@@ -68,13 +73,14 @@ public class SerializableEncoder<E extends Serializable>
 	@Override
 	public byte[] encode(E object)
 	{
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-		try(ObjectOutputStream oos = createObjectOutputStream(bos))
+		try(PooledCodecState state = PooledCodecState.acquire())
 		{
-			oos.writeObject(object);
-			oos.flush();
-			oos.close();
+			ByteArrayOutputStream bos = state.bytes();
+			try(ObjectOutputStream oos = createObjectOutputStream(state, bos))
+			{
+				oos.writeObject(object);
+				oos.flush();
+			}
 			return bos.toByteArray();
 		}
 		catch(IOException e)
@@ -84,13 +90,37 @@ public class SerializableEncoder<E extends Serializable>
 		}
 	}
 
-	private ObjectOutputStream createObjectOutputStream(ByteArrayOutputStream bos)
+	/**
+	 * Serializes the object directly into target, without any intermediate byte[].
+	 */
+	@Override
+	public void encode(E object, ByteBuffer target)
+	{
+		int position = target.position();
+		try(PooledCodecState state = PooledCodecState.acquire();
+			ObjectOutputStream oos = createObjectOutputStream(state, new ByteBufferOutputStream(target)))
+		{
+			oos.writeObject(object);
+			oos.flush();
+		}
+		catch(BufferOverflowException e)
+		{
+			target.position(position);
+			throw e;
+		}
+		catch(IOException e)
+		{
+			target.position(position);
+			throw new UncheckedIOException("Couldn't encode " + object + "!", e);
+		}
+	}
+
+	private ObjectOutputStream createObjectOutputStream(PooledCodecState state, OutputStream bos)
 			throws IOException
 	{
 		if(compressing)
 		{
-			GZIPOutputStream gos = new GZIPOutputStream(bos);
-			return new ObjectOutputStream(gos);
+			return new ObjectOutputStream(state.gzip(bos));
 		}
 		return new ObjectOutputStream(bos);
 	}
@@ -37,7 +37,6 @@ package de.huxhorn.sulky.codec;
 import java.beans.XMLDecoder;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
 
 public class XmlDecoder<E>
 	implements Decoder<E>
@@ -67,7 +66,8 @@ public class XmlDecoder<E>
 	@Override
 	public E decode(byte[] bytes)
 	{
-		try(XMLDecoder decoder=createXMLDecoder(bytes))
+		try(PooledCodecState state = PooledCodecState.acquire();
+			XMLDecoder decoder=createXMLDecoder(state, bytes))
 		{
 			Object result = decoder.readObject();
 			@SuppressWarnings({"unchecked"})
@@ -81,14 +81,13 @@ public class XmlDecoder<E>
 		}
 	}
 
-	private XMLDecoder createXMLDecoder(byte[] bytes)
+	private XMLDecoder createXMLDecoder(PooledCodecState state, byte[] bytes)
 			throws IOException
 	{
 		ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
 		if(compressing)
 		{
-			GZIPInputStream gis = new GZIPInputStream(bis);
-			return new XMLDecoder(gis);
+			return new XMLDecoder(state.gunzip(bis));
 		}
 		return new XMLDecoder(bis);
 	}
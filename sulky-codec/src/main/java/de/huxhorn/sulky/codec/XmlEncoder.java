@@ -37,7 +37,6 @@ package de.huxhorn.sulky.codec;
 import java.beans.XMLEncoder;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * This class does only support XML serialization for the simple case where the class to serialize
@@ -89,12 +88,13 @@ public class XmlEncoder<E>
 	@Override
 	public byte[] encode(E object)
 	{
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-		try(XMLEncoder encoder=createXmlEncoder(bos))
+		try(PooledCodecState state = PooledCodecState.acquire())
 		{
-			encoder.writeObject(object);
-			encoder.close();
+			ByteArrayOutputStream bos = state.bytes();
+			try(XMLEncoder encoder=createXmlEncoder(state, bos))
+			{
+				encoder.writeObject(object);
+			}
 			return bos.toByteArray();
 		}
 		catch(IOException e)
@@ -104,13 +104,12 @@ public class XmlEncoder<E>
 		}
 	}
 
-	private XMLEncoder createXmlEncoder(ByteArrayOutputStream bos)
+	private XMLEncoder createXmlEncoder(PooledCodecState state, ByteArrayOutputStream bos)
 			throws IOException
 	{
 		if(compressing)
 		{
-			GZIPOutputStream gos = new GZIPOutputStream(bos);
-			return new XMLEncoder(gos);
+			return new XMLEncoder(state.gzip(bos));
 		}
 		return new XMLEncoder(bos);
 	}
@@ -0,0 +1,253 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.buffer;
+
+import de.huxhorn.sulky.codec.Decoder;
+import de.huxhorn.sulky.codec.Encoder;
+import de.huxhorn.sulky.codec.streaming.StreamingDecoder;
+import de.huxhorn.sulky.codec.streaming.StreamingEncoder;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adapts the existing Encoder, Decoder and streaming variants to the ByteBuffer SPI.
+ */
+public final class ByteBufferCodecs
+{
+	static
+	{
+		// for the sake of coverage
+		new ByteBufferCodecs();
+	}
+
+	private ByteBufferCodecs()
+	{}
+
+	/**
+	 * @param encoder the encoder to adapt.
+	 * @param <E> the type of the objects.
+	 * @return the encoder itself if it implements ByteBufferEncoder, otherwise an adapter copying the result of encode.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E> ByteBufferEncoder<E> encoderFor(Encoder<E> encoder)
+	{
+		Objects.requireNonNull(encoder, "encoder must not be null!");
+		if(encoder instanceof ByteBufferEncoder)
+		{
+			return (ByteBufferEncoder<E>) encoder;
+		}
+		return new EncoderAdapter<>(encoder);
+	}
+
+	/**
+	 * @param encoder the encoder.
+	 * @param <E> the type of the objects.
+	 * @return the encoder itself if it writes directly into ByteBuffers, otherwise null.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E> ByteBufferEncoder<E> directEncoderOf(Encoder<E> encoder)
+	{
+		if(encoder instanceof ByteBufferEncoder && ((ByteBufferEncoder<E>) encoder).isWritingDirectly())
+		{
+			return (ByteBufferEncoder<E>) encoder;
+		}
+		return null;
+	}
+
+	/**
+	 * @param decoder the decoder to adapt.
+	 * @param <E> the type of the objects.
+	 * @return the decoder itself if it implements ByteBufferDecoder, otherwise an adapter copying the remaining bytes.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E> ByteBufferDecoder<E> decoderFor(Decoder<E> decoder)
+	{
+		Objects.requireNonNull(decoder, "decoder must not be null!");
+		if(decoder instanceof ByteBufferDecoder)
+		{
+			return (ByteBufferDecoder<E>) decoder;
+		}
+		return new DecoderAdapter<>(decoder);
+	}
+
+	/**
+	 * @param encoder the streaming encoder writing directly into the buffer.
+	 * @param <E> the type of the objects.
+	 * @return an adapter for the streaming encoder.
+	 */
+	public static <E> ByteBufferEncoder<E> fromStreaming(StreamingEncoder<E> encoder)
+	{
+		return new StreamingEncoderAdapter<>(Objects.requireNonNull(encoder, "encoder must not be null!"));
+	}
+
+	/**
+	 * @param decoder the streaming decoder reading directly from the buffer.
+	 * @param <E> the type of the objects.
+	 * @return an adapter for the streaming decoder.
+	 */
+	public static <E> ByteBufferDecoder<E> fromStreaming(StreamingDecoder<E> decoder)
+	{
+		return new StreamingDecoderAdapter<>(Objects.requireNonNull(decoder, "decoder must not be null!"));
+	}
+
+	/**
+	 * @param source the buffer.
+	 * @return the remaining bytes of source, without copying if possible.
+	 */
+	static byte[] remainingBytes(ByteBuffer source)
+	{
+		if(source.hasArray() && source.arrayOffset() == 0 && source.position() == 0 && source.remaining() == source.array().length)
+		{
+			byte[] result = source.array();
+			source.position(source.limit());
+			return result;
+		}
+		byte[] result = new byte[source.remaining()];
+		source.get(result);
+		return result;
+	}
+
+	private static class EncoderAdapter<E>
+		implements ByteBufferEncoder<E>
+	{
+		private final Encoder<E> encoder;
+
+		EncoderAdapter(Encoder<E> encoder)
+		{
+			this.encoder = encoder;
+		}
+
+		@Override
+		public void encode(E object, ByteBuffer target)
+		{
+			byte[] bytes = encoder.encode(object);
+			if(bytes == null)
+			{
+				throw new IllegalArgumentException("Couldn't encode " + object + "!");
+			}
+			if(bytes.length > target.remaining())
+			{
+				throw new BufferOverflowException();
+			}
+			target.put(bytes);
+		}
+
+		@Override
+		public boolean isWritingDirectly()
+		{
+			return false;
+		}
+	}
+
+	private static class DecoderAdapter<E>
+		implements ByteBufferDecoder<E>
+	{
+		private final Decoder<E> decoder;
+
+		DecoderAdapter(Decoder<E> decoder)
+		{
+			this.decoder = decoder;
+		}
+
+		@Override
+		public E decode(ByteBuffer source)
+		{
+			return decoder.decode(remainingBytes(source));
+		}
+	}
+
+	private static class StreamingEncoderAdapter<E>
+		implements ByteBufferEncoder<E>
+	{
+		private final StreamingEncoder<E> encoder;
+
+		StreamingEncoderAdapter(StreamingEncoder<E> encoder)
+		{
+			this.encoder = encoder;
+		}
+
+		@Override
+		public void encode(E object, ByteBuffer target)
+		{
+			int position = target.position();
+			try
+			{
+				encoder.encode(object, new ByteBufferOutputStream(target));
+			}
+			catch(BufferOverflowException e)
+			{
+				target.position(position);
+				throw e;
+			}
+			catch(IOException e)
+			{
+				target.position(position);
+				throw new UncheckedIOException("Couldn't encode " + object + "!", e);
+			}
+		}
+	}
+
+	private static class StreamingDecoderAdapter<E>
+		implements ByteBufferDecoder<E>
+	{
+		private final Logger logger = LoggerFactory.getLogger(StreamingDecoderAdapter.class);
+
+		private final StreamingDecoder<E> decoder;
+
+		StreamingDecoderAdapter(StreamingDecoder<E> decoder)
+		{
+			this.decoder = decoder;
+		}
+
+		@Override
+		public E decode(ByteBuffer source)
+		{
+			try
+			{
+				return decoder.decode(new ByteBufferInputStream(source));
+			}
+			catch(IOException e)
+			{
+				if(logger.isWarnEnabled()) logger.warn("Couldn't decode!", e);
+			}
+			return null;
+		}
+	}
+}
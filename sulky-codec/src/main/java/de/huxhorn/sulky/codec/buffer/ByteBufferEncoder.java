@@ -0,0 +1,67 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes objects directly into a caller-supplied ByteBuffer instead of returning a new byte[].
+ *
+ * @param <E> the type of the objects.
+ */
+public interface ByteBufferEncoder<E>
+{
+	/**
+	 * Writes the encoded object into target, starting at its position. The position is advanced
+	 * by the number of written bytes.
+	 *
+	 * @param object the object to encode.
+	 * @param target the buffer receiving the encoded object.
+	 * @throws java.nio.BufferOverflowException if the remaining space of target isn't sufficient.
+	 * The position of target is left unchanged in that case so the caller can retry using a larger buffer.
+	 */
+	void encode(E object, ByteBuffer target);
+
+	/**
+	 * Encoders that merely copy an already encoded byte[] into target return false. Writers should encode
+	 * such objects into a byte[] instead of retrying using a larger buffer after an overflow.
+	 *
+	 * @return true if encode writes directly into target.
+	 */
+	default boolean isWritingDirectly()
+	{
+		return true;
+	}
+}
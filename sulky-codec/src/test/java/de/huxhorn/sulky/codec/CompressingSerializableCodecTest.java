@@ -34,8 +34,17 @@
 
 package de.huxhorn.sulky.codec;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 class CompressingSerializableCodecTest
@@ -49,4 +58,88 @@ class CompressingSerializableCodecTest
 		String decoded = instance.decode(encoded);
 		assertEquals(obj, decoded);
 	}
+
+	@Test
+	void encodedBytesAreReadableByGZIPInputStream()
+		throws IOException, ClassNotFoundException
+	{
+		String obj = "Foo";
+		CompressingSerializableCodec<String> instance = new CompressingSerializableCodec<>();
+		byte[] encoded = instance.encode(obj);
+
+		try(ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(encoded))))
+		{
+			assertEquals(obj, ois.readObject());
+		}
+	}
+
+	@Test
+	void decodesBytesWrittenByGZIPOutputStream()
+		throws IOException
+	{
+		String obj = "Foo";
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try(ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(bos)))
+		{
+			oos.writeObject(obj);
+		}
+
+		CompressingSerializableCodec<String> instance = new CompressingSerializableCodec<>();
+		assertEquals(obj, instance.decode(bos.toByteArray()));
+	}
+
+	@Test
+	void repeatedCallsProduceIdenticalResults()
+	{
+		CompressingSerializableCodec<String> instance = new CompressingSerializableCodec<>();
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < 10000; i++)
+		{
+			builder.append(i);
+		}
+		String large = builder.toString();
+
+		byte[] first = instance.encode("Foo");
+		assertEquals(large, instance.decode(instance.encode(large)));
+		assertArrayEquals(first, instance.encode("Foo"));
+		assertEquals("Foo", instance.decode(first));
+	}
+
+	@Test
+	void nestedEncodingOnSameThread()
+	{
+		CompressingSerializableCodec<Nesting> instance = new CompressingSerializableCodec<>();
+		Nesting obj = new Nesting("Foo");
+		Nesting decoded = instance.decode(instance.encode(obj));
+		assertEquals("Foo", decoded.value);
+		assertEquals("Foo", decoded.nestedValue);
+	}
+
+	private static class Nesting
+		implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String value;
+		private transient String nestedValue;
+
+		Nesting(String value)
+		{
+			this.value = value;
+		}
+
+		private void writeObject(ObjectOutputStream out)
+			throws IOException
+		{
+			out.defaultWriteObject();
+			out.writeObject(new CompressingSerializableCodec<String>().encode(value));
+		}
+
+		private void readObject(ObjectInputStream in)
+			throws IOException, ClassNotFoundException
+		{
+			in.defaultReadObject();
+			nestedValue = new CompressingSerializableCodec<String>().decode((byte[]) in.readObject());
+		}
+	}
 }
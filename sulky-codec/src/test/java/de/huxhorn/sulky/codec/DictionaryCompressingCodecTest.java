@@ -0,0 +1,143 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2011 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2011 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DictionaryCompressingCodecTest
+{
+	@Test
+	void roundTripWithoutDictionary()
+	{
+		DictionaryCompressingCodec<String> instance = new DictionaryCompressingCodec<>(new SerializableCodec<>(), null);
+		assertEquals("Foo", instance.decode(instance.encode("Foo")));
+		assertEquals(0, instance.getDictionary().length);
+	}
+
+	@Test
+	void trainedDictionaryImprovesCompressionOfSmallElements()
+	{
+		SerializableCodec<Event> codec = new SerializableCodec<>();
+		List<Event> samples = new ArrayList<>();
+		for(int i = 0; i < 200; i++)
+		{
+			samples.add(new Event("de.huxhorn.sulky.codec.Sample" + (i % 7), "Message number " + i, i));
+		}
+		byte[] dictionary = DictionaryCompressingCodec.trainDictionary(codec, samples, 4096);
+		assertTrue(dictionary.length > 0);
+		assertTrue(dictionary.length <= 4096);
+
+		DictionaryCompressingCodec<Event> empty = new DictionaryCompressingCodec<>(codec, null);
+		DictionaryCompressingCodec<Event> instance = new DictionaryCompressingCodec<>(codec, dictionary);
+		Event event = new Event("de.huxhorn.sulky.codec.Sample3", "Message number 1234", 1234);
+		byte[] withoutDictionary = empty.encode(event);
+		byte[] withDictionary = instance.encode(event);
+		assertTrue(withDictionary.length * 2 < withoutDictionary.length,
+			"with dictionary: " + withDictionary.length + ", without dictionary: " + withoutDictionary.length);
+
+		assertEquals(event, instance.decode(withDictionary));
+		assertEquals(event, instance.decode(instance.encode(event)));
+	}
+
+	@Test
+	void decodingWithoutDictionaryFails()
+	{
+		SerializableCodec<String> codec = new SerializableCodec<>();
+		DictionaryCompressingCodec<String> instance = new DictionaryCompressingCodec<>(codec, codec.encode("Foo"));
+		DictionaryCompressingCodec<String> other = new DictionaryCompressingCodec<>(new SerializableCodec<>(), null);
+		assertNull(other.decode(instance.encode("Foo")));
+		assertNull(instance.decode(null));
+	}
+
+	@Test
+	void dictionaryIsStoredInMetaData()
+	{
+		byte[] dictionary = {1, 2, 3, 4, 5};
+		Map<String, String> metaData = new HashMap<>();
+		assertNull(DictionaryCompressingCodec.getDictionary(metaData));
+		assertNull(DictionaryCompressingCodec.getDictionary(null));
+		DictionaryCompressingCodec.putDictionary(metaData, dictionary);
+		assertArrayEquals(dictionary, DictionaryCompressingCodec.getDictionary(metaData));
+	}
+
+	@Test
+	void trainingWithoutCommonContentReturnsEmptyDictionary()
+	{
+		assertEquals(0, DictionaryCompressingCodec.trainDictionary(List.of("abcdefghijk".getBytes(), "0123456789".getBytes()), 1024).length);
+		assertEquals(0, DictionaryCompressingCodec.trainDictionary(new ArrayList<byte[]>(), 1024).length);
+	}
+
+	private static final class Event
+		implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String logger;
+		private final String message;
+		private final long timestamp;
+
+		Event(String logger, String message, long timestamp)
+		{
+			this.logger = logger;
+			this.message = message;
+			this.timestamp = timestamp;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(this == o) return true;
+			if(!(o instanceof Event)) return false;
+			Event event = (Event) o;
+			return timestamp == event.timestamp && logger.equals(event.logger) && message.equals(event.message);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return logger.hashCode() * 31 + message.hashCode();
+		}
+	}
+}
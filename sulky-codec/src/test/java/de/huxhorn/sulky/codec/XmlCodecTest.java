@@ -50,4 +50,15 @@ class XmlCodecTest
 		String decoded = decoder.decode(encoded);
 		assertEquals(obj, decoded);
 	}
+
+	@Test
+	void compressing()
+	{
+		String obj = "Foo";
+		XmlEncoder<String> encoder = new XmlEncoder<>(true);
+		XmlDecoder<String> decoder = new XmlDecoder<>(true);
+		byte[] encoded = encoder.encode(obj);
+		assertEquals(obj, decoder.decode(encoded));
+		assertEquals(obj, decoder.decode(encoder.encode(obj)));
+	}
 }
@@ -0,0 +1,127 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2011 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2011 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.codec.buffer;
+
+import de.huxhorn.sulky.codec.Decoder;
+import de.huxhorn.sulky.codec.DelegatingCodecBase;
+import de.huxhorn.sulky.codec.Encoder;
+import de.huxhorn.sulky.codec.SerializableCodec;
+import de.huxhorn.sulky.codec.XmlDecoder;
+import de.huxhorn.sulky.codec.XmlEncoder;
+import de.huxhorn.sulky.codec.streaming.StreamingSerializableCodec;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteBufferCodecsTest
+{
+	@Test
+	void serializableCodecRoundTrip()
+	{
+		SerializableCodec<String> codec = new SerializableCodec<>();
+		assertSame(codec, ByteBufferCodecs.encoderFor(codec));
+		assertSame(codec, ByteBufferCodecs.decoderFor(codec));
+
+		ByteBuffer buffer = ByteBuffer.allocate(1024);
+		buffer.putInt(17);
+		codec.encode("Foo", buffer);
+		int end = buffer.position();
+		assertEquals(codec.encode("Foo").length, end - 4);
+
+		ByteBuffer slice = buffer.slice(4, end - 4);
+		assertEquals("Foo", codec.decode(slice));
+	}
+
+	@Test
+	void overflowKeepsPosition()
+	{
+		SerializableCodec<String> codec = new SerializableCodec<>();
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		buffer.put((byte) 1);
+		assertThrows(BufferOverflowException.class, () -> codec.encode("Foo", buffer));
+		assertEquals(1, buffer.position());
+	}
+
+	@Test
+	void adaptersCopyPlainCodecs()
+	{
+		Encoder<String> encoder = new XmlEncoder<>();
+		Decoder<String> decoder = new XmlDecoder<>();
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		ByteBufferCodecs.encoderFor(encoder).encode("Foo", buffer);
+		buffer.flip();
+		assertEquals("Foo", ByteBufferCodecs.decoderFor(decoder).decode(buffer));
+
+		ByteBuffer small = ByteBuffer.allocate(4);
+		assertThrows(BufferOverflowException.class, () -> ByteBufferCodecs.encoderFor(encoder).encode("Foo", small));
+		assertEquals(0, small.position());
+	}
+
+	@Test
+	void directEncoders()
+	{
+		SerializableCodec<String> codec = new SerializableCodec<>();
+		assertTrue(codec.isWritingDirectly());
+		assertSame(codec, ByteBufferCodecs.directEncoderOf(codec));
+
+		Encoder<String> encoder = new XmlEncoder<>();
+		assertNull(ByteBufferCodecs.directEncoderOf(encoder));
+		assertFalse(ByteBufferCodecs.encoderFor(encoder).isWritingDirectly());
+
+		DelegatingCodecBase<String> delegating = new DelegatingCodecBase<String>(encoder, new XmlDecoder<>()) {};
+		assertFalse(delegating.isWritingDirectly());
+		assertNull(ByteBufferCodecs.directEncoderOf(delegating));
+
+		StreamingSerializableCodec<String> streaming = new StreamingSerializableCodec<>();
+		assertTrue(ByteBufferCodecs.fromStreaming(streaming::encode).isWritingDirectly());
+	}
+
+	@Test
+	void streamingAdapters()
+	{
+		StreamingSerializableCodec<String> codec = new StreamingSerializableCodec<>();
+		ByteBuffer buffer = ByteBuffer.allocate(1024);
+		ByteBufferCodecs.fromStreaming(codec::encode).encode("Foo", buffer);
+		buffer.flip();
+		assertEquals("Foo", ByteBufferCodecs.fromStreaming(codec::decode).decode(buffer));
+	}
+}
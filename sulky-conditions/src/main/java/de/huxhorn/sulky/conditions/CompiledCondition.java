@@ -0,0 +1,326 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.conditions;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Evaluates an optimized condition using a tree of final evaluators.
+ *
+ * And and Or are evaluated by evaluators that sample the cost and the selectivity of their sub-conditions
+ * every SAMPLE_INTERVAL evaluations. After REORDER_SAMPLES samples, the sub-conditions are reordered so that
+ * cheap sub-conditions that are likely to decide the result are evaluated first. Since all sub-conditions
+ * are evaluated lazily, reordering doesn't change the result as long as the sub-conditions don't have side
+ * effects.
+ *
+ * Sampling is not synchronized, i.e. concurrent evaluations may lose samples. This only affects the
+ * quality of the order.
+ *
+ * Instances are created using ConditionOptimizer.compile.
+ */
+public final class CompiledCondition
+	implements Condition
+{
+	private static final long serialVersionUID = -2818473604517310557L;
+
+	/**
+	 * Every SAMPLE_INTERVAL-th evaluation of a group is sampled. Must be a power of two.
+	 */
+	public static final int SAMPLE_INTERVAL = 64;
+
+	/**
+	 * The number of samples after which the sub-conditions of a group are reordered.
+	 */
+	public static final int REORDER_SAMPLES = 64;
+
+	private final Condition condition;
+	private transient Condition evaluator;
+
+	CompiledCondition(Condition condition)
+	{
+		this.condition = condition;
+		this.evaluator = compileEvaluator(condition);
+	}
+
+	/**
+	 * @return the optimized condition this instance has been compiled from.
+	 */
+	public Condition getCondition()
+	{
+		return condition;
+	}
+
+	@Override
+	public boolean isTrue(Object element)
+	{
+		return evaluator.isTrue(element);
+	}
+
+	/**
+	 * The clone is compiled from a clone of the optimized condition and starts without any samples.
+	 *
+	 * @return a clone of this condition.
+	 * @throws CloneNotSupportedException if the optimized condition can't be cloned.
+	 */
+	@Override
+	public CompiledCondition clone()
+		throws CloneNotSupportedException
+	{
+		return new CompiledCondition(condition.clone());
+	}
+
+	private Object readResolve()
+	{
+		return new CompiledCondition(condition);
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if(this == o) return true;
+		if(o == null || getClass() != o.getClass()) return false;
+
+		final CompiledCondition that = (CompiledCondition) o;
+
+		return condition.equals(that.condition);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return condition.hashCode();
+	}
+
+	@Override
+	public String toString()
+	{
+		return condition.toString();
+	}
+
+	private static Condition compileEvaluator(Condition condition)
+	{
+		if(condition == null)
+		{
+			return null;
+		}
+		Class<?> conditionClass = condition.getClass();
+		if(conditionClass == And.class)
+		{
+			return new GroupEvaluator(compileEvaluators(((And) condition).getConditions()), false);
+		}
+		if(conditionClass == Or.class)
+		{
+			return new GroupEvaluator(compileEvaluators(((Or) condition).getConditions()), true);
+		}
+		if(conditionClass == Not.class)
+		{
+			return new NotEvaluator(compileEvaluator(((Not) condition).getCondition()));
+		}
+		return condition;
+	}
+
+	private static Condition[] compileEvaluators(List<Condition> conditions)
+	{
+		if(conditions == null)
+		{
+			return new Condition[0];
+		}
+		Condition[] result = new Condition[conditions.size()];
+		for(int i = 0; i < result.length; i++)
+		{
+			result[i] = compileEvaluator(conditions.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Base class of the evaluators. They are never exposed so clone is not supported.
+	 */
+	private abstract static class Evaluator
+		implements Condition
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		@SuppressWarnings("PMD.CloneThrowsCloneNotSupportedException")
+		public Condition clone()
+			throws CloneNotSupportedException
+		{
+			throw new CloneNotSupportedException();
+		}
+	}
+
+	private static final class NotEvaluator
+		extends Evaluator
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Condition condition;
+
+		NotEvaluator(Condition condition)
+		{
+			this.condition = condition;
+		}
+
+		@Override
+		public boolean isTrue(Object element)
+		{
+			return condition != null && !condition.isTrue(element);
+		}
+	}
+
+	/**
+	 * Evaluates both And and Or. The evaluation stops as soon as a sub-condition returns the decisive value,
+	 * i.e. false for And and true for Or.
+	 */
+	private static final class GroupEvaluator
+		extends Evaluator
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int SAMPLE_MASK = SAMPLE_INTERVAL - 1;
+
+		private final boolean decisive;
+		private volatile Child[] children;
+		private int evaluations;
+		private int samples;
+
+		GroupEvaluator(Condition[] conditions, boolean decisive)
+		{
+			this.decisive = decisive;
+			Child[] result = new Child[conditions.length];
+			for(int i = 0; i < conditions.length; i++)
+			{
+				result[i] = new Child(conditions[i]);
+			}
+			this.children = result;
+		}
+
+		@Override
+		public boolean isTrue(Object element)
+		{
+			if((++evaluations & SAMPLE_MASK) == 0)
+			{
+				return sampledIsTrue(element);
+			}
+			for(Child current : children)
+			{
+				if(current.condition.isTrue(element) == decisive)
+				{
+					return decisive;
+				}
+			}
+			return !decisive;
+		}
+
+		private boolean sampledIsTrue(Object element)
+		{
+			boolean result = !decisive;
+			for(Child current : children)
+			{
+				long start = System.nanoTime();
+				boolean value = current.condition.isTrue(element);
+				current.nanos += System.nanoTime() - start;
+				current.samples++;
+				if(value == decisive)
+				{
+					current.decisions++;
+					result = decisive;
+					break;
+				}
+			}
+			if(++samples >= REORDER_SAMPLES)
+			{
+				reorder();
+			}
+			return result;
+		}
+
+		private synchronized void reorder()
+		{
+			if(samples < REORDER_SAMPLES)
+			{
+				// reordered by another thread in the meantime
+				return;
+			}
+			samples = 0;
+			Child[] reordered = children.clone();
+			for(Child current : reordered)
+			{
+				current.rank = current.calculateRank();
+				current.decay();
+			}
+			// stable, i.e. the original order is kept for equal ranks.
+			Arrays.sort(reordered, Comparator.comparingDouble(child -> child.rank));
+			children = reordered;
+		}
+	}
+
+	private static final class Child
+	{
+		final Condition condition;
+		long samples;
+		long decisions;
+		long nanos;
+		double rank;
+
+		Child(Condition condition)
+		{
+			this.condition = condition;
+		}
+
+		/**
+		 * The expected cost of the child divided by the probability that it decides the group.
+		 * Smoothed so that children without samples are evaluated early and sampled, too.
+		 */
+		double calculateRank()
+		{
+			double cost = (nanos + 1.0) / (samples + 1.0);
+			double probability = (decisions + 1.0) / (samples + 2.0);
+			return cost / probability;
+		}
+
+		/**
+		 * Halves all samples so the order adapts to changing elements.
+		 */
+		void decay()
+		{
+			samples >>= 1;
+			decisions >>= 1;
+			nanos >>= 1;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2026 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2026 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.conditions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simplifies condition trees and compiles them into evaluators that adapt the order of their sub-conditions.
+ */
+public final class ConditionOptimizer
+{
+	static
+	{
+		// for the sake of coverage
+		new ConditionOptimizer();
+	}
+
+	private ConditionOptimizer()
+	{}
+
+	/**
+	 * Returns a simplified condition that is equivalent to the given condition.
+	 *
+	 * <ul>
+	 * <li>Nested And and Or conditions are flattened into their parent if it is of the same type.</li>
+	 * <li>Double negations are removed and negated BooleanValues are resolved.</li>
+	 * <li>BooleanValues are removed from groups or resolve the whole group if they decide it.</li>
+	 * <li>Duplicate sub-conditions are removed and groups containing a single condition are replaced by it.</li>
+	 * </ul>
+	 *
+	 * Only And, Or and Not are simplified, subclasses and other conditions are kept as they are.
+	 * The given condition isn't changed but the result may share conditions with it.
+	 *
+	 * @param condition the condition to simplify, may be null.
+	 * @return the simplified condition.
+	 */
+	public static Condition optimize(Condition condition)
+	{
+		if(condition == null)
+		{
+			return null;
+		}
+		Class<?> conditionClass = condition.getClass();
+		if(conditionClass == Not.class)
+		{
+			return optimizeNot((Not) condition);
+		}
+		if(conditionClass == And.class)
+		{
+			return optimizeGroup(((And) condition).getConditions(), And.class, BooleanValues.FALSE);
+		}
+		if(conditionClass == Or.class)
+		{
+			return optimizeGroup(((Or) condition).getConditions(), Or.class, BooleanValues.TRUE);
+		}
+		return condition;
+	}
+
+	/**
+	 * Optimizes the given condition and compiles it into a CompiledCondition.
+	 *
+	 * @param condition the condition to compile, must not be null.
+	 * @return the compiled condition.
+	 * @see CompiledCondition
+	 */
+	public static CompiledCondition compile(Condition condition)
+	{
+		if(condition == null)
+		{
+			throw new NullPointerException("condition must not be null!");
+		}
+		return new CompiledCondition(optimize(condition));
+	}
+
+	private static Condition optimizeNot(Not not)
+	{
+		Condition inner = optimize(not.getCondition());
+		if(inner == null)
+		{
+			return BooleanValues.FALSE;
+		}
+		if(inner instanceof BooleanValues)
+		{
+			return BooleanValues.getInstance(!inner.isTrue(null));
+		}
+		if(inner.getClass() == Not.class)
+		{
+			// an optimized Not always contains a condition
+			return ((Not) inner).getCondition();
+		}
+		return new Not(inner);
+	}
+
+	/**
+	 * @param conditions the conditions of the group.
+	 * @param groupClass either And.class or Or.class.
+	 * @param decisive the value that decides the whole group, i.e. FALSE for And and TRUE for Or.
+	 */
+	private static Condition optimizeGroup(List<Condition> conditions, Class<? extends ConditionGroup> groupClass, BooleanValues decisive)
+	{
+		List<Condition> result = new ArrayList<>();
+		if(conditions != null)
+		{
+			for(Condition current : conditions)
+			{
+				Condition optimized = optimize(current);
+				if(optimized != null && optimized.getClass() == groupClass)
+				{
+					// already flattened
+					for(Condition child : ((ConditionGroup) optimized).getConditions())
+					{
+						addOptimized(result, child);
+					}
+				}
+				else
+				{
+					addOptimized(result, optimized);
+				}
+			}
+		}
+		if(result.contains(decisive))
+		{
+			return decisive;
+		}
+		result.remove(BooleanValues.getInstance(!decisive.isTrue(null)));
+		if(result.isEmpty())
+		{
+			// empty And is true, empty Or is false
+			return BooleanValues.getInstance(!decisive.isTrue(null));
+		}
+		if(result.size() == 1)
+		{
+			return result.get(0);
+		}
+		if(groupClass == And.class)
+		{
+			return new And(result);
+		}
+		return new Or(result);
+	}
+
+	private static void addOptimized(List<Condition> result, Condition condition)
+	{
+		if(!result.contains(condition))
+		{
+			result.add(condition);
+		}
+	}
+}
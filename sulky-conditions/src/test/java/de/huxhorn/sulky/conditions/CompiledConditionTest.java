@@ -0,0 +1,128 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2021 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2021 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.conditions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompiledConditionTest
+	extends ConditionTestBase
+{
+	@Test
+	void matchesOriginal()
+		throws CloneNotSupportedException, IOException, ClassNotFoundException
+	{
+		Condition condition = new And(new ArrayList<>(Arrays.asList(
+				new Divisible(2),
+				new Not(new Not(new Or(new ArrayList<>(Arrays.asList(new Divisible(3), new Divisible(5)))))),
+				new Not(new Divisible(7)))));
+		CompiledCondition compiled = ConditionOptimizer.compile(condition);
+		for(long i = 0; i < 100_000; i++)
+		{
+			assertEquals(condition.isTrue(i), compiled.isTrue(i));
+		}
+		internalTestCondition(compiled);
+	}
+
+	@Test
+	void reordersBySelectivity()
+	{
+		Divisible rarelyDeciding = new Divisible(1);
+		Divisible alwaysDeciding = new Divisible(Long.MAX_VALUE);
+		CompiledCondition compiled = ConditionOptimizer.compile(new And(new ArrayList<>(Arrays.asList(rarelyDeciding, alwaysDeciding))));
+		int evaluations = 200_000;
+		for(long i = 1; i <= evaluations; i++)
+		{
+			assertTrue(!compiled.isTrue(i));
+		}
+		assertEquals(evaluations, alwaysDeciding.getEvaluations());
+		assertTrue(rarelyDeciding.getEvaluations() < evaluations / 2, "rarelyDeciding has been evaluated " + rarelyDeciding.getEvaluations() + " times.");
+	}
+
+	private static class Divisible
+		implements Condition
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final long divisor;
+		private final transient AtomicLong evaluations = new AtomicLong();
+
+		Divisible(long divisor)
+		{
+			this.divisor = divisor;
+		}
+
+		long getEvaluations()
+		{
+			return evaluations.get();
+		}
+
+		@Override
+		public boolean isTrue(Object element)
+		{
+			evaluations.incrementAndGet();
+			return (Long) element % divisor == 0;
+		}
+
+		@Override
+		public Divisible clone()
+		{
+			return new Divisible(divisor);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(this == o) return true;
+			if(o == null || getClass() != o.getClass()) return false;
+
+			final Divisible that = (Divisible) o;
+
+			return divisor == that.divisor;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Long.hashCode(divisor);
+		}
+	}
+}
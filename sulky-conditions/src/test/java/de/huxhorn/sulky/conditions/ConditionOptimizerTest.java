@@ -0,0 +1,134 @@
+/*
+ * sulky-modules - several general-purpose modules.
+ * Copyright (C) 2007-2021 Joern Huxhorn
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright 2007-2021 Joern Huxhorn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.huxhorn.sulky.conditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ConditionOptimizerTest
+{
+	private static final Condition A = new Named("A");
+	private static final Condition B = new Named("B");
+	private static final Condition C = new Named("C");
+
+	@Test
+	void flattensNestedGroups()
+	{
+		Condition condition = and(A, and(B, and(C)), or(A, or(B)));
+		assertEquals(and(A, B, C, or(A, B)), ConditionOptimizer.optimize(condition));
+	}
+
+	@Test
+	void removesDoubleNegation()
+	{
+		assertSame(A, ConditionOptimizer.optimize(new Not(new Not(A))));
+		assertEquals(new Not(A), ConditionOptimizer.optimize(new Not(new Not(new Not(A)))));
+		assertSame(BooleanValues.FALSE, ConditionOptimizer.optimize(new Not()));
+		assertSame(BooleanValues.TRUE, ConditionOptimizer.optimize(new Not(new Not())));
+	}
+
+	@Test
+	void resolvesBooleanValues()
+	{
+		assertSame(BooleanValues.FALSE, ConditionOptimizer.optimize(and(A, BooleanValues.FALSE, B)));
+		assertSame(BooleanValues.TRUE, ConditionOptimizer.optimize(or(A, new Not(BooleanValues.FALSE))));
+		assertSame(A, ConditionOptimizer.optimize(and(BooleanValues.TRUE, A)));
+		assertSame(A, ConditionOptimizer.optimize(or(BooleanValues.FALSE, A, A)));
+		assertSame(BooleanValues.TRUE, ConditionOptimizer.optimize(new And()));
+		assertSame(BooleanValues.FALSE, ConditionOptimizer.optimize(new Or()));
+	}
+
+	@Test
+	void keepsOriginalUnchanged()
+	{
+		And inner = and(B, C);
+		And condition = and(A, inner);
+		ConditionOptimizer.optimize(condition);
+		assertEquals(and(A, and(B, C)), condition);
+		assertSame(inner, condition.getConditions().get(1));
+	}
+
+	@Test
+	void nullIsKept()
+	{
+		assertEquals(null, ConditionOptimizer.optimize(null));
+	}
+
+	private static And and(Condition... conditions)
+	{
+		return new And(new ArrayList<>(Arrays.asList(conditions)));
+	}
+
+	private static Or or(Condition... conditions)
+	{
+		return new Or(new ArrayList<>(Arrays.asList(conditions)));
+	}
+
+	private static class Named
+		implements Condition
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+
+		Named(String name)
+		{
+			this.name = name;
+		}
+
+		@Override
+		public boolean isTrue(Object element)
+		{
+			return name.equals(element);
+		}
+
+		@Override
+		public Named clone()
+		{
+			return this;
+		}
+
+		@Override
+		public String toString()
+		{
+			return name;
+		}
+	}
+}